@@ -1,14 +1,184 @@
 package com.example.proxy.config;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
-/* 
+import com.example.proxy.core.stages.CompressionStage;
+
+/*
  *  Overview: Loads and stores settings for protocols
  */
 
 public class ProxyConfig {
-    
+
     private String protocol;
-    
+
+    private boolean bodyFilterEnabled = false;
+    private String bodyFilterAction = "block-page";
+    private final Map<String, List<String>> bodyFilterCategories = new LinkedHashMap<>();
+
+    private boolean cacheEnabled = false;
+    private long cacheMaxBytes = 256L * 1024 * 1024;
+    private long cacheMaxObjectBytes = 8L * 1024 * 1024;
+    private long cacheCollapseTimeoutMillis = 5000;
+    private String cacheSnapshotPath;
+    private long cacheSnapshotIntervalSeconds = 300;
+    private String cacheDiskDirectory;
+    private long cacheDiskMaxBytes = 4L * 1024 * 1024 * 1024;
+    private int cacheDiskSegmentBytes = 64 * 1024 * 1024;
+    private int cacheVariantMinHits = 8;
+
+    private boolean compressionEnabled = false;
+    private List<String> compressionEncodings = new ArrayList<>(Arrays.asList("zstd", "br", "gzip", "deflate"));
+    private List<String> compressionContentTypes = new ArrayList<>(CompressionStage.DEFAULT_CONTENT_TYPES);
+    private int compressionMinBytes = 1024;
+    private int compressionLevel = 6;
+
+    private int backendMaxResponseBytes = 65536;
+    private long backendConnectStaggerMillis = 250;
+    private long backendConnectTimeoutMillis = 5000;
+    private long backendFirstByteTimeoutMillis = 30000;
+    private long backendIdleTimeoutMillis = 30000;
+    private long backendTotalTimeoutMillis = 120000;
+    private long clientRequestTimeoutMillis = 30000;
+    private long clientIdleTimeoutMillis = 60000;
+    private boolean backendLimitEnabled = false;
+    private int backendLimitInitial = 20;
+    private int backendLimitMin = 2;
+    private int backendLimitMax = 500;
+    private int backendLimitQueueSize = 64;
+    private long backendLimitQueueTimeoutMillis = 100;
+    private boolean circuitBreakerEnabled = false;
+    private int circuitBreakerWindowSeconds = 10;
+    private int circuitBreakerMinRequests = 10;
+    private double circuitBreakerFailureRatio = 0.5;
+    private long circuitBreakerOpenMillis = 5000;
+    private int circuitBreakerProbes = 3;
+
+    private boolean reverseProxyEnabled = false;
+    private final Map<String, List<String>> upstreamEndpoints = new LinkedHashMap<>();
+    private final Map<String, String> upstreamBalancers = new LinkedHashMap<>();
+    private final List<Route> routes = new ArrayList<>();
+    private String upstreamHealthCheckPath;
+    private long upstreamHealthCheckIntervalMillis = 5000;
+    private int upstreamHealthCheckTimeoutMillis = 1000;
+    private int upstreamHealthyThreshold = 2;
+    private int upstreamUnhealthyThreshold = 2;
+    private boolean upstreamOutlierDetectionEnabled = true;
+    private int upstreamOutlierConsecutiveFailures = 1;
+    private int upstreamOutlierConsecutiveErrors = 5;
+    private long upstreamEjectionBaseMillis = 30000;
+    private long upstreamEjectionMaxMillis = 300000;
+    private int upstreamMaxEjectedPercent = 50;
+    private boolean upstreamRetriesEnabled = true;
+    private double upstreamRetryBudgetRatio = 0.1;
+    private int upstreamRetryMinPerSecond = 10;
+    private boolean upstreamHedgingEnabled = false;
+    private double upstreamHedgePercentile = 95;
+
+    private boolean overloadProtectionEnabled = false;
+    private long overloadLagThresholdMillis = 50;
+    private int overloadPendingTasksThreshold = 2000;
+    private long overloadSampleMillis = 100;
+
+    private boolean metricsEnabled = false;
+    private String metricsToken;
+
+    private String dnsServer;
+    private int dnsMinTtlSeconds = 0;
+    private int dnsMaxTtlSeconds = 300;
+    private int dnsNegativeTtlSeconds = 5;
+    private int dnsPrefetchMinHits = 2;
+
+    private boolean proxyAuthEnabled = false;
+    private String proxyAuthRealm = "ahc-proxy";
+    private String proxyAuthUserFile;
+    private final Map<String, String> proxyAuthTokens = new LinkedHashMap<>();
+    private long proxyAuthCacheTtlSeconds = 300;
+
+    private String jwtJwksFile;
+    private String jwtAudience;
+    private String jwtIssuer;
+    private long jwtClockSkewSeconds = 30;
+    private int jwtCacheMaxTokens = 10000;
+    private boolean jwtCheckAuthorization = false;
+
+    private boolean rateLimitEnabled = false;
+    private String rateLimitKey = "ip";
+    private double rateLimitRequestsPerSecond = 100;
+    private int rateLimitBurst = 200;
+    private int rateLimitMaxKeys = 1 << 20;
+
+    /**
+     * Sends requests for {@code host} (any host when null or "*") whose path starts with
+     * {@code pathPrefix} to the upstream pool {@code upstream}; a host of "*.example.com"
+     * matches its subdomains. The most specific route wins: an exact host over a wildcard,
+     * a wildcard over any host, then the longest prefix.
+     */
+    public static final class Route {
+        private final String host;
+        private final String pathPrefix;
+        private final String upstream;
+        private final Set<String> bypassedStages = new LinkedHashSet<>();
+        private long firstByteTimeoutMillis = -1;
+        private long totalTimeoutMillis = -1;
+
+        public Route(String host, String pathPrefix, String upstream) {
+            this.host = host;
+            this.pathPrefix = pathPrefix;
+            this.upstream = upstream;
+        }
+
+        /**
+         * Skips an optional stage for requests on this route: "auth" (proxy
+         * authentication and bearer token checks), "rate-limit", "content-filter",
+         * "cache" or "compression".
+         */
+        public Route bypassing(String stage) {
+            this.bypassedStages.add(stage);
+            return this;
+        }
+
+        /**
+         * Backend deadlines for this route in place of the proxy-wide ones; 0 switches
+         * one off and a negative value keeps the proxy-wide one.
+         */
+        public Route withTimeouts(long firstByteMillis, long totalMillis) {
+            this.firstByteTimeoutMillis = firstByteMillis;
+            this.totalTimeoutMillis = totalMillis;
+            return this;
+        }
+
+        public Set<String> getBypassedStages() {
+            return bypassedStages;
+        }
+
+        public long getFirstByteTimeoutMillis() {
+            return firstByteTimeoutMillis;
+        }
+
+        public long getTotalTimeoutMillis() {
+            return totalTimeoutMillis;
+        }
+
+        public String getHost() {
+            return host;
+        }
+
+        public String getPathPrefix() {
+            return pathPrefix;
+        }
+
+        public String getUpstream() {
+            return upstream;
+        }
+    }
+
     public ProxyConfig(String protocol) {
         this.protocol = protocol;
     }
@@ -16,4 +186,975 @@ public class ProxyConfig {
     public String getProtocol() {
         return protocol;
     }
-}
\ No newline at end of file
+
+    public boolean isBodyFilterEnabled() {
+        return bodyFilterEnabled;
+    }
+
+    public ProxyConfig setBodyFilterEnabled(boolean enabled) {
+        this.bodyFilterEnabled = enabled;
+        return this;
+    }
+
+    /**
+     * Action taken when a response body matches a keyword: "block-page" replaces the
+     * response with the proxy block page, "terminate" cuts the backend stream off.
+     */
+    public String getBodyFilterAction() {
+        return bodyFilterAction;
+    }
+
+    public ProxyConfig setBodyFilterAction(String action) {
+        this.bodyFilterAction = action;
+        return this;
+    }
+
+    public Map<String, List<String>> getBodyFilterCategories() {
+        return bodyFilterCategories;
+    }
+
+    public ProxyConfig addBodyFilterCategory(String category, List<String> keywords) {
+        this.bodyFilterCategories.put(category, keywords);
+        return this;
+    }
+
+    public boolean isCacheEnabled() {
+        return cacheEnabled;
+    }
+
+    public ProxyConfig setCacheEnabled(boolean enabled) {
+        this.cacheEnabled = enabled;
+        return this;
+    }
+
+    /**
+     * Global byte budget of the in-memory response cache.
+     */
+    public long getCacheMaxBytes() {
+        return cacheMaxBytes;
+    }
+
+    public ProxyConfig setCacheMaxBytes(long maxBytes) {
+        this.cacheMaxBytes = maxBytes;
+        return this;
+    }
+
+    public long getCacheMaxObjectBytes() {
+        return cacheMaxObjectBytes;
+    }
+
+    public ProxyConfig setCacheMaxObjectBytes(long maxObjectBytes) {
+        this.cacheMaxObjectBytes = maxObjectBytes;
+        return this;
+    }
+
+    /**
+     * How long a request waits on an identical in-flight origin fetch before forwarding
+     * on its own; 0 disables collapsed forwarding.
+     */
+    public long getCacheCollapseTimeoutMillis() {
+        return cacheCollapseTimeoutMillis;
+    }
+
+    public ProxyConfig setCacheCollapseTimeoutMillis(long timeoutMillis) {
+        this.cacheCollapseTimeoutMillis = timeoutMillis;
+        return this;
+    }
+
+    /**
+     * File the in-memory cache is snapshotted to for warm restarts; null disables snapshots.
+     */
+    public String getCacheSnapshotPath() {
+        return cacheSnapshotPath;
+    }
+
+    public ProxyConfig setCacheSnapshotPath(String path) {
+        this.cacheSnapshotPath = path;
+        return this;
+    }
+
+    /**
+     * Period of background snapshots; 0 only snapshots on shutdown.
+     */
+    public long getCacheSnapshotIntervalSeconds() {
+        return cacheSnapshotIntervalSeconds;
+    }
+
+    public ProxyConfig setCacheSnapshotIntervalSeconds(long seconds) {
+        this.cacheSnapshotIntervalSeconds = seconds;
+        return this;
+    }
+
+    /**
+     * Directory of the on-disk cache tier; null keeps the cache memory-only.
+     */
+    public String getCacheDiskDirectory() {
+        return cacheDiskDirectory;
+    }
+
+    public ProxyConfig setCacheDiskDirectory(String directory) {
+        this.cacheDiskDirectory = directory;
+        return this;
+    }
+
+    public long getCacheDiskMaxBytes() {
+        return cacheDiskMaxBytes;
+    }
+
+    public ProxyConfig setCacheDiskMaxBytes(long maxBytes) {
+        this.cacheDiskMaxBytes = maxBytes;
+        return this;
+    }
+
+    /**
+     * Size of each memory-mapped segment file; also bounds the largest object stored on disk.
+     */
+    public int getCacheDiskSegmentBytes() {
+        return cacheDiskSegmentBytes;
+    }
+
+    public ProxyConfig setCacheDiskSegmentBytes(int segmentBytes) {
+        this.cacheDiskSegmentBytes = segmentBytes;
+        return this;
+    }
+
+    /**
+     * Hits by clients accepting compression after which a cached response gets
+     * pre-compressed variants; 0 disables variants. Needs compression enabled.
+     */
+    public int getCacheVariantMinHits() {
+        return cacheVariantMinHits;
+    }
+
+    public ProxyConfig setCacheVariantMinHits(int hits) {
+        this.cacheVariantMinHits = hits;
+        return this;
+    }
+
+    public boolean isCompressionEnabled() {
+        return compressionEnabled;
+    }
+
+    public ProxyConfig setCompressionEnabled(boolean enabled) {
+        this.compressionEnabled = enabled;
+        return this;
+    }
+
+    /**
+     * Content codings the proxy compresses responses with, most preferred first; codings
+     * whose codec is not on the classpath are skipped.
+     */
+    public List<String> getCompressionEncodings() {
+        return compressionEncodings;
+    }
+
+    public ProxyConfig setCompressionEncodings(List<String> encodings) {
+        this.compressionEncodings = new ArrayList<>(encodings);
+        return this;
+    }
+
+    /**
+     * Media type rules for compression, first match wins; "text/*" style wildcards, and a
+     * leading '!' excludes the type.
+     */
+    public List<String> getCompressionContentTypes() {
+        return compressionContentTypes;
+    }
+
+    public ProxyConfig setCompressionContentTypes(List<String> contentTypes) {
+        this.compressionContentTypes = new ArrayList<>(contentTypes);
+        return this;
+    }
+
+    /**
+     * Smallest response body the proxy compresses.
+     */
+    public int getCompressionMinBytes() {
+        return compressionMinBytes;
+    }
+
+    public ProxyConfig setCompressionMinBytes(int minBytes) {
+        this.compressionMinBytes = minBytes;
+        return this;
+    }
+
+    /**
+     * Deflater level (1-9) for gzip and deflate.
+     */
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    public ProxyConfig setCompressionLevel(int level) {
+        this.compressionLevel = level;
+        return this;
+    }
+
+    /**
+     * Largest backend response body the proxy buffers before giving up on it.
+     */
+    public int getBackendMaxResponseBytes() {
+        return backendMaxResponseBytes;
+    }
+
+    public ProxyConfig setBackendMaxResponseBytes(int maxBytes) {
+        this.backendMaxResponseBytes = maxBytes;
+        return this;
+    }
+
+    /**
+     * Delay before a connect to the next address of a backend starts while earlier
+     * attempts are still pending (RFC 8305 "Connection Attempt Delay").
+     */
+    public long getBackendConnectStaggerMillis() {
+        return backendConnectStaggerMillis;
+    }
+
+    public ProxyConfig setBackendConnectStaggerMillis(long staggerMillis) {
+        this.backendConnectStaggerMillis = staggerMillis;
+        return this;
+    }
+
+    /**
+     * How long resolving and connecting to a backend may take; 0 leaves it to the OS.
+     * Like the other timeouts, an expired backend deadline is answered with 504.
+     */
+    public long getBackendConnectTimeoutMillis() {
+        return backendConnectTimeoutMillis;
+    }
+
+    public ProxyConfig setBackendConnectTimeoutMillis(long millis) {
+        this.backendConnectTimeoutMillis = millis;
+        return this;
+    }
+
+    /**
+     * How long a backend may take to start its response once the request is sent; 0 for no limit.
+     */
+    public long getBackendFirstByteTimeoutMillis() {
+        return backendFirstByteTimeoutMillis;
+    }
+
+    public ProxyConfig setBackendFirstByteTimeoutMillis(long millis) {
+        this.backendFirstByteTimeoutMillis = millis;
+        return this;
+    }
+
+    /**
+     * How long a backend response may stall between two reads; 0 for no limit.
+     */
+    public long getBackendIdleTimeoutMillis() {
+        return backendIdleTimeoutMillis;
+    }
+
+    public ProxyConfig setBackendIdleTimeoutMillis(long millis) {
+        this.backendIdleTimeoutMillis = millis;
+        return this;
+    }
+
+    /**
+     * How long a whole backend exchange may take, connect included; 0 for no limit.
+     */
+    public long getBackendTotalTimeoutMillis() {
+        return backendTotalTimeoutMillis;
+    }
+
+    public ProxyConfig setBackendTotalTimeoutMillis(long millis) {
+        this.backendTotalTimeoutMillis = millis;
+        return this;
+    }
+
+    /**
+     * How long a client may take to send a request once it has started; answered with
+     * 408 when exceeded. 0 for no limit.
+     */
+    public long getClientRequestTimeoutMillis() {
+        return clientRequestTimeoutMillis;
+    }
+
+    public ProxyConfig setClientRequestTimeoutMillis(long millis) {
+        this.clientRequestTimeoutMillis = millis;
+        return this;
+    }
+
+    /**
+     * How long a client connection may sit without a request before it is closed; 0 for no limit.
+     */
+    public long getClientIdleTimeoutMillis() {
+        return clientIdleTimeoutMillis;
+    }
+
+    public ProxyConfig setClientIdleTimeoutMillis(long millis) {
+        this.clientIdleTimeoutMillis = millis;
+        return this;
+    }
+
+    /**
+     * Caps in-flight requests per backend with a limit adapted to its response times.
+     */
+    public boolean isBackendLimitEnabled() {
+        return backendLimitEnabled;
+    }
+
+    public ProxyConfig setBackendLimitEnabled(boolean enabled) {
+        this.backendLimitEnabled = enabled;
+        return this;
+    }
+
+    public int getBackendLimitInitial() {
+        return backendLimitInitial;
+    }
+
+    public ProxyConfig setBackendLimitInitial(int limit) {
+        this.backendLimitInitial = limit;
+        return this;
+    }
+
+    public int getBackendLimitMin() {
+        return backendLimitMin;
+    }
+
+    public ProxyConfig setBackendLimitMin(int limit) {
+        this.backendLimitMin = limit;
+        return this;
+    }
+
+    public int getBackendLimitMax() {
+        return backendLimitMax;
+    }
+
+    public ProxyConfig setBackendLimitMax(int limit) {
+        this.backendLimitMax = limit;
+        return this;
+    }
+
+    /**
+     * Requests that may wait for a slot once a backend is at its limit; further ones are
+     * refused with 503 at once.
+     */
+    public int getBackendLimitQueueSize() {
+        return backendLimitQueueSize;
+    }
+
+    public ProxyConfig setBackendLimitQueueSize(int size) {
+        this.backendLimitQueueSize = size;
+        return this;
+    }
+
+    /**
+     * How long a queued request waits for a slot before it is refused with 503.
+     */
+    public long getBackendLimitQueueTimeoutMillis() {
+        return backendLimitQueueTimeoutMillis;
+    }
+
+    public ProxyConfig setBackendLimitQueueTimeoutMillis(long millis) {
+        this.backendLimitQueueTimeoutMillis = millis;
+        return this;
+    }
+
+    /**
+     * Fails requests to a backend at once, with 503, while most recent requests to it
+     * have failed.
+     */
+    public boolean isCircuitBreakerEnabled() {
+        return circuitBreakerEnabled;
+    }
+
+    public ProxyConfig setCircuitBreakerEnabled(boolean enabled) {
+        this.circuitBreakerEnabled = enabled;
+        return this;
+    }
+
+    public int getCircuitBreakerWindowSeconds() {
+        return circuitBreakerWindowSeconds;
+    }
+
+    public ProxyConfig setCircuitBreakerWindowSeconds(int seconds) {
+        this.circuitBreakerWindowSeconds = seconds;
+        return this;
+    }
+
+    /**
+     * Requests within the window before its failure ratio counts.
+     */
+    public int getCircuitBreakerMinRequests() {
+        return circuitBreakerMinRequests;
+    }
+
+    public ProxyConfig setCircuitBreakerMinRequests(int requests) {
+        this.circuitBreakerMinRequests = requests;
+        return this;
+    }
+
+    public double getCircuitBreakerFailureRatio() {
+        return circuitBreakerFailureRatio;
+    }
+
+    public ProxyConfig setCircuitBreakerFailureRatio(double ratio) {
+        this.circuitBreakerFailureRatio = ratio;
+        return this;
+    }
+
+    /**
+     * How long an open circuit refuses everything before letting probe requests through.
+     */
+    public long getCircuitBreakerOpenMillis() {
+        return circuitBreakerOpenMillis;
+    }
+
+    public ProxyConfig setCircuitBreakerOpenMillis(long millis) {
+        this.circuitBreakerOpenMillis = millis;
+        return this;
+    }
+
+    public int getCircuitBreakerProbes() {
+        return circuitBreakerProbes;
+    }
+
+    public ProxyConfig setCircuitBreakerProbes(int probes) {
+        this.circuitBreakerProbes = probes;
+        return this;
+    }
+
+    /**
+     * Sheds new requests with 503, lowest priority first, while the worker event loops
+     * fall behind, and stops accepting connections while they are far behind.
+     */
+    public boolean isOverloadProtectionEnabled() {
+        return overloadProtectionEnabled;
+    }
+
+    public ProxyConfig setOverloadProtectionEnabled(boolean enabled) {
+        this.overloadProtectionEnabled = enabled;
+        return this;
+    }
+
+    /**
+     * Event loop lag at which shedding starts.
+     */
+    public long getOverloadLagThresholdMillis() {
+        return overloadLagThresholdMillis;
+    }
+
+    public ProxyConfig setOverloadLagThresholdMillis(long millis) {
+        this.overloadLagThresholdMillis = millis;
+        return this;
+    }
+
+    /**
+     * Tasks queued on one event loop at which shedding starts.
+     */
+    public int getOverloadPendingTasksThreshold() {
+        return overloadPendingTasksThreshold;
+    }
+
+    public ProxyConfig setOverloadPendingTasksThreshold(int tasks) {
+        this.overloadPendingTasksThreshold = tasks;
+        return this;
+    }
+
+    public long getOverloadSampleMillis() {
+        return overloadSampleMillis;
+    }
+
+    public ProxyConfig setOverloadSampleMillis(long millis) {
+        this.overloadSampleMillis = millis;
+        return this;
+    }
+
+    /**
+     * Serves the proxy's counters at /__proxy/metrics. When off the path is proxied like
+     * any other.
+     */
+    public boolean isMetricsEnabled() {
+        return metricsEnabled;
+    }
+
+    public ProxyConfig setMetricsEnabled(boolean enabled) {
+        this.metricsEnabled = enabled;
+        return this;
+    }
+
+    /**
+     * Token scrapers must send as "Authorization: Bearer &lt;token&gt;" to read the metrics;
+     * null limits them to clients on the loopback interface.
+     */
+    public String getMetricsToken() {
+        return metricsToken;
+    }
+
+    public ProxyConfig setMetricsToken(String token) {
+        this.metricsToken = token;
+        return this;
+    }
+
+    /**
+     * Serves requests from the configured routes and upstream pools instead of the host
+     * in the request, as a reverse proxy in front of known services.
+     */
+    public boolean isReverseProxyEnabled() {
+        return reverseProxyEnabled;
+    }
+
+    public ProxyConfig setReverseProxyEnabled(boolean enabled) {
+        this.reverseProxyEnabled = enabled;
+        return this;
+    }
+
+    public Map<String, List<String>> getUpstreamEndpoints() {
+        return upstreamEndpoints;
+    }
+
+    public Map<String, String> getUpstreamBalancers() {
+        return upstreamBalancers;
+    }
+
+    /**
+     * @param balancer  "round-robin", "least-outstanding", "p2c-ewma", or "maglev" for
+     *                  consistent hashing by URL, "maglev:ip" by client address or
+     *                  "maglev:header:&lt;name&gt;" by a request header
+     * @param endpoints "host:port" of each server in the pool
+     */
+    public ProxyConfig addUpstream(String name, String balancer, List<String> endpoints) {
+        this.upstreamEndpoints.put(name, endpoints);
+        this.upstreamBalancers.put(name, balancer);
+        return this;
+    }
+
+    public List<Route> getRoutes() {
+        return routes;
+    }
+
+    public ProxyConfig addRoute(String host, String pathPrefix, String upstream) {
+        this.routes.add(new Route(host, pathPrefix, upstream));
+        return this;
+    }
+
+    public ProxyConfig addRoute(Route route) {
+        this.routes.add(route);
+        return this;
+    }
+
+    /**
+     * Path every upstream endpoint is sent a GET for, expecting a 2xx; null disables
+     * active health checks.
+     */
+    public String getUpstreamHealthCheckPath() {
+        return upstreamHealthCheckPath;
+    }
+
+    public ProxyConfig setUpstreamHealthCheckPath(String path) {
+        this.upstreamHealthCheckPath = path;
+        return this;
+    }
+
+    public long getUpstreamHealthCheckIntervalMillis() {
+        return upstreamHealthCheckIntervalMillis;
+    }
+
+    public ProxyConfig setUpstreamHealthCheckIntervalMillis(long millis) {
+        this.upstreamHealthCheckIntervalMillis = millis;
+        return this;
+    }
+
+    public int getUpstreamHealthCheckTimeoutMillis() {
+        return upstreamHealthCheckTimeoutMillis;
+    }
+
+    public ProxyConfig setUpstreamHealthCheckTimeoutMillis(int millis) {
+        this.upstreamHealthCheckTimeoutMillis = millis;
+        return this;
+    }
+
+    /**
+     * Passed checks in a row before a failing endpoint gets traffic again.
+     */
+    public int getUpstreamHealthyThreshold() {
+        return upstreamHealthyThreshold;
+    }
+
+    public ProxyConfig setUpstreamHealthyThreshold(int checks) {
+        this.upstreamHealthyThreshold = checks;
+        return this;
+    }
+
+    /**
+     * Failed checks in a row before an endpoint is taken out.
+     */
+    public int getUpstreamUnhealthyThreshold() {
+        return upstreamUnhealthyThreshold;
+    }
+
+    public ProxyConfig setUpstreamUnhealthyThreshold(int checks) {
+        this.upstreamUnhealthyThreshold = checks;
+        return this;
+    }
+
+    /**
+     * Ejects endpoints that fail live requests, for a time that doubles with each
+     * repeated ejection.
+     */
+    public boolean isUpstreamOutlierDetectionEnabled() {
+        return upstreamOutlierDetectionEnabled;
+    }
+
+    public ProxyConfig setUpstreamOutlierDetectionEnabled(boolean enabled) {
+        this.upstreamOutlierDetectionEnabled = enabled;
+        return this;
+    }
+
+    /**
+     * Requests in a row failing without a response (connect error, reset) that eject an
+     * endpoint.
+     */
+    public int getUpstreamOutlierConsecutiveFailures() {
+        return upstreamOutlierConsecutiveFailures;
+    }
+
+    public ProxyConfig setUpstreamOutlierConsecutiveFailures(int failures) {
+        this.upstreamOutlierConsecutiveFailures = failures;
+        return this;
+    }
+
+    /**
+     * Requests in a row answered with 5xx or failing that eject an endpoint.
+     */
+    public int getUpstreamOutlierConsecutiveErrors() {
+        return upstreamOutlierConsecutiveErrors;
+    }
+
+    public ProxyConfig setUpstreamOutlierConsecutiveErrors(int errors) {
+        this.upstreamOutlierConsecutiveErrors = errors;
+        return this;
+    }
+
+    public long getUpstreamEjectionBaseMillis() {
+        return upstreamEjectionBaseMillis;
+    }
+
+    public ProxyConfig setUpstreamEjectionBaseMillis(long millis) {
+        this.upstreamEjectionBaseMillis = millis;
+        return this;
+    }
+
+    public long getUpstreamEjectionMaxMillis() {
+        return upstreamEjectionMaxMillis;
+    }
+
+    public ProxyConfig setUpstreamEjectionMaxMillis(long millis) {
+        this.upstreamEjectionMaxMillis = millis;
+        return this;
+    }
+
+    public int getUpstreamMaxEjectedPercent() {
+        return upstreamMaxEjectedPercent;
+    }
+
+    public ProxyConfig setUpstreamMaxEjectedPercent(int percent) {
+        this.upstreamMaxEjectedPercent = percent;
+        return this;
+    }
+
+    /**
+     * Whether GET and HEAD requests failing without a response are retried once on
+     * another endpoint of their pool, within the retry budget.
+     */
+    public boolean isUpstreamRetriesEnabled() {
+        return upstreamRetriesEnabled;
+    }
+
+    public ProxyConfig setUpstreamRetriesEnabled(boolean enabled) {
+        this.upstreamRetriesEnabled = enabled;
+        return this;
+    }
+
+    /**
+     * Extra attempts (retries and hedges) allowed per request sent to a pool, on top of
+     * {@link #getUpstreamRetryMinPerSecond}.
+     */
+    public double getUpstreamRetryBudgetRatio() {
+        return upstreamRetryBudgetRatio;
+    }
+
+    public ProxyConfig setUpstreamRetryBudgetRatio(double ratio) {
+        this.upstreamRetryBudgetRatio = ratio;
+        return this;
+    }
+
+    public int getUpstreamRetryMinPerSecond() {
+        return upstreamRetryMinPerSecond;
+    }
+
+    public ProxyConfig setUpstreamRetryMinPerSecond(int perSecond) {
+        this.upstreamRetryMinPerSecond = perSecond;
+        return this;
+    }
+
+    /**
+     * Whether GET and HEAD requests slower than {@link #getUpstreamHedgePercentile} of
+     * their pool's response times get a second attempt on another endpoint. Needs
+     * retries enabled, as hedges share their budget.
+     */
+    public boolean isUpstreamHedgingEnabled() {
+        return upstreamHedgingEnabled;
+    }
+
+    public ProxyConfig setUpstreamHedgingEnabled(boolean enabled) {
+        this.upstreamHedgingEnabled = enabled;
+        return this;
+    }
+
+    public double getUpstreamHedgePercentile() {
+        return upstreamHedgePercentile;
+    }
+
+    public ProxyConfig setUpstreamHedgePercentile(double percentile) {
+        this.upstreamHedgePercentile = percentile;
+        return this;
+    }
+
+    /**
+     * "host:port" of the DNS server backend names are resolved with; null uses the
+     * name servers of the host (resolv.conf). The host must be an IP literal.
+     */
+    public String getDnsServer() {
+        return dnsServer;
+    }
+
+    public ProxyConfig setDnsServer(String server) {
+        this.dnsServer = server;
+        return this;
+    }
+
+    /**
+     * Bounds applied to record TTLs when caching resolved addresses.
+     */
+    public int getDnsMinTtlSeconds() {
+        return dnsMinTtlSeconds;
+    }
+
+    public ProxyConfig setDnsMinTtlSeconds(int seconds) {
+        this.dnsMinTtlSeconds = seconds;
+        return this;
+    }
+
+    public int getDnsMaxTtlSeconds() {
+        return dnsMaxTtlSeconds;
+    }
+
+    public ProxyConfig setDnsMaxTtlSeconds(int seconds) {
+        this.dnsMaxTtlSeconds = seconds;
+        return this;
+    }
+
+    /**
+     * How long a failed lookup is remembered; 0 disables negative caching.
+     */
+    public int getDnsNegativeTtlSeconds() {
+        return dnsNegativeTtlSeconds;
+    }
+
+    public ProxyConfig setDnsNegativeTtlSeconds(int seconds) {
+        this.dnsNegativeTtlSeconds = seconds;
+        return this;
+    }
+
+    /**
+     * Cache hits within one TTL that make a name worth re-resolving before it expires;
+     * 0 disables prefetching.
+     */
+    public int getDnsPrefetchMinHits() {
+        return dnsPrefetchMinHits;
+    }
+
+    public ProxyConfig setDnsPrefetchMinHits(int hits) {
+        this.dnsPrefetchMinHits = hits;
+        return this;
+    }
+
+    /**
+     * Requires a valid Proxy-Authorization header on every request when enabled.
+     */
+    public boolean isProxyAuthEnabled() {
+        return proxyAuthEnabled;
+    }
+
+    public ProxyConfig setProxyAuthEnabled(boolean enabled) {
+        this.proxyAuthEnabled = enabled;
+        return this;
+    }
+
+    public String getProxyAuthRealm() {
+        return proxyAuthRealm;
+    }
+
+    public ProxyConfig setProxyAuthRealm(String realm) {
+        this.proxyAuthRealm = realm;
+        return this;
+    }
+
+    /**
+     * File of "user:pbkdf2-sha256$iterations$salt$hash" lines checked for Basic credentials.
+     */
+    public String getProxyAuthUserFile() {
+        return proxyAuthUserFile;
+    }
+
+    public ProxyConfig setProxyAuthUserFile(String path) {
+        this.proxyAuthUserFile = path;
+        return this;
+    }
+
+    /**
+     * Static bearer tokens, each mapped to the principal name it authenticates as.
+     */
+    public Map<String, String> getProxyAuthTokens() {
+        return proxyAuthTokens;
+    }
+
+    public ProxyConfig addProxyAuthToken(String token, String principal) {
+        this.proxyAuthTokens.put(token, principal);
+        return this;
+    }
+
+    /**
+     * How long verified credentials and connection sessions are trusted before the
+     * credentials are checked again.
+     */
+    public long getProxyAuthCacheTtlSeconds() {
+        return proxyAuthCacheTtlSeconds;
+    }
+
+    public ProxyConfig setProxyAuthCacheTtlSeconds(long seconds) {
+        this.proxyAuthCacheTtlSeconds = seconds;
+        return this;
+    }
+
+    /**
+     * JWKS file with the keys bearer JWTs are verified against; null disables local JWT
+     * validation. The file is reloaded when it changes.
+     */
+    public String getJwtJwksFile() {
+        return jwtJwksFile;
+    }
+
+    public ProxyConfig setJwtJwksFile(String path) {
+        this.jwtJwksFile = path;
+        return this;
+    }
+
+    /**
+     * Audience a token's "aud" must contain; null accepts any.
+     */
+    public String getJwtAudience() {
+        return jwtAudience;
+    }
+
+    public ProxyConfig setJwtAudience(String audience) {
+        this.jwtAudience = audience;
+        return this;
+    }
+
+    /**
+     * Required "iss" of a token; null accepts any.
+     */
+    public String getJwtIssuer() {
+        return jwtIssuer;
+    }
+
+    public ProxyConfig setJwtIssuer(String issuer) {
+        this.jwtIssuer = issuer;
+        return this;
+    }
+
+    public long getJwtClockSkewSeconds() {
+        return jwtClockSkewSeconds;
+    }
+
+    public ProxyConfig setJwtClockSkewSeconds(long seconds) {
+        this.jwtClockSkewSeconds = seconds;
+        return this;
+    }
+
+    /**
+     * Bound on validated tokens remembered until their expiry.
+     */
+    public int getJwtCacheMaxTokens() {
+        return jwtCacheMaxTokens;
+    }
+
+    public ProxyConfig setJwtCacheMaxTokens(int tokens) {
+        this.jwtCacheMaxTokens = tokens;
+        return this;
+    }
+
+    /**
+     * Also validates "Authorization: Bearer" tokens bound for the backend, answering 401
+     * for invalid ones. Proxy-Authorization bearer tokens are validated whenever a JWKS
+     * file is configured.
+     */
+    public boolean isJwtCheckAuthorization() {
+        return jwtCheckAuthorization;
+    }
+
+    public ProxyConfig setJwtCheckAuthorization(boolean check) {
+        this.jwtCheckAuthorization = check;
+        return this;
+    }
+
+    public boolean isRateLimitEnabled() {
+        return rateLimitEnabled;
+    }
+
+    public ProxyConfig setRateLimitEnabled(boolean enabled) {
+        this.rateLimitEnabled = enabled;
+        return this;
+    }
+
+    /**
+     * What requests are counted against: "ip" (client address), "user" (proxy or JWT
+     * user, else client address) or "route" (Host).
+     */
+    public String getRateLimitKey() {
+        return rateLimitKey;
+    }
+
+    public ProxyConfig setRateLimitKey(String key) {
+        this.rateLimitKey = key;
+        return this;
+    }
+
+    public double getRateLimitRequestsPerSecond() {
+        return rateLimitRequestsPerSecond;
+    }
+
+    public ProxyConfig setRateLimitRequestsPerSecond(double rate) {
+        this.rateLimitRequestsPerSecond = rate;
+        return this;
+    }
+
+    /**
+     * Requests a key may make back to back after being idle.
+     */
+    public int getRateLimitBurst() {
+        return rateLimitBurst;
+    }
+
+    public ProxyConfig setRateLimitBurst(int burst) {
+        this.rateLimitBurst = burst;
+        return this;
+    }
+
+    /**
+     * Keys tracked at once; the table is preallocated at 32 bytes per key.
+     */
+    public int getRateLimitMaxKeys() {
+        return rateLimitMaxKeys;
+    }
+
+    public ProxyConfig setRateLimitMaxKeys(int keys) {
+        this.rateLimitMaxKeys = keys;
+        return this;
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.proxy.core.auth;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+
+/*
+ *  Overview: Identity established by proxy authentication, attached to the ForwardRequest
+ *            so later stages (routing, rate limiting) can key on it.
+ */
+
+public final class AuthenticatedUser {
+
+    private final String name;
+    private final String scheme;
+    private final Map<String, Object> claims;
+
+    public AuthenticatedUser(String name, String scheme) {
+        this(name, scheme, Collections.emptyMap());
+    }
+
+    public AuthenticatedUser(String name, String scheme, Map<String, Object> claims) {
+        this.name = name;
+        this.scheme = scheme;
+        this.claims = Collections.unmodifiableMap(claims);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * "basic" or "bearer".
+     */
+    public String getScheme() {
+        return scheme;
+    }
+
+    /**
+     * Token claims for bearer users, empty otherwise.
+     */
+    public Map<String, Object> getClaims() {
+        return claims;
+    }
+
+    /**
+     * @return the claim as a string (arrays joined with commas), or null if absent
+     */
+    public String getClaim(String name) {
+        Object value = claims.get(name);
+        if (value instanceof List) {
+            StringJoiner joined = new StringJoiner(",");
+            ((List<?>) value).forEach(item -> joined.add(String.valueOf(item)));
+            return joined.toString();
+        }
+        return value != null ? value.toString() : null;
+    }
+
+    @Override
+    public String toString() {
+        return scheme + ":" + name;
+    }
+}
@@ -0,0 +1,365 @@
+package com.example.proxy.core.auth;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.AlgorithmParameters;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.ECParameterSpec;
+import java.security.spec.ECPoint;
+import java.security.spec.ECPublicKeySpec;
+import java.security.spec.RSAPublicKeySpec;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.example.proxy.core.metrics.ProxyMetrics;
+
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.FastThreadLocal;
+
+/**
+ * Validates JWT bearer tokens locally against the keys of a JWKS file.
+ *
+ * A token is accepted when its RS256/384/512 or ES256/384/512 signature verifies with a
+ * key of the matching type (selected by "kid" when the token names one), it has not
+ * expired, "nbf" has passed, and "aud" and "iss" match when configured. The user is the
+ * "sub" claim and carries every claim, so routing and rate limiting can key on them.
+ *
+ * Accepted tokens are cached by their SHA-256 until they expire, so each token's
+ * signature is verified once. Signature instances are kept per thread and per
+ * algorithm. A background thread checks the file for changes once a second, so request
+ * threads never touch the file system; a changed file that parses replaces the keys,
+ * empties the cache and moves {@link #keyGeneration()} on, one that does not is ignored.
+ */
+public class JwtValidator implements ProxyAuthenticator.BearerValidator, AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(JwtValidator.class);
+
+    private static final long RELOAD_CHECK_MILLIS = 1000;
+
+    private static final Map<String, String> ALGORITHMS = Map.of(
+        "RS256", "SHA256withRSA",
+        "RS384", "SHA384withRSA",
+        "RS512", "SHA512withRSA",
+        "ES256", "SHA256withECDSAinP1363Format",
+        "ES384", "SHA384withECDSAinP1363Format",
+        "ES512", "SHA512withECDSAinP1363Format");
+
+    private static final Map<String, String> CURVES = Map.of(
+        "P-256", "secp256r1",
+        "P-384", "secp384r1",
+        "P-521", "secp521r1");
+
+    private static final FastThreadLocal<Map<String, Signature>> SIGNATURES = new FastThreadLocal<Map<String, Signature>>() {
+        @Override
+        protected Map<String, Signature> initialValue() {
+            return new HashMap<>();
+        }
+    };
+
+    private static final class Keys {
+        final Map<String, PublicKey> byId;
+        final List<PublicKey> all;
+        final FileTime modified;
+
+        Keys(Map<String, PublicKey> byId, List<PublicKey> all, FileTime modified) {
+            this.byId = byId;
+            this.all = all;
+            this.modified = modified;
+        }
+    }
+
+    private static final class Accepted {
+        final AuthenticatedUser user;
+        final long expiresAt;
+
+        Accepted(AuthenticatedUser user, long expiresAt) {
+            this.user = user;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final Path jwksFile;
+    private final String audience;
+    private final String issuer;
+    private final long clockSkewMillis;
+    private final int maxCached;
+    private final ConcurrentHashMap<String, Accepted> accepted = new ConcurrentHashMap<>();
+    private volatile Keys keys;
+    // written by the reloader thread only
+    private volatile long generation;
+    private final ScheduledExecutorService reloader;
+
+    private final LongAdder validations = ProxyMetrics.counter("jwt.validations");
+    private final LongAdder cacheHits = ProxyMetrics.counter("jwt.cache_hits");
+    private final LongAdder rejected = ProxyMetrics.counter("jwt.rejected");
+    private final LongAdder reloads = ProxyMetrics.counter("jwt.key_reloads");
+
+    /**
+     * @param audience required "aud" value, or null to accept any
+     * @param issuer   required "iss" value, or null to accept any
+     */
+    public JwtValidator(Path jwksFile, String audience, String issuer, long clockSkewSeconds, int maxCached)
+            throws IOException {
+        this.jwksFile = jwksFile;
+        this.audience = audience;
+        this.issuer = issuer;
+        this.clockSkewMillis = clockSkewSeconds * 1000;
+        this.maxCached = maxCached;
+        this.keys = loadKeys(jwksFile);
+        this.reloader = Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("jwt-keys", true));
+        reloader.scheduleWithFixedDelay(this::reloadIfChanged, RELOAD_CHECK_MILLIS, RELOAD_CHECK_MILLIS,
+                                        TimeUnit.MILLISECONDS);
+        ProxyMetrics.gauge("jwt.cached_tokens", accepted::size);
+        logger.info("Loaded {} JWT verification keys from {}", keys.all.size(), jwksFile);
+    }
+
+    /**
+     * @return the token's user, or null if it is malformed, unsigned by a known key,
+     *         expired, or for another audience or issuer
+     */
+    @Override
+    public AuthenticatedUser validate(String token) {
+        long now = System.currentTimeMillis();
+        String key = ProxyAuthenticator.sha256(token);
+        Accepted hit = accepted.get(key);
+        if (hit != null) {
+            if (hit.expiresAt > now) {
+                cacheHits.increment();
+                return hit.user;
+            }
+            accepted.remove(key, hit);
+        }
+
+        validations.increment();
+        AuthenticatedUser user;
+        try {
+            user = verify(token, now);
+        } catch (IllegalArgumentException | GeneralSecurityException e) {
+            logger.debug("Rejected JWT: {}", e.getMessage());
+            user = null;
+        }
+        if (user == null) {
+            rejected.increment();
+            return null;
+        }
+        remember(key, new Accepted(user, validUntil(user)));
+        return user;
+    }
+
+    /**
+     * The token's expiry (plus clock skew), which bounds how long its user may be trusted.
+     */
+    @Override
+    public long validUntil(AuthenticatedUser user) {
+        Object exp = user.getClaims().get("exp");
+        return exp instanceof Number ? ((Number) exp).longValue() * 1000 + clockSkewMillis : Long.MAX_VALUE;
+    }
+
+    private AuthenticatedUser verify(String token, long now) throws GeneralSecurityException {
+        int first = token.indexOf('.');
+        int second = token.indexOf('.', first + 1);
+        if (first < 0 || second < 0 || token.indexOf('.', second + 1) >= 0) {
+            return null;
+        }
+        Base64.Decoder base64 = Base64.getUrlDecoder();
+        Map<String, Object> header = Json.parseObject(
+            new String(base64.decode(token.substring(0, first)), StandardCharsets.UTF_8));
+        Object alg = header.get("alg");
+        String jcaAlgorithm = alg instanceof String ? ALGORITHMS.get(alg) : null;
+        if (jcaAlgorithm == null) {
+            // also refuses "none" and HMAC, which a public key must never verify
+            return null;
+        }
+        byte[] signed = token.substring(0, second).getBytes(StandardCharsets.US_ASCII);
+        byte[] signature = base64.decode(token.substring(second + 1));
+        if (!verifySignature(jcaAlgorithm, header.get("kid"), signed, signature)) {
+            return null;
+        }
+
+        Map<String, Object> claims = Json.parseObject(
+            new String(base64.decode(token.substring(first + 1, second)), StandardCharsets.UTF_8));
+        Object exp = claims.get("exp");
+        if (!(exp instanceof Number) || ((Number) exp).longValue() * 1000 + clockSkewMillis <= now) {
+            return null;
+        }
+        Object nbf = claims.get("nbf");
+        if (nbf instanceof Number && ((Number) nbf).longValue() * 1000 - clockSkewMillis > now) {
+            return null;
+        }
+        if (issuer != null && !issuer.equals(claims.get("iss"))) {
+            return null;
+        }
+        if (audience != null && !hasAudience(claims.get("aud"))) {
+            return null;
+        }
+        Object subject = claims.get("sub");
+        if (subject == null) {
+            subject = claims.get("client_id");
+        }
+        return subject != null ? new AuthenticatedUser(subject.toString(), "bearer", claims) : null;
+    }
+
+    private boolean hasAudience(Object aud) {
+        if (aud instanceof List) {
+            return ((List<?>) aud).contains(audience);
+        }
+        return audience.equals(aud);
+    }
+
+    private boolean verifySignature(String jcaAlgorithm, Object kid, byte[] signed, byte[] signature)
+            throws GeneralSecurityException {
+        Keys current = keys;
+        List<PublicKey> candidates;
+        if (kid != null) {
+            PublicKey key = current.byId.get(kid.toString());
+            candidates = key != null ? Collections.singletonList(key) : Collections.emptyList();
+        } else {
+            candidates = current.all;
+        }
+        boolean ec = jcaAlgorithm.endsWith("P1363Format");
+        for (PublicKey key : candidates) {
+            if (ec ? !(key instanceof ECPublicKey) : !(key instanceof RSAPublicKey)) {
+                continue;
+            }
+            Signature verifier = SIGNATURES.get().get(jcaAlgorithm);
+            if (verifier == null) {
+                verifier = Signature.getInstance(jcaAlgorithm);
+                SIGNATURES.get().put(jcaAlgorithm, verifier);
+            }
+            verifier.initVerify(key);
+            verifier.update(signed);
+            if (verifier.verify(signature)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void remember(String key, Accepted entry) {
+        if (accepted.size() >= maxCached) {
+            long now = System.currentTimeMillis();
+            accepted.values().removeIf(a -> a.expiresAt <= now);
+            Iterator<String> keys = accepted.keySet().iterator();
+            if (accepted.size() >= maxCached && keys.hasNext()) {
+                keys.next();
+                keys.remove();
+            }
+        }
+        accepted.put(key, entry);
+    }
+
+    /**
+     * A volatile read; the generation moves on when the reloader swaps the keys.
+     */
+    @Override
+    public long keyGeneration() {
+        return generation;
+    }
+
+    /**
+     * Runs on the reloader thread.
+     */
+    private void reloadIfChanged() {
+        try {
+            if (Files.getLastModifiedTime(jwksFile).equals(keys.modified)) {
+                return;
+            }
+            keys = loadKeys(jwksFile);
+            // tokens signed by a key that was removed must not stay accepted
+            accepted.clear();
+            generation++;
+            reloads.increment();
+            logger.info("Reloaded {} JWT verification keys from {}", keys.all.size(), jwksFile);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Keeping current JWT keys, cannot reload {}: {}", jwksFile, e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() {
+        reloader.shutdownNow();
+    }
+
+    private static Keys loadKeys(Path file) throws IOException {
+        FileTime modified = Files.getLastModifiedTime(file);
+        Object keyList = Json.parseObject(new String(Files.readAllBytes(file), StandardCharsets.UTF_8)).get("keys");
+        if (!(keyList instanceof List)) {
+            throw new IOException("No \"keys\" array in " + file);
+        }
+        Map<String, PublicKey> byId = new HashMap<>();
+        List<PublicKey> all = new ArrayList<>();
+        for (Object entry : (List<?>) keyList) {
+            if (!(entry instanceof Map)) {
+                continue;
+            }
+            @SuppressWarnings("unchecked")
+            Map<String, Object> jwk = (Map<String, Object>) entry;
+            if (jwk.containsKey("use") && !"sig".equals(jwk.get("use"))) {
+                continue;
+            }
+            try {
+                PublicKey key = publicKey(jwk);
+                if (key == null) {
+                    continue;
+                }
+                all.add(key);
+                if (jwk.get("kid") != null) {
+                    byId.put(jwk.get("kid").toString(), key);
+                }
+            } catch (GeneralSecurityException | RuntimeException e) {
+                logger.warn("Skipping unusable key {} in {}: {}", jwk.get("kid"), file, e.getMessage());
+            }
+        }
+        return new Keys(byId, all, modified);
+    }
+
+    private static PublicKey publicKey(Map<String, Object> jwk) throws GeneralSecurityException {
+        Object kty = jwk.get("kty");
+        if ("RSA".equals(kty)) {
+            return KeyFactory.getInstance("RSA")
+                .generatePublic(new RSAPublicKeySpec(unsigned(jwk.get("n")), unsigned(jwk.get("e"))));
+        }
+        if ("EC".equals(kty)) {
+            String curve = CURVES.get(jwk.get("crv"));
+            if (curve == null) {
+                return null;
+            }
+            AlgorithmParameters parameters = AlgorithmParameters.getInstance("EC");
+            parameters.init(new ECGenParameterSpec(curve));
+            ECPoint point = new ECPoint(unsigned(jwk.get("x")), unsigned(jwk.get("y")));
+            return KeyFactory.getInstance("EC")
+                .generatePublic(new ECPublicKeySpec(point, parameters.getParameterSpec(ECParameterSpec.class)));
+        }
+        return null;
+    }
+
+    private static BigInteger unsigned(Object base64url) {
+        if (!(base64url instanceof String)) {
+            throw new IllegalArgumentException("missing key parameter");
+        }
+        return new BigInteger(1, Base64.getUrlDecoder().decode((String) base64url));
+    }
+}
@@ -0,0 +1,382 @@
+package com.example.proxy.core.auth;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.example.proxy.core.metrics.ProxyMetrics;
+
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.FastThreadLocal;
+
+/**
+ * Verifies Proxy-Authorization credentials.
+ *
+ * Basic credentials are checked against a user file of salted PBKDF2 hashes, one user per
+ * line:
+ * <pre>
+ *   # comment
+ *   alice:pbkdf2-sha256$120000$&lt;base64 salt&gt;$&lt;base64 hash&gt;
+ * </pre>
+ * ({@link #hashPassword} produces the part after the colon). Bearer tokens are compared
+ * against the configured tokens by their SHA-256, so the lookup does not leak timing.
+ *
+ * A PBKDF2 check is deliberately slow, so it runs on a small worker pool rather than an
+ * event loop, and its result is cached by the SHA-256 of the credentials for the cache
+ * TTL. Failures are never cached, and bearer users are checked again once the bearer
+ * validator's keys change. The pool's backlog is bounded and each client may have only
+ * a few checks pending, so a flood of made-up credentials is turned away instead of
+ * queueing ahead of every other login.
+ */
+public class ProxyAuthenticator implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ProxyAuthenticator.class);
+
+    private static final String PBKDF2 = "pbkdf2-sha256";
+    private static final int DEFAULT_ITERATIONS = 120_000;
+    private static final int MAX_CACHED = 10_000;
+    private static final int MAX_QUEUED = 256;
+    private static final int MAX_PENDING_PER_CLIENT = 4;
+
+    private static final FastThreadLocal<MessageDigest> SHA256 = new FastThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() throws NoSuchAlgorithmException {
+            return MessageDigest.getInstance("SHA-256");
+        }
+    };
+
+    private static final class UserRecord {
+        final int iterations;
+        final byte[] salt;
+        final byte[] hash;
+
+        UserRecord(int iterations, byte[] salt, byte[] hash) {
+            this.iterations = iterations;
+            this.salt = salt;
+            this.hash = hash;
+        }
+    }
+
+    private static final class Verified {
+        final AuthenticatedUser user;
+        final long expiresAt;
+        final long generation;
+
+        Verified(AuthenticatedUser user, long expiresAt, long generation) {
+            this.user = user;
+            this.expiresAt = expiresAt;
+            this.generation = generation;
+        }
+    }
+
+    // checked for unknown users too, so a miss takes as long as a wrong password
+    private static final UserRecord DUMMY = new UserRecord(DEFAULT_ITERATIONS, new byte[16], new byte[32]);
+
+    private final String realm;
+    private final Map<String, UserRecord> users;
+    private final Map<String, String> tokenPrincipals = new HashMap<>();
+    private final BearerValidator bearerValidator;
+    private final long cacheTtlMillis;
+    private final ConcurrentHashMap<String, Verified> verified = new ConcurrentHashMap<>();
+    private final ThreadPoolExecutor verifier;
+    // checks queued or running, by client address
+    private final ConcurrentHashMap<String, Integer> pending = new ConcurrentHashMap<>();
+
+    private final LongAdder verifications = ProxyMetrics.counter("auth.verifications");
+    private final LongAdder cacheHits = ProxyMetrics.counter("auth.cache_hits");
+    private final LongAdder failures = ProxyMetrics.counter("auth.failures");
+    private final LongAdder rejected = ProxyMetrics.counter("auth.rejected");
+
+    /**
+     * Validates bearer tokens that are not among the configured static tokens.
+     */
+    public interface BearerValidator {
+
+        /**
+         * @return the token's user, or null if the token is not valid
+         */
+        AuthenticatedUser validate(String token);
+
+        /**
+         * Epoch millis after which {@code user} must not be trusted any more, whatever the
+         * cache TTL says.
+         */
+        default long validUntil(AuthenticatedUser user) {
+            return Long.MAX_VALUE;
+        }
+
+        /**
+         * A number that changes whenever the keys tokens are checked against do, so users
+         * validated before can be told apart.
+         */
+        default long keyGeneration() {
+            return 0;
+        }
+    }
+
+    /**
+     * @param userFile      Basic users, or null for none
+     * @param tokens        static bearer token to principal name
+     * @param bearer        validator for other bearer tokens, or null
+     * @param cacheTtlSecs  how long verified credentials are trusted without a new check
+     */
+    public ProxyAuthenticator(String realm, Path userFile, Map<String, String> tokens, BearerValidator bearer,
+                              long cacheTtlSecs) throws IOException {
+        this.realm = realm;
+        this.users = userFile != null ? loadUsers(userFile) : new HashMap<>();
+        tokens.forEach((token, principal) -> tokenPrincipals.put(sha256(token), principal));
+        this.bearerValidator = bearer;
+        this.cacheTtlMillis = TimeUnit.SECONDS.toMillis(cacheTtlSecs);
+        int threads = Math.min(4, Runtime.getRuntime().availableProcessors());
+        this.verifier = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                                               new ArrayBlockingQueue<>(MAX_QUEUED),
+                                               new DefaultThreadFactory("auth-verify", true));
+        ProxyMetrics.gauge("auth.cached_credentials", verified::size);
+        logger.info("Proxy authentication enabled: {} users, {} static tokens", users.size(), tokenPrincipals.size());
+    }
+
+    private static Map<String, UserRecord> loadUsers(Path file) throws IOException {
+        Map<String, UserRecord> loaded = new HashMap<>();
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i).trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            int colon = line.indexOf(':');
+            String[] parts = colon > 0 ? line.substring(colon + 1).split("\\$") : new String[0];
+            if (parts.length != 4 || !PBKDF2.equals(parts[0])) {
+                logger.warn("Skipping malformed line {} of {}", i + 1, file);
+                continue;
+            }
+            try {
+                Base64.Decoder base64 = Base64.getDecoder();
+                loaded.put(line.substring(0, colon),
+                           new UserRecord(Integer.parseInt(parts[1]), base64.decode(parts[2]), base64.decode(parts[3])));
+            } catch (IllegalArgumentException e) {
+                logger.warn("Skipping malformed line {} of {}: {}", i + 1, file, e.getMessage());
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Produces a user file entry (without the "user:" prefix) for {@code password}.
+     */
+    public static String hashPassword(char[] password) {
+        byte[] salt = new byte[16];
+        new SecureRandom().nextBytes(salt);
+        Base64.Encoder base64 = Base64.getEncoder();
+        return PBKDF2 + "$" + DEFAULT_ITERATIONS + "$" + base64.encodeToString(salt) + "$"
+            + base64.encodeToString(pbkdf2(password, salt, DEFAULT_ITERATIONS, 32));
+    }
+
+    public String getRealm() {
+        return realm;
+    }
+
+    /**
+     * Returns the user for credentials verified within the cache TTL, without any hashing
+     * beyond one SHA-256.
+     *
+     * @return the user, or null if the credentials need a full check
+     */
+    public AuthenticatedUser cached(String credentials) {
+        String key = sha256(credentials);
+        Verified hit = verified.get(key);
+        if (hit == null) {
+            return null;
+        }
+        if (hit.expiresAt <= System.currentTimeMillis() || !isCurrent(hit.user, hit.generation)) {
+            verified.remove(key, hit);
+            return null;
+        }
+        cacheHits.increment();
+        return hit.user;
+    }
+
+    /**
+     * Fully checks a Proxy-Authorization value on the verifier pool and caches success.
+     *
+     * @param client the address of the client sending it, whose pending checks are capped
+     * @return a future of the user, or of null if the credentials are invalid; failed with
+     *         a {@link RejectedExecutionException} when the pool's backlog or the client's
+     *         share of it is full
+     */
+    public CompletableFuture<AuthenticatedUser> verify(String credentials, String client) {
+        if (pending.merge(client, 1, Integer::sum) > MAX_PENDING_PER_CLIENT) {
+            donePending(client);
+            rejected.increment();
+            return CompletableFuture.failedFuture(
+                new RejectedExecutionException("Too many pending credential checks from " + client));
+        }
+        CompletableFuture<AuthenticatedUser> result = new CompletableFuture<>();
+        try {
+            // the client's slot is given back before its caller hears, so it may retry at once
+            verifier.execute(() -> {
+                try {
+                    AuthenticatedUser user = verifyNow(credentials);
+                    donePending(client);
+                    result.complete(user);
+                } catch (RuntimeException e) {
+                    donePending(client);
+                    result.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            donePending(client);
+            rejected.increment();
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    private void donePending(String client) {
+        pending.computeIfPresent(client, (address, count) -> count > 1 ? count - 1 : null);
+    }
+
+    private AuthenticatedUser verifyNow(String credentials) {
+        verifications.increment();
+        // taken first, so a reload during the check leaves the result stale
+        long generation = keyGeneration();
+        AuthenticatedUser user;
+        try {
+            user = check(credentials);
+        } catch (RuntimeException e) {
+            logger.warn("Credential check failed: {}", e.getMessage());
+            user = null;
+        }
+        if (user == null) {
+            failures.increment();
+            return null;
+        }
+        remember(sha256(credentials), new Verified(user, expiry(user, System.currentTimeMillis()), generation));
+        return user;
+    }
+
+    /**
+     * Until when {@code user}, verified at {@code now}, may be trusted without a new check:
+     * the cache TTL, cut short by the validator for bearer users.
+     */
+    public long expiry(AuthenticatedUser user, long now) {
+        if ("bearer".equals(user.getScheme()) && bearerValidator != null) {
+            return Math.min(now + cacheTtlMillis, bearerValidator.validUntil(user));
+        }
+        return now + cacheTtlMillis;
+    }
+
+    /**
+     * The bearer validator's current {@link BearerValidator#keyGeneration()}; callers that
+     * keep users of their own record it next to them.
+     */
+    public long keyGeneration() {
+        return bearerValidator != null ? bearerValidator.keyGeneration() : 0;
+    }
+
+    /**
+     * Whether {@code user}, verified under key {@code generation}, may still be trusted
+     * as far as keys go: a bearer user's key may have been removed since.
+     */
+    public boolean isCurrent(AuthenticatedUser user, long generation) {
+        return !"bearer".equals(user.getScheme()) || generation == keyGeneration();
+    }
+
+    private AuthenticatedUser check(String credentials) {
+        int space = credentials.indexOf(' ');
+        if (space < 0) {
+            return null;
+        }
+        String scheme = credentials.substring(0, space);
+        String value = credentials.substring(space + 1).trim();
+        if ("Basic".equalsIgnoreCase(scheme)) {
+            return checkBasic(value);
+        }
+        if ("Bearer".equalsIgnoreCase(scheme)) {
+            String principal = tokenPrincipals.get(sha256(value));
+            if (principal != null) {
+                return new AuthenticatedUser(principal, "bearer");
+            }
+            return bearerValidator != null ? bearerValidator.validate(value) : null;
+        }
+        return null;
+    }
+
+    private AuthenticatedUser checkBasic(String encoded) {
+        String decoded;
+        try {
+            decoded = new String(Base64.getDecoder().decode(encoded), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        int colon = decoded.indexOf(':');
+        if (colon < 0) {
+            return null;
+        }
+        String name = decoded.substring(0, colon);
+        UserRecord record = users.get(name);
+        UserRecord against = record != null ? record : DUMMY;
+        byte[] hash = pbkdf2(decoded.substring(colon + 1).toCharArray(), against.salt, against.iterations,
+                             against.hash.length);
+        return record != null && MessageDigest.isEqual(hash, record.hash) ? new AuthenticatedUser(name, "basic") : null;
+    }
+
+    private static byte[] pbkdf2(char[] password, byte[] salt, int iterations, int length) {
+        PBEKeySpec spec = new PBEKeySpec(password, salt, iterations, length * 8);
+        try {
+            return SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("PBKDF2 unavailable", e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    private void remember(String key, Verified entry) {
+        if (verified.size() >= MAX_CACHED) {
+            long now = System.currentTimeMillis();
+            verified.values().removeIf(v -> v.expiresAt <= now);
+            // still full of live entries: drop an arbitrary one rather than grow
+            Iterator<String> keys = verified.keySet().iterator();
+            if (verified.size() >= MAX_CACHED && keys.hasNext()) {
+                keys.next();
+                keys.remove();
+            }
+        }
+        verified.put(key, entry);
+    }
+
+    static String sha256(String value) {
+        MessageDigest sha = SHA256.get();
+        sha.reset();
+        return Base64.getEncoder().encodeToString(sha.digest(value.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Override
+    public void close() {
+        verifier.shutdownNow();
+        verified.clear();
+    }
+}
@@ -12,4 +12,8 @@ public interface BackendResponseCallback {
     
 
     default void onConnected(Channel backendChannel, Queue<Object> buffer, Channel clientChannel) {}
+
+    default void onBlocked(String reason) {
+        onError(new Exception(reason));
+    }
 }
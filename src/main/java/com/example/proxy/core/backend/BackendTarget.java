@@ -2,12 +2,17 @@ package com.example.proxy.core.backend;
 
 import java.util.Map;
 
+import com.example.proxy.core.routing.Route;
+import com.example.proxy.core.upstream.Endpoint;
+
 public class BackendTarget {
     
     private String host;
     private int port;
     private String path;
     private Map<String, String> metadata;
+    private Endpoint endpoint;
+    private Route route;
 
     public BackendTarget(String host, int port, String path, Map<String, String> metadata) {
         this.host = host;
@@ -16,6 +21,31 @@ public class BackendTarget {
         this.metadata = metadata;
     }
 
+    /**
+     * The upstream pool endpoint this target was picked from; its load statistics are
+     * updated with the outcome of the request.
+     */
+    public BackendTarget withEndpoint(Endpoint endpoint) {
+        this.endpoint = endpoint;
+        return this;
+    }
+
+    public Endpoint getEndpoint() {
+        return endpoint;
+    }
+
+    /**
+     * The reverse-proxy route this target was picked for; its backend deadlines apply.
+     */
+    public BackendTarget withRoute(Route route) {
+        this.route = route;
+        return this;
+    }
+
+    public Route getRoute() {
+        return route;
+    }
+
     public Map<String, String> getMetadata() {
         return metadata;
     }
@@ -0,0 +1,74 @@
+package com.example.proxy.core.backend;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.example.proxy.core.stages.BodyFilterStage;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.util.ReferenceCountUtil;
+
+/**
+ * Backend pipeline handler that runs the body filter automaton over response chunks
+ * as they come off the codec, before anything is aggregated or relayed to the client.
+ * Once a keyword matches, the rest of the backend stream is dropped and the channel closed.
+ */
+public class BodyFilterHandler extends ChannelInboundHandlerAdapter {
+
+    private static final Logger logger = LoggerFactory.getLogger(BodyFilterHandler.class);
+
+    private final BodyFilterStage stage;
+    private final BackendResponseCallback callback;
+    private BodyFilterStage.Scanner scanner;
+    private boolean blocked;
+
+    public BodyFilterHandler(BodyFilterStage stage, BackendResponseCallback callback) {
+        this.stage = stage;
+        this.callback = callback;
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (blocked) {
+            ReferenceCountUtil.release(msg);
+            return;
+        }
+
+        if (msg instanceof HttpResponse) {
+            HttpResponse response = (HttpResponse) msg;
+            String contentType = response.headers().get(HttpHeaderNames.CONTENT_TYPE);
+            String contentEncoding = response.headers().get(HttpHeaderNames.CONTENT_ENCODING);
+            scanner = stage.isScannable(contentType, contentEncoding) ? stage.newScanner() : null;
+        }
+
+        if (scanner != null && msg instanceof HttpContent) {
+            String category = scanner.scan(((HttpContent) msg).content());
+            if (category != null) {
+                blocked = true;
+                ReferenceCountUtil.release(msg);
+                onMatch(ctx, category);
+                return;
+            }
+        }
+
+        ctx.fireChannelRead(msg);
+    }
+
+    private void onMatch(ChannelHandlerContext ctx, String category) {
+        String reason = "Response content blocked by content filter (category: " + category + ")";
+        logger.warn("{} from {}", reason, ctx.channel().remoteAddress());
+
+        if (callback != null) {
+            if (stage.getAction() == BodyFilterStage.Action.BLOCK_PAGE) {
+                callback.onBlocked(reason);
+            } else {
+                callback.onError(new Exception(reason));
+            }
+        }
+        ctx.close();
+    }
+}
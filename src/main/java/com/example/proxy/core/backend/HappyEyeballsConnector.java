@@ -0,0 +1,215 @@
+package com.example.proxy.core.backend;
+
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.example.proxy.core.metrics.ProxyMetrics;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.EventLoop;
+import io.netty.util.concurrent.Promise;
+import io.netty.util.concurrent.ScheduledFuture;
+
+/**
+ * Staggered parallel connects across the addresses of a backend (RFC 8305).
+ *
+ * Addresses are tried in order, a new attempt starting whenever the previous one fails
+ * or has not connected within the stagger delay. The first channel to connect wins and
+ * every other attempt is closed. Connect times are remembered per address, so later
+ * connects start with the address that has been fastest; addresses without history
+ * follow, alternating IPv6 and IPv4, and addresses that recently failed go last.
+ *
+ * One instance is shared by all connections; each race runs entirely on the event loop
+ * of the bootstrap it is given.
+ */
+public class HappyEyeballsConnector {
+
+    private static final long FAILURE_PENALTY_MILLIS = 30_000;
+    private static final int MAX_TRACKED_ADDRESSES = 4096;
+
+    private static final class Rtt {
+        volatile long micros;
+        volatile long failedAt;
+        volatile long updatedAt;
+    }
+
+    private final long staggerMillis;
+    private final Map<InetAddress, Rtt> rtts = new ConcurrentHashMap<>();
+
+    private final LongAdder attempts = ProxyMetrics.counter("backend.connect_attempts");
+    private final LongAdder fallbacks = ProxyMetrics.counter("backend.connect_fallback_wins");
+    private final LongAdder cancelled = ProxyMetrics.counter("backend.connect_cancelled");
+
+    public HappyEyeballsConnector(long staggerMillis) {
+        this.staggerMillis = staggerMillis;
+        ProxyMetrics.gauge("backend.connect_tracked_addresses", rtts::size);
+    }
+
+    /**
+     * Races connects to {@code addresses} on {@code loop}, which must be the bootstrap's.
+     *
+     * @return a promise completed with the winning channel, or failed with the last
+     *         attempt's cause when every address failed
+     */
+    public Promise<Channel> connect(Bootstrap bootstrap, List<InetSocketAddress> addresses, EventLoop loop) {
+        Promise<Channel> promise = loop.newPromise();
+        Race race = new Race(bootstrap, order(addresses), promise, loop);
+        if (loop.inEventLoop()) {
+            race.next();
+        } else {
+            loop.execute(race::next);
+        }
+        return promise;
+    }
+
+    /**
+     * Fastest known addresses first, then unknown ones interleaved by family, then
+     * recently failed ones.
+     */
+    List<InetSocketAddress> order(List<InetSocketAddress> addresses) {
+        List<InetSocketAddress> v6 = new ArrayList<>();
+        List<InetSocketAddress> v4 = new ArrayList<>();
+        for (InetSocketAddress address : addresses) {
+            (address.getAddress() instanceof Inet6Address ? v6 : v4).add(address);
+        }
+        List<InetSocketAddress> interleaved = new ArrayList<>(addresses.size());
+        for (int i = 0; i < Math.max(v6.size(), v4.size()); i++) {
+            if (i < v6.size()) {
+                interleaved.add(v6.get(i));
+            }
+            if (i < v4.size()) {
+                interleaved.add(v4.get(i));
+            }
+        }
+        long now = System.currentTimeMillis();
+        // List.sort is stable, so equally ranked addresses keep the interleaved order
+        interleaved.sort(Comparator.comparingLong(address -> rank(address, now)));
+        return interleaved;
+    }
+
+    private long rank(InetSocketAddress address, long now) {
+        Rtt rtt = rtts.get(address.getAddress());
+        if (rtt == null) {
+            return Long.MAX_VALUE - 1;
+        }
+        if (now - rtt.failedAt < FAILURE_PENALTY_MILLIS) {
+            return Long.MAX_VALUE;
+        }
+        return rtt.micros;
+    }
+
+    private void recordSuccess(InetAddress address, long nanos) {
+        long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+        Rtt rtt = tracked(address);
+        long previous = rtt.micros;
+        // EWMA with weight 1/4 for the new sample
+        rtt.micros = previous == 0 ? micros : previous + (micros - previous) / 4;
+        rtt.failedAt = 0;
+    }
+
+    private void recordFailure(InetAddress address) {
+        tracked(address).failedAt = System.currentTimeMillis();
+    }
+
+    private Rtt tracked(InetAddress address) {
+        if (rtts.size() >= MAX_TRACKED_ADDRESSES && !rtts.containsKey(address)) {
+            // drop history that has not been refreshed for a while rather than grow without bound
+            long cutoff = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(10);
+            rtts.values().removeIf(rtt -> rtt.updatedAt < cutoff);
+        }
+        Rtt rtt = rtts.computeIfAbsent(address, key -> new Rtt());
+        rtt.updatedAt = System.currentTimeMillis();
+        return rtt;
+    }
+
+    /**
+     * State of one race; only touched on its event loop.
+     */
+    private final class Race {
+        final Bootstrap bootstrap;
+        final List<InetSocketAddress> addresses;
+        final Promise<Channel> promise;
+        final EventLoop loop;
+        final List<ChannelFuture> pending = new ArrayList<>();
+        int nextIndex;
+        ScheduledFuture<?> stagger;
+        Throwable lastCause;
+
+        Race(Bootstrap bootstrap, List<InetSocketAddress> addresses, Promise<Channel> promise, EventLoop loop) {
+            this.bootstrap = bootstrap;
+            this.addresses = addresses;
+            this.promise = promise;
+            this.loop = loop;
+        }
+
+        void next() {
+            if (promise.isDone()) {
+                return;
+            }
+            if (stagger != null) {
+                stagger.cancel(false);
+                stagger = null;
+            }
+            if (nextIndex >= addresses.size()) {
+                if (pending.isEmpty()) {
+                    promise.tryFailure(lastCause != null ? lastCause : new IllegalStateException("No backend addresses"));
+                }
+                return;
+            }
+            InetSocketAddress address = addresses.get(nextIndex++);
+            long start = System.nanoTime();
+            attempts.increment();
+            ChannelFuture attempt = bootstrap.connect(address);
+            pending.add(attempt);
+            attempt.addListener(done -> onAttempt(attempt, address, start));
+            if (!attempt.isDone() && nextIndex < addresses.size()) {
+                stagger = loop.schedule(this::next, staggerMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        void onAttempt(ChannelFuture attempt, InetSocketAddress address, long start) {
+            pending.remove(attempt);
+            if (attempt.isSuccess()) {
+                recordSuccess(address.getAddress(), System.nanoTime() - start);
+                if (!promise.trySuccess(attempt.channel())) {
+                    // lost to a faster attempt after connecting anyway
+                    attempt.channel().close();
+                    return;
+                }
+                if (addresses.indexOf(address) > 0) {
+                    fallbacks.increment();
+                }
+                cancelRest();
+                return;
+            }
+            if (promise.isDone()) {
+                return;
+            }
+            recordFailure(address.getAddress());
+            lastCause = attempt.cause();
+            next();
+        }
+
+        void cancelRest() {
+            if (stagger != null) {
+                stagger.cancel(false);
+                stagger = null;
+            }
+            for (ChannelFuture loser : new ArrayList<>(pending)) {
+                cancelled.increment();
+                loser.channel().close();
+            }
+            pending.clear();
+        }
+    }
+}
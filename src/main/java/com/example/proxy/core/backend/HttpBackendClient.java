@@ -1,32 +1,45 @@
 package com.example.proxy.core.backend;
 
+import java.net.InetSocketAddress;
+import java.util.List;
 import java.util.Queue;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.example.proxy.core.backend.breaker.CircuitBreaker;
+import com.example.proxy.core.backend.breaker.CircuitOpenException;
+import com.example.proxy.core.backend.dns.BackendResolver;
+import com.example.proxy.core.backend.limit.VegasLimiter;
+import com.example.proxy.core.backend.timeout.BackendTimeouts;
+import com.example.proxy.core.backend.timeout.RequestDeadline;
 import com.example.proxy.core.server.ForwardHttp1;
+import com.example.proxy.core.server.handlers.ClientTimeoutHandler;
+import com.example.proxy.core.stages.BodyFilterStage;
+import com.example.proxy.core.upstream.Endpoint;
 
 import io.netty.bootstrap.Bootstrap;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.Channel;
-import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
 import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoop;
 import io.netty.channel.EventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioSocketChannel;
 import io.netty.handler.codec.http.DefaultFullHttpRequest;
 import io.netty.handler.codec.http.FullHttpRequest;
 import io.netty.handler.codec.http.HttpClientCodec;
-import io.netty.handler.codec.http.HttpContentDecompressor;
 import io.netty.handler.codec.http.HttpHeaderNames;
 import io.netty.handler.codec.http.HttpMethod;
 import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpResponse;
 import io.netty.handler.codec.http.HttpVersion;
 import io.netty.handler.ssl.SslContext;
 import io.netty.handler.ssl.SslContextBuilder;
@@ -44,32 +57,290 @@ public class HttpBackendClient {
     private final EventLoopGroup eventLoopGroup;
     private final String auth;
     private final String compression;
+    private BodyFilterStage bodyFilter;
+    private int maxContentLength = 65536;
+    private BackendResolver resolver;
+    private HappyEyeballsConnector connector;
+    private VegasLimiter limiter;
+    private CircuitBreaker breaker;
+    private BackendTimeouts timeouts;
+    private volatile RequestDeadline deadline;
+    // a request in flight, for cancel()
+    private volatile boolean cancelled;
+    private volatile Channel channel;
+    private volatile TrackedCallback tracked;
     
     public HttpBackendClient(EventLoopGroup eventLoopGroup, String auth, String compression) {
         this.eventLoopGroup = eventLoopGroup;
         this.auth = auth;
         this.compression = compression;
     }
+
+    public HttpBackendClient withBodyFilter(BodyFilterStage bodyFilter) {
+        this.bodyFilter = bodyFilter;
+        return this;
+    }
+
+    public HttpBackendClient withMaxContentLength(int maxContentLength) {
+        this.maxContentLength = maxContentLength;
+        return this;
+    }
+    
+    /**
+     * Resolves backend names through the shared caching resolver instead of Netty's
+     * default, which goes through the blocking JDK lookup.
+     */
+    public HttpBackendClient withResolver(BackendResolver resolver) {
+        this.resolver = resolver;
+        return this;
+    }
+    
+    /**
+     * Races connects across all resolved addresses of a backend; without it only the
+     * first address is tried. Needs a resolver.
+     */
+    public HttpBackendClient withConnector(HappyEyeballsConnector connector) {
+        this.connector = connector;
+        return this;
+    }
+    
+    /**
+     * Caps in-flight requests to the target by its adaptive limit; requests over it queue
+     * briefly or fail with {@link com.example.proxy.core.backend.limit.LimitExceededException}.
+     */
+    public HttpBackendClient withLimiter(VegasLimiter limiter) {
+        this.limiter = limiter;
+        return this;
+    }
+    
+    /**
+     * Refuses requests to the target while its circuit is open, with
+     * {@link CircuitOpenException}, and feeds it the outcome of the others.
+     */
+    public HttpBackendClient withCircuitBreaker(CircuitBreaker breaker) {
+        this.breaker = breaker;
+        return this;
+    }
+    
+    /**
+     * Fails requests whose connect, first byte, response reads or whole exchange take too
+     * long, with {@link com.example.proxy.core.backend.timeout.BackendTimeoutException}.
+     */
+    public HttpBackendClient withTimeouts(BackendTimeouts timeouts) {
+        this.timeouts = timeouts;
+        return this;
+    }
     
     public CompletableFuture<Boolean> forwardRequestHTTP(ForwardHttp1 request, BackendTarget target, BackendResponseCallback callback) {
+        long ticket = 0;
+        if (breaker != null) {
+            ticket = breaker.tryAcquire();
+            if (ticket == CircuitBreaker.REJECTED) {
+                callback.onError(new CircuitOpenException("Circuit open for " + target.getHost() + ":" + target.getPort()));
+                return CompletableFuture.completedFuture(false);
+            }
+        }
+        long admitted = ticket;
+        if (limiter == null) {
+            return breaker == null && target.getEndpoint() == null
+                ? send(request, target, callback)
+                : sendTracked(request, target, callback, null, admitted);
+        }
+        CompletableFuture<Boolean> resultFuture = new CompletableFuture<>();
+        EventLoop loop = eventLoopGroup.next();
+        limiter.acquire(loop).whenComplete((permit, refused) -> {
+            if (refused != null) {
+                if (breaker != null) {
+                    breaker.cancel(admitted);
+                }
+                logger.warn("Not forwarding to {}:{}: {}", target.getHost(), target.getPort(), refused.getMessage());
+                callback.onError(refused);
+                resultFuture.complete(false);
+                return;
+            }
+            sendTracked(request, target, callback, permit, admitted).whenComplete((sent, failure) -> {
+                if (failure != null) {
+                    resultFuture.completeExceptionally(failure);
+                } else {
+                    resultFuture.complete(sent);
+                }
+            });
+        });
+        return resultFuture;
+    }
+
+    /**
+     * Gives up on the request in flight, such as the losing attempt of a hedged request:
+     * its backend connection is closed and neither the limiter, the endpoint nor the
+     * circuit breaker count it as a failure. The callback may still see an error or a
+     * late response, which the caller is expected to ignore.
+     */
+    public void cancel() {
+        cancelled = true;
+        RequestDeadline pending = deadline;
+        if (pending != null) {
+            pending.finish();
+        }
+        TrackedCallback inFlight = tracked;
+        if (inFlight != null) {
+            inFlight.abandon();
+        }
+        Channel open = channel;
+        if (open != null) {
+            open.close();
+        }
+    }
+
+    private CompletableFuture<Boolean> sendTracked(ForwardHttp1 request, BackendTarget target,
+                                                   BackendResponseCallback callback, VegasLimiter.Permit permit, long ticket) {
+        TrackedCallback tracked = new TrackedCallback(callback, permit, target.getEndpoint(), breaker, ticket);
+        this.tracked = tracked;
+        if (cancelled) {
+            tracked.abandon();
+            return CompletableFuture.completedFuture(false);
+        }
+        return send(request, target, tracked).whenComplete((sent, failure) -> {
+            if (failure != null || !sent) {
+                tracked.finish(0);
+            }
+        });
+    }
+    
+    /**
+     * Reports how a request ended, exactly once, to its limiter permit, upstream endpoint
+     * and circuit breaker, any of which may be absent: a response is a latency sample, an
+     * error a drop. The backend closing without a response counts as a drop as well.
+     */
+    private static final class TrackedCallback implements BackendResponseCallback {
+        private final BackendResponseCallback delegate;
+        private final VegasLimiter.Permit permit;
+        private final Endpoint endpoint;
+        private final CircuitBreaker breaker;
+        private final long ticket;
+        private final long startNanos;
+        private final AtomicBoolean finished = new AtomicBoolean();
+
+        TrackedCallback(BackendResponseCallback delegate, VegasLimiter.Permit permit, Endpoint endpoint,
+                        CircuitBreaker breaker, long ticket) {
+            this.delegate = delegate;
+            this.permit = permit;
+            this.endpoint = endpoint;
+            this.breaker = breaker;
+            this.ticket = ticket;
+            this.startNanos = endpoint != null ? endpoint.begin() : 0;
+        }
+
+        /**
+         * The request was given up on by the caller: its resources are handed back without
+         * counting it as a success or a failure of the backend.
+         */
+        void abandon() {
+            if (!finished.compareAndSet(false, true)) {
+                return;
+            }
+            if (permit != null) {
+                permit.release(false);
+            }
+            if (endpoint != null) {
+                endpoint.abandon();
+            }
+            if (breaker != null) {
+                breaker.cancel(ticket);
+            }
+        }
+
+        /**
+         * @param status the response status, or 0 for a drop
+         */
+        void finish(int status) {
+            if (!finished.compareAndSet(false, true)) {
+                return;
+            }
+            if (permit != null) {
+                permit.release(status <= 0);
+            }
+            if (endpoint != null) {
+                endpoint.complete(startNanos, status);
+            }
+            if (breaker != null) {
+                breaker.record(ticket, status);
+            }
+        }
+
+        @Override
+        public void onResponse(Object response) {
+            finish(response instanceof HttpResponse ? ((HttpResponse) response).status().code() : 200);
+            delegate.onResponse(response);
+        }
+
+        @Override
+        public void onError(Throwable cause) {
+            finish(0);
+            delegate.onError(cause);
+        }
+
+        @Override
+        public void onBlocked(String reason) {
+            finish(200);
+            delegate.onBlocked(reason);
+        }
+
+        /**
+         * Watches for the backend closing without a response, from the end of the pipeline:
+         * a close-delimited response only reaches the callback as the connection goes
+         * inactive, which is after the close future's listeners have run.
+         */
+        void onChannel(Channel channel) {
+            channel.pipeline().addLast("closed-without-response", new ChannelInboundHandlerAdapter() {
+                @Override
+                public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+                    finish(0);
+                    ctx.fireChannelInactive();
+                }
+            });
+            if (!channel.isActive()) {
+                finish(0);
+            }
+        }
+    }
+    
+    private CompletableFuture<Boolean> send(ForwardHttp1 request, BackendTarget target, BackendResponseCallback callback) {
         CompletableFuture<Boolean> resultFuture = new CompletableFuture<>();
         
         try {
-            Bootstrap client = createBootstrapHttp(callback);
+            if (timeouts != null) {
+                deadline = timeouts.start(eventLoopGroup.next(), callback, () -> resultFuture.complete(false),
+                                          target.getHost() + ":" + target.getPort());
+            }
+            Bootstrap client = createBootstrapHttp(callback, request.getHeaders().get("accept-encoding"));
             
             logger.info("Connecting to: {}:{}", target.getHost(), target.getPort());
-            ChannelFuture connectFuture = client.connect(target.getHost(), target.getPort());
-            
-            connectFuture.addListener((ChannelFutureListener) future -> {
-                if (future.isSuccess()) {
-                    handleSuccessfulConnection(future.channel(), request, target, resultFuture);
-                } else {
-                    handleConnectionFailure(target, future.cause(), callback, resultFuture);
+            connect(client, target, callback, resultFuture, channel -> {
+                this.channel = channel;
+                if (cancelled) {
+                    channel.close();
+                    resultFuture.complete(false);
+                    return;
+                }
+                RequestDeadline pending = deadline;
+                if (pending != null) {
+                    if (pending.isExpired()) {
+                        channel.close();
+                        return;
+                    }
+                    pending.connected(channel);
+                }
+                if (callback instanceof TrackedCallback) {
+                    ((TrackedCallback) callback).onChannel(channel);
                 }
+                handleSuccessfulConnection(channel, request, target, resultFuture);
             });
             
         } catch (Exception e) {
             logger.error("Error setting up connection to {}:{} - {}", target.getHost(), target.getPort(), e.getMessage());
+            if (deadline != null) {
+                deadline.finish();
+            }
             callback.onError(e);
             resultFuture.complete(false);
         }
@@ -77,20 +348,60 @@ public class HttpBackendClient {
         return resultFuture;
     }
     
-    private Bootstrap createBootstrapHttp(BackendResponseCallback callback) {
+    /**
+     * Resolves the target, when a resolver is configured, and connects, racing its
+     * addresses when a connector is configured too. A failure at either step is reported
+     * through {@link #handleConnectionFailure}.
+     */
+    private void connect(Bootstrap client, BackendTarget target, BackendResponseCallback callback,
+                         CompletableFuture<Boolean> resultFuture, Consumer<Channel> onConnected) {
+        ChannelFutureListener connected = future -> {
+            if (future.isSuccess()) {
+                onConnected.accept(future.channel());
+            } else {
+                handleConnectionFailure(target, future.cause(), callback, resultFuture);
+            }
+        };
+        if (resolver == null) {
+            client.connect(target.getHost(), target.getPort()).addListener(connected);
+            return;
+        }
+        EventLoop loop = eventLoopGroup.next();
+        resolver.resolveAll(loop, target.getHost(), target.getPort()).addListener(resolved -> {
+            if (!resolved.isSuccess()) {
+                handleConnectionFailure(target, resolved.cause(), callback, resultFuture);
+                return;
+            }
+            @SuppressWarnings("unchecked")
+            List<InetSocketAddress> addresses = (List<InetSocketAddress>) resolved.getNow();
+            if (connector == null || addresses.size() == 1) {
+                client.connect(addresses.get(0)).addListener(connected);
+                return;
+            }
+            connector.connect(client, addresses, loop).addListener(raced -> {
+                if (raced.isSuccess()) {
+                    onConnected.accept((Channel) raced.getNow());
+                } else {
+                    handleConnectionFailure(target, raced.cause(), callback, resultFuture);
+                }
+            });
+        });
+    }
+    
+    private Bootstrap createBootstrapHttp(BackendResponseCallback callback, String clientAcceptEncoding) {
         Bootstrap client = new Bootstrap();
         client.group(eventLoopGroup)
             .channel(NioSocketChannel.class)
             .handler(new ChannelInitializer<SocketChannel>() {
                 @Override
                 protected void initChannel(SocketChannel ch) throws Exception {
-                    buildPipeline(ch, callback);
+                    buildPipeline(ch, callback, clientAcceptEncoding);
                 }
             });
         return client;
     }
     
-    private void buildPipeline(SocketChannel ch, BackendResponseCallback callback) throws Exception {
+    private void buildPipeline(SocketChannel ch, BackendResponseCallback callback, String clientAcceptEncoding) throws Exception {
         if ("ssl".equals(auth) || "tls".equals(auth)) {
             SslContext sslContext = SslContextBuilder.forClient()
                 .trustManager(InsecureTrustManagerFactory.INSTANCE)
@@ -100,13 +411,19 @@ public class HttpBackendClient {
         }
         
         ch.pipeline().addLast("http-codec", new HttpClientCodec());
+
+        if (deadline != null) {
+            ch.pipeline().addLast("deadline", deadline.newHandler());
+        }
         
-        if (!"none".equals(compression)) {
-            ch.pipeline().addLast("decompressor", new HttpContentDecompressor());
-            logger.info("Request decompressed by {}", compression);
+        // encoded bodies the client accepts are relayed as is; only the body filter needs plaintext
+        ch.pipeline().addLast("decompressor", new SelectiveDecompressor(clientAcceptEncoding, bodyFilter != null));
+
+        if (bodyFilter != null) {
+            ch.pipeline().addLast("body-filter", new BodyFilterHandler(bodyFilter, callback));
         }
         
-        ch.pipeline().addLast("http-aggregator", new HttpObjectAggregator(65536));
+        ch.pipeline().addLast("http-aggregator", new HttpObjectAggregator(maxContentLength));
         
         ch.pipeline().addLast("backend-response", new BackendResponseHandler(callback));
     }
@@ -117,6 +434,9 @@ public class HttpBackendClient {
             
             clientChannel.writeAndFlush(backendRequest).addListener(future -> {
                 if (future.isSuccess()) {
+                    if (deadline != null) {
+                        deadline.requestSent();
+                    }
                     resultFuture.complete(true);
                 } else {
                     resultFuture.complete(false);
@@ -132,9 +452,20 @@ public class HttpBackendClient {
     }
     
     private void handleConnectionFailure(BackendTarget target, Throwable cause, BackendResponseCallback callback, CompletableFuture<Boolean> resultFuture) {
-        logger.error("Connection failed to {}:{}", target.getHost(), target.getPort());
-        if (cause != null) {
-            logger.error("Failure reason: {}", cause.getMessage(), cause);
+        RequestDeadline pending = deadline;
+        if (pending != null) {
+            if (pending.isExpired()) {
+                // already reported as a connect timeout
+                resultFuture.complete(false);
+                return;
+            }
+            pending.finish();
+        }
+        // one line per failure; a down origin fails every request, and the trace says nothing new
+        logger.warn("Connection failed to {}:{}: {}", target.getHost(), target.getPort(),
+                    cause != null ? cause.getMessage() : "unknown reason");
+        if (cause != null && logger.isDebugEnabled()) {
+            logger.debug("Connection failure to {}:{}", target.getHost(), target.getPort(), cause);
         }
         callback.onError(new Exception("Connection failed", cause));
         resultFuture.complete(false);
@@ -231,9 +562,14 @@ public class HttpBackendClient {
         if (clientChannel.pipeline().get("http-aggregator") != null) {
             clientChannel.pipeline().remove("http-aggregator");
         }
+        if (clientChannel.pipeline().get("chunked-writer") != null) {
+            clientChannel.pipeline().remove("chunked-writer");
+        }
         if (clientChannel.pipeline().get("http1-handler") != null) {
             clientChannel.pipeline().remove("http1-handler");
         }
+        // a tunnel is as long-lived as its ends want
+        ClientTimeoutHandler.uninstall(clientChannel.pipeline());
 
         CompletableFuture<Boolean> resultFuture = new CompletableFuture<>();
 
@@ -250,25 +586,18 @@ public class HttpBackendClient {
         try {
             Bootstrap backendClient = createBootstrapHttps();
             logger.info("Connecting to: {}:{}", target.getHost(), target.getPort());
-            ChannelFuture connectFuture = backendClient.connect(target.getHost(), target.getPort());
-
-            connectFuture.addListener((ChannelFutureListener) future -> {
-                if (future.isSuccess()) {
-                    Channel backendChannel = future.channel();
-                    // Flush buffered client data to backend
-                    while (!buffer.isEmpty()) {
-                        Object msg = buffer.poll();
-                        if (msg != null) {
-                            backendChannel.writeAndFlush(msg);
-                        }
+            connect(backendClient, target, callback, resultFuture, backendChannel -> {
+                // Flush buffered client data to backend
+                while (!buffer.isEmpty()) {
+                    Object msg = buffer.poll();
+                    if (msg != null) {
+                        backendChannel.writeAndFlush(msg);
                     }
-                    clientChannel.pipeline().remove("buffer-handler");
-                    clientChannel.pipeline().addLast(new RelayHandler(backendChannel));
-                    backendChannel.pipeline().addLast(new RelayHandler(clientChannel));
-                    resultFuture.complete(true);
-                } else {
-                    handleConnectionFailure(target, future.cause(), callback, resultFuture);
                 }
+                clientChannel.pipeline().remove("buffer-handler");
+                clientChannel.pipeline().addLast(new RelayHandler(backendChannel));
+                backendChannel.pipeline().addLast(new RelayHandler(clientChannel));
+                resultFuture.complete(true);
             });
         } catch (Exception e) {
             logger.error("Error setting up connection to {}:{} - {}", target.getHost(), target.getPort(), e.getMessage());
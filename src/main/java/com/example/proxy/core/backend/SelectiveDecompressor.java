@@ -0,0 +1,49 @@
+package com.example.proxy.core.backend;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import com.example.proxy.core.metrics.ProxyMetrics;
+import com.example.proxy.core.stages.CompressionStage;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.HttpContentDecompressor;
+import io.netty.handler.codec.http.HttpHeaderValues;
+
+/**
+ * Decompresses a backend response only when it has to be. A body the client can take
+ * in the backend's Content-Encoding is relayed still encoded, headers untouched, unless
+ * a stage in the backend pipeline inspects the plaintext.
+ */
+public class SelectiveDecompressor extends HttpContentDecompressor {
+
+    private static final LongAdder passedThrough = ProxyMetrics.counter("backend.encoded_passthrough");
+    private static final LongAdder decoded = ProxyMetrics.counter("backend.decompressed");
+
+    private final String clientAcceptEncoding;
+    private final boolean needsPlaintext;
+
+    /**
+     * @param clientAcceptEncoding the client's Accept-Encoding, or null if it sent none
+     * @param needsPlaintext       whether a later handler reads the body
+     */
+    public SelectiveDecompressor(String clientAcceptEncoding, boolean needsPlaintext) {
+        this.clientAcceptEncoding = clientAcceptEncoding;
+        this.needsPlaintext = needsPlaintext;
+    }
+
+    @Override
+    protected EmbeddedChannel newContentDecoder(String contentEncoding) throws Exception {
+        if (HttpHeaderValues.IDENTITY.contentEqualsIgnoreCase(contentEncoding)) {
+            return null;
+        }
+        if (!needsPlaintext && CompressionStage.accepts(clientAcceptEncoding, contentEncoding)) {
+            passedThrough.increment();
+            return null;
+        }
+        EmbeddedChannel decoder = super.newContentDecoder(contentEncoding);
+        if (decoder != null) {
+            decoded.increment();
+        }
+        return decoder;
+    }
+}
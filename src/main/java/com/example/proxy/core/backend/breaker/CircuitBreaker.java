@@ -0,0 +1,202 @@
+package com.example.proxy.core.backend.breaker;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.example.proxy.core.metrics.ProxyMetrics;
+
+/**
+ * Stops sending requests to a backend that keeps failing, so they fail at once instead
+ * of each waiting for its own connect error.
+ *
+ * <ul>
+ *   <li>CLOSED: requests pass. Their outcomes go into a sliding window of one-second
+ *       buckets; once the window holds at least {@code minRequests} and the failed share
+ *       reaches {@code failureRatio}, the circuit opens.</li>
+ *   <li>OPEN: every request is refused for {@code openMillis}.</li>
+ *   <li>HALF_OPEN: up to {@code probes} requests pass. All of them succeeding closes the
+ *       circuit with an empty window; any of them failing opens it again.</li>
+ * </ul>
+ *
+ * A failure is a request ending without a response, or with 502, 503 or 504; other
+ * statuses are the backend answering. {@link #tryAcquire} hands out a ticket naming the
+ * state period the request started in, and outcomes from an earlier period (a request
+ * still in flight when the circuit opened) are ignored.
+ *
+ * The closed-state admission reads one volatile field; everything else is synchronized,
+ * as in {@link com.example.proxy.core.backend.limit.VegasLimiter}.
+ */
+public class CircuitBreaker {
+
+    private static final Logger logger = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    private static final long BUCKET_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    public static final long REJECTED = -1;
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private static final LongAdder opened = ProxyMetrics.counter("breaker.opened");
+    private static final LongAdder closed = ProxyMetrics.counter("breaker.closed");
+    private static final LongAdder rejected = ProxyMetrics.counter("breaker.rejected");
+
+    private final String name;
+    private final int minRequests;
+    private final double failureRatio;
+    private final long openNanos;
+    private final int probes;
+
+    private final int[] bucketRequests;
+    private final int[] bucketFailures;
+    private long currentBucket;
+
+    private volatile State state = State.CLOSED;
+    // bumped on every state change; tickets from an older period are stale
+    private volatile long generation;
+    private long openedAt;
+    private int probesStarted;
+    private int probesSucceeded;
+    private volatile long lastUsed = System.currentTimeMillis();
+
+    public CircuitBreaker(String name, int windowSeconds, int minRequests, double failureRatio,
+                          long openMillis, int probes) {
+        this.name = name;
+        this.minRequests = minRequests;
+        this.failureRatio = failureRatio;
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+        this.probes = probes;
+        this.bucketRequests = new int[windowSeconds];
+        this.bucketFailures = new int[windowSeconds];
+        this.currentBucket = System.nanoTime() / BUCKET_NANOS;
+    }
+
+    /**
+     * @return a ticket to hand back with the outcome, or {@link #REJECTED} if the request
+     *         must not be sent
+     */
+    public long tryAcquire() {
+        lastUsed = System.currentTimeMillis();
+        // generation first: if the state changes in between, the ticket is merely stale
+        long ticket = generation;
+        if (state == State.CLOSED) {
+            return ticket;
+        }
+        synchronized (this) {
+            if (state == State.OPEN && System.nanoTime() - openedAt >= openNanos) {
+                transition(State.HALF_OPEN);
+            }
+            if (state == State.CLOSED) {
+                return generation;
+            }
+            if (state == State.HALF_OPEN && probesStarted < probes) {
+                probesStarted++;
+                return generation;
+            }
+        }
+        rejected.increment();
+        return REJECTED;
+    }
+
+    /**
+     * Returns a ticket whose request was never sent, such as one refused by the
+     * concurrency limiter, so a half-open probe slot is not lost.
+     */
+    public synchronized void cancel(long ticket) {
+        if (ticket == generation && state == State.HALF_OPEN && probesStarted > 0) {
+            probesStarted--;
+        }
+    }
+
+    /**
+     * @param status the response status, or 0 if the request failed without one
+     */
+    public void record(long ticket, int status) {
+        boolean failed = status <= 0 || status == 502 || status == 503 || status == 504;
+        synchronized (this) {
+            if (ticket != generation) {
+                return;
+            }
+            if (state == State.HALF_OPEN) {
+                if (failed) {
+                    transition(State.OPEN);
+                } else if (++probesSucceeded >= probes) {
+                    transition(State.CLOSED);
+                }
+                return;
+            }
+            if (state != State.CLOSED) {
+                return;
+            }
+            int slot = advance(System.nanoTime());
+            bucketRequests[slot]++;
+            if (failed) {
+                bucketFailures[slot]++;
+                int requests = 0;
+                int failures = 0;
+                for (int i = 0; i < bucketRequests.length; i++) {
+                    requests += bucketRequests[i];
+                    failures += bucketFailures[i];
+                }
+                if (requests >= minRequests && failures >= failureRatio * requests) {
+                    transition(State.OPEN);
+                }
+            }
+        }
+    }
+
+    /**
+     * Moves the window to the bucket of {@code now}, clearing the buckets it skips over.
+     * Called with the monitor held.
+     */
+    private int advance(long now) {
+        long bucket = now / BUCKET_NANOS;
+        long skipped = Math.min(bucket - currentBucket, bucketRequests.length);
+        for (long i = 1; i <= skipped; i++) {
+            int slot = (int) Math.floorMod(currentBucket + i, (long) bucketRequests.length);
+            bucketRequests[slot] = 0;
+            bucketFailures[slot] = 0;
+        }
+        if (bucket > currentBucket) {
+            currentBucket = bucket;
+        }
+        return (int) Math.floorMod(currentBucket, (long) bucketRequests.length);
+    }
+
+    /**
+     * Called with the monitor held.
+     */
+    private void transition(State next) {
+        State previous = state;
+        generation++;
+        state = next;
+        probesStarted = 0;
+        probesSucceeded = 0;
+        if (next == State.OPEN) {
+            openedAt = System.nanoTime();
+            if (previous == State.CLOSED) {
+                opened.increment();
+            }
+        } else if (next == State.CLOSED) {
+            Arrays.fill(bucketRequests, 0);
+            Arrays.fill(bucketFailures, 0);
+            closed.increment();
+        }
+        logger.warn("Circuit for {} {} -> {}", name, previous, next);
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    long getLastUsed() {
+        return lastUsed;
+    }
+}
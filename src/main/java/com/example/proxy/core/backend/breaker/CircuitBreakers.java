@@ -0,0 +1,105 @@
+package com.example.proxy.core.backend.breaker;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.example.proxy.core.backend.BackendTarget;
+import com.example.proxy.core.metrics.ProxyMetrics;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.EmptyHttpHeaders;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.ReadOnlyHttpHeaders;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+/**
+ * One {@link CircuitBreaker} per backend host and port, shared by every connection.
+ *
+ * Each circuit's state is published as the gauge {@code breaker.state.<host:port>}
+ * (0 closed, 1 open, 2 half-open); transitions are counted in {@code breaker.opened}
+ * and {@code breaker.closed}. Closed circuits idle for a while are dropped with their
+ * gauge, as in {@link com.example.proxy.core.backend.limit.BackendLimits}.
+ */
+public class CircuitBreakers implements AutoCloseable {
+
+    private static final long IDLE_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    private final int windowSeconds;
+    private final int minRequests;
+    private final double failureRatio;
+    private final long openMillis;
+    private final int probes;
+    private final Map<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService sweeper;
+
+    private final ByteBuf rejectionBody;
+    private final HttpHeaders rejectionHeaders;
+
+    public CircuitBreakers(int windowSeconds, int minRequests, double failureRatio, long openMillis, int probes) {
+        this.windowSeconds = windowSeconds;
+        this.minRequests = minRequests;
+        this.failureRatio = failureRatio;
+        this.openMillis = openMillis;
+        this.probes = probes;
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("circuit-breakers", true));
+        sweeper.scheduleWithFixedDelay(this::dropIdle, 1, 1, TimeUnit.MINUTES);
+
+        byte[] body = "Backend unavailable, retry later\n".getBytes(StandardCharsets.US_ASCII);
+        this.rejectionBody = Unpooled.unreleasableBuffer(
+            Unpooled.directBuffer(body.length).writeBytes(body).asReadOnly());
+        this.rejectionHeaders = new ReadOnlyHttpHeaders(false,
+            HttpHeaderNames.CONTENT_TYPE, "text/plain; charset=US-ASCII",
+            HttpHeaderNames.CONTENT_LENGTH, String.valueOf(body.length),
+            HttpHeaderNames.RETRY_AFTER, String.valueOf(Math.max(1, TimeUnit.MILLISECONDS.toSeconds(openMillis))),
+            "X-Proxy-Server", "ahc-proxy");
+    }
+
+    public CircuitBreaker forTarget(BackendTarget target) {
+        String key = target.getHost() + ":" + target.getPort();
+        CircuitBreaker breaker = breakers.get(key);
+        if (breaker != null) {
+            return breaker;
+        }
+        return breakers.computeIfAbsent(key, name -> {
+            CircuitBreaker created = new CircuitBreaker(name, windowSeconds, minRequests, failureRatio, openMillis, probes);
+            ProxyMetrics.gauge("breaker.state." + name, () -> created.getState().ordinal());
+            return created;
+        });
+    }
+
+    /**
+     * A 503 sharing one pre-built body and header set, for requests refused by an open
+     * circuit.
+     */
+    public FullHttpResponse rejection() {
+        return new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.SERVICE_UNAVAILABLE,
+                                           rejectionBody.duplicate(), rejectionHeaders, EmptyHttpHeaders.INSTANCE);
+    }
+
+    private void dropIdle() {
+        long cutoff = System.currentTimeMillis() - IDLE_MILLIS;
+        breakers.entrySet().removeIf(entry -> {
+            CircuitBreaker breaker = entry.getValue();
+            if (breaker.getLastUsed() >= cutoff || breaker.getState() != CircuitBreaker.State.CLOSED) {
+                return false;
+            }
+            ProxyMetrics.removeGauge("breaker.state." + entry.getKey());
+            return true;
+        });
+    }
+
+    @Override
+    public void close() {
+        sweeper.shutdownNow();
+    }
+}
@@ -0,0 +1,13 @@
+package com.example.proxy.core.backend.breaker;
+
+/*
+ *  Overview: A backend request refused without being sent because the backend's circuit
+ *            is open. Answered with a pre-encoded 503 rather than a proxy error.
+ */
+
+public class CircuitOpenException extends RuntimeException {
+
+    public CircuitOpenException(String message) {
+        super(message, null, false, false);
+    }
+}
@@ -75,6 +75,11 @@ public class BackendCallbackHttp1 implements BackendResponseCallback {
         responseProcessor.handleError(clientCtx, cause, originalRequest);
     }
 
+    @Override
+    public void onBlocked(String reason) {
+        responseProcessor.sendBlockedResponse(clientCtx, reason, originalRequest);
+    }
+
     public ChannelHandlerContext getClientChannel() {
         return clientCtx;
     }
@@ -86,5 +91,9 @@ public class BackendCallbackHttp1 implements BackendResponseCallback {
         Object processBackendResponse(ChannelHandlerContext ctx, Object backendResponse);
         void sendResponseToClient(ChannelHandlerContext ctx, Object response, ForwardRequest originalRequest);
         void handleError(ChannelHandlerContext ctx, Throwable cause, ForwardRequest request);
+
+        default void sendBlockedResponse(ChannelHandlerContext ctx, String reason, ForwardRequest request) {
+            handleError(ctx, new Exception(reason), request);
+        }
     }
 }
\ No newline at end of file
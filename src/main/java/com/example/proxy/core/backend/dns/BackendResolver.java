@@ -0,0 +1,174 @@
+package com.example.proxy.core.backend.dns;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.example.proxy.core.metrics.ProxyMetrics;
+
+import io.netty.channel.EventLoop;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioDatagramChannel;
+import io.netty.resolver.dns.DnsAddressResolverGroup;
+import io.netty.resolver.dns.DnsNameResolverBuilder;
+import io.netty.resolver.dns.DnsServerAddressStreamProvider;
+import io.netty.resolver.dns.DnsServerAddressStreamProviders;
+import io.netty.resolver.dns.SingletonDnsServerAddressStreamProvider;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.Future;
+
+/**
+ * Non-blocking resolution of backend host names, shared by every connection.
+ *
+ * Each event loop gets its own Netty DNS resolver, so lookups never leave the loop that
+ * connects and never block it. All resolvers share one cache that honours record TTLs
+ * (clamped to the configured bounds) and remembers failures for the negative TTL.
+ * Names hit often enough within their TTL are re-resolved shortly before they expire,
+ * so busy backends do not pay a lookup on the request path.
+ */
+public class BackendResolver implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(BackendResolver.class);
+
+    private static final long PREFETCH_SCAN_MILLIS = 1000;
+    // prefetch once a name is within a tenth of its TTL of expiring, but never later than this
+    private static final long PREFETCH_MIN_LEAD_MILLIS = 2000;
+
+    private final NioEventLoopGroup prefetchGroup;
+    private final EventLoop prefetchLoop;
+    private final PrefetchingDnsCache cache;
+    private final DnsAddressResolverGroup resolvers;
+    private final int prefetchMinHits;
+
+    private final LongAdder lookups = ProxyMetrics.counter("dns.lookups");
+    private final LongAdder failures = ProxyMetrics.counter("dns.failures");
+    private final LongAdder prefetches = ProxyMetrics.counter("dns.prefetches");
+    private final LongAdder resolveMicros = ProxyMetrics.counter("dns.resolve_us_total");
+    private final LongAdder[] latencyBuckets = {
+        ProxyMetrics.counter("dns.resolve_ms.le_1"),
+        ProxyMetrics.counter("dns.resolve_ms.le_10"),
+        ProxyMetrics.counter("dns.resolve_ms.le_100"),
+        ProxyMetrics.counter("dns.resolve_ms.le_1000"),
+        ProxyMetrics.counter("dns.resolve_ms.gt_1000")
+    };
+
+    /**
+     * @param server "host:port" of the DNS server to query, or null for the system's name servers
+     */
+    public BackendResolver(String server, int minTtl, int maxTtl, int negativeTtl, int prefetchMinHits) {
+        this.prefetchGroup = new NioEventLoopGroup(1, new DefaultThreadFactory("dns-prefetch", true));
+        this.prefetchLoop = prefetchGroup.next();
+        this.cache = new PrefetchingDnsCache(minTtl, maxTtl, negativeTtl, prefetchLoop);
+        this.prefetchMinHits = prefetchMinHits;
+
+        DnsNameResolverBuilder builder = new DnsNameResolverBuilder()
+            .channelType(NioDatagramChannel.class)
+            .nameServerProvider(nameServers(server))
+            .resolveCache(cache)
+            // concurrent lookups of one name on a loop share a single query
+            .consolidateCacheSize(256);
+        this.resolvers = new DnsAddressResolverGroup(builder);
+
+        ProxyMetrics.gauge("dns.resolve_avg_ms", () -> {
+            long count = lookups.sum();
+            return count == 0 ? 0 : resolveMicros.sum() / 1000.0 / count;
+        });
+        if (prefetchMinHits > 0) {
+            prefetchLoop.scheduleWithFixedDelay(this::prefetch, PREFETCH_SCAN_MILLIS, PREFETCH_SCAN_MILLIS,
+                                                TimeUnit.MILLISECONDS);
+        }
+        logger.info("Backend DNS resolver using {}", server != null ? server : "system name servers");
+    }
+
+    private static DnsServerAddressStreamProvider nameServers(String server) {
+        if (server == null || server.isEmpty()) {
+            return DnsServerAddressStreamProviders.platformDefault();
+        }
+        String host = server;
+        int port = 53;
+        int colon = server.lastIndexOf(':');
+        // a bare IPv6 literal has colons but no port
+        if (colon > 0 && (server.startsWith("[") || server.indexOf(':') == colon)) {
+            host = server.substring(0, colon);
+            port = Integer.parseInt(server.substring(colon + 1));
+        }
+        if (host.startsWith("[") && host.endsWith("]")) {
+            host = host.substring(1, host.length() - 1);
+        }
+        return new SingletonDnsServerAddressStreamProvider(new InetSocketAddress(host, port));
+    }
+
+    /**
+     * Resolves every address of {@code host} on {@code loop}, which must be the loop that
+     * will connect. IP literals and names in the hosts file complete immediately.
+     */
+    public Future<List<InetSocketAddress>> resolveAll(EventLoop loop, String host, int port) {
+        long start = System.nanoTime();
+        Future<List<InetSocketAddress>> resolved = resolvers.getResolver(loop)
+            .resolveAll(InetSocketAddress.createUnresolved(host, port));
+        resolved.addListener(done -> {
+            record(System.nanoTime() - start);
+            if (!done.isSuccess()) {
+                failures.increment();
+                logger.warn("Failed to resolve {}: {}", host, done.cause().getMessage());
+            }
+        });
+        return resolved;
+    }
+
+    private void record(long nanos) {
+        lookups.increment();
+        long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+        resolveMicros.add(micros);
+        long millis = micros / 1000;
+        int bucket = millis <= 1 ? 0 : millis <= 10 ? 1 : millis <= 100 ? 2 : millis <= 1000 ? 3 : 4;
+        latencyBuckets[bucket].increment();
+    }
+
+    /**
+     * Runs on the prefetch loop. Names that expired without being used since their
+     * last resolution are dropped from tracking.
+     */
+    private void prefetch() {
+        long now = System.currentTimeMillis();
+        for (PrefetchingDnsCache.Tracked name : cache.tracked()) {
+            long expiresAt = name.expiresAt;
+            if (expiresAt == Long.MAX_VALUE || cache.isRefreshing(name.hostname)) {
+                continue;
+            }
+            if (expiresAt <= now) {
+                if (name.hits.sum() == 0) {
+                    cache.forget(name);
+                }
+                name.hits.reset();
+                continue;
+            }
+            long lead = Math.max(PREFETCH_MIN_LEAD_MILLIS, name.ttlMillis / 10);
+            if (expiresAt - now > lead || name.hits.sum() < prefetchMinHits) {
+                continue;
+            }
+            name.hits.reset();
+            prefetches.increment();
+            cache.beginRefresh(name.hostname);
+            resolvers.getResolver(prefetchLoop)
+                .resolve(InetSocketAddress.createUnresolved(name.hostname, 0))
+                .addListener(done -> {
+                    cache.endRefresh(name.hostname);
+                    if (!done.isSuccess()) {
+                        logger.debug("Prefetch of {} failed: {}", name.hostname, done.cause().getMessage());
+                    }
+                });
+        }
+    }
+
+    @Override
+    public void close() {
+        resolvers.close();
+        prefetchGroup.shutdownGracefully(0, 1, TimeUnit.SECONDS);
+        cache.clear();
+    }
+}
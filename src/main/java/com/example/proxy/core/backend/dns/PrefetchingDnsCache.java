@@ -0,0 +1,150 @@
+package com.example.proxy.core.backend.dns;
+
+import java.net.InetAddress;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.example.proxy.core.metrics.ProxyMetrics;
+
+import io.netty.channel.EventLoop;
+import io.netty.handler.codec.dns.DnsRecord;
+import io.netty.resolver.dns.DefaultDnsCache;
+import io.netty.resolver.dns.DnsCache;
+import io.netty.resolver.dns.DnsCacheEntry;
+
+/**
+ * Resolve cache shared by every event loop's resolver. Storage and TTL expiry are left to
+ * a {@link DefaultDnsCache}; this layer counts hits per name and remembers when each
+ * name's records run out, so {@link BackendResolver} can re-resolve popular names first.
+ *
+ * A prefetch runs on the prefetch loop and must not be answered from the cache it is
+ * about to refresh. Lookups on that loop for a name being refreshed therefore miss, and
+ * the first fresh record replaces the old ones in a single step; other loops keep being
+ * served the old records until then. A failed prefetch leaves the old records to expire
+ * on their own rather than caching the failure over them.
+ */
+final class PrefetchingDnsCache implements DnsCache {
+
+    static final class Tracked {
+        final String hostname;
+        final LongAdder hits = new LongAdder();
+        volatile long expiresAt = Long.MAX_VALUE;
+        volatile long ttlMillis;
+
+        Tracked(String hostname) {
+            this.hostname = hostname;
+        }
+    }
+
+    private final DefaultDnsCache delegate;
+    private final int minTtl;
+    private final int maxTtl;
+    private final EventLoop prefetchLoop;
+    private final Map<String, Tracked> tracked = new ConcurrentHashMap<>();
+
+    // names with a prefetch in flight and whether its first record has replaced the old ones;
+    // only touched on the prefetch loop
+    private final Set<String> refreshing = new HashSet<>();
+    private final Set<String> replaced = new HashSet<>();
+
+    private final LongAdder hits = ProxyMetrics.counter("dns.cache_hits");
+    private final LongAdder negativeHits = ProxyMetrics.counter("dns.cache_negative_hits");
+    private final LongAdder misses = ProxyMetrics.counter("dns.cache_misses");
+
+    PrefetchingDnsCache(int minTtl, int maxTtl, int negativeTtl, EventLoop prefetchLoop) {
+        this.delegate = new DefaultDnsCache(minTtl, maxTtl, negativeTtl);
+        this.minTtl = minTtl;
+        this.maxTtl = maxTtl;
+        this.prefetchLoop = prefetchLoop;
+    }
+
+    @Override
+    public List<? extends DnsCacheEntry> get(String hostname, DnsRecord[] additionals) {
+        if (prefetchLoop.inEventLoop() && refreshing.contains(hostname)) {
+            return null;
+        }
+        List<? extends DnsCacheEntry> entries = delegate.get(hostname, additionals);
+        if (entries == null || entries.isEmpty()) {
+            misses.increment();
+        } else if (entries.get(0).cause() != null) {
+            negativeHits.increment();
+        } else {
+            hits.increment();
+            Tracked name = tracked.get(hostname);
+            if (name != null) {
+                name.hits.increment();
+            }
+        }
+        return entries;
+    }
+
+    @Override
+    public DnsCacheEntry cache(String hostname, DnsRecord[] additionals, InetAddress address,
+                               long originalTtl, EventLoop loop) {
+        long ttlMillis = Math.max(minTtl, Math.min(maxTtl, originalTtl)) * 1000L;
+        long now = System.currentTimeMillis();
+        Tracked name = tracked.computeIfAbsent(hostname, Tracked::new);
+
+        if (loop == prefetchLoop && refreshing.contains(hostname) && replaced.add(hostname)) {
+            delegate.clear(hostname);
+            name.expiresAt = Long.MAX_VALUE;
+        }
+        // the records of one answer may carry different TTLs; the name is due with the first
+        if (name.expiresAt <= now || now + ttlMillis < name.expiresAt) {
+            name.expiresAt = now + ttlMillis;
+            name.ttlMillis = ttlMillis;
+        }
+        return delegate.cache(hostname, additionals, address, originalTtl, loop);
+    }
+
+    @Override
+    public DnsCacheEntry cache(String hostname, DnsRecord[] additionals, Throwable cause, EventLoop loop) {
+        if (loop == prefetchLoop && refreshing.contains(hostname)) {
+            return null;
+        }
+        return delegate.cache(hostname, additionals, cause, loop);
+    }
+
+    @Override
+    public void clear() {
+        tracked.clear();
+        delegate.clear();
+    }
+
+    @Override
+    public boolean clear(String hostname) {
+        tracked.remove(hostname);
+        return delegate.clear(hostname);
+    }
+
+    Iterable<Tracked> tracked() {
+        return tracked.values();
+    }
+
+    void forget(Tracked name) {
+        tracked.remove(name.hostname, name);
+    }
+
+    /**
+     * Marks a name as being refreshed; must be called on the prefetch loop.
+     */
+    void beginRefresh(String hostname) {
+        refreshing.add(hostname);
+    }
+
+    /**
+     * Must be called on the prefetch loop.
+     */
+    void endRefresh(String hostname) {
+        refreshing.remove(hostname);
+        replaced.remove(hostname);
+    }
+
+    boolean isRefreshing(String hostname) {
+        return refreshing.contains(hostname);
+    }
+}
@@ -0,0 +1,77 @@
+package com.example.proxy.core.backend.limit;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.example.proxy.core.backend.BackendTarget;
+import com.example.proxy.core.metrics.ProxyMetrics;
+
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+/**
+ * One {@link VegasLimiter} per backend host and port, shared by every connection.
+ *
+ * Each backend's limit, in-flight count and queue depth are published as the gauges
+ * {@code backend.limit.<host:port>}, {@code backend.inflight.<host:port>} and
+ * {@code backend.queue.<host:port>}. Limiters idle for a while are dropped with their
+ * gauges, so a forward proxy visiting many hosts does not accumulate them.
+ */
+public class BackendLimits implements AutoCloseable {
+
+    private static final long IDLE_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    private final int initialLimit;
+    private final int minLimit;
+    private final int maxLimit;
+    private final int maxQueue;
+    private final long queueTimeoutMillis;
+    private final Map<String, VegasLimiter> limiters = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService sweeper;
+
+    public BackendLimits(int initialLimit, int minLimit, int maxLimit, int maxQueue, long queueTimeoutMillis) {
+        this.initialLimit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.maxQueue = maxQueue;
+        this.queueTimeoutMillis = queueTimeoutMillis;
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("backend-limits", true));
+        sweeper.scheduleWithFixedDelay(this::dropIdle, 1, 1, TimeUnit.MINUTES);
+    }
+
+    public VegasLimiter forTarget(BackendTarget target) {
+        String key = target.getHost() + ":" + target.getPort();
+        VegasLimiter limiter = limiters.get(key);
+        if (limiter != null) {
+            return limiter;
+        }
+        return limiters.computeIfAbsent(key, name -> {
+            VegasLimiter created = new VegasLimiter(initialLimit, minLimit, maxLimit, maxQueue, queueTimeoutMillis);
+            ProxyMetrics.gauge("backend.limit." + name, created::getLimit);
+            ProxyMetrics.gauge("backend.inflight." + name, created::getInFlight);
+            ProxyMetrics.gauge("backend.queue." + name, created::getQueued);
+            return created;
+        });
+    }
+
+    private void dropIdle() {
+        long cutoff = System.currentTimeMillis() - IDLE_MILLIS;
+        limiters.entrySet().removeIf(entry -> {
+            VegasLimiter limiter = entry.getValue();
+            if (limiter.getLastUsed() >= cutoff || !limiter.isIdle()) {
+                return false;
+            }
+            ProxyMetrics.removeGauge("backend.limit." + entry.getKey());
+            ProxyMetrics.removeGauge("backend.inflight." + entry.getKey());
+            ProxyMetrics.removeGauge("backend.queue." + entry.getKey());
+            return true;
+        });
+    }
+
+    @Override
+    public void close() {
+        sweeper.shutdownNow();
+    }
+}
@@ -0,0 +1,13 @@
+package com.example.proxy.core.backend.limit;
+
+/*
+ *  Overview: A backend request refused by its concurrency limit, either at once or after
+ *            waiting out the queue timeout. Answered with 503 rather than a proxy error.
+ */
+
+public class LimitExceededException extends RuntimeException {
+
+    public LimitExceededException(String message) {
+        super(message, null, false, false);
+    }
+}
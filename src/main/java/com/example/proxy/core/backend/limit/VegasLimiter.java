@@ -0,0 +1,213 @@
+package com.example.proxy.core.backend.limit;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.example.proxy.core.metrics.ProxyMetrics;
+
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.ScheduledFuture;
+
+/**
+ * Adaptive cap on in-flight requests to one backend, after TCP Vegas.
+ *
+ * Each completed request is an RTT sample. The lowest recent RTT stands for the backend
+ * unloaded, so {@code limit * (1 - minRtt / rtt)} estimates how many requests are queued
+ * inside it. While that estimate is small the limit grows, once it passes
+ * {@code 6 log10(limit)} the limit shrinks, and any failed request shrinks it too. The
+ * minimum RTT is re-measured every few dozen limits' worth of samples so it can follow a
+ * backend that has become permanently slower.
+ *
+ * Requests over the limit wait in a short FIFO queue until a permit frees up or the
+ * queue timeout passes; when the queue is full they are refused at once.
+ */
+public class VegasLimiter {
+
+    private static final int PROBE_MULTIPLIER = 30;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final int maxQueue;
+    private final long queueTimeoutMillis;
+
+    private final ArrayDeque<Waiter> queue = new ArrayDeque<>();
+    private double limit;
+    private int inFlight;
+    private long minRttNanos;
+    private long samplesUntilProbe;
+    private volatile long lastUsed = System.currentTimeMillis();
+
+    private static final LongAdder queued = ProxyMetrics.counter("backend.limit_queued");
+    private static final LongAdder rejected = ProxyMetrics.counter("backend.limit_rejected");
+    private static final LongAdder timedOut = ProxyMetrics.counter("backend.limit_queue_timeouts");
+
+    private static final class Waiter {
+        final CompletableFuture<Permit> granted;
+        final EventExecutor executor;
+        ScheduledFuture<?> timeout;
+
+        Waiter(CompletableFuture<Permit> granted, EventExecutor executor) {
+            this.granted = granted;
+            this.executor = executor;
+        }
+    }
+
+    /**
+     * One admitted request; release it exactly once when the request is done. Extra
+     * releases are ignored.
+     */
+    public final class Permit {
+        private final long startNanos = System.nanoTime();
+        private final int inFlightAtStart;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(int inFlightAtStart) {
+            this.inFlightAtStart = inFlightAtStart;
+        }
+
+        /**
+         * @param dropped true if the backend failed the request (connect error, reset,
+         *                no response), which is taken as a sign of overload
+         */
+        public void release(boolean dropped) {
+            if (released.compareAndSet(false, true)) {
+                onRelease(this, System.nanoTime() - startNanos, dropped);
+            }
+        }
+    }
+
+    public VegasLimiter(int initialLimit, int minLimit, int maxLimit, int maxQueue, long queueTimeoutMillis) {
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.maxQueue = maxQueue;
+        this.queueTimeoutMillis = queueTimeoutMillis;
+        this.samplesUntilProbe = nextProbe(initialLimit);
+    }
+
+    /**
+     * @param executor where a queued request is granted or times out; the caller's event loop
+     * @return a future completed with a permit, or failed with {@link LimitExceededException}
+     */
+    public CompletableFuture<Permit> acquire(EventExecutor executor) {
+        lastUsed = System.currentTimeMillis();
+        CompletableFuture<Permit> granted = new CompletableFuture<>();
+        Waiter waiter;
+        synchronized (this) {
+            if (inFlight < (int) limit) {
+                granted.complete(new Permit(++inFlight));
+                return granted;
+            }
+            if (queue.size() >= maxQueue || queueTimeoutMillis <= 0) {
+                rejected.increment();
+                granted.completeExceptionally(new LimitExceededException(
+                    "Backend concurrency limit " + (int) limit + " reached"));
+                return granted;
+            }
+            waiter = new Waiter(granted, executor);
+            queue.addLast(waiter);
+        }
+        queued.increment();
+        waiter.timeout = executor.schedule(() -> expire(waiter), queueTimeoutMillis, TimeUnit.MILLISECONDS);
+        return granted;
+    }
+
+    private void expire(Waiter waiter) {
+        synchronized (this) {
+            if (!queue.remove(waiter)) {
+                return;
+            }
+        }
+        timedOut.increment();
+        waiter.granted.completeExceptionally(new LimitExceededException(
+            "Timed out after " + queueTimeoutMillis + " ms waiting for a backend connection slot"));
+    }
+
+    private void onRelease(Permit permit, long rttNanos, boolean dropped) {
+        Waiter next = null;
+        Permit handoff = null;
+        synchronized (this) {
+            inFlight--;
+            update(rttNanos, permit.inFlightAtStart, dropped);
+            if (inFlight < (int) limit && !queue.isEmpty()) {
+                next = queue.pollFirst();
+                handoff = new Permit(++inFlight);
+            }
+        }
+        if (next != null) {
+            if (next.timeout != null) {
+                next.timeout.cancel(false);
+            }
+            Waiter granted = next;
+            Permit permitForNext = handoff;
+            granted.executor.execute(() -> {
+                if (!granted.granted.complete(permitForNext)) {
+                    permitForNext.release(false);
+                }
+            });
+        }
+    }
+
+    /**
+     * Vegas step; called with the monitor held.
+     */
+    private void update(long rttNanos, int inFlightAtStart, boolean dropped) {
+        if (rttNanos <= 0) {
+            return;
+        }
+        if (--samplesUntilProbe <= 0) {
+            // forget the old floor so a backend that got slower for good is not held to it
+            minRttNanos = 0;
+            samplesUntilProbe = nextProbe(limit);
+        }
+        if (minRttNanos == 0 || rttNanos < minRttNanos) {
+            minRttNanos = rttNanos;
+        }
+        double log = Math.max(1, Math.log10(limit));
+        if (dropped) {
+            limit = Math.max(minLimit, limit - log);
+            return;
+        }
+        // a backend that was not kept busy says nothing about how much more it can take
+        if (inFlightAtStart * 2 < limit) {
+            return;
+        }
+        double queueEstimate = Math.ceil(limit * (1 - (double) minRttNanos / rttNanos));
+        if (queueEstimate <= log) {
+            limit += 6 * log;
+        } else if (queueEstimate < 3 * log) {
+            limit += log;
+        } else if (queueEstimate > 6 * log) {
+            limit -= log;
+        }
+        limit = Math.max(minLimit, Math.min(maxLimit, limit));
+    }
+
+    private static long nextProbe(double limit) {
+        return (long) (PROBE_MULTIPLIER * limit * (0.5 + ThreadLocalRandom.current().nextDouble()));
+    }
+
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    public synchronized int getQueued() {
+        return queue.size();
+    }
+
+    synchronized boolean isIdle() {
+        return inFlight == 0 && queue.isEmpty();
+    }
+
+    long getLastUsed() {
+        return lastUsed;
+    }
+}
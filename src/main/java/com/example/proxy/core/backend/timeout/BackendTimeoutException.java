@@ -0,0 +1,20 @@
+package com.example.proxy.core.backend.timeout;
+
+/*
+ *  Overview: A backend request given up on because one of its phases took too long.
+ *            Answered with 504 rather than a proxy error.
+ */
+
+public class BackendTimeoutException extends RuntimeException {
+
+    private final BackendTimeouts.Phase phase;
+
+    public BackendTimeoutException(BackendTimeouts.Phase phase, String message) {
+        super(message, null, false, false);
+        this.phase = phase;
+    }
+
+    public BackendTimeouts.Phase getPhase() {
+        return phase;
+    }
+}
@@ -0,0 +1,96 @@
+package com.example.proxy.core.backend.timeout;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.example.proxy.core.backend.BackendResponseCallback;
+import com.example.proxy.core.metrics.ProxyMetrics;
+
+import io.netty.channel.EventLoop;
+import io.netty.util.Timer;
+
+/**
+ * Deadlines for the phases of a backend request, each of which may be switched off with 0:
+ *
+ * <ul>
+ *   <li>CONNECT: from the start to the connection being up, resolution included;</li>
+ *   <li>FIRST_BYTE: from the request being written to the response headers;</li>
+ *   <li>IDLE: between two reads of the response;</li>
+ *   <li>TOTAL: from the start to the end of the response.</li>
+ * </ul>
+ *
+ * All of them run on one shared {@link Timer}, a hashed wheel, on which arming and
+ * cancelling a deadline is constant time whatever the number of requests in flight;
+ * an expired deadline is handled on the event loop of its request. Expirations are
+ * counted in {@code backend.timeouts.<phase>}.
+ */
+public class BackendTimeouts {
+
+    public enum Phase {
+        CONNECT,
+        FIRST_BYTE,
+        IDLE,
+        TOTAL
+    }
+
+    private static final LongAdder[] expirations = new LongAdder[Phase.values().length];
+
+    static {
+        for (Phase phase : Phase.values()) {
+            expirations[phase.ordinal()] = ProxyMetrics.counter("backend.timeouts." + phase.name().toLowerCase(Locale.ROOT));
+        }
+    }
+
+    private final Timer timer;
+    private final long[] millis = new long[Phase.values().length];
+
+    public BackendTimeouts(Timer timer, long connectMillis, long firstByteMillis, long idleMillis, long totalMillis) {
+        this.timer = timer;
+        millis[Phase.CONNECT.ordinal()] = connectMillis;
+        millis[Phase.FIRST_BYTE.ordinal()] = firstByteMillis;
+        millis[Phase.IDLE.ordinal()] = idleMillis;
+        millis[Phase.TOTAL.ordinal()] = totalMillis;
+    }
+
+    /**
+     * Arms the total and connect deadlines of a new request.
+     *
+     * @param loop      where expirations are handled until the request has a channel
+     * @param callback  told of an expiration with a {@link BackendTimeoutException}
+     * @param onExpired run after the callback, on expiration only
+     * @param name      the backend, for logs and error messages
+     */
+    public RequestDeadline start(EventLoop loop, BackendResponseCallback callback, Runnable onExpired, String name) {
+        RequestDeadline deadline = new RequestDeadline(this, loop, callback, onExpired, name);
+        deadline.begin();
+        return deadline;
+    }
+
+    /**
+     * These deadlines with the first-byte and total ones replaced, on the same timer.
+     *
+     * @param firstByteMillis the first-byte deadline, 0 to switch it off, negative to keep it
+     * @param totalMillis     the total deadline, 0 to switch it off, negative to keep it
+     */
+    public BackendTimeouts withOverrides(long firstByteMillis, long totalMillis) {
+        if (firstByteMillis < 0 && totalMillis < 0) {
+            return this;
+        }
+        return new BackendTimeouts(timer, getMillis(Phase.CONNECT),
+                                   firstByteMillis >= 0 ? firstByteMillis : getMillis(Phase.FIRST_BYTE),
+                                   getMillis(Phase.IDLE),
+                                   totalMillis >= 0 ? totalMillis : getMillis(Phase.TOTAL));
+    }
+
+    Timer getTimer() {
+        return timer;
+    }
+
+    long getMillis(Phase phase) {
+        return millis[phase.ordinal()];
+    }
+
+    static void countExpiration(Phase phase) {
+        expirations[phase.ordinal()].increment();
+    }
+}
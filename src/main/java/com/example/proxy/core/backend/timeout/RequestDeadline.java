@@ -0,0 +1,223 @@
+package com.example.proxy.core.backend.timeout;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.example.proxy.core.backend.BackendResponseCallback;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.EventLoop;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.util.Timeout;
+
+/**
+ * The deadlines of one backend request. Besides the total deadline, at most one phase
+ * deadline is armed at a time, and a phase change replaces it, so a deadline firing
+ * for a phase already over is recognised and ignored.
+ *
+ * Watches the backend pipeline through a {@link #newHandler() handler} right after the
+ * HTTP codec: the first decoded object ends the first-byte phase, every read restarts
+ * the idle clock, and the last content ends the request. The idle deadline is not
+ * re-armed per read; when it fires early it is pushed back by the time since the last
+ * read. A connect race opens several channels for one request, each with its own
+ * handler; only the events of the channel passed to {@link #connected} count, so a
+ * losing attempt closing does not end the request.
+ *
+ * Either the request ends or a deadline expires, never both: expiration reports a
+ * {@link BackendTimeoutException} to the callback and closes the connection.
+ */
+public final class RequestDeadline {
+
+    private static final Logger logger = LoggerFactory.getLogger(RequestDeadline.class);
+
+    private final BackendTimeouts timeouts;
+    private final EventLoop loop;
+    private final BackendResponseCallback callback;
+    private final Runnable onExpired;
+    private final String name;
+    private final AtomicBoolean over = new AtomicBoolean();
+    private volatile boolean expired;
+    private volatile Channel channel;
+    private volatile Timeout total;
+    // the deadline of the phase in progress, if it has one
+    private volatile Timeout current;
+    private volatile long lastReadNanos;
+    // event loop only
+    private boolean responding;
+
+    RequestDeadline(BackendTimeouts timeouts, EventLoop loop, BackendResponseCallback callback,
+                    Runnable onExpired, String name) {
+        this.timeouts = timeouts;
+        this.loop = loop;
+        this.callback = callback;
+        this.onExpired = onExpired;
+        this.name = name;
+    }
+
+    void begin() {
+        total = arm(BackendTimeouts.Phase.TOTAL, timeouts.getMillis(BackendTimeouts.Phase.TOTAL));
+        current = arm(BackendTimeouts.Phase.CONNECT, timeouts.getMillis(BackendTimeouts.Phase.CONNECT));
+    }
+
+    /**
+     * The connection is up; expirations are handled on its event loop from now on.
+     */
+    public void connected(Channel channel) {
+        this.channel = channel;
+        replace(null);
+    }
+
+    /**
+     * The request is written; called on the connection's event loop.
+     */
+    public void requestSent() {
+        if (!responding) {
+            replace(arm(BackendTimeouts.Phase.FIRST_BYTE, timeouts.getMillis(BackendTimeouts.Phase.FIRST_BYTE)));
+        }
+    }
+
+    /**
+     * Disarms every deadline: the request ended, failed or was cancelled.
+     */
+    public void finish() {
+        if (over.compareAndSet(false, true)) {
+            cancelAll();
+        }
+    }
+
+    public boolean isExpired() {
+        return expired;
+    }
+
+    /**
+     * A handler for one channel the request may use, to be installed after its HTTP codec.
+     */
+    public ChannelHandler newHandler() {
+        return new Watcher();
+    }
+
+    private void onRead(Object msg) {
+        lastReadNanos = System.nanoTime();
+        if (!responding) {
+            responding = true;
+            replace(arm(BackendTimeouts.Phase.IDLE, timeouts.getMillis(BackendTimeouts.Phase.IDLE)));
+        }
+        if (msg instanceof LastHttpContent) {
+            finish();
+        }
+    }
+
+    private final class Watcher extends ChannelInboundHandlerAdapter {
+
+        private boolean watched(ChannelHandlerContext ctx) {
+            return ctx.channel() == channel;
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+            if (watched(ctx)) {
+                onRead(msg);
+            }
+            ctx.fireChannelRead(msg);
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+            if (watched(ctx)) {
+                finish();
+                // an expired request was failed already; the aggregator need not report the cut-off response too
+                if (expired) {
+                    return;
+                }
+            }
+            ctx.fireChannelInactive();
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+            if (watched(ctx)) {
+                finish();
+            }
+            ctx.fireExceptionCaught(cause);
+        }
+    }
+
+    private Timeout arm(BackendTimeouts.Phase phase, long millis) {
+        return armNanos(phase, TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    private Timeout armNanos(BackendTimeouts.Phase phase, long nanos) {
+        if (nanos <= 0 || over.get()) {
+            return null;
+        }
+        return timeouts.getTimer().newTimeout(
+            timeout -> executor().execute(() -> expire(phase, timeout)), nanos, TimeUnit.NANOSECONDS);
+    }
+
+    private EventLoop executor() {
+        Channel connected = channel;
+        return connected != null ? connected.eventLoop() : loop;
+    }
+
+    private void replace(Timeout next) {
+        Timeout previous = current;
+        current = next;
+        if (previous != null) {
+            previous.cancel();
+        }
+    }
+
+    private void cancelAll() {
+        replace(null);
+        Timeout whole = total;
+        if (whole != null) {
+            whole.cancel();
+        }
+    }
+
+    private void expire(BackendTimeouts.Phase phase, Timeout timeout) {
+        if (over.get() || (phase != BackendTimeouts.Phase.TOTAL && timeout != current)) {
+            return;
+        }
+        long millis = timeouts.getMillis(phase);
+        if (phase == BackendTimeouts.Phase.IDLE) {
+            long remaining = TimeUnit.MILLISECONDS.toNanos(millis) - (System.nanoTime() - lastReadNanos);
+            if (remaining > 0) {
+                current = armNanos(phase, remaining);
+                return;
+            }
+        }
+        if (!over.compareAndSet(false, true)) {
+            return;
+        }
+        expired = true;
+        cancelAll();
+        BackendTimeouts.countExpiration(phase);
+        logger.warn("Backend {} timed out after {} ms ({})", name, millis, phase);
+        callback.onError(new BackendTimeoutException(phase, describe(phase, millis)));
+        onExpired.run();
+        Channel connected = channel;
+        if (connected != null) {
+            connected.close();
+        }
+    }
+
+    private String describe(BackendTimeouts.Phase phase, long millis) {
+        switch (phase) {
+            case CONNECT:
+                return "Could not connect to " + name + " within " + millis + " ms";
+            case FIRST_BYTE:
+                return name + " did not start responding within " + millis + " ms";
+            case IDLE:
+                return name + " response stalled for " + millis + " ms";
+            default:
+                return name + " did not complete the response within " + millis + " ms";
+        }
+    }
+}
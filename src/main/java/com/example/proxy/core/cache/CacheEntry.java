@@ -0,0 +1,409 @@
+package com.example.proxy.core.cache;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.example.proxy.core.stages.CompressionStage;
+import com.example.proxy.utils.ByteRange;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.util.AsciiString;
+
+/**
+ * A stored response: status, end-to-end headers, the off-heap body and the timing
+ * values needed to compute its age and freshness.
+ *
+ * The entry owns one reference to {@code body} and counts its own users: the cache holds
+ * one, dropped on eviction, and every reader takes another for as long as it takes a
+ * {@link #retainedBody()} duplicate. The body is released only when the count reaches
+ * zero, so a reader never duplicates a buffer that went back to the pool, possibly to be
+ * reused for another response.
+ *
+ * Popular entries may also hold compressed variants of the body, keyed by content coding.
+ * They are owned the same way and counted in the entry's weight.
+ */
+public class CacheEntry {
+
+    private static final CharSequence[] HOP_BY_HOP = {
+        HttpHeaderNames.CONNECTION, AsciiString.cached("keep-alive"), "Proxy-Connection", HttpHeaderNames.TE,
+        HttpHeaderNames.TRANSFER_ENCODING, HttpHeaderNames.UPGRADE, HttpHeaderNames.PROXY_AUTHENTICATE,
+        HttpHeaderNames.TRAILER, "X-Cache"
+    };
+
+    private final String key;
+    private final HttpResponseStatus status;
+    private final HttpHeaders headers;
+    private final ByteBuf body;
+    private final int bodyLength;
+    private final long requestTime;
+    private final long responseTime;
+    private final long initialAge;
+    private final long freshnessLifetime;
+    private final boolean mustRevalidate;
+    private final long staleWhileRevalidate;
+    private final long staleIfError;
+    private DiskCacheTier.Location diskLocation;
+    private ContentStore contentStore;
+    private String digest;
+
+    // copy-on-write; variants are added a handful of times per entry and read on every hit
+    private volatile Map<String, ByteBuf> variants = Collections.emptyMap();
+    private final AtomicInteger compressibleHits = new AtomicInteger();
+    private final AtomicBoolean variantsClaimed = new AtomicBoolean();
+    private volatile long variantBytes;
+    // the cache's reference plus one per reader in progress
+    private final AtomicInteger refs = new AtomicInteger(1);
+    private boolean released;
+
+    public CacheEntry(String key, HttpResponseStatus status, HttpHeaders headers, ByteBuf body,
+                      long requestTime, long responseTime) {
+        this.key = key;
+        this.status = status;
+        this.headers = endToEndCopy(headers);
+        this.body = body;
+        this.bodyLength = body.readableBytes();
+        this.requestTime = requestTime;
+        this.responseTime = responseTime;
+        this.initialAge = CachePolicy.initialAge(headers, requestTime, responseTime);
+        this.freshnessLifetime = CachePolicy.freshnessLifetime(headers, responseTime);
+
+        CachePolicy.Directives directives = CachePolicy.Directives.parse(headers.get(HttpHeaderNames.CACHE_CONTROL));
+        this.mustRevalidate = directives.has("must-revalidate") || directives.has("proxy-revalidate");
+        this.staleWhileRevalidate = Math.max(0, directives.seconds("stale-while-revalidate")) * 1000;
+        this.staleIfError = Math.max(0, directives.seconds("stale-if-error")) * 1000;
+    }
+
+    private static HttpHeaders endToEndCopy(HttpHeaders source) {
+        HttpHeaders copy = new DefaultHttpHeaders().set(source);
+        for (CharSequence name : HOP_BY_HOP) {
+            copy.remove(name);
+        }
+        return copy;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public HttpResponseStatus getStatus() {
+        return status;
+    }
+
+    public HttpHeaders getHeaders() {
+        return headers;
+    }
+
+    public long getRequestTime() {
+        return requestTime;
+    }
+
+    public long getResponseTime() {
+        return responseTime;
+    }
+
+    /**
+     * @return where the body lives on disk, or null for entries held in memory
+     */
+    public DiskCacheTier.Location getDiskLocation() {
+        return diskLocation;
+    }
+
+    CacheEntry withDiskLocation(DiskCacheTier.Location location) {
+        this.diskLocation = location;
+        return this;
+    }
+
+    /**
+     * Marks the body as a shared blob of {@code store}; releasing the entry then also
+     * drops its use of the blob.
+     */
+    CacheEntry withContent(ContentStore store, String digest) {
+        this.contentStore = store;
+        this.digest = digest;
+        return this;
+    }
+
+    String getDigest() {
+        return digest;
+    }
+
+    public long getFreshnessLifetime() {
+        return freshnessLifetime;
+    }
+
+    public boolean isMustRevalidate() {
+        return mustRevalidate;
+    }
+
+    /**
+     * How long past expiry this response may be served while it is revalidated, in ms.
+     */
+    public long getStaleWhileRevalidate() {
+        return staleWhileRevalidate;
+    }
+
+    /**
+     * How long past expiry this response may be served when the origin fails, in ms.
+     */
+    public long getStaleIfError() {
+        return staleIfError;
+    }
+
+    public int bodyLength() {
+        return bodyLength;
+    }
+
+    /**
+     * Approximate memory cost used against the cache byte budget. A body held in a
+     * {@link ContentStore} is charged there instead, once for all the entries sharing it.
+     */
+    public long weight() {
+        long weight = headers.size() * 64L + 128;
+        if (contentStore == null) {
+            weight += bodyLength;
+        }
+        return weight + variantBytes;
+    }
+
+    public long currentAge(long now) {
+        return initialAge + Math.max(0, now - responseTime);
+    }
+
+    public boolean isFresh(long now) {
+        return currentAge(now) < freshnessLifetime;
+    }
+
+    public long staleness(long now) {
+        return Math.max(0, currentAge(now) - freshnessLifetime);
+    }
+
+    /**
+     * Builds the entry that replaces this one after a 304: header fields from the 304
+     * update the stored ones (RFC 9111 section 4.3.4) and the body is shared, not copied.
+     *
+     * @return the refreshed entry, or null if this entry's body was already released
+     */
+    CacheEntry refresh(HttpHeaders notModified, long requestTime, long responseTime) {
+        ByteBuf shared = retainedBody();
+        if (shared == null) {
+            return null;
+        }
+        HttpHeaders merged = headers.copy();
+        for (String name : notModified.names()) {
+            if (HttpHeaderNames.CONTENT_LENGTH.contentEqualsIgnoreCase(name)) continue;
+            merged.set(name, notModified.getAll(name));
+        }
+        CacheEntry refreshed = new CacheEntry(key, status, merged, shared, requestTime, responseTime);
+        // the body is unchanged, so are its encodings
+        copyVariantsTo(refreshed);
+        return refreshed;
+    }
+
+    /**
+     * Builds a copy of this entry over {@code sameBytes}, another buffer holding the same
+     * body, e.g. the shared copy of a {@link ContentStore}. The copy owns the reference.
+     */
+    CacheEntry withBody(ByteBuf sameBytes) {
+        CacheEntry copy = new CacheEntry(key, status, headers, sameBytes, requestTime, responseTime);
+        copyVariantsTo(copy);
+        return copy;
+    }
+
+    private void copyVariantsTo(CacheEntry target) {
+        if (!tryRetain()) {
+            return;
+        }
+        try {
+            for (Map.Entry<String, ByteBuf> variant : variants.entrySet()) {
+                target.addVariant(variant.getKey(), variant.getValue().retainedDuplicate());
+            }
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Wall-clock time at which this response stops being fresh.
+     */
+    public long staleAt() {
+        return responseTime - initialAge + freshnessLifetime;
+    }
+
+    /**
+     * Whether the origin sent validators, so a stale copy can still be revalidated.
+     */
+    public boolean hasValidators() {
+        return headers.contains(HttpHeaderNames.ETAG) || headers.contains(HttpHeaderNames.LAST_MODIFIED);
+    }
+
+    /**
+     * @return a duplicate of the body with its own reference, or null if the entry has
+     *         already been released by a concurrent eviction
+     */
+    public ByteBuf retainedBody() {
+        if (!tryRetain()) {
+            return null;
+        }
+        try {
+            return body.retainedDuplicate();
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Takes a reference unless the entry has already been released for good.
+     */
+    private boolean tryRetain() {
+        for (int count = refs.get(); count > 0; count = refs.get()) {
+            if (refs.compareAndSet(count, count + 1)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Builds a client response from this entry, or null if the body is no longer available.
+     * Disk-resident bodies come back as a {@link FileBackedResponse} so they can be sent
+     * without copying; a non-null {@code range} yields a 206 (or 416) for that byte span.
+     */
+    public HttpResponse toResponse(long now, boolean withBody, ByteRange range) {
+        int total = bodyLength;
+        HttpResponseStatus responseStatus = status;
+        long offset = 0;
+        long length = total;
+        if (range == ByteRange.UNSATISFIABLE) {
+            responseStatus = HttpResponseStatus.REQUESTED_RANGE_NOT_SATISFIABLE;
+            length = 0;
+            withBody = false;
+        } else if (range != null) {
+            responseStatus = HttpResponseStatus.PARTIAL_CONTENT;
+            offset = range.getStart();
+            length = range.length();
+        }
+
+        HttpResponse response;
+        if (withBody && diskLocation != null) {
+            response = new FileBackedResponse(responseStatus, diskLocation.getPath(),
+                                              diskLocation.getBodyOffset() + offset, length);
+        } else {
+            ByteBuf content = withBody ? retainedBody() : Unpooled.EMPTY_BUFFER;
+            if (content == null) {
+                return null;
+            }
+            if (withBody && length != total) {
+                ByteBuf slice = content.retainedSlice(content.readerIndex() + (int) offset, (int) length);
+                content.release();
+                content = slice;
+            }
+            response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, responseStatus, content);
+        }
+        response.headers().set(headers);
+        response.headers().set(HttpHeaderNames.AGE, currentAge(now) / 1000);
+        response.headers().set(HttpHeaderNames.CONTENT_LENGTH, length);
+        if (range != null) {
+            response.headers().set(HttpHeaderNames.CONTENT_RANGE, range.contentRange(total));
+        }
+        return response;
+    }
+
+    /**
+     * Counts a hit by a client that would take a compressed variant.
+     *
+     * @return true once the hits reach {@code threshold}, and then not again unless the
+     *         claim is handed back with {@link #unclaimVariants()}
+     */
+    boolean claimVariants(int threshold) {
+        return compressibleHits.incrementAndGet() >= threshold && variantsClaimed.compareAndSet(false, true);
+    }
+
+    /**
+     * Gives back a claim whose build could not be queued, so a later hit claims again.
+     */
+    void unclaimVariants() {
+        variantsClaimed.set(false);
+    }
+
+    public boolean hasVariant(String encoding) {
+        return variants.containsKey(encoding);
+    }
+
+    /**
+     * Takes ownership of {@code encoded}; refused once the entry has been released.
+     */
+    synchronized boolean addVariant(String encoding, ByteBuf encoded) {
+        if (released || variants.containsKey(encoding)) {
+            encoded.release();
+            return false;
+        }
+        Map<String, ByteBuf> copy = new HashMap<>(variants);
+        copy.put(encoding, encoded);
+        variants = copy;
+        variantBytes += encoded.readableBytes();
+        return true;
+    }
+
+    /**
+     * Builds a client response carrying the stored variant in {@code encoding}, or null if
+     * there is none or it has been released. Ranges are always served from the identity body.
+     */
+    public HttpResponse toEncodedResponse(long now, boolean withBody, String encoding) {
+        if (!tryRetain()) {
+            return null;
+        }
+        ByteBuf variant;
+        try {
+            variant = variants.get(encoding);
+            if (variant == null) {
+                return null;
+            }
+            if (withBody) {
+                variant = variant.retainedDuplicate();
+            }
+        } finally {
+            release();
+        }
+        int length = variant.readableBytes();
+        HttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, status,
+                                                            withBody ? variant : Unpooled.EMPTY_BUFFER);
+        response.headers().set(headers);
+        response.headers().set(HttpHeaderNames.AGE, currentAge(now) / 1000);
+        CompressionStage.markEncoded(response.headers(), encoding, length);
+        return response;
+    }
+
+    /**
+     * Drops a reference; the last one frees the body, the variants and the entry's use of
+     * its shared blob. The cache drops its own on eviction or replacement.
+     */
+    void release() {
+        if (refs.decrementAndGet() != 0) {
+            return;
+        }
+        body.release();
+        Map<String, ByteBuf> dropped;
+        synchronized (this) {
+            released = true;
+            dropped = variants;
+            variants = Collections.emptyMap();
+        }
+        for (ByteBuf variant : dropped.values()) {
+            variant.release();
+        }
+        if (contentStore != null) {
+            contentStore.release(digest);
+        }
+    }
+}
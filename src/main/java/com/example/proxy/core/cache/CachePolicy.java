@@ -0,0 +1,268 @@
+package com.example.proxy.core.cache;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import io.netty.handler.codec.DateFormatter;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaders;
+
+/*
+ *  Overview: RFC 9111 rules for a shared cache - which requests may be answered from
+ *            the cache, which responses may be stored, and how long they stay fresh.
+ */
+
+public final class CachePolicy {
+
+    // status codes that are heuristically cacheable (RFC 9110 section 15.1)
+    private static final int[] HEURISTIC_STATUS = {200, 203, 204, 206, 300, 301, 308, 404, 405, 410, 414, 501};
+
+    private static final long MAX_HEURISTIC_MILLIS = 24L * 60 * 60 * 1000;
+
+    private CachePolicy() {
+    }
+
+    /**
+     * Parsed Cache-Control directives; names are lower-cased, valueless directives map to "".
+     */
+    public static final class Directives {
+        private final Map<String, String> values;
+
+        private Directives(Map<String, String> values) {
+            this.values = values;
+        }
+
+        public static Directives parse(String header) {
+            Map<String, String> values = new HashMap<>();
+            if (header == null || header.isEmpty()) {
+                return new Directives(values);
+            }
+            for (String part : header.split(",")) {
+                String token = part.trim();
+                if (token.isEmpty()) continue;
+                int eq = token.indexOf('=');
+                if (eq < 0) {
+                    values.put(token.toLowerCase(Locale.ROOT), "");
+                } else {
+                    String value = token.substring(eq + 1).trim();
+                    if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+                        value = value.substring(1, value.length() - 1);
+                    }
+                    values.put(token.substring(0, eq).trim().toLowerCase(Locale.ROOT), value);
+                }
+            }
+            return new Directives(values);
+        }
+
+        public boolean has(String directive) {
+            return values.containsKey(directive);
+        }
+
+        /**
+         * @return delta-seconds value of the directive, -1 when absent or malformed
+         */
+        public long seconds(String directive) {
+            String value = values.get(directive);
+            if (value == null || value.isEmpty()) return -1;
+            try {
+                return Math.max(0, Long.parseLong(value));
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+    }
+
+    public static boolean isCacheableMethod(String method) {
+        return "GET".equals(method) || "HEAD".equals(method);
+    }
+
+    /**
+     * Unsafe methods invalidate stored responses for the target URI (RFC 9111 section 4.4).
+     */
+    public static boolean invalidatesCache(String method) {
+        return "POST".equals(method) || "PUT".equals(method) || "DELETE".equals(method) || "PATCH".equals(method);
+    }
+
+    /**
+     * Whether a request may be satisfied from the cache without contacting the origin.
+     */
+    public static boolean mayServeFromCache(Map<String, String> requestHeaders) {
+        Directives request = Directives.parse(requestHeaders.get("cache-control"));
+        if (request.has("no-store") || request.has("no-cache")) {
+            return false;
+        }
+        // Pragma: no-cache only counts when the request carries no Cache-Control
+        String pragma = requestHeaders.get("pragma");
+        if (!requestHeaders.containsKey("cache-control") && pragma != null) {
+            return !pragma.toLowerCase(Locale.ROOT).contains("no-cache");
+        }
+        return true;
+    }
+
+    /**
+     * Whether a response to the given request may be stored by a shared cache (RFC 9111 section 3).
+     */
+    public static boolean isStorable(String method, Map<String, String> requestHeaders, int status, HttpHeaders responseHeaders) {
+        if (!"GET".equals(method)) {
+            return false;
+        }
+        Directives request = Directives.parse(requestHeaders.get("cache-control"));
+        if (request.has("no-store")) {
+            return false;
+        }
+
+        Directives response = Directives.parse(responseHeaders.get(HttpHeaderNames.CACHE_CONTROL));
+        if (response.has("no-store") || response.has("private")) {
+            return false;
+        }
+        String vary = responseHeaders.get(HttpHeaderNames.VARY);
+        if (vary != null && vary.trim().equals("*")) {
+            return false;
+        }
+        // responses setting cookies are per-client even when marked cacheable
+        if (responseHeaders.contains(HttpHeaderNames.SET_COOKIE)) {
+            return false;
+        }
+        if (requestHeaders.containsKey("authorization")
+                && !(response.has("public") || response.has("s-maxage") || response.has("must-revalidate"))) {
+            return false;
+        }
+
+        boolean explicit = response.has("public") || response.seconds("s-maxage") >= 0
+            || response.seconds("max-age") >= 0 || responseHeaders.contains(HttpHeaderNames.EXPIRES);
+        if (explicit) {
+            // 206 and 304 are not complete representations
+            return status >= 200 && status != 206 && status != 304 && status < 600;
+        }
+        return isHeuristicallyCacheable(status) && responseHeaders.contains(HttpHeaderNames.LAST_MODIFIED);
+    }
+
+    private static boolean isHeuristicallyCacheable(int status) {
+        for (int code : HEURISTIC_STATUS) {
+            if (code == status && status != 206) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Freshness lifetime in milliseconds (RFC 9111 section 4.2.1), 0 when the response
+     * must be revalidated before every use.
+     */
+    public static long freshnessLifetime(HttpHeaders headers, long responseTimeMillis) {
+        Directives response = Directives.parse(headers.get(HttpHeaderNames.CACHE_CONTROL));
+        if (response.has("no-cache")) {
+            return 0;
+        }
+        long sMaxAge = response.seconds("s-maxage");
+        if (sMaxAge >= 0) return sMaxAge * 1000;
+        long maxAge = response.seconds("max-age");
+        if (maxAge >= 0) return maxAge * 1000;
+
+        long date = dateHeader(headers, HttpHeaderNames.DATE, responseTimeMillis);
+        String expiresValue = headers.get(HttpHeaderNames.EXPIRES);
+        if (expiresValue != null) {
+            Date expires = DateFormatter.parseHttpDate(expiresValue);
+            // an invalid Expires value means "already expired"
+            return expires == null ? 0 : Math.max(0, expires.getTime() - date);
+        }
+
+        String lastModifiedValue = headers.get(HttpHeaderNames.LAST_MODIFIED);
+        if (lastModifiedValue != null) {
+            Date lastModified = DateFormatter.parseHttpDate(lastModifiedValue);
+            if (lastModified != null && lastModified.getTime() < date) {
+                return Math.min(MAX_HEURISTIC_MILLIS, (date - lastModified.getTime()) / 10);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Age of the response when it was received (RFC 9111 section 4.2.3, corrected_initial_age).
+     */
+    public static long initialAge(HttpHeaders headers, long requestTimeMillis, long responseTimeMillis) {
+        long date = dateHeader(headers, HttpHeaderNames.DATE, responseTimeMillis);
+        long apparentAge = Math.max(0, responseTimeMillis - date);
+        long ageValue = 0;
+        String age = headers.get(HttpHeaderNames.AGE);
+        if (age != null) {
+            try {
+                ageValue = Math.max(0, Long.parseLong(age.trim())) * 1000;
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        long correctedAge = ageValue + (responseTimeMillis - requestTimeMillis);
+        return Math.max(apparentAge, correctedAge);
+    }
+
+    /**
+     * Applies the request's max-age, min-fresh and max-stale directives to a stored response.
+     */
+    public static boolean satisfiesRequest(Map<String, String> requestHeaders, long currentAgeMillis, long freshnessMillis, boolean mustRevalidate) {
+        Directives request = Directives.parse(requestHeaders.get("cache-control"));
+        long maxAge = request.seconds("max-age");
+        if (maxAge >= 0 && currentAgeMillis > maxAge * 1000) {
+            return false;
+        }
+        long minFresh = request.seconds("min-fresh");
+        long remaining = freshnessMillis - currentAgeMillis;
+        if (minFresh >= 0 && remaining < minFresh * 1000) {
+            return false;
+        }
+        if (remaining >= 0) {
+            return true;
+        }
+        if (!mustRevalidate && request.has("max-stale")) {
+            long maxStale = request.seconds("max-stale");
+            return maxStale < 0 || -remaining <= maxStale * 1000;
+        }
+        return false;
+    }
+
+    /**
+     * Whether a stale response may be served while it is revalidated in the background
+     * (RFC 5861 section 3). Requests that state their own freshness needs are not served stale.
+     */
+    public static boolean mayServeWhileRevalidating(Map<String, String> requestHeaders, long stalenessMillis,
+                                                    long windowMillis, boolean mustRevalidate) {
+        if (mustRevalidate || windowMillis <= 0 || stalenessMillis > windowMillis) {
+            return false;
+        }
+        Directives request = Directives.parse(requestHeaders.get("cache-control"));
+        return !request.has("max-age") && !request.has("min-fresh");
+    }
+
+    /**
+     * Whether a stale response may stand in for an origin error (RFC 5861 section 4). The
+     * window is the larger of the response's and the request's stale-if-error.
+     */
+    public static boolean mayServeStaleOnError(Map<String, String> requestHeaders, long stalenessMillis,
+                                               long windowMillis, boolean mustRevalidate) {
+        if (mustRevalidate) {
+            return false;
+        }
+        long requestWindow = Directives.parse(requestHeaders.get("cache-control")).seconds("stale-if-error");
+        return stalenessMillis <= Math.max(windowMillis, requestWindow * 1000);
+    }
+
+    /**
+     * Whether the client sent its own preconditions, in which case the proxy must not add any.
+     */
+    public static boolean isConditional(Map<String, String> requestHeaders) {
+        return requestHeaders.containsKey("if-none-match") || requestHeaders.containsKey("if-modified-since")
+            || requestHeaders.containsKey("if-match") || requestHeaders.containsKey("if-unmodified-since")
+            || requestHeaders.containsKey("if-range");
+    }
+
+    public static boolean onlyIfCached(Map<String, String> requestHeaders) {
+        return Directives.parse(requestHeaders.get("cache-control")).has("only-if-cached");
+    }
+
+    private static long dateHeader(HttpHeaders headers, CharSequence name, long fallback) {
+        String value = headers.get(name);
+        if (value == null) return fallback;
+        Date date = DateFormatter.parseHttpDate(value);
+        return date != null ? date.getTime() : fallback;
+    }
+}
@@ -0,0 +1,129 @@
+package com.example.proxy.core.cache;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+/**
+ * Binary snapshot of the in-memory cache tier, used to restart warm.
+ *
+ * A snapshot is written to a temporary file and renamed over the previous one, so a
+ * crash mid-write leaves the last complete snapshot in place. Loading maps the file
+ * read-only and only decodes keys and metadata; bodies stay views of the mapping and
+ * are paged in by the OS when first served.
+ *
+ * Layout:
+ * <pre>
+ *   int magic, int version, int count,
+ *   count x (int keyLength, int metaLength, int bodyLength, key, meta, body)
+ * </pre>
+ */
+final class CacheSnapshot {
+
+    private static final int MAGIC = 0xAC5A9507;
+    private static final int VERSION = 1;
+
+    private CacheSnapshot() {
+    }
+
+    /**
+     * Writes the entries and atomically replaces {@code file}. Bodies are read through
+     * retained duplicates, so concurrent evictions are harmless.
+     *
+     * @return the number of entries written
+     */
+    static int write(Path file, Iterable<CacheEntry> entries) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        int count = 0;
+        try (FileOutputStream fileOut = new FileOutputStream(temp.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut, 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(0);
+
+            for (CacheEntry entry : entries) {
+                ByteBuf body = entry.retainedBody();
+                if (body == null) {
+                    continue;
+                }
+                try {
+                    byte[] key = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                    byte[] meta = DiskCacheTier.encodeMeta(entry);
+                    out.writeInt(key.length);
+                    out.writeInt(meta.length);
+                    out.writeInt(body.readableBytes());
+                    out.write(key);
+                    out.write(meta);
+                    body.getBytes(body.readerIndex(), out, body.readableBytes());
+                    count++;
+                } finally {
+                    body.release();
+                }
+            }
+            out.flush();
+            fileOut.getChannel().write(ByteBuffer.allocate(4).putInt(0, count), 8);
+            fileOut.getChannel().force(true);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return count;
+    }
+
+    /**
+     * Maps a snapshot and decodes its entries. A truncated or foreign file yields the
+     * entries read before the damage, or none.
+     */
+    static List<CacheEntry> read(Path file) throws IOException {
+        List<CacheEntry> entries = new ArrayList<>();
+        MappedByteBuffer mapping;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < 12 || channel.size() > Integer.MAX_VALUE) {
+                return entries;
+            }
+            mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (mapping.getInt(0) != MAGIC || mapping.getInt(4) != VERSION) {
+            return entries;
+        }
+
+        int count = mapping.getInt(8);
+        int offset = 12;
+        for (int i = 0; i < count && offset + 12 <= mapping.limit(); i++) {
+            int keyLength = mapping.getInt(offset);
+            int metaLength = mapping.getInt(offset + 4);
+            int bodyLength = mapping.getInt(offset + 8);
+            int start = offset + 12;
+            if (keyLength < 0 || metaLength < 0 || bodyLength < 0
+                    || (long) start + keyLength + metaLength + bodyLength > mapping.limit()) {
+                break;
+            }
+            byte[] key = new byte[keyLength];
+            ByteBuffer view = mapping.duplicate();
+            view.position(start);
+            view.get(key);
+
+            ByteBuffer meta = mapping.duplicate();
+            meta.position(start + keyLength).limit(start + keyLength + metaLength);
+            ByteBuffer body = mapping.duplicate();
+            body.position(start + keyLength + metaLength).limit(start + keyLength + metaLength + bodyLength);
+
+            entries.add(DiskCacheTier.decodeEntry(new String(key, StandardCharsets.UTF_8), meta.slice(),
+                                                  Unpooled.wrappedBuffer(body.slice())));
+            offset = start + keyLength + metaLength + bodyLength;
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,185 @@
+package com.example.proxy.core.cache;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.example.proxy.core.metrics.ProxyMetrics;
+
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.util.concurrent.EventExecutor;
+
+/**
+ * In-flight table for collapsed forwarding of cache misses.
+ *
+ * The first miss for a key becomes the leader and fetches from the origin; concurrent
+ * misses for the same key join its flight and are answered from the leader's response.
+ * A follower that waits longer than the timeout, or whose leader fails or receives a
+ * response that may not be shared, is told to fetch on its own.
+ *
+ * The table is split into stripes, each guarded by its own monitor, so unrelated keys
+ * on different event loops do not contend. Followers are always called back on their
+ * own event loop.
+ */
+public class CollapsedForwarding {
+
+    /**
+     * A request waiting on another connection's origin fetch.
+     */
+    public interface Follower {
+
+        /**
+         * Called with a retained duplicate of the leader's response; the follower owns it.
+         */
+        void onResponse(FullHttpResponse response);
+
+        /**
+         * Called when the follower has to forward its request itself.
+         */
+        void onAbandoned();
+    }
+
+    private static final class Waiter {
+        final EventExecutor executor;
+        final Follower follower;
+        final AtomicBoolean done = new AtomicBoolean();
+        volatile ScheduledFuture<?> timeout;
+
+        Waiter(EventExecutor executor, Follower follower) {
+            this.executor = executor;
+            this.follower = follower;
+        }
+    }
+
+    /**
+     * A leader's origin fetch; handed to the leader so only it can end the flight.
+     */
+    public static final class Flight {
+        final String key;
+        final long startedAt;
+        final List<Waiter> waiters = new ArrayList<>();
+
+        Flight(String key, long startedAt) {
+            this.key = key;
+            this.startedAt = startedAt;
+        }
+
+        public String getKey() {
+            return key;
+        }
+    }
+
+    private final List<Map<String, Flight>> stripes;
+    private final long timeoutMillis;
+
+    private final LongAdder collapsed = ProxyMetrics.counter("cache.collapsed");
+    private final LongAdder timeouts = ProxyMetrics.counter("cache.collapse_timeouts");
+
+    public CollapsedForwarding(long timeoutMillis) {
+        int count = Integer.highestOneBit(Math.max(16, Runtime.getRuntime().availableProcessors() * 4));
+        this.stripes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            stripes.add(new HashMap<>());
+        }
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    private Map<String, Flight> stripe(String key) {
+        int h = key.hashCode();
+        return stripes.get((h ^ (h >>> 16)) & (stripes.size() - 1));
+    }
+
+    /**
+     * Joins the flight for {@code key} as a follower, or starts a new flight.
+     *
+     * @return null if the caller is now a follower and will be called back, otherwise the
+     *         new flight, which the leader must end with {@link #complete} or {@link #abandon}
+     */
+    public Flight join(String key, EventExecutor executor, Follower follower) {
+        Map<String, Flight> stripe = stripe(key);
+        long now = System.currentTimeMillis();
+        Waiter waiter;
+        synchronized (stripe) {
+            Flight flight = stripe.get(key);
+            // a leader that outlived every follower timeout is presumed lost
+            if (flight == null || now - flight.startedAt > timeoutMillis) {
+                Flight lead = new Flight(key, now);
+                stripe.put(key, lead);
+                return lead;
+            }
+            waiter = new Waiter(executor, follower);
+            flight.waiters.add(waiter);
+        }
+        collapsed.increment();
+        waiter.timeout = executor.schedule(() -> {
+            if (waiter.done.compareAndSet(false, true)) {
+                synchronized (stripe) {
+                    Flight flight = stripe.get(key);
+                    if (flight != null) {
+                        flight.waiters.remove(waiter);
+                    }
+                }
+                timeouts.increment();
+                follower.onAbandoned();
+            }
+        }, timeoutMillis, TimeUnit.MILLISECONDS);
+        return null;
+    }
+
+    /**
+     * Ends the leader's flight. If {@code shareable}, every follower receives its own
+     * retained duplicate of {@code response}; otherwise they forward their requests
+     * themselves. The leader keeps ownership of {@code response}.
+     */
+    public void complete(Flight flight, FullHttpResponse response, boolean shareable) {
+        for (Waiter waiter : remove(flight)) {
+            if (!waiter.done.compareAndSet(false, true)) {
+                continue;
+            }
+            cancelTimeout(waiter);
+            if (shareable) {
+                FullHttpResponse copy = response.retainedDuplicate();
+                waiter.executor.execute(() -> waiter.follower.onResponse(copy));
+            } else {
+                waiter.executor.execute(waiter.follower::onAbandoned);
+            }
+        }
+    }
+
+    /**
+     * Ends the leader's flight without a response; followers forward their own requests.
+     * Does nothing if the flight has already ended.
+     */
+    public void abandon(Flight flight) {
+        for (Waiter waiter : remove(flight)) {
+            if (waiter.done.compareAndSet(false, true)) {
+                cancelTimeout(waiter);
+                waiter.executor.execute(waiter.follower::onAbandoned);
+            }
+        }
+    }
+
+    private static void cancelTimeout(Waiter waiter) {
+        // null if the flight ended before the follower finished joining; the timer is then a no-op
+        ScheduledFuture<?> timeout = waiter.timeout;
+        if (timeout != null) {
+            timeout.cancel(false);
+        }
+    }
+
+    private List<Waiter> remove(Flight flight) {
+        Map<String, Flight> stripe = stripe(flight.key);
+        synchronized (stripe) {
+            // a flight presumed lost may already have been replaced by a newer leader
+            if (!stripe.remove(flight.key, flight)) {
+                return new ArrayList<>();
+            }
+            return flight.waiters;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.example.proxy.core.cache;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.example.proxy.core.metrics.ProxyMetrics;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.concurrent.FastThreadLocal;
+
+/**
+ * Content-addressed body storage for the in-memory cache tier.
+ *
+ * Bodies are keyed by their SHA-256 digest, so byte-identical responses stored under
+ * different URLs share one off-heap copy. The store owns one reference to each canonical
+ * buffer and counts the cache entries using it; entries and readers get retained
+ * duplicates. When the last entry lets go the blob is dropped and the store's reference
+ * released, while readers still writing the bytes keep them alive through their own.
+ *
+ * The canonical bytes are charged to the cache budget here, once, however many entries
+ * use them; see {@link #physicalBytes()}.
+ */
+final class ContentStore {
+
+    private static final class Blob {
+        final ByteBuf canonical;
+        int users;
+
+        Blob(ByteBuf canonical) {
+            this.canonical = canonical;
+        }
+    }
+
+    private static final FastThreadLocal<MessageDigest> SHA256 = new FastThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() throws NoSuchAlgorithmException {
+            return MessageDigest.getInstance("SHA-256");
+        }
+    };
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final ConcurrentHashMap<String, Blob> blobs = new ConcurrentHashMap<>();
+
+    // bytes referenced by cache entries vs. bytes actually held
+    private final AtomicLong logicalBytes = new AtomicLong();
+    private final AtomicLong physicalBytes = new AtomicLong();
+    private final LongAdder dedupedStores = ProxyMetrics.counter("cache.dedupe.hits");
+
+    ContentStore() {
+        ProxyMetrics.gauge("cache.dedupe.logical_bytes", logicalBytes::get);
+        ProxyMetrics.gauge("cache.dedupe.physical_bytes", physicalBytes::get);
+        ProxyMetrics.gauge("cache.dedupe.blobs", blobs::size);
+        ProxyMetrics.gauge("cache.dedupe.ratio", () -> {
+            long physical = physicalBytes.get();
+            return physical == 0 ? 1.0 : (double) logicalBytes.get() / physical;
+        });
+    }
+
+    /**
+     * The bytes of all canonical bodies, each counted once.
+     */
+    long physicalBytes() {
+        return physicalBytes.get();
+    }
+
+    /**
+     * Hashes the readable bytes without copying them, one NIO component at a time.
+     * Costs a pass over the whole body, so the cache calls it off the event loops.
+     */
+    static String digest(ByteBuf content) {
+        MessageDigest sha = SHA256.get();
+        sha.reset();
+        for (ByteBuffer chunk : content.nioBuffers()) {
+            sha.update(chunk);
+        }
+        byte[] hash = sha.digest();
+        char[] hex = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            hex[i * 2] = HEX[(hash[i] >> 4) & 0xF];
+            hex[i * 2 + 1] = HEX[hash[i] & 0xF];
+        }
+        return new String(hex);
+    }
+
+    /**
+     * Registers one more user of the body with the given digest. If the store does not
+     * hold it yet, {@code content} becomes the canonical copy through a reference of its
+     * own, so it should be a compact buffer the caller does not modify.
+     *
+     * @return a retained duplicate of the canonical body, owned by the caller
+     */
+    ByteBuf acquire(String digest, ByteBuf content) {
+        int length = content.readableBytes();
+        boolean[] shared = new boolean[1];
+        Blob blob = blobs.compute(digest, (key, existing) -> {
+            if (existing != null) {
+                existing.users++;
+                shared[0] = true;
+                return existing;
+            }
+            Blob created = new Blob(content.retainedDuplicate());
+            created.users = 1;
+            physicalBytes.addAndGet(length);
+            return created;
+        });
+        logicalBytes.addAndGet(length);
+        if (shared[0]) {
+            dedupedStores.increment();
+        }
+        return blob.canonical.retainedDuplicate();
+    }
+
+    /**
+     * Registers another user of a body that is already stored, e.g. a refreshed entry
+     * taking over its predecessor's body.
+     *
+     * @return false if the blob has meanwhile been dropped
+     */
+    boolean retain(String digest) {
+        Blob blob = blobs.computeIfPresent(digest, (key, existing) -> {
+            existing.users++;
+            return existing;
+        });
+        if (blob == null) {
+            return false;
+        }
+        logicalBytes.addAndGet(blob.canonical.readableBytes());
+        return true;
+    }
+
+    /**
+     * Drops one user; the last one frees the store's copy.
+     */
+    void release(String digest) {
+        int[] length = new int[1];
+        blobs.computeIfPresent(digest, (key, blob) -> {
+            length[0] = blob.canonical.readableBytes();
+            if (--blob.users > 0) {
+                return blob;
+            }
+            physicalBytes.addAndGet(-length[0]);
+            blob.canonical.release();
+            return null;
+        });
+        logicalBytes.addAndGet(-length[0]);
+    }
+}
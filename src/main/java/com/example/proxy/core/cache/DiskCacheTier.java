@@ -0,0 +1,494 @@
+package com.example.proxy.core.cache;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.example.proxy.core.metrics.ProxyMetrics;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.Promise;
+
+/**
+ * Second cache tier for objects that do not fit (or no longer fit) in memory.
+ *
+ * Responses are appended to large segment files that stay memory-mapped; the in-memory
+ * index only maps a key to (segment, offset, length). Each record carries its own header,
+ * so the index is rebuilt on startup by scanning segments. Reads wrap a slice of the
+ * mapping and never copy the body onto the heap.
+ *
+ * Reads run on their own threads, off the event loops: a cold record page-faults, and a
+ * fault on a loop would stall every connection it serves. The reader decodes the headers
+ * and touches the body's pages, so that writing the body out later finds it in memory.
+ *
+ * All writes, compaction and segment deletion run on one background thread. Mappings
+ * are never unmapped explicitly: a reader holding a slice of a deleted segment stays
+ * valid until the slice is garbage collected.
+ *
+ * Record layout:
+ * <pre>
+ *   int magic, int recordLength, long staleAt, byte hasValidators,
+ *   int keyLength, int metaLength, int bodyLength, key, meta, body
+ * </pre>
+ */
+public class DiskCacheTier implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(DiskCacheTier.class);
+
+    private static final int MAGIC = 0xAC4EC0DE;
+    private static final int HEADER_BYTES = 4 + 4 + 8 + 1 + 4 + 4 + 4;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".dat";
+    // room left in a segment for a record's key and metadata
+    private static final int RECORD_OVERHEAD = 64 * 1024;
+    private static final int PAGE_BYTES = 4096;
+    private static final int READER_THREADS = 2;
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final long maxBytes;
+    private final ConcurrentHashMap<String, Location> index = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListMap<Integer, Segment> segments = new ConcurrentSkipListMap<>();
+    private final ScheduledExecutorService worker;
+    private final ExecutorService readers;
+    private Segment active;
+
+    private final LongAdder hits = ProxyMetrics.counter("cache.disk.hits");
+    private final LongAdder writes = ProxyMetrics.counter("cache.disk.writes");
+    private final LongAdder compactions = ProxyMetrics.counter("cache.disk.compactions");
+
+    static final class Segment {
+        final int id;
+        final Path path;
+        final MappedByteBuffer buffer;
+        final AtomicLong liveBytes = new AtomicLong();
+        int writePosition;
+
+        Segment(int id, Path path, MappedByteBuffer buffer) {
+            this.id = id;
+            this.path = path;
+            this.buffer = buffer;
+        }
+
+        ByteBuffer slice(int offset, int length) {
+            ByteBuffer view = buffer.duplicate();
+            view.position(offset).limit(offset + length);
+            return view.slice();
+        }
+    }
+
+    /**
+     * Where a record lives; immutable so index updates can be compare-and-set.
+     */
+    public static final class Location {
+        final Segment segment;
+        final int recordOffset;
+        final int recordLength;
+        final int bodyOffset;
+        final int bodyLength;
+        final long staleAt;
+        final boolean hasValidators;
+
+        Location(Segment segment, int recordOffset, int recordLength, int bodyOffset, int bodyLength,
+                 long staleAt, boolean hasValidators) {
+            this.segment = segment;
+            this.recordOffset = recordOffset;
+            this.recordLength = recordLength;
+            this.bodyOffset = bodyOffset;
+            this.bodyLength = bodyLength;
+            this.staleAt = staleAt;
+            this.hasValidators = hasValidators;
+        }
+
+        public Path getPath() {
+            return segment.path;
+        }
+
+        public long getBodyOffset() {
+            return bodyOffset;
+        }
+
+        public int getBodyLength() {
+            return bodyLength;
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException if a segment has no room for a body
+     */
+    public DiskCacheTier(Path directory, long maxBytes, int segmentBytes) throws IOException {
+        if (segmentBytes <= HEADER_BYTES + RECORD_OVERHEAD) {
+            throw new IllegalArgumentException("Disk cache segment size " + segmentBytes + " must exceed "
+                                               + (HEADER_BYTES + RECORD_OVERHEAD) + " bytes");
+        }
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.segmentBytes = segmentBytes;
+        Files.createDirectories(directory);
+
+        rebuildIndex();
+        this.active = segments.isEmpty() ? createSegment(0) : segments.lastEntry().getValue();
+
+        this.worker = Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("cache-disk", true));
+        this.worker.scheduleWithFixedDelay(this::compact, 30, 30, TimeUnit.SECONDS);
+        this.readers = Executors.newFixedThreadPool(READER_THREADS, new DefaultThreadFactory("cache-disk-read", true));
+
+        ProxyMetrics.gauge("cache.disk.entries", index::size);
+        ProxyMetrics.gauge("cache.disk.segments", segments::size);
+        logger.info("Disk cache tier at {} with {} entries in {} segments", directory, index.size(), segments.size());
+    }
+
+    public int maxObjectBytes() {
+        return segmentBytes - HEADER_BYTES - RECORD_OVERHEAD;
+    }
+
+    /**
+     * Queues the entry for writing. The entry body is retained until the write completes,
+     * so callers may release their own reference immediately.
+     */
+    public boolean writeAsync(CacheEntry entry) {
+        if (entry.bodyLength() > maxObjectBytes()) {
+            return false;
+        }
+        ByteBuf body = entry.retainedBody();
+        if (body == null) {
+            return false;
+        }
+        try {
+            worker.execute(() -> {
+                try {
+                    append(entry, body, null);
+                } catch (Exception e) {
+                    logger.warn("Failed to write {} to disk cache: {}", entry.getKey(), e.getMessage());
+                } finally {
+                    body.release();
+                }
+            });
+            return true;
+        } catch (Exception e) {
+            body.release();
+            return false;
+        }
+    }
+
+    public Location locate(String key) {
+        return index.get(key);
+    }
+
+    /**
+     * Materialises the stored response on a reader thread; the body is a zero-copy view
+     * of the mapping. The future completes on {@code loop}.
+     *
+     * @return null if nothing is stored under the key
+     */
+    public Future<CacheEntry> readAsync(String key, EventExecutor loop) {
+        Location location = index.get(key);
+        if (location == null) {
+            return null;
+        }
+        Promise<CacheEntry> promise = loop.newPromise();
+        try {
+            readers.execute(() -> {
+                try {
+                    CacheEntry entry = load(key, location);
+                    touch(location);
+                    hits.increment();
+                    promise.trySuccess(entry);
+                } catch (RuntimeException e) {
+                    promise.tryFailure(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            promise.tryFailure(e);
+        }
+        return promise;
+    }
+
+    /**
+     * Faults the pages of a record's body in.
+     */
+    private static void touch(Location location) {
+        int end = location.bodyOffset + location.bodyLength;
+        for (int i = location.bodyOffset; i < end; i += PAGE_BYTES) {
+            location.segment.buffer.get(i);
+        }
+    }
+
+    private CacheEntry load(String key, Location location) {
+        ByteBuffer record = location.segment.slice(location.recordOffset, location.recordLength);
+        int keyLength = record.getInt(17);
+        int metaLength = record.getInt(21);
+
+        ByteBuffer meta = record.duplicate();
+        meta.position(HEADER_BYTES + keyLength).limit(HEADER_BYTES + keyLength + metaLength);
+
+        ByteBuf body = Unpooled.wrappedBuffer(location.segment.slice(location.bodyOffset, location.bodyLength));
+        return decodeEntry(key, meta.slice(), body).withDiskLocation(location);
+    }
+
+    public void remove(String key) {
+        Location removed = index.remove(key);
+        if (removed != null) {
+            removed.segment.liveBytes.addAndGet(-removed.recordLength);
+        }
+    }
+
+    public void forEachKey(Consumer<String> action) {
+        index.keySet().forEach(action);
+    }
+
+    /**
+     * Appends a record to the active segment. With {@code expected} set, the index is only
+     * updated if the key still points there (compaction must not resurrect removed keys).
+     */
+    private void append(CacheEntry entry, ByteBuf body, Location expected) throws IOException {
+        byte[] key = entry.getKey().getBytes(StandardCharsets.UTF_8);
+        byte[] meta = encodeMeta(entry);
+        int bodyLength = body.readableBytes();
+        int recordLength = HEADER_BYTES + key.length + meta.length + bodyLength;
+        if (recordLength > segmentBytes) {
+            return;
+        }
+        if (active.writePosition + recordLength > segmentBytes) {
+            active = createSegment(active.id + 1);
+            enforceBudget();
+        }
+
+        long staleAt = entry.staleAt();
+        boolean hasValidators = entry.hasValidators();
+        int offset = active.writePosition;
+        ByteBuffer out = active.buffer.duplicate();
+        // payload first, magic last: a startup scan only accepts records whose magic was written
+        out.position(offset + HEADER_BYTES).limit(offset + recordLength);
+        out.put(key).put(meta);
+        body.getBytes(body.readerIndex(), out);
+        out.putInt(offset + 4, recordLength);
+        out.putLong(offset + 8, staleAt);
+        out.put(offset + 16, (byte) (hasValidators ? 1 : 0));
+        out.putInt(offset + 17, key.length);
+        out.putInt(offset + 21, meta.length);
+        out.putInt(offset + 25, bodyLength);
+        out.putInt(offset, MAGIC);
+        active.writePosition = offset + recordLength;
+
+        int bodyOffset = offset + HEADER_BYTES + key.length + meta.length;
+        Location location = new Location(active, offset, recordLength, bodyOffset, bodyLength, staleAt, hasValidators);
+        if (expected == null) {
+            publish(entry.getKey(), location);
+        } else if (index.replace(entry.getKey(), expected, location)) {
+            location.segment.liveBytes.addAndGet(recordLength);
+            expected.segment.liveBytes.addAndGet(-expected.recordLength);
+        }
+        writes.increment();
+    }
+
+    private void publish(String key, Location location) {
+        location.segment.liveBytes.addAndGet(location.recordLength);
+        Location previous = index.put(key, location);
+        if (previous != null) {
+            previous.segment.liveBytes.addAndGet(-previous.recordLength);
+        }
+    }
+
+    /**
+     * Serialises status, timing and headers; shared with {@link CacheSnapshot}.
+     */
+    static byte[] encodeMeta(CacheEntry entry) {
+        List<byte[]> parts = new ArrayList<>();
+        int size = 4 + 8 + 8 + 4;
+        for (Map.Entry<String, String> header : entry.getHeaders()) {
+            byte[] name = header.getKey().getBytes(StandardCharsets.UTF_8);
+            byte[] value = header.getValue().getBytes(StandardCharsets.UTF_8);
+            parts.add(name);
+            parts.add(value);
+            size += 8 + name.length + value.length;
+        }
+        ByteBuffer meta = ByteBuffer.allocate(size);
+        meta.putInt(entry.getStatus().code());
+        meta.putLong(entry.getRequestTime());
+        meta.putLong(entry.getResponseTime());
+        meta.putInt(parts.size() / 2);
+        for (byte[] part : parts) {
+            meta.putInt(part.length).put(part);
+        }
+        return meta.array();
+    }
+
+    static CacheEntry decodeEntry(String key, ByteBuffer meta, ByteBuf body) {
+        int status = meta.getInt();
+        long requestTime = meta.getLong();
+        long responseTime = meta.getLong();
+        HttpHeaders headers = new DefaultHttpHeaders();
+        int headerCount = meta.getInt();
+        for (int i = 0; i < headerCount; i++) {
+            headers.add(readString(meta), readString(meta));
+        }
+        return new CacheEntry(key, HttpResponseStatus.valueOf(status), headers, body, requestTime, responseTime);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private Segment createSegment(int id) throws IOException {
+        Path path = directory.resolve(String.format("%s%08d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+        Segment segment = new Segment(id, path, map(path));
+        segments.put(id, segment);
+        return segment;
+    }
+
+    private MappedByteBuffer map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        }
+    }
+
+    private void rebuildIndex() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            stream.forEach(files::add);
+        }
+        files.sort(null);
+
+        for (Path path : files) {
+            String name = path.getFileName().toString();
+            int id;
+            try {
+                id = Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            Segment segment = new Segment(id, path, map(path));
+            segments.put(id, segment);
+            scan(segment);
+        }
+    }
+
+    private void scan(Segment segment) {
+        ByteBuffer buffer = segment.buffer.duplicate();
+        int offset = 0;
+        while (offset + HEADER_BYTES <= segmentBytes && buffer.getInt(offset) == MAGIC) {
+            int recordLength = buffer.getInt(offset + 4);
+            int keyLength = buffer.getInt(offset + 17);
+            int metaLength = buffer.getInt(offset + 21);
+            int bodyLength = buffer.getInt(offset + 25);
+            if (recordLength <= 0 || offset + recordLength > segmentBytes
+                    || HEADER_BYTES + keyLength + metaLength + bodyLength != recordLength) {
+                break;
+            }
+            byte[] key = new byte[keyLength];
+            ByteBuffer keyView = buffer.duplicate();
+            keyView.position(offset + HEADER_BYTES);
+            keyView.get(key);
+
+            long staleAt = buffer.getLong(offset + 8);
+            boolean hasValidators = buffer.get(offset + 16) != 0;
+            int bodyOffset = offset + HEADER_BYTES + keyLength + metaLength;
+            publish(new String(key, StandardCharsets.UTF_8),
+                new Location(segment, offset, recordLength, bodyOffset, bodyLength, staleAt, hasValidators));
+            offset += recordLength;
+        }
+        segment.writePosition = offset;
+    }
+
+    /**
+     * Rewrites still-useful records of sparse or expired segments into the active segment
+     * and deletes the old files. Records that are stale and cannot be revalidated are dropped.
+     */
+    private void compact() {
+        try {
+            long now = System.currentTimeMillis();
+            index.forEach((key, location) -> {
+                if (location.staleAt < now && !location.hasValidators && index.remove(key, location)) {
+                    location.segment.liveBytes.addAndGet(-location.recordLength);
+                }
+            });
+
+            for (Segment segment : new ArrayList<>(segments.values())) {
+                if (segment == active) continue;
+                if (segment.liveBytes.get() * 2 > segment.writePosition) continue;
+
+                for (Map.Entry<String, Location> entry : index.entrySet()) {
+                    Location location = entry.getValue();
+                    if (location.segment != segment) continue;
+                    CacheEntry live = load(entry.getKey(), location);
+                    ByteBuf body = live.retainedBody();
+                    try {
+                        append(live, body, location);
+                    } finally {
+                        body.release();
+                    }
+                }
+                deleteSegment(segment);
+                compactions.increment();
+            }
+        } catch (Exception e) {
+            logger.warn("Disk cache compaction failed: {}", e.getMessage());
+        }
+    }
+
+    private void enforceBudget() {
+        while ((long) segments.size() * segmentBytes > maxBytes && segments.size() > 1) {
+            Segment oldest = segments.firstEntry().getValue();
+            if (oldest == active) break;
+            deleteSegment(oldest);
+        }
+    }
+
+    private void deleteSegment(Segment segment) {
+        segments.remove(segment.id);
+        index.entrySet().removeIf(entry -> entry.getValue().segment == segment);
+        try {
+            Files.deleteIfExists(segment.path);
+        } catch (IOException e) {
+            logger.warn("Failed to delete cache segment {}: {}", segment.path, e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() {
+        readers.shutdown();
+        worker.shutdown();
+        try {
+            worker.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Segment segment : segments.values()) {
+            segment.buffer.force();
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.example.proxy.core.cache;
+
+import java.nio.file.Path;
+
+import io.netty.handler.codec.http.DefaultHttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+
+/**
+ * Response head whose body is a byte span of a cache segment file. The server handler
+ * writes the head and then streams the span straight from the file (sendfile on plain
+ * connections), so the body never passes through a ByteBuf.
+ */
+public class FileBackedResponse extends DefaultHttpResponse {
+
+    private final Path path;
+    private final long offset;
+    private final long length;
+
+    public FileBackedResponse(HttpResponseStatus status, Path path, long offset, long length) {
+        super(HttpVersion.HTTP_1_1, status);
+        this.path = path;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public long getLength() {
+        return length;
+    }
+}
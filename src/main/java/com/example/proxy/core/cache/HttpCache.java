@@ -0,0 +1,552 @@
+package com.example.proxy.core.cache;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.example.proxy.core.metrics.ProxyMetrics;
+import com.example.proxy.core.server.ForwardHttp1;
+import com.example.proxy.core.stages.CompressionStage;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.Future;
+
+/**
+ * Shared in-memory HTTP response cache.
+ *
+ * Lookups are a single ConcurrentHashMap read and are safe to run on any event loop.
+ * Bodies are copied into pooled direct buffers and handed out as retained duplicates, so
+ * a hit never copies bytes. A background worker then hashes each new body and moves the
+ * entry onto the matching blob of a content-addressed {@link ContentStore}, so identical
+ * bodies under different URLs end up stored, and charged, once. Admission and eviction
+ * follow W-TinyLFU under a global byte budget; policy bookkeeping is serialised by a lock that readers only ever try, so a
+ * contended hit skips its recency update instead of waiting.
+ *
+ * With a {@link DiskCacheTier} attached, objects too large for memory are written straight
+ * to disk, memory evictions are demoted to disk, and memory misses fall through to it.
+ *
+ * With variants enabled, an in-memory entry that keeps being requested by clients accepting
+ * compression gets compressed copies of its body, built once on a background worker, so
+ * later hits are served pre-encoded.
+ */
+public class HttpCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(HttpCache.class);
+
+    private final ConcurrentHashMap<String, Node> entries = new ConcurrentHashMap<>();
+    // URL key -> request header names the stored variants were selected by
+    private final ConcurrentHashMap<String, String[]> varyHeaders = new ConcurrentHashMap<>();
+    // variant keys with a background revalidation in flight
+    private final Set<String> revalidating = ConcurrentHashMap.newKeySet();
+    private final ReentrantLock policyLock = new ReentrantLock();
+    private final TinyLfuPolicy policy;
+    private final long maxObjectBytes;
+    private final DiskCacheTier disk;
+    private final ContentStore contentStore = new ContentStore();
+    private final ByteBufAllocator allocator = PooledByteBufAllocator.DEFAULT;
+    // hashes stored bodies off the event loops; entries it cannot take stay unshared
+    private final ThreadPoolExecutor dedupeWorker = new ThreadPoolExecutor(
+        1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(256), new DefaultThreadFactory("cache-dedupe", true));
+
+    private final LongAdder hits = ProxyMetrics.counter("cache.hits");
+    private final LongAdder misses = ProxyMetrics.counter("cache.misses");
+    private final LongAdder bytesSaved = ProxyMetrics.counter("cache.bytes_saved");
+    private final LongAdder stores = ProxyMetrics.counter("cache.stores");
+    private final LongAdder evictions = ProxyMetrics.counter("cache.evictions");
+    private final LongAdder revalidations = ProxyMetrics.counter("cache.revalidations");
+    private final LongAdder staleServed = ProxyMetrics.counter("cache.stale_served");
+    private final LongAdder variantsBuilt = ProxyMetrics.counter("cache.variants_built");
+    private final LongAdder variantHits = ProxyMetrics.counter("cache.variant_hits");
+
+    private CompressionStage variantEncoder;
+    private int variantMinHits;
+    private ThreadPoolExecutor variantWorker;
+
+    private static final class Node extends TinyLfuPolicy.Node {
+        volatile CacheEntry entry;
+
+        Node(CacheEntry entry) {
+            super(entry.getKey(), entry.weight());
+            this.entry = entry;
+        }
+    }
+
+    public HttpCache(long maxBytes, long maxObjectBytes) {
+        this(maxBytes, maxObjectBytes, null);
+    }
+
+    public HttpCache(long maxBytes, long maxObjectBytes, DiskCacheTier disk) {
+        this.maxObjectBytes = maxObjectBytes;
+        this.disk = disk;
+        this.policy = new TinyLfuPolicy(maxBytes, (int) Math.min(1 << 20, Math.max(1024, maxBytes / 8192)),
+                                        contentStore::physicalBytes, this::onEvicted);
+
+        ProxyMetrics.gauge("cache.bytes", () -> policy.usedBytes());
+        ProxyMetrics.gauge("cache.entries", entries::size);
+        ProxyMetrics.gauge("cache.hit_ratio", () -> {
+            long h = hits.sum();
+            long total = h + misses.sum();
+            return total == 0 ? 0.0 : (double) h / total;
+        });
+
+        if (disk != null) {
+            disk.forEachKey(this::restoreVary);
+        }
+    }
+
+    /**
+     * Recovers the Vary header names of a URL from a variant key found on disk.
+     */
+    private void restoreVary(String key) {
+        String[] parts = key.split("\n");
+        String[] names = new String[parts.length - 1];
+        for (int i = 1; i < parts.length; i++) {
+            int eq = parts[i].indexOf('=');
+            names[i - 1] = eq < 0 ? parts[i] : parts[i].substring(0, eq);
+        }
+        varyHeaders.putIfAbsent(parts[0], names);
+    }
+
+    /**
+     * Returns the entry held in memory matching the request's URL and Vary-selected
+     * headers, regardless of freshness, or null; see {@link #lookupOnDisk} for the rest.
+     * Hit/miss accounting is left to the caller, which knows whether the entry was
+     * actually usable.
+     */
+    public CacheEntry lookup(ForwardHttp1 request) {
+        String urlKey = urlKey(request);
+        String key = variantKey(urlKey, request.getHeaders(), varyHeaders.get(urlKey));
+        Node node = entries.get(key);
+        if (node == null) {
+            if (policyLock.tryLock()) {
+                try {
+                    policy.recordAccess(key);
+                } finally {
+                    policyLock.unlock();
+                }
+            }
+            return null;
+        }
+        if (policyLock.tryLock()) {
+            try {
+                policy.onHit(node);
+            } finally {
+                policyLock.unlock();
+            }
+        }
+        return node.entry;
+    }
+
+    /**
+     * Reads the request's entry from the disk tier off the event loop, after
+     * {@link #lookup} found none in memory.
+     *
+     * @return a future completing on {@code loop}, or null if the disk tier holds no entry
+     */
+    public Future<CacheEntry> lookupOnDisk(ForwardHttp1 request, EventExecutor loop) {
+        return disk != null ? disk.readAsync(keyFor(request), loop) : null;
+    }
+
+    /**
+     * Builds compressed variants of entries that have been hit {@code minHits} times by
+     * clients accepting compression. Encoding runs on a single background thread with a
+     * bounded backlog; entries that do not fit are picked up again on a later hit.
+     */
+    public HttpCache withVariants(CompressionStage encoder, int minHits) {
+        this.variantEncoder = encoder;
+        this.variantMinHits = minHits;
+        this.variantWorker = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(256),
+                                                    new DefaultThreadFactory("cache-variants", true));
+        return this;
+    }
+
+    /**
+     * Counts a hit that could have been served compressed and, once the entry is popular
+     * enough, queues the build of its variants.
+     */
+    public void offerVariants(CacheEntry entry) {
+        if (variantWorker == null || entry.getDiskLocation() != null || !entry.claimVariants(variantMinHits)) {
+            return;
+        }
+        try {
+            variantWorker.execute(() -> buildVariants(entry));
+        } catch (RejectedExecutionException e) {
+            logger.debug("Variant backlog full, skipping {}", entry.getKey());
+            entry.unclaimVariants();
+        }
+    }
+
+    public void recordVariantHit() {
+        variantHits.increment();
+    }
+
+    private void buildVariants(CacheEntry entry) {
+        ByteBuf body = entry.retainedBody();
+        if (body == null) {
+            return;
+        }
+        try {
+            for (String encoding : variantEncoder.getEncodings()) {
+                if (entry.hasVariant(encoding)) {
+                    continue;
+                }
+                ByteBuf encoded = variantEncoder.encode(body, encoding, allocator);
+                if (encoded == null) {
+                    continue;
+                }
+                if (encoded.readableBytes() >= body.readableBytes()) {
+                    encoded.release();
+                    continue;
+                }
+                if (!addVariant(entry, encoding, encoded)) {
+                    return;
+                }
+                variantsBuilt.increment();
+            }
+        } catch (RuntimeException e) {
+            logger.warn("Failed to build variants of {}: {}", entry.getKey(), e.getMessage());
+        } finally {
+            body.release();
+        }
+    }
+
+    /**
+     * Attaches a variant to an entry that is still the current one for its key and charges
+     * its bytes to the budget, which may evict other entries or this one.
+     */
+    private boolean addVariant(CacheEntry entry, String encoding, ByteBuf encoded) {
+        policyLock.lock();
+        try {
+            Node node = entries.get(entry.getKey());
+            if (node == null || node.entry != entry) {
+                encoded.release();
+                return false;
+            }
+            if (!entry.addVariant(encoding, encoded)) {
+                return false;
+            }
+            policy.onWeightChange(node, entry.weight());
+            return true;
+        } finally {
+            policyLock.unlock();
+        }
+    }
+
+    /**
+     * The variant key the request currently maps to, given the Vary headers seen so far.
+     */
+    public String keyFor(ForwardHttp1 request) {
+        String urlKey = urlKey(request);
+        return variantKey(urlKey, request.getHeaders(), varyHeaders.get(urlKey));
+    }
+
+    public void recordHit(CacheEntry entry) {
+        hits.increment();
+        bytesSaved.add(entry.bodyLength());
+    }
+
+    public void recordMiss() {
+        misses.increment();
+    }
+
+    /**
+     * Counts a stale response served while revalidating or in place of an origin error.
+     */
+    public void recordStale(CacheEntry entry) {
+        staleServed.increment();
+        bytesSaved.add(entry.bodyLength());
+    }
+
+    /**
+     * Claims the background revalidation of a key.
+     *
+     * @return false if another revalidation of the same key is already running
+     */
+    public boolean beginRevalidation(String key) {
+        return revalidating.add(key);
+    }
+
+    public void endRevalidation(String key) {
+        revalidating.remove(key);
+    }
+
+    /**
+     * Applies a 304 to a stored entry: the metadata is replaced and the body is kept in
+     * place. Disk entries are rewritten because their record header holds the expiry.
+     *
+     * @return the refreshed entry, or null if the stored body was released meanwhile
+     */
+    public CacheEntry refresh(CacheEntry stale, HttpHeaders notModified, long requestTime, long responseTime) {
+        CacheEntry refreshed = stale.refresh(notModified, requestTime, responseTime);
+        if (refreshed == null) {
+            return null;
+        }
+        revalidations.increment();
+        if (stale.getDigest() != null && contentStore.retain(stale.getDigest())) {
+            refreshed.withContent(contentStore, stale.getDigest());
+        }
+        if (stale.getDiskLocation() != null) {
+            if (disk != null) {
+                disk.writeAsync(refreshed);
+            }
+            return refreshed.withDiskLocation(stale.getDiskLocation());
+        }
+        insert(refreshed);
+        if (refreshed.getDigest() == null) {
+            scheduleDedupe(refreshed);
+        }
+        return refreshed;
+    }
+
+    /**
+     * Stores a copy of the response if RFC 9111 allows a shared cache to keep it.
+     * The body is copied into a pooled direct buffer; the caller keeps ownership of
+     * {@code response}. The entry is usable on return and deduplicated later.
+     */
+    public boolean store(ForwardHttp1 request, FullHttpResponse response, long requestTime, long responseTime) {
+        int status = response.status().code();
+        if (!CachePolicy.isStorable(request.getMethod(), request.getHeaders(), status, response.headers())) {
+            return false;
+        }
+        int length = response.content().readableBytes();
+        boolean diskOnly = length > maxObjectBytes;
+        if (diskOnly && (disk == null || length > disk.maxObjectBytes())) {
+            return false;
+        }
+
+        String urlKey = urlKey(request);
+        String[] vary = parseVary(response.headers().get(HttpHeaderNames.VARY));
+        varyHeaders.put(urlKey, vary);
+        String key = variantKey(urlKey, request.getHeaders(), vary);
+
+        ByteBuf body = allocator.directBuffer(length, length);
+        body.writeBytes(response.content(), response.content().readerIndex(), length);
+        CacheEntry entry = new CacheEntry(key, response.status(), response.headers(), body, requestTime, responseTime);
+        if (diskOnly) {
+            disk.writeAsync(entry);
+            entry.release();
+        } else {
+            insert(entry);
+            scheduleDedupe(entry);
+        }
+        stores.increment();
+        logger.debug("Stored {} ({} bytes, fresh for {} ms)", key, length, entry.getFreshnessLifetime());
+        return true;
+    }
+
+    void insert(CacheEntry entry) {
+        Node node = new Node(entry);
+        policyLock.lock();
+        try {
+            Node previous = entries.put(entry.getKey(), node);
+            if (previous != null) {
+                policy.onRemove(previous);
+                previous.entry.release();
+            }
+            policy.onAdd(node);
+        } finally {
+            policyLock.unlock();
+        }
+    }
+
+    private void scheduleDedupe(CacheEntry entry) {
+        try {
+            dedupeWorker.execute(() -> dedupe(entry));
+        } catch (RejectedExecutionException e) {
+            logger.debug("Dedupe backlog full, keeping {} unshared", entry.getKey());
+        }
+    }
+
+    /**
+     * Moves an entry onto the shared copy of its body, or makes its body the shared copy,
+     * by swapping in an equal entry; readers of the old one keep their duplicates.
+     */
+    private void dedupe(CacheEntry entry) {
+        ByteBuf body = entry.retainedBody();
+        if (body == null) {
+            return;
+        }
+        try {
+            String digest = ContentStore.digest(body);
+            policyLock.lock();
+            try {
+                Node node = entries.get(entry.getKey());
+                if (node == null || node.entry != entry) {
+                    return;
+                }
+                CacheEntry shared = entry.withBody(contentStore.acquire(digest, body))
+                    .withContent(contentStore, digest);
+                node.entry = shared;
+                entry.release();
+                policy.onWeightChange(node, shared.weight());
+            } finally {
+                policyLock.unlock();
+            }
+        } finally {
+            body.release();
+        }
+    }
+
+    /**
+     * Drops every stored variant of the request's URL (used for unsafe methods).
+     */
+    public void invalidate(ForwardHttp1 request) {
+        String urlKey = urlKey(request);
+        if (varyHeaders.remove(urlKey) == null) {
+            return;
+        }
+        if (disk != null) {
+            disk.forEachKey(key -> {
+                if (key.equals(urlKey) || key.startsWith(urlKey + "\n")) {
+                    disk.remove(key);
+                }
+            });
+        }
+        policyLock.lock();
+        try {
+            entries.forEach((key, node) -> {
+                if (key.equals(urlKey) || key.startsWith(urlKey + "\n")) {
+                    remove(node);
+                }
+            });
+        } finally {
+            policyLock.unlock();
+        }
+    }
+
+    private void remove(Node node) {
+        if (entries.remove(node.key, node)) {
+            policy.onRemove(node);
+            node.entry.release();
+        }
+    }
+
+    private void onEvicted(TinyLfuPolicy.Node evicted) {
+        Node node = (Node) evicted;
+        if (entries.remove(node.key, node)) {
+            evictions.increment();
+            if (disk != null) {
+                disk.writeAsync(node.entry);
+            }
+            node.entry.release();
+        }
+    }
+
+    /**
+     * Writes the in-memory tier to a snapshot file. Intended for a background thread: it
+     * only reads the entry map and never takes the policy lock.
+     *
+     * @return the number of entries written
+     */
+    public int snapshot(Path file) throws IOException {
+        long now = System.currentTimeMillis();
+        List<CacheEntry> live = new ArrayList<>();
+        for (Node node : entries.values()) {
+            CacheEntry entry = node.entry;
+            if (entry.isFresh(now) || entry.hasValidators()) {
+                live.add(entry);
+            }
+        }
+        return CacheSnapshot.write(file, live);
+    }
+
+    /**
+     * Loads a snapshot written by {@link #snapshot}. Bodies stay mapped from the file, so
+     * this only costs a pass over the metadata; entries that can no longer be used are skipped.
+     *
+     * @return the number of entries restored
+     */
+    public int restore(Path file) throws IOException {
+        if (!Files.isRegularFile(file)) {
+            return 0;
+        }
+        long now = System.currentTimeMillis();
+        int restored = 0;
+        for (CacheEntry entry : CacheSnapshot.read(file)) {
+            if (!entry.isFresh(now) && !entry.hasValidators()) {
+                continue;
+            }
+            restoreVary(entry.getKey());
+            insert(entry);
+            restored++;
+        }
+        logger.info("Restored {} cache entries from {}", restored, file);
+        return restored;
+    }
+
+    public void clear() {
+        if (variantWorker != null) {
+            variantWorker.shutdownNow();
+        }
+        dedupeWorker.shutdownNow();
+        policyLock.lock();
+        try {
+            entries.values().forEach(this::remove);
+            varyHeaders.clear();
+        } finally {
+            policyLock.unlock();
+        }
+    }
+
+    static String urlKey(ForwardHttp1 request) {
+        String uri = request.getURI();
+        if (uri.startsWith("http://") || uri.startsWith("https://")) {
+            int schemeEnd = uri.indexOf("://") + 3;
+            int pathStart = uri.indexOf('/', schemeEnd);
+            if (pathStart < 0) {
+                return uri.toLowerCase(Locale.ROOT) + "/";
+            }
+            return uri.substring(0, pathStart).toLowerCase(Locale.ROOT) + uri.substring(pathStart);
+        }
+        String host = request.getHeaders().get("host");
+        return "http://" + (host != null ? host.toLowerCase(Locale.ROOT) : "") + uri;
+    }
+
+    private static String[] parseVary(String vary) {
+        if (vary == null || vary.trim().isEmpty()) {
+            return new String[0];
+        }
+        String[] names = vary.split(",");
+        for (int i = 0; i < names.length; i++) {
+            names[i] = names[i].trim().toLowerCase(Locale.ROOT);
+        }
+        return names;
+    }
+
+    private static String variantKey(String urlKey, Map<String, String> requestHeaders, String[] vary) {
+        if (vary == null || vary.length == 0) {
+            return urlKey;
+        }
+        StringBuilder key = new StringBuilder(urlKey);
+        for (String name : vary) {
+            String value = requestHeaders.get(name);
+            key.append('\n').append(name).append('=');
+            if (value != null) {
+                key.append(value.trim().replaceAll("\\s+", " "));
+            }
+        }
+        return key.toString();
+    }
+}
@@ -0,0 +1,211 @@
+package com.example.proxy.core.cache;
+
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+/**
+ * Byte-weighted W-TinyLFU eviction policy.
+ *
+ * New entries land in a small LRU admission window (1% of the budget). Entries pushed
+ * out of the window compete with the main space's probation victim, and only the one
+ * the frequency sketch considers more popular is kept. The main space is a segmented
+ * LRU: a hit in probation promotes to the protected segment (80% of main).
+ *
+ * Bytes held outside the nodes, such as bodies shared by several entries, count against
+ * the budget too, so evictions also make room for them.
+ *
+ * Not thread safe; {@link HttpCache} serialises all calls.
+ */
+final class TinyLfuPolicy {
+
+    static final int WINDOW = 0;
+    static final int PROBATION = 1;
+    static final int PROTECTED = 2;
+
+    static class Node {
+        final String key;
+        long weight;
+        int queue;
+        Node prev;
+        Node next;
+
+        Node(String key, long weight) {
+            this.key = key;
+            this.weight = weight;
+        }
+    }
+
+    private static final class Queue {
+        final Node head = new Node(null, 0);
+        long bytes;
+
+        Queue() {
+            head.prev = head;
+            head.next = head;
+        }
+
+        void addFirst(Node node) {
+            node.next = head.next;
+            node.prev = head;
+            head.next.prev = node;
+            head.next = node;
+            bytes += node.weight;
+        }
+
+        void remove(Node node) {
+            node.prev.next = node.next;
+            node.next.prev = node.prev;
+            node.prev = null;
+            node.next = null;
+            bytes -= node.weight;
+        }
+
+        Node last() {
+            return head.prev == head ? null : head.prev;
+        }
+    }
+
+    private final Queue[] queues = {new Queue(), new Queue(), new Queue()};
+    private final FrequencySketch sketch;
+    private final Consumer<Node> evictionListener;
+    private final LongSupplier sharedBytes;
+    private final long maxBytes;
+    private final long windowMax;
+    private final long protectedMax;
+
+    TinyLfuPolicy(long maxBytes, int expectedEntries, LongSupplier sharedBytes, Consumer<Node> evictionListener) {
+        this.maxBytes = maxBytes;
+        this.windowMax = Math.max(1, maxBytes / 100);
+        this.protectedMax = (long) ((maxBytes - windowMax) * 0.8);
+        this.sketch = new FrequencySketch(expectedEntries);
+        this.evictionListener = evictionListener;
+        this.sharedBytes = sharedBytes;
+    }
+
+    long totalBytes() {
+        return queues[WINDOW].bytes + queues[PROBATION].bytes + queues[PROTECTED].bytes;
+    }
+
+    /**
+     * The bytes charged to the budget: the nodes' own weights plus the shared bytes.
+     */
+    long usedBytes() {
+        return totalBytes() + sharedBytes.getAsLong();
+    }
+
+    void recordAccess(String key) {
+        sketch.increment(key);
+    }
+
+    void onHit(Node node) {
+        if (node.prev == null) {
+            return;
+        }
+        sketch.increment(node.key);
+        switch (node.queue) {
+            case WINDOW:
+                queues[WINDOW].remove(node);
+                queues[WINDOW].addFirst(node);
+                break;
+            case PROBATION:
+                queues[PROBATION].remove(node);
+                node.queue = PROTECTED;
+                queues[PROTECTED].addFirst(node);
+                demoteProtectedOverflow();
+                break;
+            default:
+                queues[PROTECTED].remove(node);
+                queues[PROTECTED].addFirst(node);
+                break;
+        }
+    }
+
+    void onAdd(Node node) {
+        sketch.increment(node.key);
+        node.queue = WINDOW;
+        queues[WINDOW].addFirst(node);
+
+        while (queues[WINDOW].bytes > windowMax) {
+            Node candidate = queues[WINDOW].last();
+            queues[WINDOW].remove(candidate);
+            candidate.queue = PROBATION;
+            queues[PROBATION].addFirst(candidate);
+            admit(candidate);
+        }
+        // a single oversized window entry can still leave us above budget
+        evictOverflow();
+    }
+
+    void onRemove(Node node) {
+        if (node.prev != null) {
+            queues[node.queue].remove(node);
+        }
+    }
+
+    void onWeightChange(Node node, long newWeight) {
+        if (node.prev == null) {
+            node.weight = newWeight;
+            return;
+        }
+        queues[node.queue].bytes += newWeight - node.weight;
+        node.weight = newWeight;
+        evictOverflow();
+    }
+
+    /**
+     * Makes room in the main space for a candidate just moved out of the window,
+     * evicting whichever of candidate and victim has the lower estimated frequency.
+     */
+    private void admit(Node candidate) {
+        while (usedBytes() > maxBytes) {
+            Node victim = queues[PROBATION].last();
+            if (victim == candidate) {
+                victim = queues[PROTECTED].last();
+            }
+            if (victim == null) {
+                evict(candidate);
+                return;
+            }
+            if (sketch.frequency(candidate.key) > sketch.frequency(victim.key)) {
+                evict(victim);
+            } else {
+                evict(candidate);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Evicts until the budget is met or no node is left.
+     */
+    private void evictOverflow() {
+        while (usedBytes() > maxBytes) {
+            Node victim = firstNonNull(queues[PROBATION].last(), queues[PROTECTED].last(), queues[WINDOW].last());
+            if (victim == null) {
+                return;
+            }
+            evict(victim);
+        }
+    }
+
+    private void demoteProtectedOverflow() {
+        while (queues[PROTECTED].bytes > protectedMax) {
+            Node demoted = queues[PROTECTED].last();
+            queues[PROTECTED].remove(demoted);
+            demoted.queue = PROBATION;
+            queues[PROBATION].addFirst(demoted);
+        }
+    }
+
+    private void evict(Node node) {
+        queues[node.queue].remove(node);
+        evictionListener.accept(node);
+    }
+
+    private static Node firstNonNull(Node... nodes) {
+        for (Node node : nodes) {
+            if (node != null) return node;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,55 @@
+package com.example.proxy.core.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Process-wide registry of named counters and gauges.
+ * Counters are LongAdders so hot paths on different event loops never contend;
+ * gauges are sampled only when the metrics are rendered.
+ */
+public final class ProxyMetrics {
+
+    private static final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private static final Map<String, DoubleSupplier> gauges = new ConcurrentHashMap<>();
+
+    private ProxyMetrics() {
+    }
+
+    public static LongAdder counter(String name) {
+        LongAdder counter = counters.get(name);
+        if (counter == null) {
+            counter = counters.computeIfAbsent(name, key -> new LongAdder());
+        }
+        return counter;
+    }
+
+    public static void gauge(String name, DoubleSupplier supplier) {
+        gauges.put(name, supplier);
+    }
+
+    public static void removeGauge(String name) {
+        gauges.remove(name);
+    }
+
+    /**
+     * Plain-text rendering, one "name value" pair per line, sorted by name.
+     */
+    public static String render() {
+        Map<String, String> values = new TreeMap<>();
+        counters.forEach((name, counter) -> values.put(name, Long.toString(counter.sum())));
+        gauges.forEach((name, gauge) -> {
+            double value = gauge.getAsDouble();
+            values.put(name, value == Math.rint(value) && !Double.isInfinite(value)
+                ? Long.toString((long) value)
+                : String.format("%.4f", value));
+        });
+
+        StringBuilder out = new StringBuilder();
+        values.forEach((name, value) -> out.append(name).append(' ').append(value).append('\n'));
+        return out.toString();
+    }
+}
@@ -12,8 +12,10 @@ import com.example.proxy.core.backend.BackendResponseCallback;
 import com.example.proxy.core.backend.BackendTarget;
 import com.example.proxy.core.backend.HttpBackendClient;
 import com.example.proxy.core.backend.custom.BackendCallbackHttp1;
+import com.example.proxy.core.backend.timeout.BackendTimeoutException;
 import com.example.proxy.core.server.ForwardHttp1;
 import com.example.proxy.core.server.ForwardRequest;
+import com.example.proxy.core.server.ProxyContext;
 import com.example.proxy.core.server.handlers.ServerHandler;
 import com.example.proxy.utils.HttpUtil;
 
@@ -35,9 +37,15 @@ public class NotifierHttp1ServerHandler extends SimpleChannelInboundHandler<Full
     
     private static final Logger logger = LoggerFactory.getLogger(NotifierHttp1ServerHandler.class);
     List<String> destinations;
+    private final ProxyContext context;
 
     public NotifierHttp1ServerHandler(List<String> destinations) {
+        this(destinations, null);
+    }
+
+    public NotifierHttp1ServerHandler(List<String> destinations, ProxyContext context) {
         this.destinations = destinations;
+        this.context = context;
     }
 
     @Override
@@ -108,10 +116,8 @@ public class NotifierHttp1ServerHandler extends SimpleChannelInboundHandler<Full
             String path = "";
             //HTTPS tunneling
             if ("CONNECT".equals(rqstHttp.getMethod())) {
-                //TODO: use methods in HttpUtil
-                String[] both = uri.split(":");
-                host = both[0];
-                port = Integer.parseInt(both[1]);
+                host = HttpUtil.getHostFromAuthority(uri);
+                port = HttpUtil.getPortFromAuthority(uri, 443);
             } else {
                 host = HttpUtil.getHostFromURI(uri);
                 path = HttpUtil.getPathFromURI(uri);
@@ -153,6 +159,16 @@ public class NotifierHttp1ServerHandler extends SimpleChannelInboundHandler<Full
                 HttpBackendClient backendClient = new HttpBackendClient(ctx.channel().eventLoop(),
                                                                         auth != null ? auth : "none",
                                                                         comp != null ? comp : "none");
+                if (context != null && context.getBackendLimits() != null) {
+                    // each fan-out destination is held to its own backend's limit
+                    backendClient.withLimiter(context.getBackendLimits().forTarget(target));
+                }
+                if (context != null && context.getCircuitBreakers() != null) {
+                    backendClient.withCircuitBreaker(context.getCircuitBreakers().forTarget(target));
+                }
+                if (context != null) {
+                    backendClient.withTimeouts(context.getBackendTimeouts());
+                }
                 
                 BackendCallbackHttp1.ResponseProcessor responseProcessor = new BackendCallbackHttp1.ResponseProcessor() {
                     @Override
@@ -260,7 +276,7 @@ public class NotifierHttp1ServerHandler extends SimpleChannelInboundHandler<Full
             
             DefaultFullHttpResponse errorResponse = new DefaultFullHttpResponse(
                 HttpVersion.HTTP_1_1, 
-                HttpResponseStatus.INTERNAL_SERVER_ERROR,
+                cause instanceof BackendTimeoutException ? HttpResponseStatus.GATEWAY_TIMEOUT : HttpResponseStatus.INTERNAL_SERVER_ERROR,
                 ctx.alloc().buffer().writeBytes(errorJson.getBytes())
             );
             
@@ -342,7 +358,8 @@ public class NotifierHttp1ServerHandler extends SimpleChannelInboundHandler<Full
             
             // Regular HTTP request - use clustering and aggregation
             int totalExpectedResponses = 1 + destinations.size();
-            NotifierResponseAggregator aggregator = new NotifierResponseAggregator(ctx, null, totalExpectedResponses);
+            NotifierResponseAggregator aggregator = new NotifierResponseAggregator(ctx, null, totalExpectedResponses,
+                                                                                   context != null ? context.getTimer() : null);
             
             // First, handle the original request with its own ByteBuf copy to avoid reference counting issues
             ByteBuf originalContent = msg.content().copy();
@@ -406,9 +423,8 @@ public class NotifierHttp1ServerHandler extends SimpleChannelInboundHandler<Full
                         port = HttpUtil.getPortFromURI(url);
                         path = HttpUtil.getPathFromURI(url);
                     } else {
-                        String[] hostPort = url.split(":");
-                        host = hostPort[0];
-                        port = Integer.parseInt(hostPort[1]);
+                        host = HttpUtil.getHostFromAuthority(url);
+                        port = HttpUtil.getPortFromAuthority(url, 80);
                     }
                     
                     Map<String, String> metadata = new HashMap<>();
@@ -463,6 +479,16 @@ public class NotifierHttp1ServerHandler extends SimpleChannelInboundHandler<Full
                 HttpBackendClient backendClient = new HttpBackendClient(ctx.channel().eventLoop(),
                                                                         auth != null ? auth : "none",
                                                                         comp != null ? comp : "none");
+                if (context != null && context.getBackendLimits() != null) {
+                    // each fan-out destination is held to its own backend's limit
+                    backendClient.withLimiter(context.getBackendLimits().forTarget(target));
+                }
+                if (context != null && context.getCircuitBreakers() != null) {
+                    backendClient.withCircuitBreaker(context.getCircuitBreakers().forTarget(target));
+                }
+                if (context != null) {
+                    backendClient.withTimeouts(context.getBackendTimeouts());
+                }
                 
                 // Custom response processor that sends responses to aggregator instead of client
                 BackendCallbackHttp1.ResponseProcessor responseProcessor = new BackendCallbackHttp1.ResponseProcessor() {
@@ -5,7 +5,6 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -20,10 +19,16 @@ import io.netty.handler.codec.http.FullHttpResponse;
 import io.netty.handler.codec.http.HttpHeaderNames;
 import io.netty.handler.codec.http.HttpResponseStatus;
 import io.netty.handler.codec.http.HttpVersion;
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
 
 /**
  * Aggregates responses from multiple backend destinations before sending 
  * a single combined response back to the client.
+ *
+ * Whatever has arrived is sent after {@link #TIMEOUT_SECONDS}. The deadline goes on the
+ * proxy's shared timer wheel when there is one, where arming and cancelling it is O(1),
+ * rather than in the event loop's scheduled task queue.
  */
 public class NotifierResponseAggregator {
     
@@ -35,22 +40,31 @@ public class NotifierResponseAggregator {
     private final ChannelHandlerContext clientCtx;
     private final String requestId;
     private volatile boolean responsesSent = false;
-    private ScheduledFuture<?> timeoutTask;
+    private Timeout timeoutTask;
+
+    private static final long TIMEOUT_SECONDS = 10;
     
     private static final Map<String, NotifierResponseAggregator> activeAggregators = new ConcurrentHashMap<>();
     
     public NotifierResponseAggregator(ChannelHandlerContext ctx, ForwardRequest request, int expectedCount) {
+        this(ctx, request, expectedCount, null);
+    }
+
+    /**
+     * @param timer the shared timer wheel; null to fall back to the event loop's scheduler
+     */
+    public NotifierResponseAggregator(ChannelHandlerContext ctx, ForwardRequest request, int expectedCount, Timer timer) {
         this.clientCtx = ctx;
         this.expectedResponses = new AtomicInteger(expectedCount);
         this.requestId = generateRequestId(ctx, request);
         
         activeAggregators.put(requestId, this);
         
-        this.timeoutTask = ctx.executor().schedule(() -> {
-            logger.warn("Timeout reached for request {}, sending partial response with {}/{} responses", 
-                       requestId, receivedResponses.get(), expectedResponses.get());
-            sendAggregatedResponse();
-        }, 10, TimeUnit.SECONDS);
+        if (timer != null) {
+            this.timeoutTask = timer.newTimeout(timeout -> ctx.executor().execute(this::expire), TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } else {
+            ctx.executor().schedule(this::expire, TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        }
         
         logger.info("Created response aggregator for request {} expecting {} responses", requestId, expectedCount);
     }
@@ -76,6 +90,15 @@ public class NotifierResponseAggregator {
         }
     }
 
+    private synchronized void expire() {
+        if (responsesSent) {
+            return;
+        }
+        logger.warn("Timeout reached for request {}, sending partial response with {}/{} responses", 
+                   requestId, receivedResponses.get(), expectedResponses.get());
+        sendAggregatedResponse();
+    }
+
     public static NotifierResponseAggregator getAggregator(String requestId) {
         return activeAggregators.get(requestId);
     }
@@ -87,8 +110,8 @@ public class NotifierResponseAggregator {
         }
         responsesSent = true;
         
-        if (timeoutTask != null && !timeoutTask.isDone()) {
-            timeoutTask.cancel(false);
+        if (timeoutTask != null) {
+            timeoutTask.cancel();
         }
 
         activeAggregators.remove(requestId);
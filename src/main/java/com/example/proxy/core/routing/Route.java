@@ -0,0 +1,98 @@
+package com.example.proxy.core.routing;
+
+import java.util.Locale;
+
+import com.example.proxy.core.backend.timeout.BackendTimeouts;
+import com.example.proxy.core.upstream.UpstreamPool;
+
+/**
+ * A compiled route: the upstream pool requests matching it go to, the optional stages
+ * they skip, and the backend deadlines they get. Immutable; built by {@link RouteTable}.
+ */
+public final class Route {
+
+    /**
+     * The stages of request processing a route may opt out of.
+     */
+    public enum Stage {
+        AUTH("auth"),
+        RATE_LIMIT("rate-limit"),
+        CONTENT_FILTER("content-filter"),
+        CACHE("cache"),
+        COMPRESSION("compression");
+
+        private final String configName;
+
+        Stage(String configName) {
+            this.configName = configName;
+        }
+
+        /**
+         * @throws IllegalArgumentException for an unknown stage name
+         */
+        public static Stage forName(String name) {
+            String lower = name.toLowerCase(Locale.ROOT);
+            for (Stage stage : values()) {
+                if (stage.configName.equals(lower)) {
+                    return stage;
+                }
+            }
+            throw new IllegalArgumentException("Unknown route stage: " + name);
+        }
+    }
+
+    private final String host;
+    private final String pathPrefix;
+    private final UpstreamPool pool;
+    // one bit per Stage ordinal
+    private final int bypassed;
+    private final BackendTimeouts timeouts;
+
+    Route(String host, String pathPrefix, UpstreamPool pool, int bypassed, BackendTimeouts timeouts) {
+        this.host = host;
+        this.pathPrefix = pathPrefix;
+        this.pool = pool;
+        this.bypassed = bypassed;
+        this.timeouts = timeouts;
+    }
+
+    /**
+     * @return the host pattern, "*.example.com" for a wildcard, or null for any host
+     */
+    public String getHost() {
+        return host;
+    }
+
+    public String getPathPrefix() {
+        return pathPrefix;
+    }
+
+    public UpstreamPool getPool() {
+        return pool;
+    }
+
+    public boolean runs(Stage stage) {
+        return (bypassed & (1 << stage.ordinal())) == 0;
+    }
+
+    /**
+     * Whether requests on this route skip authentication, rate limiting or the content
+     * filter; such a route only matches whole path segments.
+     */
+    boolean bypassesGuard() {
+        return !runs(Stage.AUTH) || !runs(Stage.RATE_LIMIT) || !runs(Stage.CONTENT_FILTER);
+    }
+
+    /**
+     * @return the deadlines of requests on this route, the proxy-wide ones unless the
+     *         route overrides them
+     */
+    public BackendTimeouts getTimeouts() {
+        return timeouts;
+    }
+
+    @Override
+    public String toString() {
+        return (host != null ? host : "*") + pathPrefix + " -> " + pool.getName();
+    }
+}
@@ -0,0 +1,331 @@
+package com.example.proxy.core.routing;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.example.proxy.config.ProxyConfig;
+import com.example.proxy.core.backend.timeout.BackendTimeouts;
+import com.example.proxy.core.upstream.UpstreamPool;
+
+/**
+ * The configured routes compiled for lookup: a trie of host labels, walked from the
+ * top-level label down, and under each host a radix tree of path prefixes.
+ *
+ * A request is matched in a single walk that reads the Host and path in place, with no
+ * splitting, lowercasing or other allocation. The most specific route wins: an exact
+ * host over a wildcard ("*.example.com", which matches subdomains only), a longer
+ * wildcard over a shorter one, any of them over any host, and under the same host the
+ * longest path prefix. A host whose routes match none of the path falls back to the
+ * less specific hosts. Prefixes match characters, not path segments, except for routes
+ * skipping a stage that guards the origin: "/public" matches "/publicity" only when the
+ * route keeps them all. Of two routes with the same host and prefix the first wins.
+ * Paths are expected normalized, dot segments removed.
+ *
+ * Immutable once compiled, so a table can be swapped in whole while requests use the
+ * old one.
+ */
+public final class RouteTable {
+
+    private static final HostNode[] NO_HOSTS = new HostNode[0];
+    private static final PathNode[] NO_PATHS = new PathNode[0];
+
+    private final HostNode root = new HostNode(null);
+    private PathNode anyHost;
+    private int size;
+
+    private RouteTable() {
+    }
+
+    /**
+     * @param pools    the upstream pools routes may name
+     * @param timeouts the proxy-wide backend deadlines, which routes may override
+     * @throws IllegalArgumentException for a route to an undefined upstream, an unknown
+     *                                  stage or an unsupported host pattern
+     */
+    public static RouteTable compile(List<ProxyConfig.Route> routes, Map<String, UpstreamPool> pools,
+                                     BackendTimeouts timeouts) {
+        RouteTable table = new RouteTable();
+        for (ProxyConfig.Route route : routes) {
+            table.add(route, pools, timeouts);
+        }
+        table.root.freeze();
+        return table;
+    }
+
+    private void add(ProxyConfig.Route config, Map<String, UpstreamPool> pools, BackendTimeouts timeouts) {
+        UpstreamPool pool = pools.get(config.getUpstream());
+        if (pool == null) {
+            throw new IllegalArgumentException("Route to undefined upstream " + config.getUpstream());
+        }
+        int bypassed = 0;
+        for (String stage : config.getBypassedStages()) {
+            bypassed |= 1 << Route.Stage.forName(stage).ordinal();
+        }
+        BackendTimeouts routeTimeouts = timeouts != null
+            ? timeouts.withOverrides(config.getFirstByteTimeoutMillis(), config.getTotalTimeoutMillis())
+            : null;
+        String pattern = config.getHost() == null || "*".equals(config.getHost()) ? null : lower(config.getHost());
+        String prefix = config.getPathPrefix() != null ? config.getPathPrefix() : "/";
+        Route route = new Route(pattern, prefix, pool, bypassed, routeTimeouts);
+
+        if (pattern == null) {
+            anyHost = insert(anyHost, prefix, route);
+        } else {
+            boolean wildcard = pattern.startsWith("*.");
+            String name = wildcard ? pattern.substring(2) : pattern;
+            int end = hostEnd(name);
+            if (end == 0 || name.indexOf('*') >= 0) {
+                throw new IllegalArgumentException("Unsupported route host " + config.getHost());
+            }
+            HostNode node = root;
+            while (end > 0) {
+                int dot = name.lastIndexOf('.', end - 1);
+                node = node.childFor(name.substring(dot + 1, end));
+                end = Math.max(dot, 0);
+            }
+            if (wildcard) {
+                node.wildcard = insert(node.wildcard, prefix, route);
+            } else {
+                node.exact = insert(node.exact, prefix, route);
+            }
+        }
+        size++;
+    }
+
+    /**
+     * @param host the Host header or authority, with or without a port; may be null
+     * @param path the request path
+     * @return the most specific matching route, or null if none matches
+     */
+    public Route match(String host, String path) {
+        if (host != null) {
+            int end = hostEnd(host);
+            if (end > 0) {
+                Route route = matchHost(root, host, end, path);
+                if (route != null) {
+                    return route;
+                }
+            }
+        }
+        return anyHost != null ? anyHost.match(path) : null;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Walks down the labels of {@code host[0, end)}, last first, and back up through the
+     * wildcards of the hosts it passed until a route matches the path.
+     */
+    private static Route matchHost(HostNode node, String host, int end, String path) {
+        if (end <= 0) {
+            return node.exact != null ? node.exact.match(path) : null;
+        }
+        int dot = host.lastIndexOf('.', end - 1);
+        HostNode child = node.child(host, dot + 1, end);
+        if (child != null) {
+            Route route = matchHost(child, host, Math.max(dot, 0), path);
+            if (route != null) {
+                return route;
+            }
+        }
+        // labels remain below this node, so its wildcard applies
+        return node.wildcard != null ? node.wildcard.match(path) : null;
+    }
+
+    /**
+     * The end of the name in a Host value: before any port and trailing dot, after the
+     * closing bracket of an IPv6 literal.
+     */
+    static int hostEnd(String host) {
+        if (host.startsWith("[")) {
+            int close = host.indexOf(']');
+            return close > 0 ? close + 1 : host.length();
+        }
+        int colon = host.indexOf(':');
+        int end = colon >= 0 ? colon : host.length();
+        return end > 0 && host.charAt(end - 1) == '.' ? end - 1 : end;
+    }
+
+    private static char lower(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+
+    private static String lower(String s) {
+        char[] chars = s.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = lower(chars[i]);
+        }
+        return new String(chars);
+    }
+
+    private static int hashLabel(String s, int start, int end) {
+        int h = 0;
+        for (int i = start; i < end; i++) {
+            h = 31 * h + lower(s.charAt(i));
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static PathNode insert(PathNode tree, String prefix, Route route) {
+        PathNode root = tree != null ? tree : new PathNode("", null);
+        root.insert(prefix, route);
+        return root;
+    }
+
+    /**
+     * A host label and the routes of the name it ends, exact and wildcard. Children are
+     * kept in an open-addressed table by label hash once compiled.
+     */
+    private static final class HostNode {
+        final String label;
+        PathNode exact;
+        PathNode wildcard;
+        Map<String, HostNode> building = new HashMap<>();
+        HostNode[] children = NO_HOSTS;
+
+        HostNode(String label) {
+            this.label = label;
+        }
+
+        HostNode childFor(String childLabel) {
+            return building.computeIfAbsent(childLabel, HostNode::new);
+        }
+
+        void freeze() {
+            if (!building.isEmpty()) {
+                // at most half full, so a probe always ends at an empty slot
+                int capacity = Integer.highestOneBit(building.size() * 2 - 1) << 1;
+                children = new HostNode[capacity];
+                for (HostNode child : building.values()) {
+                    int slot = hashLabel(child.label, 0, child.label.length()) & (capacity - 1);
+                    while (children[slot] != null) {
+                        slot = (slot + 1) & (capacity - 1);
+                    }
+                    children[slot] = child;
+                    child.freeze();
+                }
+            }
+            building = null;
+        }
+
+        // labels are stored lowercase
+        private static boolean sameLabel(String host, int start, String label) {
+            for (int i = 0; i < label.length(); i++) {
+                if (lower(host.charAt(start + i)) != label.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        HostNode child(String host, int start, int end) {
+            int mask = children.length - 1;
+            if (mask < 0) {
+                return null;
+            }
+            int length = end - start;
+            for (int slot = hashLabel(host, start, end) & mask; children[slot] != null; slot = (slot + 1) & mask) {
+                HostNode child = children[slot];
+                if (child.label.length() == length && sameLabel(host, start, child.label)) {
+                    return child;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * A radix tree edge: the characters it adds to the prefix of its parent, and the
+     * route of the prefix it ends, if any. Siblings differ in their first character.
+     */
+    private static final class PathNode {
+        String label;
+        Route route;
+        PathNode[] children = NO_PATHS;
+
+        PathNode(String label, Route route) {
+            this.label = label;
+            this.route = route;
+        }
+
+        Route match(String path) {
+            PathNode node = this;
+            int pos = 0;
+            Route best = null;
+            while (true) {
+                if (node.route != null && (!node.route.bypassesGuard() || segmentBoundary(path, pos))) {
+                    best = node.route;
+                }
+                if (pos >= path.length()) {
+                    return best;
+                }
+                PathNode next = node.child(path.charAt(pos));
+                if (next == null || !path.startsWith(next.label, pos)) {
+                    return best;
+                }
+                pos += next.label.length();
+                node = next;
+            }
+        }
+
+        /**
+         * Whether {@code path[0, end)} ends a segment: the prefix ends with '/', or the path
+         * continues with one, a query or not at all.
+         */
+        private static boolean segmentBoundary(String path, int end) {
+            if (end == 0 || end >= path.length() || path.charAt(end - 1) == '/') {
+                return true;
+            }
+            char next = path.charAt(end);
+            return next == '/' || next == '?';
+        }
+
+        PathNode child(char first) {
+            for (PathNode child : children) {
+                if (child.label.charAt(0) == first) {
+                    return child;
+                }
+            }
+            return null;
+        }
+
+        void insert(String prefix, Route added) {
+            PathNode node = this;
+            int pos = 0;
+            while (pos < prefix.length()) {
+                PathNode child = node.child(prefix.charAt(pos));
+                if (child == null) {
+                    node.add(new PathNode(prefix.substring(pos), added));
+                    return;
+                }
+                int common = 1;
+                while (common < child.label.length() && pos + common < prefix.length()
+                        && child.label.charAt(common) == prefix.charAt(pos + common)) {
+                    common++;
+                }
+                if (common < child.label.length()) {
+                    // split the edge where the new prefix leaves it
+                    PathNode middle = new PathNode(child.label.substring(0, common), null);
+                    child.label = child.label.substring(common);
+                    middle.add(child);
+                    node.children[Arrays.asList(node.children).indexOf(child)] = middle;
+                    child = middle;
+                }
+                pos += common;
+                node = child;
+            }
+            if (node.route == null) {
+                node.route = added;
+            }
+        }
+
+        private void add(PathNode child) {
+            children = Arrays.copyOf(children, children.length + 1);
+            children[children.length - 1] = child;
+        }
+    }
+}
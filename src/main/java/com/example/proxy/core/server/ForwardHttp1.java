@@ -2,6 +2,7 @@ package com.example.proxy.core.server;
 
 import java.util.Map;
 
+import com.example.proxy.core.routing.Route;
 import com.example.proxy.core.server.ShareDataRequest;
 
 import io.netty.buffer.ByteBuf;
@@ -12,6 +13,7 @@ public class ForwardHttp1 extends ForwardRequest implements ShareDataRequest {
     private final String uri;
     private final Map<String, String> headers;
     private final String clientAddress;
+    private Route route;
 
     public ForwardHttp1(ByteBuf data, String method, String uri, Map<String, String> headers, String clientAddress) {
         super(data, "HTTP/1.1");
@@ -37,6 +39,23 @@ public class ForwardHttp1 extends ForwardRequest implements ShareDataRequest {
         return method;
     }
 
+    /**
+     * The reverse-proxy route matched when the request arrived, whose stage bindings
+     * apply to it from then on.
+     */
+    public ForwardHttp1 withRoute(Route route) {
+        this.route = route;
+        return this;
+    }
+
+    /**
+     * @return the matched route, or null when not running as a reverse proxy or when no
+     *         route matched
+     */
+    public Route getRoute() {
+        return route;
+    }
+
     @Override
     public ByteBuf copyData() {
         return getData().copy();
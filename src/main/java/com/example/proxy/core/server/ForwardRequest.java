@@ -3,6 +3,7 @@ package com.example.proxy.core.server;
 import java.util.ArrayList;
 import java.util.List;
 
+import com.example.proxy.core.auth.AuthenticatedUser;
 import com.example.proxy.core.stages.AuthStage;
 import com.example.proxy.core.stages.CompressionStage;
 import com.example.proxy.core.stages.StagesManager;
@@ -16,6 +17,7 @@ public class ForwardRequest {
     private final ByteBuf data;
     private final String type;
     private final List<StagesManager> stages;
+    private AuthenticatedUser user;
 
     protected ForwardRequest(ByteBuf data, String type) {
         this.data = data;
@@ -37,10 +39,20 @@ public class ForwardRequest {
         return this;
     }
 
+    public ForwardRequest withUser(AuthenticatedUser user) {
+        this.user = user;
+        return this;
+    }
+
     public ByteBuf getData() { return data; }
     public String getType() { return type; }
     public List<StagesManager> getStages() { return new ArrayList<>(stages); } 
 
+    /**
+     * @return the proxy-authenticated user, or null when proxy authentication is off
+     */
+    public AuthenticatedUser getUser() { return user; }
+
     public boolean hasStages() { return !stages.isEmpty(); }
     
     public boolean hasAuth() { 
@@ -0,0 +1,269 @@
+package com.example.proxy.core.server;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.example.proxy.core.metrics.ProxyMetrics;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.EventLoopGroup;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.EmptyHttpHeaders;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.ReadOnlyHttpHeaders;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.SingleThreadEventExecutor;
+
+/**
+ * Detects overloaded worker event loops and decides which new requests to shed.
+ *
+ * Every sample interval a no-op probe is queued on each worker loop; the time until it
+ * runs is that loop's lag, and a probe still waiting counts with its age so far. The
+ * worst lag and the largest task queue across loops, each relative to its threshold,
+ * make the pressure (1.0 = at threshold), smoothed over a few samples.
+ *
+ * <ul>
+ *   <li>NORMAL: nothing is shed.</li>
+ *   <li>ELEVATED (pressure above 1): every low-priority request is shed, and normal ones
+ *       with a probability rising from 0 at pressure 1 to 1 at pressure 4, so the
+ *       admitted share falls gradually as load grows instead of all at once.</li>
+ *   <li>CRITICAL (pressure above 4): the server also stops accepting connections, which
+ *       then wait in the kernel backlog instead of adding work.</li>
+ * </ul>
+ *
+ * A level is entered after two samples over its threshold and left only after pressure
+ * stayed below half that threshold for several samples in a row, so the proxy neither
+ * reacts to a single pause nor flaps at the boundary.
+ */
+public class OverloadMonitor implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(OverloadMonitor.class);
+
+    private static final double CRITICAL_PRESSURE = 4.0;
+    private static final int ENTRY_SAMPLES = 2;
+    private static final int RECOVERY_SAMPLES = 5;
+    private static final String PRIORITY_HEADER = "x-proxy-priority";
+
+    public enum Level {
+        NORMAL,
+        ELEVATED,
+        CRITICAL
+    }
+
+    public enum Priority {
+        /** Declared low ("X-Proxy-Priority: low") or a prefetch; shed first. */
+        LOW,
+        NORMAL
+    }
+
+    private final long lagThresholdNanos;
+    private final int pendingThreshold;
+    private final long sampleMillis;
+    private final ScheduledExecutorService sampler;
+
+    private final ByteBuf rejectionBody;
+    private final HttpHeaders rejectionHeaders;
+
+    private final List<EventExecutor> loops = new ArrayList<>();
+    // submit time of each loop's probe still waiting to run, 0 when none is
+    private AtomicLongArray probeSubmitted;
+    private AtomicLongArray lastLag;
+    private Channel serverChannel;
+
+    private volatile Level level = Level.NORMAL;
+    private volatile double pressure;
+    private volatile long lagNanos;
+    private volatile int pendingTasks;
+    private int hotSamples;
+    private int calmSamples;
+
+    private final LongAdder shedLow = ProxyMetrics.counter("overload.shed_low");
+    private final LongAdder shedNormal = ProxyMetrics.counter("overload.shed_normal");
+    private final LongAdder acceptPauses = ProxyMetrics.counter("overload.accept_pauses");
+
+    public OverloadMonitor(long lagThresholdMillis, int pendingThreshold, long sampleMillis) {
+        this.lagThresholdNanos = TimeUnit.MILLISECONDS.toNanos(lagThresholdMillis);
+        this.pendingThreshold = pendingThreshold;
+        this.sampleMillis = sampleMillis;
+        this.sampler = Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("overload-monitor", true));
+
+        byte[] body = "Proxy overloaded, retry later\n".getBytes(StandardCharsets.US_ASCII);
+        this.rejectionBody = Unpooled.unreleasableBuffer(
+            Unpooled.directBuffer(body.length).writeBytes(body).asReadOnly());
+        this.rejectionHeaders = new ReadOnlyHttpHeaders(false,
+            HttpHeaderNames.CONTENT_TYPE, "text/plain; charset=US-ASCII",
+            HttpHeaderNames.CONTENT_LENGTH, String.valueOf(body.length),
+            HttpHeaderNames.RETRY_AFTER, "1",
+            HttpHeaderNames.CONNECTION, HttpHeaderValues.CLOSE,
+            "X-Proxy-Server", "ahc-proxy");
+
+        ProxyMetrics.gauge("overload.lag_ms", () -> lagNanos / 1_000_000.0);
+        ProxyMetrics.gauge("overload.pending_tasks", () -> pendingTasks);
+        ProxyMetrics.gauge("overload.pressure", () -> pressure);
+        ProxyMetrics.gauge("overload.level", () -> level.ordinal());
+    }
+
+    /**
+     * Starts sampling {@code workers}; accepting on {@code serverChannel} is paused while
+     * critical.
+     */
+    public void start(EventLoopGroup workers, Channel serverChannel) {
+        workers.forEach(loops::add);
+        this.probeSubmitted = new AtomicLongArray(loops.size());
+        this.lastLag = new AtomicLongArray(loops.size());
+        this.serverChannel = serverChannel;
+        sampler.scheduleAtFixedRate(this::sample, sampleMillis, sampleMillis, TimeUnit.MILLISECONDS);
+        logger.info("Overload protection on {} worker loops: lag {} ms, {} pending tasks",
+                    loops.size(), TimeUnit.NANOSECONDS.toMillis(lagThresholdNanos), pendingThreshold);
+    }
+
+    /**
+     * Runs on the sampler thread only.
+     */
+    private void sample() {
+        long now = System.nanoTime();
+        long worstLag = 0;
+        int mostPending = 0;
+        for (int i = 0; i < loops.size(); i++) {
+            EventExecutor loop = loops.get(i);
+            long submitted = probeSubmitted.get(i);
+            if (submitted != 0) {
+                worstLag = Math.max(worstLag, now - submitted);
+            } else {
+                worstLag = Math.max(worstLag, lastLag.get(i));
+                probeSubmitted.set(i, now);
+                int index = i;
+                try {
+                    loop.execute(() -> {
+                        lastLag.set(index, System.nanoTime() - now);
+                        probeSubmitted.set(index, 0);
+                    });
+                } catch (RuntimeException e) {
+                    // the loop is shutting down
+                    probeSubmitted.set(i, 0);
+                }
+            }
+            if (loop instanceof SingleThreadEventExecutor) {
+                mostPending = Math.max(mostPending, ((SingleThreadEventExecutor) loop).pendingTasks());
+            }
+        }
+        lagNanos = worstLag;
+        pendingTasks = mostPending;
+        double raw = Math.max((double) worstLag / lagThresholdNanos, (double) mostPending / pendingThreshold);
+        // rise at once, fall over a few samples
+        double smoothed = raw >= pressure ? raw : pressure + (raw - pressure) / 4;
+        pressure = smoothed;
+        transition(raw, smoothed);
+    }
+
+    /**
+     * Levels are entered on raw pressure, so two slow samples are needed, and left on the
+     * smoothed one, so recovery is not declared on a single fast sample.
+     */
+    private void transition(double raw, double smoothed) {
+        Level previous = level;
+        Level next = previous;
+        Level entered = raw > CRITICAL_PRESSURE ? Level.CRITICAL : raw > 1.0 ? Level.ELEVATED : Level.NORMAL;
+        // one slow sample (a GC pause, class loading at startup) is not overload yet
+        hotSamples = entered.compareTo(previous) > 0 ? hotSamples + 1 : 0;
+        if (hotSamples >= ENTRY_SAMPLES) {
+            next = entered;
+            hotSamples = 0;
+            calmSamples = 0;
+        } else if (previous != Level.NORMAL) {
+            double exit = previous == Level.CRITICAL ? CRITICAL_PRESSURE / 2 : 0.5;
+            calmSamples = smoothed < exit ? calmSamples + 1 : 0;
+            if (calmSamples >= RECOVERY_SAMPLES) {
+                next = previous == Level.CRITICAL ? Level.ELEVATED : Level.NORMAL;
+                calmSamples = 0;
+            }
+        }
+        if (next == previous) {
+            return;
+        }
+        level = next;
+        logger.warn("Overload level {} -> {} (lag {} ms, {} pending tasks)", previous, next,
+                    TimeUnit.NANOSECONDS.toMillis(lagNanos), pendingTasks);
+        if (serverChannel != null && (next == Level.CRITICAL) != (previous == Level.CRITICAL)) {
+            boolean accept = next != Level.CRITICAL;
+            if (!accept) {
+                acceptPauses.increment();
+            }
+            serverChannel.config().setAutoRead(accept);
+        }
+    }
+
+    /**
+     * Whether a new request should be refused now. Costs two volatile reads and, while
+     * elevated, one random number.
+     */
+    public boolean shouldShed(Priority priority) {
+        Level current = level;
+        if (current == Level.NORMAL) {
+            return false;
+        }
+        if (priority == Priority.LOW) {
+            shedLow.increment();
+            return true;
+        }
+        double shedShare = Math.min(1.0, Math.max(0.0, (pressure - 1.0) / (CRITICAL_PRESSURE - 1.0)));
+        if (ThreadLocalRandom.current().nextDouble() < shedShare) {
+            shedNormal.increment();
+            return true;
+        }
+        return false;
+    }
+
+    public static Priority classify(HttpRequest request) {
+        String declared = request.headers().get(PRIORITY_HEADER);
+        if (declared != null && "low".equals(declared.trim().toLowerCase(Locale.ROOT))) {
+            return Priority.LOW;
+        }
+        String purpose = request.headers().get("sec-purpose");
+        if (purpose == null) {
+            purpose = request.headers().get("purpose");
+        }
+        return purpose != null && purpose.contains("prefetch") ? Priority.LOW : Priority.NORMAL;
+    }
+
+    /**
+     * A 503 sharing one pre-built body and header set. It asks the client to close, so
+     * a shed connection stops adding work.
+     */
+    public FullHttpResponse rejection() {
+        return new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.SERVICE_UNAVAILABLE,
+                                           rejectionBody.duplicate(), rejectionHeaders, EmptyHttpHeaders.INSTANCE);
+    }
+
+    public Level getLevel() {
+        return level;
+    }
+
+    @Override
+    public void close() {
+        sampler.shutdownNow();
+        if (serverChannel != null && level == Level.CRITICAL) {
+            serverChannel.config().setAutoRead(true);
+        }
+    }
+}
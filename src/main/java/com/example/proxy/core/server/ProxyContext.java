@@ -0,0 +1,341 @@
+package com.example.proxy.core.server;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.example.proxy.config.ProxyConfig;
+import com.example.proxy.core.auth.JwtValidator;
+import com.example.proxy.core.auth.ProxyAuthenticator;
+import com.example.proxy.core.backend.HappyEyeballsConnector;
+import com.example.proxy.core.backend.breaker.CircuitBreakers;
+import com.example.proxy.core.backend.dns.BackendResolver;
+import com.example.proxy.core.backend.limit.BackendLimits;
+import com.example.proxy.core.backend.timeout.BackendTimeouts;
+import com.example.proxy.core.cache.CollapsedForwarding;
+import com.example.proxy.core.cache.DiskCacheTier;
+import com.example.proxy.core.cache.HttpCache;
+import com.example.proxy.core.stages.BodyFilterStage;
+import com.example.proxy.core.stages.CompressionStage;
+import com.example.proxy.core.stages.RateLimitStage;
+import com.example.proxy.core.upstream.Upstreams;
+
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timer;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+/*
+ *  Overview: Server-wide components built once from ProxyConfig and shared by every
+ *            connection pipeline. Owned by ProxyServer, which closes it on shutdown.
+ */
+
+public class ProxyContext implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ProxyContext.class);
+
+    private final ProxyConfig config;
+    private final BodyFilterStage bodyFilter;
+    private final CompressionStage responseCompression;
+    private final HttpCache cache;
+    private final DiskCacheTier diskCache;
+    private final CollapsedForwarding collapsedForwarding;
+    private final Path snapshotPath;
+    private final ScheduledExecutorService snapshotWorker;
+    private final BackendResolver backendResolver;
+    private final HappyEyeballsConnector backendConnector;
+    private final BackendLimits backendLimits;
+    private final CircuitBreakers circuitBreakers;
+    private final JwtValidator jwtValidator;
+    private final ProxyAuthenticator authenticator;
+    private final RateLimitStage rateLimiter;
+    private final OverloadMonitor overloadMonitor;
+    private final Upstreams upstreams;
+    private final Timer timer;
+    private final BackendTimeouts backendTimeouts;
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    public ProxyContext(ProxyConfig config) {
+        this.config = config;
+        // first, so an unreadable key or user file fails before anything else needs closing
+        this.jwtValidator = config.getJwtJwksFile() != null ? openJwtValidator(config) : null;
+        // one wheel for every request deadline; 10 ms ticks are plenty for timeouts in seconds.
+        // Built early for the routes' deadlines; its thread only starts with the first one
+        this.timer = new HashedWheelTimer(new DefaultThreadFactory("proxy-timer", true), 10, TimeUnit.MILLISECONDS, 512);
+        this.backendTimeouts = new BackendTimeouts(timer, config.getBackendConnectTimeoutMillis(),
+                                                   config.getBackendFirstByteTimeoutMillis(),
+                                                   config.getBackendIdleTimeoutMillis(),
+                                                   config.getBackendTotalTimeoutMillis());
+        this.upstreams = config.isReverseProxyEnabled() ? new Upstreams(config, backendTimeouts) : null;
+        this.authenticator = config.isProxyAuthEnabled() ? openAuthenticator(config, jwtValidator) : null;
+        this.rateLimiter = config.isRateLimitEnabled()
+            ? new RateLimitStage(RateLimitStage.KeyType.parse(config.getRateLimitKey()),
+                                 config.getRateLimitRequestsPerSecond(), config.getRateLimitBurst(),
+                                 config.getRateLimitMaxKeys())
+            : null;
+        this.bodyFilter = config.isBodyFilterEnabled()
+            ? new BodyFilterStage(config.getBodyFilterCategories(), BodyFilterStage.parseAction(config.getBodyFilterAction()))
+            : null;
+        this.responseCompression = config.isCompressionEnabled()
+            ? new CompressionStage(config.getCompressionEncodings(), config.getCompressionContentTypes(),
+                                   config.getCompressionMinBytes(), config.getCompressionLevel())
+            : null;
+        this.diskCache = config.isCacheEnabled() ? openDiskCache(config) : null;
+        this.cache = config.isCacheEnabled()
+            ? new HttpCache(config.getCacheMaxBytes(), config.getCacheMaxObjectBytes(), diskCache)
+            : null;
+        if (cache != null && responseCompression != null && config.getCacheVariantMinHits() > 0) {
+            cache.withVariants(responseCompression, config.getCacheVariantMinHits());
+        }
+        this.collapsedForwarding = config.isCacheEnabled() && config.getCacheCollapseTimeoutMillis() > 0
+            ? new CollapsedForwarding(config.getCacheCollapseTimeoutMillis())
+            : null;
+
+        this.snapshotPath = cache != null && config.getCacheSnapshotPath() != null
+            ? Paths.get(config.getCacheSnapshotPath())
+            : null;
+        this.snapshotWorker = snapshotPath != null && config.getCacheSnapshotIntervalSeconds() > 0
+            ? Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("cache-snapshot", true))
+            : null;
+        this.backendResolver = new BackendResolver(config.getDnsServer(), config.getDnsMinTtlSeconds(),
+                                                   config.getDnsMaxTtlSeconds(), config.getDnsNegativeTtlSeconds(),
+                                                   config.getDnsPrefetchMinHits());
+        this.backendConnector = new HappyEyeballsConnector(config.getBackendConnectStaggerMillis());
+        this.backendLimits = config.isBackendLimitEnabled()
+            ? new BackendLimits(config.getBackendLimitInitial(), config.getBackendLimitMin(), config.getBackendLimitMax(),
+                                config.getBackendLimitQueueSize(), config.getBackendLimitQueueTimeoutMillis())
+            : null;
+        this.circuitBreakers = config.isCircuitBreakerEnabled()
+            ? new CircuitBreakers(config.getCircuitBreakerWindowSeconds(), config.getCircuitBreakerMinRequests(),
+                                  config.getCircuitBreakerFailureRatio(), config.getCircuitBreakerOpenMillis(),
+                                  config.getCircuitBreakerProbes())
+            : null;
+        this.overloadMonitor = config.isOverloadProtectionEnabled()
+            ? new OverloadMonitor(config.getOverloadLagThresholdMillis(), config.getOverloadPendingTasksThreshold(),
+                                  config.getOverloadSampleMillis())
+            : null;
+        if (snapshotPath != null) {
+            restoreSnapshot();
+        }
+        if (snapshotWorker != null) {
+            long interval = config.getCacheSnapshotIntervalSeconds();
+            snapshotWorker.scheduleWithFixedDelay(this::writeSnapshot, interval, interval, TimeUnit.SECONDS);
+        }
+    }
+
+    private void restoreSnapshot() {
+        try {
+            cache.restore(snapshotPath);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Ignoring unreadable cache snapshot {}: {}", snapshotPath, e.getMessage());
+        }
+    }
+
+    private void writeSnapshot() {
+        try {
+            long start = System.currentTimeMillis();
+            int written = cache.snapshot(snapshotPath);
+            logger.info("Wrote {} cache entries to {} in {} ms", written, snapshotPath, System.currentTimeMillis() - start);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Failed to write cache snapshot {}: {}", snapshotPath, e.getMessage());
+        }
+    }
+
+    private static DiskCacheTier openDiskCache(ProxyConfig config) {
+        if (config.getCacheDiskDirectory() == null) {
+            return null;
+        }
+        try {
+            return new DiskCacheTier(Paths.get(config.getCacheDiskDirectory()),
+                                     config.getCacheDiskMaxBytes(), config.getCacheDiskSegmentBytes());
+        } catch (IOException e) {
+            logger.warn("Disk cache disabled, cannot open {}: {}", config.getCacheDiskDirectory(), e.getMessage());
+            return null;
+        }
+    }
+
+    private static JwtValidator openJwtValidator(ProxyConfig config) {
+        try {
+            return new JwtValidator(Paths.get(config.getJwtJwksFile()), config.getJwtAudience(), config.getJwtIssuer(),
+                                    config.getJwtClockSkewSeconds(), config.getJwtCacheMaxTokens());
+        } catch (IOException | RuntimeException e) {
+            throw new IllegalStateException("Cannot load JWT keys from " + config.getJwtJwksFile(), e);
+        }
+    }
+
+    private static ProxyAuthenticator openAuthenticator(ProxyConfig config, JwtValidator jwtValidator) {
+        Path userFile = config.getProxyAuthUserFile() != null ? Paths.get(config.getProxyAuthUserFile()) : null;
+        try {
+            return new ProxyAuthenticator(config.getProxyAuthRealm(), userFile, config.getProxyAuthTokens(), jwtValidator,
+                                          config.getProxyAuthCacheTtlSeconds());
+        } catch (IOException e) {
+            // failing open would expose the proxy, so refuse to start instead
+            throw new IllegalStateException("Cannot read proxy auth user file " + userFile, e);
+        }
+    }
+
+    public ProxyConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * @return the shared body filter, or null when response body filtering is disabled
+     */
+    public BodyFilterStage getBodyFilter() {
+        return bodyFilter;
+    }
+
+    /**
+     * @return the proxy-side response compressor, or null when compression is disabled
+     */
+    public CompressionStage getResponseCompression() {
+        return responseCompression;
+    }
+
+    /**
+     * @return the shared response cache, or null when caching is disabled
+     */
+    public HttpCache getCache() {
+        return cache;
+    }
+
+    /**
+     * @return the in-flight table for collapsing identical cache misses, or null when disabled
+     */
+    public CollapsedForwarding getCollapsedForwarding() {
+        return collapsedForwarding;
+    }
+
+    /**
+     * @return the caching resolver for backend host names
+     */
+    public BackendResolver getBackendResolver() {
+        return backendResolver;
+    }
+
+    /**
+     * @return the connector racing backend addresses, shared for its per-address connect times
+     */
+    public HappyEyeballsConnector getBackendConnector() {
+        return backendConnector;
+    }
+
+    /**
+     * @return the adaptive per-backend concurrency limits, or null when disabled
+     */
+    public BackendLimits getBackendLimits() {
+        return backendLimits;
+    }
+
+    /**
+     * @return the per-backend circuit breakers, or null when disabled
+     */
+    public CircuitBreakers getCircuitBreakers() {
+        return circuitBreakers;
+    }
+
+    /**
+     * @return the local JWT validator, or null when no JWKS file is configured
+     */
+    public JwtValidator getJwtValidator() {
+        return jwtValidator;
+    }
+
+    /**
+     * @return the Proxy-Authorization verifier, or null when proxy authentication is disabled
+     */
+    public ProxyAuthenticator getAuthenticator() {
+        return authenticator;
+    }
+
+    /**
+     * @return the per-client rate limiter, or null when rate limiting is disabled
+     */
+    public RateLimitStage getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * @return the upstream pools and routes, or null when not running as a reverse proxy
+     */
+    public Upstreams getUpstreams() {
+        return upstreams;
+    }
+
+    /**
+     * @return the worker event loop overload monitor, or null when overload protection is
+     *         disabled; ProxyServer starts it once the server channel is bound
+     */
+    public OverloadMonitor getOverloadMonitor() {
+        return overloadMonitor;
+    }
+
+    /**
+     * The timer wheel every request deadline is armed on: backend phases, client
+     * connections and notifier aggregation.
+     */
+    public Timer getTimer() {
+        return timer;
+    }
+
+    public BackendTimeouts getBackendTimeouts() {
+        return backendTimeouts;
+    }
+
+    /**
+     * Idempotent; ProxyServer may call it from both stop() and its failure cleanup.
+     */
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        backendResolver.close();
+        timer.stop();
+        if (overloadMonitor != null) {
+            overloadMonitor.close();
+        }
+        if (upstreams != null) {
+            upstreams.close();
+        }
+        if (authenticator != null) {
+            authenticator.close();
+        }
+        if (jwtValidator != null) {
+            jwtValidator.close();
+        }
+        if (rateLimiter != null) {
+            rateLimiter.close();
+        }
+        if (backendLimits != null) {
+            backendLimits.close();
+        }
+        if (circuitBreakers != null) {
+            circuitBreakers.close();
+        }
+        if (snapshotWorker != null) {
+            snapshotWorker.shutdown();
+            try {
+                snapshotWorker.awaitTermination(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        // event loops are shut down by now, so the final snapshot runs on the closing thread
+        if (snapshotPath != null) {
+            writeSnapshot();
+        }
+        if (cache != null) {
+            cache.clear();
+        }
+        if (diskCache != null) {
+            diskCache.close();
+        }
+    }
+}
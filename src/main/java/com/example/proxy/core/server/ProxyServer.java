@@ -22,6 +22,7 @@ public class ProxyServer {
     
     private final ProxyConfig proxyConfig;
     private ServerInitializer serverInitializer;
+    private ProxyContext proxyContext;
 
     public enum State {
         RUNNING,
@@ -61,6 +62,13 @@ public class ProxyServer {
                 .bind(host, port)
                 .sync();
 
+            if (this.proxyContext.getUpstreams() != null) {
+                this.proxyContext.getUpstreams().start(this.workerGroup, this.proxyContext.getBackendResolver());
+            }
+            if (this.proxyContext.getOverloadMonitor() != null) {
+                this.proxyContext.getOverloadMonitor().start(this.workerGroup, this.serverChannelFuture.channel());
+            }
+
             this.currentState = State.RUNNING;
             logger.info("Proxy server started on {}:{} with protocol: {}", 
                        host, port, proxyConfig.getProtocol());
@@ -82,6 +90,9 @@ public class ProxyServer {
         if (this.workerGroup != null && !this.workerGroup.isShutdown()) {
             this.workerGroup.shutdownGracefully();
         }
+        if (this.proxyContext != null) {
+            this.proxyContext.close();
+        }
         this.currentState = State.STOPPED;
     }
 
@@ -105,6 +116,10 @@ public class ProxyServer {
             if (this.workerGroup != null) {
                 this.workerGroup.shutdownGracefully().sync();
             }
+
+            if (this.proxyContext != null) {
+                this.proxyContext.close();
+            }
             
             this.currentState = State.STOPPED;
             logger.info("Proxy server stopped successfully");
@@ -123,7 +138,9 @@ public class ProxyServer {
         this.serverInitializer = servInt;
         this.bossGroup = new NioEventLoopGroup(1);
         this.workerGroup = new NioEventLoopGroup();
+        this.proxyContext = new ProxyContext(this.proxyConfig);
         servInt.addConfig(this.proxyConfig);
+        servInt.addContext(this.proxyContext);
     }
 
     public void sync() throws ProxyException {
@@ -4,6 +4,7 @@ import java.util.List;
 
 import com.example.proxy.config.ProxyConfig;
 import com.example.proxy.core.notifier.NotifierHttp1ServerHandler;
+import com.example.proxy.core.server.handlers.ClientTimeoutHandler;
 import com.example.proxy.core.server.handlers.Http1ServerHandler;
 import com.example.proxy.core.server.handlers.Http2ServerHandler;
 import com.example.proxy.exceptions.ProxyException;
@@ -15,6 +16,7 @@ import io.netty.handler.codec.http.HttpObjectAggregator;
 import io.netty.handler.codec.http.HttpServerCodec;
 import io.netty.handler.codec.http2.Http2FrameCodecBuilder;
 import io.netty.handler.codec.http2.Http2MultiplexHandler;
+import io.netty.handler.stream.ChunkedWriteHandler;
 
 /* 
  *  Overview: Configures protocol pipelines for each new connection (decoders, encoders, compressors)
@@ -23,6 +25,7 @@ import io.netty.handler.codec.http2.Http2MultiplexHandler;
 public class ServerInitializer extends ChannelInitializer<SocketChannel> {
     
     private ProxyConfig config;
+    private ProxyContext context;
     private List<String> destinations;
     private Notifier isNotifier;
 
@@ -101,8 +104,9 @@ public class ServerInitializer extends ChannelInitializer<SocketChannel> {
 
 	private void configureHttp1PipelineNotifier(ChannelPipeline pipeline) {
         pipeline.addLast("http-codec", new HttpServerCodec());
+        addClientTimeouts(pipeline);
         pipeline.addLast("http-aggregator", new HttpObjectAggregator(65536));
-        pipeline.addLast("http1-handler-notifier", new NotifierHttp1ServerHandler(this.destinations)); 
+        pipeline.addLast("http1-handler-notifier", new NotifierHttp1ServerHandler(this.destinations, this.context)); 
     }
 
 	private void configureWebSocketPipeline(ChannelPipeline pipeline) {
@@ -117,15 +121,32 @@ public class ServerInitializer extends ChannelInitializer<SocketChannel> {
 
     private void configureHttp1Pipeline(ChannelPipeline pipeline) {
         pipeline.addLast("http-codec", new HttpServerCodec());
+        addClientTimeouts(pipeline);
         pipeline.addLast("http-aggregator", new HttpObjectAggregator(65536));
-        pipeline.addLast("http1-handler", new Http1ServerHandler());
+        pipeline.addLast("chunked-writer", new ChunkedWriteHandler());
+        pipeline.addLast("http1-handler", new Http1ServerHandler(this.context));
         
     }
 
+    private void addClientTimeouts(ChannelPipeline pipeline) {
+        if (context == null) {
+            return;
+        }
+        long requestMillis = config.getClientRequestTimeoutMillis();
+        long idleMillis = config.getClientIdleTimeoutMillis();
+        if (requestMillis > 0 || idleMillis > 0) {
+            ClientTimeoutHandler.install(pipeline, context.getTimer(), requestMillis, idleMillis);
+        }
+    }
+
     public void addConfig(ProxyConfig config) {
         this.config = config;
     }
 
+    public void addContext(ProxyContext context) {
+        this.context = context;
+    }
+
     public String getHost() {
         return host;
     }
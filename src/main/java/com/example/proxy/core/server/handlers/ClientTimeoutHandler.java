@@ -0,0 +1,194 @@
+package com.example.proxy.core.server.handlers;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.example.proxy.core.metrics.ProxyMetrics;
+
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+
+/**
+ * Client connection deadlines, on the shared timer wheel, installed around the HTTP
+ * codec with {@link #install}:
+ *
+ * <ul>
+ *   <li>request: a request whose head and body take longer than this to arrive, from
+ *       its first byte, is answered with 408 and the connection closed;</li>
+ *   <li>idle: a connection with no request for this long after opening or after its
+ *       last response is closed quietly.</li>
+ * </ul>
+ *
+ * Nothing is armed while a request is with the backend; the backend deadlines cover
+ * that. Counted in {@code client.request_timeouts} and {@code client.idle_timeouts}.
+ * Removed from the pipeline when a CONNECT turns the connection into a tunnel.
+ */
+public class ClientTimeoutHandler extends ChannelDuplexHandler {
+
+    public static final String NAME = "client-timeout";
+    public static final String READS_NAME = "client-timeout-reads";
+
+    private static final LongAdder requestTimeouts = ProxyMetrics.counter("client.request_timeouts");
+    private static final LongAdder idleTimeouts = ProxyMetrics.counter("client.idle_timeouts");
+
+    private final Timer timer;
+    private final long requestMillis;
+    private final long idleMillis;
+    // event loop only
+    private ChannelHandlerContext context;
+    private Timeout current;
+    private boolean reading;
+    private boolean timedOut;
+
+    public ClientTimeoutHandler(Timer timer, long requestMillis, long idleMillis) {
+        this.timer = timer;
+        this.requestMillis = requestMillis;
+        this.idleMillis = idleMillis;
+    }
+
+    /**
+     * Adds the handler after {@code http-codec}, where it sees whole requests and
+     * responses, and a probe before it, where it sees the first bytes of a request the
+     * codec is still waiting to complete.
+     */
+    public static void install(ChannelPipeline pipeline, Timer timer, long requestMillis, long idleMillis) {
+        ClientTimeoutHandler handler = new ClientTimeoutHandler(timer, requestMillis, idleMillis);
+        pipeline.addBefore("http-codec", READS_NAME, handler.new ReadProbe());
+        pipeline.addAfter("http-codec", NAME, handler);
+    }
+
+    /**
+     * Removes both parts, when the connection stops carrying HTTP.
+     */
+    public static void uninstall(ChannelPipeline pipeline) {
+        if (pipeline.get(READS_NAME) != null) {
+            pipeline.remove(READS_NAME);
+        }
+        if (pipeline.get(NAME) != null) {
+            pipeline.remove(NAME);
+        }
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) {
+        context = ctx;
+        if (ctx.channel().isActive()) {
+            arm(ctx, idleMillis);
+        }
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        if (current == null) {
+            arm(ctx, idleMillis);
+        }
+        ctx.fireChannelActive();
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (timedOut) {
+            // what the codec makes of the partial request once the connection closes
+            ReferenceCountUtil.release(msg);
+            return;
+        }
+        if (msg instanceof HttpRequest && !reading) {
+            requestStarted();
+        }
+        if (msg instanceof LastHttpContent) {
+            reading = false;
+            disarm();
+        }
+        ctx.fireChannelRead(msg);
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (msg instanceof LastHttpContent && !reading) {
+            arm(ctx, idleMillis);
+        }
+        ctx.write(msg, promise);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        disarm();
+        ctx.fireChannelInactive();
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) {
+        disarm();
+    }
+
+    private void requestStarted() {
+        reading = true;
+        if (context != null) {
+            arm(context, requestMillis);
+        }
+    }
+
+    private void arm(ChannelHandlerContext ctx, long millis) {
+        disarm();
+        if (millis <= 0) {
+            return;
+        }
+        boolean request = reading;
+        current = timer.newTimeout(timeout -> ctx.executor().execute(() -> expire(ctx, timeout, request)),
+                                   millis, TimeUnit.MILLISECONDS);
+    }
+
+    private void disarm() {
+        if (current != null) {
+            current.cancel();
+            current = null;
+        }
+    }
+
+    private void expire(ChannelHandlerContext ctx, Timeout timeout, boolean request) {
+        if (timeout != current || !ctx.channel().isActive()) {
+            return;
+        }
+        current = null;
+        if (!request) {
+            idleTimeouts.increment();
+            ctx.close();
+            return;
+        }
+        timedOut = true;
+        requestTimeouts.increment();
+        FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.REQUEST_TIMEOUT);
+        response.headers().set(HttpHeaderNames.CONTENT_LENGTH, 0);
+        response.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.CLOSE);
+        ctx.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
+    }
+
+    /**
+     * Bytes read while no request is being read start one.
+     */
+    private final class ReadProbe extends ChannelInboundHandlerAdapter {
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+            if (!reading) {
+                requestStarted();
+            }
+            ctx.fireChannelRead(msg);
+        }
+    }
+}
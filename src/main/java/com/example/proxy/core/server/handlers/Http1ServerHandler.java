@@ -1,36 +1,116 @@
 package com.example.proxy.core.server.handlers;
 
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.example.proxy.core.auth.AuthenticatedUser;
+import com.example.proxy.core.auth.JwtValidator;
+import com.example.proxy.core.auth.ProxyAuthenticator;
 import com.example.proxy.core.backend.BackendResponseCallback;
 import com.example.proxy.core.backend.BackendTarget;
 import com.example.proxy.core.backend.HttpBackendClient;
+import com.example.proxy.core.backend.breaker.CircuitOpenException;
 import com.example.proxy.core.backend.custom.BackendCallbackHttp1;
+import com.example.proxy.core.backend.limit.LimitExceededException;
+import com.example.proxy.core.backend.timeout.BackendTimeoutException;
+import com.example.proxy.core.cache.CacheEntry;
+import com.example.proxy.core.cache.CachePolicy;
+import com.example.proxy.core.cache.CollapsedForwarding;
+import com.example.proxy.core.cache.FileBackedResponse;
+import com.example.proxy.core.cache.HttpCache;
+import com.example.proxy.core.metrics.ProxyMetrics;
 import com.example.proxy.core.server.ForwardHttp1;
 import com.example.proxy.core.server.ForwardRequest;
+import com.example.proxy.core.server.OverloadMonitor;
+import com.example.proxy.core.routing.Route;
+import com.example.proxy.core.server.ProxyContext;
+import com.example.proxy.core.stages.CompressionStage;
 import com.example.proxy.core.stages.ContentFilterStage;
+import com.example.proxy.core.stages.RateLimitStage;
+import com.example.proxy.core.upstream.Endpoint;
+import com.example.proxy.core.upstream.HedgedRequest;
+import com.example.proxy.core.upstream.Upstreams;
+import com.example.proxy.utils.ByteRange;
 import com.example.proxy.utils.HttpUtil;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.DefaultFileRegion;
 import io.netty.channel.SimpleChannelInboundHandler;
 import io.netty.handler.codec.http.DefaultFullHttpResponse;
 import io.netty.handler.codec.http.FullHttpRequest;
 import io.netty.handler.codec.http.FullHttpResponse;
 import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpChunkedInput;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponse;
 import io.netty.handler.codec.http.HttpResponseStatus;
 import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.handler.stream.ChunkedNioFile;
+import io.netty.util.Attribute;
+import io.netty.util.AttributeKey;
+import io.netty.util.CharsetUtil;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.FutureListener;
 
 public class Http1ServerHandler extends SimpleChannelInboundHandler<FullHttpRequest> implements ServerHandler {
     
     private static final Logger logger = LoggerFactory.getLogger(Http1ServerHandler.class);
+
+    private static final String METRICS_PATH = "/__proxy/metrics";
+    private static final int FILE_CHUNK_SIZE = 64 * 1024;
+
+    private static final LongAdder zeroCopyBytes = ProxyMetrics.counter("http1.zero_copy_bytes");
+    private static final LongAdder chunkedFileBytes = ProxyMetrics.counter("http1.chunked_file_bytes");
+    private static final LongAdder authSessionHits = ProxyMetrics.counter("auth.session_hits");
+
+    private static final AttributeKey<AuthSession> AUTH_SESSION = AttributeKey.valueOf("proxyAuthSession");
+
+    /**
+     * Proxy credentials verified on a connection; keep-alive requests presenting the same
+     * credentials reuse the user without touching the credential cache.
+     */
+    private static final class AuthSession {
+        final String credentials;
+        final AuthenticatedUser user;
+        final long expiresAt;
+        // the authenticator's key generation the user was verified under
+        final long generation;
+
+        AuthSession(String credentials, AuthenticatedUser user, long expiresAt, long generation) {
+            this.credentials = credentials;
+            this.user = user;
+            this.expiresAt = expiresAt;
+            this.generation = generation;
+        }
+    }
+
+    private final ProxyContext context;
         
     public Http1ServerHandler() {
+        this(null);
+    }
+
+    public Http1ServerHandler(ProxyContext context) {
+        this.context = context;
     }
     
     @Override
@@ -72,11 +152,11 @@ public class Http1ServerHandler extends SimpleChannelInboundHandler<FullHttpRequ
             
             String authorization = headers.get("authorization");
             if (authorization != null) {
-                if (authorization.startsWith("Bearer ")) {
+                if (hasScheme(authorization, "Bearer")) {
                     forwardRequest.withAuth("bearer");
-                } else if (authorization.startsWith("Basic ")) {
+                } else if (hasScheme(authorization, "Basic")) {
                     forwardRequest.withAuth("basic");
-                } else if (authorization.startsWith("OAuth ")) {
+                } else if (hasScheme(authorization, "OAuth")) {
                     forwardRequest.withAuth("oauth");
                 }
             }
@@ -97,13 +177,15 @@ public class Http1ServerHandler extends SimpleChannelInboundHandler<FullHttpRequ
                 return null;
             }
 
-            ContentFilterStage filter = new ContentFilterStage();
-            ContentFilterStage.FilterDecision decision = filter.evaluateRequest(request);
-            
-            if (decision.isBlocked()) {
-                logger.warn("Request blocked by content filter: {}", decision.getReason());
-                // Return null to indicate the request should be blocked
-                return null;
+            if (runs(request, Route.Stage.CONTENT_FILTER)) {
+                ContentFilterStage filter = new ContentFilterStage();
+                ContentFilterStage.FilterDecision decision = filter.evaluateRequest(request);
+
+                if (decision.isBlocked()) {
+                    logger.warn("Request blocked by content filter: {}", decision.getReason());
+                    // Return null to indicate the request should be blocked
+                    return null;
+                }
             }
             
             ForwardHttp1 rqstHttp = (ForwardHttp1) request;
@@ -113,12 +195,28 @@ public class Http1ServerHandler extends SimpleChannelInboundHandler<FullHttpRequ
             String host;
             int port;
             String path = "";
+            Endpoint endpoint = null;
+            Route route = null;
+            Upstreams upstreams = context != null ? context.getUpstreams() : null;
+            //Reverse proxy: the route picks the pool, the pool's balancer the server
+            if (upstreams != null) {
+                path = routingPath(rqstHttp);
+                if (path == null) {
+                    logger.warn("Refusing to route {}", uri);
+                    return null;
+                }
+                route = rqstHttp.getRoute() != null ? rqstHttp.getRoute() : upstreams.route(routingHost(rqstHttp), path);
+                if (route == null) {
+                    logger.warn("No route for {}{}", routingHost(rqstHttp), path);
+                    return null;
+                }
+                endpoint = route.getPool().select(rqstHttp);
+                host = endpoint.getHost();
+                port = endpoint.getPort();
             //HTTPS tunneling
-            if ("CONNECT".equals(rqstHttp.getMethod())) {
-                //TODO: add helper method in HttpUtil
-                String[] both = uri.split(":");
-                host = both[0];
-                port = Integer.parseInt(both[1]);
+            } else if ("CONNECT".equals(rqstHttp.getMethod())) {
+                host = HttpUtil.getHostFromAuthority(uri);
+                port = HttpUtil.getPortFromAuthority(uri, 443);
             //Regular HTTP
             } else {
                 host = HttpUtil.getHostFromURI(uri);
@@ -135,8 +233,14 @@ public class Http1ServerHandler extends SimpleChannelInboundHandler<FullHttpRequ
             if (rqstHttp.hasCompression()) {
                 metadata.put("comp", rqstHttp.getCompressionStage().getAlg());
             }
+            if (rqstHttp.getUser() != null) {
+                metadata.put("user", rqstHttp.getUser().getName());
+            }
+            if (endpoint != null) {
+                metadata.put("upstream", endpoint.toString());
+            }
 
-            return new BackendTarget(host, port, path, metadata);
+            return new BackendTarget(host, port, path, metadata).withEndpoint(endpoint).withRoute(route);
 
         } catch (Exception e) {
             logger.error("Error routing request: {}", e.getMessage());
@@ -144,8 +248,66 @@ public class Http1ServerHandler extends SimpleChannelInboundHandler<FullHttpRequ
         }
     }
 
+    /**
+     * The Host a reverse-proxied request is routed by: its header, or the authority of an
+     * absolute request target.
+     */
+    private static String routingHost(ForwardHttp1 request) {
+        String uri = request.getURI();
+        return uri.startsWith("/") ? request.getHeaders().get("host") : HttpUtil.getHostFromURI(uri);
+    }
+
+    /**
+     * The target a reverse-proxied request is routed by and forwarded with: its path and
+     * query, dot segments removed, so the origin is asked for exactly the path the route
+     * matched.
+     *
+     * @return null for a target that cannot be routed safely; see {@link HttpUtil#normalizePath}
+     */
+    private static String routingPath(ForwardHttp1 request) {
+        String uri = request.getURI();
+        return HttpUtil.normalizePath(uri.startsWith("/") ? uri : HttpUtil.getOriginFormFromURI(uri));
+    }
+
+    /**
+     * In reverse-proxy mode, matches the request to its route as soon as it is parsed, so
+     * the route's stage bindings apply from authentication on.
+     *
+     * @return false if the request target cannot be routed safely
+     */
+    private boolean bindRoute(ForwardHttp1 request) {
+        Upstreams upstreams = context != null ? context.getUpstreams() : null;
+        if (upstreams != null && !"CONNECT".equals(request.getMethod())) {
+            String path = routingPath(request);
+            if (path == null) {
+                return false;
+            }
+            request.withRoute(upstreams.route(routingHost(request), path));
+        }
+        return true;
+    }
+
+    /**
+     * @return false if the request's route opts out of {@code stage}
+     */
+    private static boolean runs(ForwardRequest request, Route.Stage stage) {
+        Route route = request instanceof ForwardHttp1 ? ((ForwardHttp1) request).getRoute() : null;
+        return route == null || route.runs(stage);
+    }
+
     @Override
     public boolean forwardToBackend(ChannelHandlerContext ctx, ForwardRequest request, BackendTarget target) {
+        return forwardToBackend(ctx, request, target, null, null);
+    }
+
+    /**
+     * @param flight the collapsed-forwarding flight this request leads, or null; it is ended
+     *               with the backend response, or abandoned on any failure
+     * @param stale  a stored response that could not be used as is, or null; the request is
+     *               made conditional on its validators and it may stand in for origin errors
+     */
+    private boolean forwardToBackend(ChannelHandlerContext ctx, ForwardRequest request, BackendTarget target,
+                                     CollapsedForwarding.Flight flight, CacheEntry stale) {
         try {
             if (!(request instanceof ForwardHttp1)) {
                 logger.error("Invalid request type for HTTP1");
@@ -153,12 +315,15 @@ public class Http1ServerHandler extends SimpleChannelInboundHandler<FullHttpRequ
             }
 
             ForwardHttp1 httpRequest = (ForwardHttp1) request;
-            String auth = target.getMetadata().get("auth");
-            String comp = target.getMetadata().get("comp");
+            // revalidate the stored copy rather than refetch it, unless the client sent its own preconditions
+            boolean validating = stale != null && stale.hasValidators() && !CachePolicy.isConditional(httpRequest.getHeaders());
+            ForwardHttp1 outbound = validating
+                ? revalidationRequest(httpRequest, stale, httpRequest.getMethod(), httpRequest.getData())
+                : httpRequest;
+            long requestTime = System.currentTimeMillis();
 
-            HttpBackendClient backendClient = new HttpBackendClient(ctx.channel().eventLoop(),
-                                                                    auth != null ? auth : "none",
-                                                                    comp != null ? comp : "none");
+            // connection failures are reported both by the callback and by the forward future
+            AtomicBoolean answered = new AtomicBoolean();
             
             BackendCallbackHttp1.ResponseProcessor responseProcessor = new BackendCallbackHttp1.ResponseProcessor() {
                 @Override
@@ -168,13 +333,48 @@ public class Http1ServerHandler extends SimpleChannelInboundHandler<FullHttpRequ
                 
                 @Override
                 public void sendResponseToClient(ChannelHandlerContext ctx, Object response, ForwardRequest originalRequest) {
+                    if (!answered.compareAndSet(false, true)) {
+                        ReferenceCountUtil.release(response);
+                        return;
+                    }
+                    if (response instanceof FullHttpResponse) {
+                        FullHttpResponse fullResponse = (FullHttpResponse) response;
+                        if (stale != null && answerFromStored(ctx, httpRequest, stale, fullResponse, validating, requestTime)) {
+                            fullResponse.release();
+                            // followers retry the cache, which now holds the refreshed entry
+                            abandonFlight(flight);
+                            return;
+                        }
+                        boolean stored = storeInCache(httpRequest, fullResponse, requestTime);
+                        if (flight != null) {
+                            context.getCollapsedForwarding().complete(flight, fullResponse, stored && sameVariant(httpRequest, flight));
+                        }
+                    } else {
+                        abandonFlight(flight);
+                    }
                     Http1ServerHandler.this.sendResponseToClient(ctx, response, originalRequest);
                 }
                 
                 @Override
                 public void handleError(ChannelHandlerContext ctx, Throwable cause, ForwardRequest request) {
+                    if (!answered.compareAndSet(false, true)) {
+                        return;
+                    }
+                    abandonFlight(flight);
+                    if (stale != null && serveStaleOnError(ctx, httpRequest, stale)) {
+                        return;
+                    }
                     Http1ServerHandler.this.handleError(ctx, cause, request);
                 }
+
+                @Override
+                public void sendBlockedResponse(ChannelHandlerContext ctx, String reason, ForwardRequest request) {
+                    if (!answered.compareAndSet(false, true)) {
+                        return;
+                    }
+                    abandonFlight(flight);
+                    Http1ServerHandler.this.sendBlockedResponse(ctx, reason);
+                }
             };
 
             BackendResponseCallback callback = new BackendCallbackHttp1(ctx, httpRequest, responseProcessor, target);
@@ -187,7 +387,7 @@ public class Http1ServerHandler extends SimpleChannelInboundHandler<FullHttpRequ
                 );
                 ctx.writeAndFlush(response);
                 
-                backendClient.forwardRequestHTTPS(ctx, httpRequest, target, callback)
+                newBackendClient(ctx, target).forwardRequestHTTPS(ctx, httpRequest, target, callback)
                     .whenComplete((success, throwable) -> {
                         if (throwable != null) {
                             handleError(ctx, throwable, httpRequest);
@@ -196,13 +396,20 @@ public class Http1ServerHandler extends SimpleChannelInboundHandler<FullHttpRequ
                         }
                     });
 
+            //Idempotent requests to a pool may be retried or hedged on another endpoint
+            } else if (target.getEndpoint() != null && target.getEndpoint().getPool().getRetryBudget() != null
+                       && HedgedRequest.isHedgeable(httpRequest.getMethod())) {
+                Endpoint first = target.getEndpoint();
+                new HedgedRequest(first.getPool(), httpRequest, ctx.channel().eventLoop(),
+                                  (endpoint, attempt) -> sendToEndpoint(ctx, outbound, target, endpoint, attempt),
+                                  callback).start(first);
             } else {
-                backendClient.forwardRequestHTTP(httpRequest, target, callback)
+                newBackendClient(ctx, target).forwardRequestHTTP(outbound, target, callback)
                     .whenComplete((success, throwable) -> {
                         if (throwable != null) {
-                            handleError(ctx, throwable, httpRequest);
+                            responseProcessor.handleError(ctx, throwable, httpRequest);
                         } else if (!success) {
-                            handleError(ctx, new Exception("Failed to establish connection"), httpRequest);
+                            responseProcessor.handleError(ctx, new Exception("Failed to establish connection"), httpRequest);
                         }
                     });
             }              
@@ -210,15 +417,75 @@ public class Http1ServerHandler extends SimpleChannelInboundHandler<FullHttpRequ
             
         } catch (Exception e) {
             logger.error("Error forwarding to backend: {}", e.getMessage());
+            abandonFlight(flight);
             handleError(ctx, e, request);
             return false;
         }
     }
+
+    /**
+     * One attempt of a {@link HedgedRequest}: sends the request to {@code endpoint}, the
+     * routed target's own or another of its pool, with any failure to send reported to
+     * {@code callback}. Each attempt writes its own duplicate of the body, as writing one
+     * consumes its readable bytes.
+     */
+    private HttpBackendClient sendToEndpoint(ChannelHandlerContext ctx, ForwardHttp1 request, BackendTarget routed,
+                                             Endpoint endpoint, BackendResponseCallback callback) {
+        BackendTarget target = routed;
+        if (endpoint != routed.getEndpoint()) {
+            Map<String, String> metadata = new HashMap<>(routed.getMetadata());
+            metadata.put("upstream", endpoint.toString());
+            target = new BackendTarget(endpoint.getHost(), endpoint.getPort(), routed.getPath(), metadata)
+                .withEndpoint(endpoint)
+                .withRoute(routed.getRoute());
+        }
+        ForwardHttp1 attempt = new ForwardHttp1(request.getData().retainedDuplicate(), request.getMethod(),
+                                                request.getURI(), request.getHeaders(), request.getClientAddress())
+            .withRoute(request.getRoute());
+        HttpBackendClient backendClient = newBackendClient(ctx, target);
+        backendClient.forwardRequestHTTP(attempt, target, callback)
+            .whenComplete((success, throwable) -> {
+                // written or never sent; either way the attempt is done with its duplicate
+                attempt.releaseData();
+                if (throwable != null) {
+                    callback.onError(throwable);
+                } else if (!success) {
+                    callback.onError(new Exception("Failed to establish connection"));
+                }
+            });
+        return backendClient;
+    }
+
+    private HttpBackendClient newBackendClient(ChannelHandlerContext ctx, BackendTarget target) {
+        String auth = target.getMetadata().get("auth");
+        String comp = target.getMetadata().get("comp");
+
+        HttpBackendClient backendClient = new HttpBackendClient(ctx.channel().eventLoop(),
+                                                                auth != null ? auth : "none",
+                                                                comp != null ? comp : "none");
+        if (context != null) {
+            backendClient.withBodyFilter(context.getBodyFilter())
+                         .withMaxContentLength(context.getConfig().getBackendMaxResponseBytes())
+                         .withResolver(context.getBackendResolver())
+                         .withConnector(context.getBackendConnector());
+            if (context.getBackendLimits() != null) {
+                backendClient.withLimiter(context.getBackendLimits().forTarget(target));
+            }
+            if (context.getCircuitBreakers() != null) {
+                backendClient.withCircuitBreaker(context.getCircuitBreakers().forTarget(target));
+            }
+            backendClient.withTimeouts(target.getRoute() != null ? target.getRoute().getTimeouts() : context.getBackendTimeouts());
+        }
+        return backendClient;
+    }
     
     @Override
     public void sendResponseToClient(ChannelHandlerContext ctx, Object response, ForwardRequest originalRequest) {
         try {
-            if (ctx.channel().isActive() && response instanceof FullHttpResponse) {
+            if (ctx.channel().isActive() && response instanceof FileBackedResponse) {
+                sendFileResponse(ctx, (FileBackedResponse) response);
+            } else if (ctx.channel().isActive() && response instanceof FullHttpResponse) {
+                response = compressForClient(ctx, (FullHttpResponse) response, originalRequest);
                 ctx.writeAndFlush(response).addListener(future -> {
                     if (future.isSuccess()) {
                         logger.info("HTTP/1.1 response sent to client");
@@ -232,21 +499,78 @@ public class Http1ServerHandler extends SimpleChannelInboundHandler<FullHttpRequ
         }
     }
 
+    /**
+     * Compresses an identity response when the client accepts a coding the proxy produces.
+     * Disk-tier responses are never passed here; they stay zero-copy.
+     */
+    private FullHttpResponse compressForClient(ChannelHandlerContext ctx, FullHttpResponse response,
+                                               ForwardRequest originalRequest) {
+        CompressionStage compression = context != null ? context.getResponseCompression() : null;
+        if (compression == null || !(originalRequest instanceof ForwardHttp1) || !runs(originalRequest, Route.Stage.COMPRESSION)) {
+            return response;
+        }
+        String acceptEncoding = ((ForwardHttp1) originalRequest).getHeaders().get("accept-encoding");
+        String encoding = compression.selectEncoding(acceptEncoding, response);
+        return encoding != null ? compression.compress(response, encoding, ctx.alloc()) : response;
+    }
+
+    /**
+     * Writes a response whose body lives in a cache segment file. Plain connections hand the
+     * span to the kernel as a FileRegion (sendfile); TLS needs the bytes in user space, so
+     * those connections read the span in chunks through the ChunkedWriteHandler instead.
+     */
+    private void sendFileResponse(ChannelHandlerContext ctx, FileBackedResponse response) {
+        Object body;
+        try {
+            FileChannel file = FileChannel.open(response.getPath(), StandardOpenOption.READ);
+            if (ctx.pipeline().get(SslHandler.class) == null) {
+                body = new DefaultFileRegion(file, response.getOffset(), response.getLength());
+                zeroCopyBytes.add(response.getLength());
+            } else {
+                body = new HttpChunkedInput(new ChunkedNioFile(file, response.getOffset(), response.getLength(), FILE_CHUNK_SIZE));
+                chunkedFileBytes.add(response.getLength());
+            }
+        } catch (IOException e) {
+            // the segment was compacted away between lookup and open
+            handleError(ctx, e, null);
+            return;
+        }
+
+        ctx.write(response);
+        ctx.write(body);
+        if (body instanceof DefaultFileRegion) {
+            ctx.write(LastHttpContent.EMPTY_LAST_CONTENT);
+        }
+        ctx.flush();
+    }
+
     @Override
     public void handleError(ChannelHandlerContext ctx, Throwable cause, ForwardRequest request) {
         if (!ctx.channel().isActive()) return;
         
+        if (cause instanceof CircuitOpenException && context != null && context.getCircuitBreakers() != null) {
+            ctx.writeAndFlush(context.getCircuitBreakers().rejection());
+            return;
+        }
         try {
             String errorJson = "{\"error\":\"HTTP/1.1 Proxy Error\",\"message\":\"" + cause.getMessage() + "\"}";
+            // a backend at its concurrency limit is shedding load, not failing
+            boolean overloaded = cause instanceof LimitExceededException;
+            HttpResponseStatus status = overloaded ? HttpResponseStatus.SERVICE_UNAVAILABLE
+                : cause instanceof BackendTimeoutException ? HttpResponseStatus.GATEWAY_TIMEOUT
+                : HttpResponseStatus.INTERNAL_SERVER_ERROR;
             
             DefaultFullHttpResponse errorResponse = new DefaultFullHttpResponse(
                 HttpVersion.HTTP_1_1, 
-                HttpResponseStatus.INTERNAL_SERVER_ERROR,
+                status,
                 ctx.alloc().buffer().writeBytes(errorJson.getBytes())
             );
             
             errorResponse.headers().set(HttpHeaderNames.CONTENT_TYPE, "application/json");
             errorResponse.headers().set(HttpHeaderNames.CONTENT_LENGTH, errorJson.length());
+            if (overloaded) {
+                errorResponse.headers().set(HttpHeaderNames.RETRY_AFTER, 1);
+            }
             
             ctx.writeAndFlush(errorResponse).addListener(ChannelFutureListener.CLOSE);
             
@@ -286,34 +610,726 @@ public class Http1ServerHandler extends SimpleChannelInboundHandler<FullHttpRequ
     @Override
     protected void channelRead0(ChannelHandlerContext ctx, FullHttpRequest msg) throws Exception {
         try {
+            if (isMetricsRequest(msg)) {
+                sendMetrics(ctx, msg);
+                return;
+            }
+            // after the metrics endpoint, which stays reachable, and before any parsing
+            OverloadMonitor overload = context != null ? context.getOverloadMonitor() : null;
+            if (overload != null && overload.shouldShed(OverloadMonitor.classify(msg))) {
+                ctx.writeAndFlush(overload.rejection()).addListener(ChannelFutureListener.CLOSE);
+                return;
+            }
+
             ForwardRequest request = parseIncomingMessage(ctx, msg);
-            if (request != null) {
-                
+            if (request == null) {
+                handleError(ctx, new Exception("Failed to parse request"), null);
+                return;
+            }
+            if (!bindRoute((ForwardHttp1) request)) {
+                sendBadRequest(ctx, (ForwardHttp1) request);
+                return;
+            }
+            if (authenticate(ctx, (ForwardHttp1) request) && checkBearerToken(ctx, (ForwardHttp1) request)) {
+                process(ctx, request);
+            }
+        } catch (Exception e) {
+            handleError(ctx, e, null);
+        }
+    }
+
+    /**
+     * Everything after parsing and authentication: rate limit, content filter, cache,
+     * collapsing and the backend fetch. Rate limiting comes after authentication so it can
+     * be keyed by user.
+     */
+    private void process(ChannelHandlerContext ctx, ForwardRequest request) {
+        try {
+            RateLimitStage rateLimiter = context != null ? context.getRateLimiter() : null;
+            if (rateLimiter != null && runs(request, Route.Stage.RATE_LIMIT) && !rateLimiter.tryAcquire((ForwardHttp1) request, ctx.channel().remoteAddress())) {
+                ((ForwardHttp1) request).releaseData();
+                ctx.writeAndFlush(rateLimiter.rejection());
+                return;
+            }
+
+            if (runs(request, Route.Stage.CONTENT_FILTER)) {
                 ContentFilterStage filter = new ContentFilterStage();
                 ContentFilterStage.FilterDecision decision = filter.evaluateRequest(request);
-                
+
                 if (decision.isBlocked()) {
                     sendBlockedResponse(ctx, decision.getReason());
                     return;
                 }
-                
-                BackendTarget target = routeToBackend(request);
-                if (target != null) {
-                    boolean success = forwardToBackend(ctx, request, target);
-                    if (!success) {
-                        handleError(ctx, new Exception("Failed to forward request"), request);
+            }
+
+            Consumer<CacheResult> then = cached -> forwardOnMiss(ctx, (ForwardHttp1) request, cached);
+            then.accept(serveFromCache(ctx, (ForwardHttp1) request, then));
+        } catch (Exception e) {
+            handleError(ctx, e, request);
+        }
+    }
+
+    /**
+     * The rest of {@link #process} once the cache was consulted: collapsing and the fetch.
+     */
+    private void forwardOnMiss(ChannelHandlerContext ctx, ForwardHttp1 request, CacheResult cached) {
+        if (cached.served || cached.pending) {
+            return;
+        }
+        try {
+            CollapsedForwarding.Flight flight = null;
+            if (isCollapsible(request)) {
+                flight = joinInFlight(ctx, request);
+                if (flight == null) {
+                    return;
+                }
+            }
+            forward(ctx, request, flight, cached.stale);
+        } catch (Exception e) {
+            handleError(ctx, e, request);
+        }
+    }
+
+    /**
+     * Establishes the proxy user of {@code request} when proxy authentication is enabled,
+     * and strips Proxy-Authorization so it never reaches the backend.
+     *
+     * Credentials already verified on this connection, or recently anywhere, are accepted
+     * on the event loop. Anything else is verified off the loop; reads on the connection
+     * are paused meanwhile and the request continues here once the check completes.
+     *
+     * @return true to process the request now, false if it was rejected or is deferred
+     */
+    private boolean authenticate(ChannelHandlerContext ctx, ForwardHttp1 request) {
+        ProxyAuthenticator authenticator = context != null ? context.getAuthenticator() : null;
+        if (authenticator == null) {
+            return true;
+        }
+        String credentials = request.getHeaders().remove("proxy-authorization");
+        if (!runs(request, Route.Stage.AUTH)) {
+            return true;
+        }
+        if (credentials == null) {
+            sendProxyAuthRequired(ctx, request, authenticator);
+            return false;
+        }
+
+        long now = System.currentTimeMillis();
+        Attribute<AuthSession> session = ctx.channel().attr(AUTH_SESSION);
+        AuthSession current = session.get();
+        if (current != null && current.expiresAt > now && current.credentials.equals(credentials)
+                && authenticator.isCurrent(current.user, current.generation)) {
+            authSessionHits.increment();
+            request.withUser(current.user);
+            return true;
+        }
+
+        long generation = authenticator.keyGeneration();
+        AuthenticatedUser user = authenticator.cached(credentials);
+        if (user != null) {
+            session.set(new AuthSession(credentials, user, authenticator.expiry(user, now), generation));
+            request.withUser(user);
+            return true;
+        }
+
+        ctx.channel().config().setAutoRead(false);
+        authenticator.verify(credentials, clientIp(ctx)).whenComplete((verified, cause) -> ctx.executor().execute(() -> {
+            ctx.channel().config().setAutoRead(true);
+            if (cause instanceof RejectedExecutionException) {
+                sendAuthBusy(ctx, request);
+                return;
+            }
+            if (verified == null) {
+                if (cause != null) {
+                    logger.warn("Proxy credential check failed: {}", cause.getMessage());
+                }
+                session.set(null);
+                sendProxyAuthRequired(ctx, request, authenticator);
+                return;
+            }
+            if (!ctx.channel().isActive()) {
+                request.releaseData();
+                return;
+            }
+            session.set(new AuthSession(credentials, verified, authenticator.expiry(verified, System.currentTimeMillis()),
+                                        generation));
+            request.withUser(verified);
+            if (checkBearerToken(ctx, request)) {
+                process(ctx, request);
+            }
+        }));
+        return false;
+    }
+
+    /**
+     * Validates the JWT of an "Authorization: Bearer" request bound for the backend, when
+     * that is enabled. The header is parsed here rather than trusted from the request's
+     * tag, and one without credentials, or with a bearer token that is not a token68, is
+     * refused like an invalid token. The token stays on the request; its user is attached
+     * unless proxy authentication already set one.
+     *
+     * Runs on the event loop: a token is verified once and then served from the
+     * validator's cache, and a public-key verify is cheap next to a password hash.
+     *
+     * @return true to process the request, false if it was answered with 401
+     */
+    private boolean checkBearerToken(ChannelHandlerContext ctx, ForwardHttp1 request) {
+        JwtValidator validator = context != null ? context.getJwtValidator() : null;
+        String authorization = request.getHeaders().get("authorization");
+        if (validator == null || !context.getConfig().isJwtCheckAuthorization() || !runs(request, Route.Stage.AUTH)
+                || authorization == null) {
+            return true;
+        }
+        int space = authorization.indexOf(' ');
+        String credentials = space > 0 ? authorization.substring(space + 1).trim() : "";
+        boolean bearer = hasScheme(authorization, "Bearer");
+        if (!bearer && !credentials.isEmpty()) {
+            return true;
+        }
+        AuthenticatedUser user = bearer && isToken68(credentials) ? validator.validate(credentials) : null;
+        if (user == null) {
+            request.releaseData();
+            if (ctx.channel().isActive()) {
+                FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1,
+                                                                        HttpResponseStatus.UNAUTHORIZED);
+                response.headers().set(HttpHeaderNames.WWW_AUTHENTICATE, "Bearer error=\"invalid_token\"");
+                response.headers().set(HttpHeaderNames.CONTENT_LENGTH, 0);
+                response.headers().set("X-Proxy-Server", "ahc-proxy");
+                ctx.writeAndFlush(response);
+            }
+            return false;
+        }
+        if (request.getUser() == null) {
+            request.withUser(user);
+        }
+        return true;
+    }
+
+    /**
+     * Whether an Authorization value is in {@code scheme}, which like every auth-scheme
+     * matches case-insensitively (RFC 9110 section 11.1).
+     */
+    private static boolean hasScheme(String authorization, String scheme) {
+        return authorization.regionMatches(true, 0, scheme, 0, scheme.length())
+            && (authorization.length() == scheme.length() || authorization.charAt(scheme.length()) == ' ');
+    }
+
+    /**
+     * token68 (RFC 9110 section 11.2), the syntax of bearer tokens.
+     */
+    private static boolean isToken68(String value) {
+        int end = value.length();
+        while (end > 0 && value.charAt(end - 1) == '=') {
+            end--;
+        }
+        if (end == 0) {
+            return false;
+        }
+        for (int i = 0; i < end; i++) {
+            char c = value.charAt(i);
+            if (!(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9'
+                    || c == '-' || c == '.' || c == '_' || c == '~' || c == '+' || c == '/')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 400 for a request target that cannot be routed safely, such as one with an encoded '/'.
+     */
+    private void sendBadRequest(ChannelHandlerContext ctx, ForwardHttp1 request) {
+        request.releaseData();
+        if (!ctx.channel().isActive()) {
+            return;
+        }
+        FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.BAD_REQUEST);
+        response.headers().set(HttpHeaderNames.CONTENT_LENGTH, 0);
+        response.headers().set("X-Proxy-Server", "ahc-proxy");
+        ctx.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
+    }
+
+    /**
+     * 503 when credentials cannot be checked now: the verifier's backlog, or this client's
+     * share of it, is full. The connection is closed, as a flood is the likely cause.
+     */
+    private void sendAuthBusy(ChannelHandlerContext ctx, ForwardHttp1 request) {
+        request.releaseData();
+        if (!ctx.channel().isActive()) {
+            return;
+        }
+        FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1,
+                                                                HttpResponseStatus.SERVICE_UNAVAILABLE);
+        response.headers().set(HttpHeaderNames.RETRY_AFTER, 1);
+        response.headers().set(HttpHeaderNames.CONTENT_LENGTH, 0);
+        response.headers().set("X-Proxy-Server", "ahc-proxy");
+        ctx.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
+    }
+
+    private static String clientIp(ChannelHandlerContext ctx) {
+        SocketAddress remote = ctx.channel().remoteAddress();
+        if (remote instanceof InetSocketAddress && ((InetSocketAddress) remote).getAddress() != null) {
+            return ((InetSocketAddress) remote).getAddress().getHostAddress();
+        }
+        return String.valueOf(remote);
+    }
+
+    /**
+     * 407 offering both schemes; the connection stays open so the client can retry on it.
+     */
+    private void sendProxyAuthRequired(ChannelHandlerContext ctx, ForwardHttp1 request, ProxyAuthenticator authenticator) {
+        request.releaseData();
+        if (!ctx.channel().isActive()) {
+            return;
+        }
+        String realm = "realm=\"" + authenticator.getRealm() + "\"";
+        FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1,
+                                                                HttpResponseStatus.PROXY_AUTHENTICATION_REQUIRED);
+        response.headers().add(HttpHeaderNames.PROXY_AUTHENTICATE, "Basic " + realm + ", charset=\"UTF-8\"");
+        response.headers().add(HttpHeaderNames.PROXY_AUTHENTICATE, "Bearer " + realm);
+        response.headers().set(HttpHeaderNames.CONTENT_LENGTH, 0);
+        response.headers().set("X-Proxy-Server", "ahc-proxy");
+        ctx.writeAndFlush(response);
+    }
+
+    private void forward(ChannelHandlerContext ctx, ForwardRequest request, CollapsedForwarding.Flight flight,
+                         CacheEntry stale) {
+        BackendTarget target = routeToBackend(request);
+        if (target != null) {
+            boolean success = forwardToBackend(ctx, request, target, flight, stale);
+            if (!success) {
+                abandonFlight(flight);
+                handleError(ctx, new Exception("Failed to forward request"), request);
+            }
+        } else {
+            abandonFlight(flight);
+            handleError(ctx, new Exception("No backend target found"), request);
+        }
+    }
+
+    /**
+     * Only plain cacheable GETs are collapsed: ranged and authorised requests may not be
+     * answered with another client's response.
+     */
+    private boolean isCollapsible(ForwardHttp1 request) {
+        if (context == null || context.getCollapsedForwarding() == null || context.getCache() == null
+                || !runs(request, Route.Stage.CACHE)) {
+            return false;
+        }
+        Map<String, String> headers = request.getHeaders();
+        return "GET".equals(request.getMethod())
+            && !headers.containsKey("range")
+            && !headers.containsKey("authorization");
+    }
+
+    /**
+     * Waits on an identical in-flight origin fetch if there is one.
+     *
+     * @return the new flight if this request must lead the fetch, or null if it was
+     *         queued behind another leader and will be answered later
+     */
+    private CollapsedForwarding.Flight joinInFlight(ChannelHandlerContext ctx, ForwardHttp1 request) {
+        String key = context.getCache().keyFor(request);
+        return context.getCollapsedForwarding().join(key, ctx.executor(), new CollapsedForwarding.Follower() {
+            @Override
+            public void onResponse(FullHttpResponse response) {
+                if (!ctx.channel().isActive()) {
+                    response.release();
+                    return;
+                }
+                // an origin that does not vary on Accept-Encoding may still have encoded the body
+                if (!acceptsEncoding(request.getHeaders(), response.headers().get(HttpHeaderNames.CONTENT_ENCODING))) {
+                    response.release();
+                    onAbandoned();
+                    return;
+                }
+                response.headers().set("X-Cache", "COLLAPSED");
+                request.releaseData();
+                sendResponseToClient(ctx, response, request);
+            }
+
+            @Override
+            public void onAbandoned() {
+                if (!ctx.channel().isActive()) {
+                    return;
+                }
+                // the leader may have refreshed the entry, so look again before forwarding
+                Consumer<CacheResult> then = cached -> {
+                    if (!cached.served && !cached.pending) {
+                        forward(ctx, request, null, cached.stale);
+                    }
+                };
+                then.accept(serveFromCache(ctx, request, then));
+            }
+        });
+    }
+
+    /**
+     * Followers joined under the variant key known when they arrived. If the response
+     * introduced a new Vary, those keys did not select by it and the response is not shared.
+     */
+    private boolean sameVariant(ForwardHttp1 request, CollapsedForwarding.Flight flight) {
+        return context.getCache().keyFor(request).equals(flight.getKey());
+    }
+
+    private void abandonFlight(CollapsedForwarding.Flight flight) {
+        if (flight != null) {
+            context.getCollapsedForwarding().abandon(flight);
+        }
+    }
+
+    /**
+     * Outcome of consulting the cache: either the client was answered, or the request must
+     * be forwarded, possibly with a stale entry to revalidate or fall back on, or the
+     * answer is pending on a disk read and will be given later.
+     */
+    private static final class CacheResult {
+        static final CacheResult SERVED = new CacheResult(true, false, null);
+        static final CacheResult FORWARD = new CacheResult(false, false, null);
+        static final CacheResult PENDING = new CacheResult(false, true, null);
+
+        final boolean served;
+        final boolean pending;
+        final CacheEntry stale;
+
+        CacheResult(boolean served, boolean pending, CacheEntry stale) {
+            this.served = served;
+            this.pending = pending;
+            this.stale = stale;
+        }
+    }
+
+    /**
+     * Answers the request from the shared cache when a usable stored response exists.
+     * A stale entry inside its stale-while-revalidate window is served at once while a
+     * background revalidation refreshes it. Unsafe methods invalidate the URL instead.
+     *
+     * An entry only on disk is read off the event loop: PENDING is returned and the
+     * outcome is passed to {@code then} on the loop once the read is done.
+     */
+    private CacheResult serveFromCache(ChannelHandlerContext ctx, ForwardHttp1 request, Consumer<CacheResult> then) {
+        HttpCache cache = context != null ? context.getCache() : null;
+        if (cache == null || "CONNECT".equals(request.getMethod()) || !runs(request, Route.Stage.CACHE)) {
+            return CacheResult.FORWARD;
+        }
+
+        String method = request.getMethod();
+        if (CachePolicy.invalidatesCache(method)) {
+            cache.invalidate(request);
+            return CacheResult.FORWARD;
+        }
+        if (!CachePolicy.isCacheableMethod(method)) {
+            return CacheResult.FORWARD;
+        }
+
+        if (!CachePolicy.mayServeFromCache(request.getHeaders())) {
+            return serveStored(ctx, request, null);
+        }
+        CacheEntry entry = cache.lookup(request);
+        if (entry == null) {
+            Future<CacheEntry> onDisk = cache.lookupOnDisk(request, ctx.executor());
+            if (onDisk != null) {
+                onDisk.addListener((FutureListener<CacheEntry>) read -> {
+                    if (!ctx.channel().isActive()) {
+                        request.releaseData();
+                        return;
+                    }
+                    if (!read.isSuccess()) {
+                        logger.warn("Failed to read cached response from disk: {}", read.cause().getMessage());
+                    }
+                    try {
+                        then.accept(serveStored(ctx, request, read.isSuccess() ? read.getNow() : null));
+                    } catch (Exception e) {
+                        handleError(ctx, e, request);
+                    }
+                });
+                return CacheResult.PENDING;
+            }
+        }
+        return serveStored(ctx, request, entry);
+    }
+
+    /**
+     * Serves {@code entry} if it may be, and otherwise counts the miss.
+     *
+     * @param entry the stored response matching the request, or null
+     */
+    private CacheResult serveStored(ChannelHandlerContext ctx, ForwardHttp1 request, CacheEntry entry) {
+        HttpCache cache = context.getCache();
+        Map<String, String> headers = request.getHeaders();
+        CacheEntry stale = null;
+        if (entry != null && !acceptsStoredEncoding(headers, entry)) {
+            // stored still encoded for another client; fetch a representation this one can take
+            entry = null;
+        }
+        long now = System.currentTimeMillis();
+        if (entry != null && CachePolicy.satisfiesRequest(headers, entry.currentAge(now),
+                entry.getFreshnessLifetime(), entry.isMustRevalidate())) {
+            if (serveEntry(ctx, request, entry, "HIT")) {
+                cache.recordHit(entry);
+                return CacheResult.SERVED;
+            }
+        } else if (entry != null) {
+            if (CachePolicy.mayServeWhileRevalidating(headers, entry.staleness(now),
+                    entry.getStaleWhileRevalidate(), entry.isMustRevalidate())
+                    && serveEntry(ctx, request, entry, "STALE")) {
+                cache.recordStale(entry);
+                revalidateInBackground(ctx, request, entry);
+                return CacheResult.SERVED;
+            }
+            stale = entry;
+        }
+
+        cache.recordMiss();
+        if (CachePolicy.onlyIfCached(headers)) {
+            FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.GATEWAY_TIMEOUT);
+            response.headers().set(HttpHeaderNames.CONTENT_LENGTH, 0);
+            request.releaseData();
+            sendResponseToClient(ctx, response, request);
+            return CacheResult.SERVED;
+        }
+        return stale != null ? new CacheResult(false, false, stale) : CacheResult.FORWARD;
+    }
+
+    private static boolean acceptsStoredEncoding(Map<String, String> headers, CacheEntry entry) {
+        return acceptsEncoding(headers, entry.getHeaders().get(HttpHeaderNames.CONTENT_ENCODING));
+    }
+
+    /**
+     * @param encoding a response's Content-Encoding, or null for an identity body
+     */
+    private static boolean acceptsEncoding(Map<String, String> headers, String encoding) {
+        return encoding == null || CompressionStage.accepts(headers.get("accept-encoding"), encoding);
+    }
+
+    /**
+     * The coding of a stored variant to answer with, or null to send the identity body,
+     * which is then compressed per request. Misses count towards building the variants.
+     */
+    private String variantEncoding(ForwardHttp1 request, CacheEntry entry) {
+        CompressionStage compression = context.getResponseCompression();
+        if (compression == null || entry.getDiskLocation() != null) {
+            return null;
+        }
+        String encoding = compression.selectEncoding(request.getHeaders().get("accept-encoding"), entry.getStatus(),
+                                                     entry.getHeaders(), entry.bodyLength());
+        if (encoding == null) {
+            return null;
+        }
+        if (entry.hasVariant(encoding)) {
+            return encoding;
+        }
+        context.getCache().offerVariants(entry);
+        return null;
+    }
+
+    /**
+     * Writes a stored response to the client, tagged with how it was obtained.
+     *
+     * @return false if the entry's body was released before it could be used
+     */
+    private boolean serveEntry(ChannelHandlerContext ctx, ForwardHttp1 request, CacheEntry entry, String cacheStatus) {
+        String method = request.getMethod();
+        ByteRange range = "GET".equals(method) ? requestedRange(request.getHeaders(), entry) : null;
+        long now = System.currentTimeMillis();
+        String encoding = range == null ? variantEncoding(request, entry) : null;
+        HttpResponse response = encoding != null ? entry.toEncodedResponse(now, !"HEAD".equals(method), encoding) : null;
+        if (response != null) {
+            context.getCache().recordVariantHit();
+        } else {
+            response = entry.toResponse(now, !"HEAD".equals(method), range);
+        }
+        if (response == null) {
+            return false;
+        }
+        response.headers().set("X-Proxy-Server", "ahc-proxy-http1");
+        response.headers().set("X-Cache", cacheStatus);
+        request.releaseData();
+        sendResponseToClient(ctx, response, request);
+        return true;
+    }
+
+    /**
+     * Handles the origin's answer to a request forwarded with a stale entry: a 304 to the
+     * proxy's conditional refreshes the entry and serves it, and a 5xx may be replaced by
+     * the stale copy.
+     *
+     * @return true if the client was answered here and {@code response} is not needed
+     */
+    private boolean answerFromStored(ChannelHandlerContext ctx, ForwardHttp1 request, CacheEntry stale,
+                                     FullHttpResponse response, boolean validating, long requestTime) {
+        int status = response.status().code();
+        if (validating && status == 304) {
+            CacheEntry refreshed = context.getCache().refresh(stale, response.headers(), requestTime, System.currentTimeMillis());
+            if (refreshed == null || !serveEntry(ctx, request, refreshed, "REVALIDATED")) {
+                // the client did not ask for a 304, so it cannot be passed through
+                handleError(ctx, new Exception("Cached response was evicted during revalidation"), request);
+            }
+            return true;
+        }
+        return status >= 500 && serveStaleOnError(ctx, request, stale);
+    }
+
+    private boolean serveStaleOnError(ChannelHandlerContext ctx, ForwardHttp1 request, CacheEntry stale) {
+        if (!CachePolicy.mayServeStaleOnError(request.getHeaders(), stale.staleness(System.currentTimeMillis()),
+                stale.getStaleIfError(), stale.isMustRevalidate())) {
+            return false;
+        }
+        if (!serveEntry(ctx, request, stale, "STALE")) {
+            return false;
+        }
+        context.getCache().recordStale(stale);
+        return true;
+    }
+
+    /**
+     * Refreshes a stale entry off the request path. At most one revalidation per variant
+     * runs at a time; a 304 updates the entry's metadata and a 200 replaces it.
+     */
+    private void revalidateInBackground(ChannelHandlerContext ctx, ForwardHttp1 request, CacheEntry stale) {
+        HttpCache cache = context.getCache();
+        String key = stale.getKey();
+        if (!cache.beginRevalidation(key)) {
+            return;
+        }
+        BackendTarget target = routeToBackend(request);
+        if (target == null) {
+            cache.endRevalidation(key);
+            return;
+        }
+
+        ForwardHttp1 revalidation = revalidationRequest(request, stale, "GET", Unpooled.EMPTY_BUFFER);
+        long requestTime = System.currentTimeMillis();
+        newBackendClient(ctx, target).forwardRequestHTTP(revalidation, target, new BackendResponseCallback() {
+            @Override
+            public void onResponse(Object response) {
+                try {
+                    if (response instanceof FullHttpResponse) {
+                        FullHttpResponse fullResponse = (FullHttpResponse) response;
+                        long responseTime = System.currentTimeMillis();
+                        if (fullResponse.status().code() == 304) {
+                            cache.refresh(stale, fullResponse.headers(), requestTime, responseTime);
+                        } else if (fullResponse.status().code() < 500) {
+                            cache.store(revalidation, fullResponse, requestTime, responseTime);
+                        }
                     }
-                } else {
-                    handleError(ctx, new Exception("No backend target found"), request);
+                } finally {
+                    ReferenceCountUtil.release(response);
+                    cache.endRevalidation(key);
                 }
-            } else {
-                handleError(ctx, new Exception("Failed to parse request"), null);
             }
+
+            @Override
+            public void onError(Throwable cause) {
+                logger.debug("Background revalidation of {} failed: {}", key, cause.getMessage());
+                cache.endRevalidation(key);
+            }
+        }).whenComplete((success, throwable) -> {
+            if (throwable != null || !success) {
+                cache.endRevalidation(key);
+            }
+        });
+    }
+
+    /**
+     * Copy of the request carrying the stored entry's validators in place of any range.
+     */
+    private static ForwardHttp1 revalidationRequest(ForwardHttp1 request, CacheEntry entry, String method, ByteBuf data) {
+        Map<String, String> headers = new HashMap<>(request.getHeaders());
+        headers.remove("range");
+        headers.remove("if-range");
+        String etag = entry.getHeaders().get(HttpHeaderNames.ETAG);
+        if (etag != null) {
+            headers.put("if-none-match", etag);
+        }
+        String lastModified = entry.getHeaders().get(HttpHeaderNames.LAST_MODIFIED);
+        if (lastModified != null) {
+            headers.put("if-modified-since", lastModified);
+        }
+        return new ForwardHttp1(data, method, request.getURI(), headers, request.getClientAddress());
+    }
+
+    /**
+     * Range of a cached 200 the client asked for, honouring If-Range against the stored validators.
+     */
+    private static ByteRange requestedRange(Map<String, String> headers, CacheEntry entry) {
+        String range = headers.get("range");
+        if (range == null || entry.getStatus().code() != 200) {
+            return null;
+        }
+        String ifRange = headers.get("if-range");
+        if (ifRange != null) {
+            String validator = ifRange.startsWith("\"") || ifRange.startsWith("W/")
+                ? entry.getHeaders().get(HttpHeaderNames.ETAG)
+                : entry.getHeaders().get(HttpHeaderNames.LAST_MODIFIED);
+            // weak entity tags never match for ranges
+            if (validator == null || ifRange.startsWith("W/") || !validator.equals(ifRange.trim())) {
+                return null;
+            }
+        }
+        return ByteRange.parse(range, entry.bodyLength());
+    }
+
+    /**
+     * @return true if the response was stored
+     */
+    private boolean storeInCache(ForwardHttp1 request, FullHttpResponse response, long requestTime) {
+        HttpCache cache = context != null ? context.getCache() : null;
+        if (cache == null || !CachePolicy.isCacheableMethod(request.getMethod()) || !runs(request, Route.Stage.CACHE)) {
+            return false;
+        }
+        try {
+            response.headers().set("X-Cache", "MISS");
+            return cache.store(request, response, requestTime, System.currentTimeMillis());
         } catch (Exception e) {
-            handleError(ctx, e, null);
+            logger.warn("Failed to store response in cache: {}", e.getMessage());
+            return false;
         }
     }
-        
+
+    /**
+     * The metrics endpoint exists only when enabled; otherwise the path belongs to the origin.
+     */
+    private boolean isMetricsRequest(FullHttpRequest msg) {
+        return context != null && context.getConfig().isMetricsEnabled()
+            && HttpMethod.GET.equals(msg.method()) && METRICS_PATH.equals(msg.uri());
+    }
+
+    /**
+     * A scraper presents the configured token, or connects over loopback when there is none.
+     */
+    private boolean mayReadMetrics(ChannelHandlerContext ctx, FullHttpRequest msg) {
+        String token = context.getConfig().getMetricsToken();
+        if (token == null) {
+            SocketAddress remote = ctx.channel().remoteAddress();
+            return remote instanceof InetSocketAddress && ((InetSocketAddress) remote).getAddress() != null
+                && ((InetSocketAddress) remote).getAddress().isLoopbackAddress();
+        }
+        String authorization = msg.headers().get(HttpHeaderNames.AUTHORIZATION);
+        return authorization != null && authorization.regionMatches(true, 0, "Bearer ", 0, "Bearer ".length())
+            && MessageDigest.isEqual(authorization.substring("Bearer ".length()).trim().getBytes(CharsetUtil.UTF_8),
+                                     token.getBytes(CharsetUtil.UTF_8));
+    }
+
+    private void sendMetrics(ChannelHandlerContext ctx, FullHttpRequest msg) {
+        if (!mayReadMetrics(ctx, msg)) {
+            FullHttpResponse denied = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.UNAUTHORIZED);
+            denied.headers().set(HttpHeaderNames.WWW_AUTHENTICATE, "Bearer realm=\"ahc-proxy-metrics\"");
+            denied.headers().set(HttpHeaderNames.CONTENT_LENGTH, 0);
+            ctx.writeAndFlush(denied);
+            return;
+        }
+        byte[] body = ProxyMetrics.render().getBytes(CharsetUtil.UTF_8);
+        FullHttpResponse response = new DefaultFullHttpResponse(
+            HttpVersion.HTTP_1_1,
+            HttpResponseStatus.OK,
+            ctx.alloc().buffer(body.length).writeBytes(body)
+        );
+        response.headers().set(HttpHeaderNames.CONTENT_TYPE, "text/plain; charset=UTF-8");
+        response.headers().set(HttpHeaderNames.CONTENT_LENGTH, body.length);
+        ctx.writeAndFlush(response);
+    }
+
     /**
      * Send a blocked response to the client when content filter blocks the request
      */
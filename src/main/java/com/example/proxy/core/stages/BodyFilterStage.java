@@ -0,0 +1,208 @@
+package com.example.proxy.core.stages;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.ByteProcessor;
+
+/**
+ * Response body keyword filtering for text responses.
+ *
+ * Keywords of every category are compiled once into an Aho-Corasick automaton over bytes
+ * (ASCII case-insensitive). Each response gets its own {@link Scanner} that only holds the
+ * current automaton state, so matches spanning two {@code HttpContent} chunks are found
+ * without ever buffering the body.
+ */
+public class BodyFilterStage implements StagesManager {
+
+    public enum Action {
+        BLOCK_PAGE,
+        TERMINATE
+    }
+
+    private static final Map<String, List<String>> DEFAULT_CATEGORIES = new LinkedHashMap<>();
+
+    static {
+        DEFAULT_CATEGORIES.put("adult", Arrays.asList("xxx", "porn", "nsfw", "adult content"));
+        DEFAULT_CATEGORIES.put("gambling", Arrays.asList("online casino", "sports betting", "poker room"));
+    }
+
+    private final String[] categories;
+    private final Action action;
+
+    // byte -> input class, classes are shared by every byte that appears in no keyword
+    private final int[] byteClass = new int[256];
+    private final int classCount;
+    // complete DFA: next state = delta[state * classCount + class]
+    private final int[] delta;
+    // category index reported when the automaton enters a state, -1 for none
+    private final int[] output;
+
+    public BodyFilterStage(Map<String, List<String>> keywordCategories, Action action) {
+        Map<String, List<String>> source = keywordCategories == null || keywordCategories.isEmpty()
+            ? DEFAULT_CATEGORIES : keywordCategories;
+        this.categories = source.keySet().toArray(new String[0]);
+        this.action = action;
+
+        List<byte[]> patterns = new ArrayList<>();
+        List<Integer> patternCategory = new ArrayList<>();
+        for (int c = 0; c < categories.length; c++) {
+            for (String keyword : source.get(categories[c])) {
+                if (keyword == null || keyword.isEmpty()) continue;
+                patterns.add(keyword.toLowerCase(Locale.ROOT).getBytes(StandardCharsets.UTF_8));
+                patternCategory.add(c);
+            }
+        }
+
+        int classes = 1;
+        for (byte[] pattern : patterns) {
+            for (byte b : pattern) {
+                if (byteClass[b & 0xff] == 0) {
+                    byteClass[b & 0xff] = classes++;
+                }
+            }
+        }
+        for (int upper = 'A'; upper <= 'Z'; upper++) {
+            byteClass[upper] = byteClass[upper + ('a' - 'A')];
+        }
+        this.classCount = classes;
+
+        // goto function as a trie
+        List<int[]> trie = new ArrayList<>();
+        List<Integer> out = new ArrayList<>();
+        trie.add(newRow(classes));
+        out.add(-1);
+        for (int p = 0; p < patterns.size(); p++) {
+            int state = 0;
+            for (byte b : patterns.get(p)) {
+                int cls = byteClass[b & 0xff];
+                if (trie.get(state)[cls] < 0) {
+                    trie.get(state)[cls] = trie.size();
+                    trie.add(newRow(classes));
+                    out.add(-1);
+                }
+                state = trie.get(state)[cls];
+            }
+            if (out.get(state) < 0) {
+                out.set(state, patternCategory.get(p));
+            }
+        }
+
+        // breadth-first failure links folded into a complete transition table
+        int states = trie.size();
+        this.delta = new int[states * classes];
+        this.output = new int[states];
+        int[] fail = new int[states];
+        for (int s = 0; s < states; s++) {
+            output[s] = out.get(s);
+        }
+
+        Queue<Integer> queue = new ArrayDeque<>();
+        for (int cls = 0; cls < classes; cls++) {
+            int next = trie.get(0)[cls];
+            if (next < 0) {
+                delta[cls] = 0;
+            } else {
+                delta[cls] = next;
+                fail[next] = 0;
+                queue.add(next);
+            }
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            if (output[state] < 0) {
+                output[state] = output[fail[state]];
+            }
+            for (int cls = 0; cls < classes; cls++) {
+                int next = trie.get(state)[cls];
+                if (next < 0) {
+                    delta[state * classes + cls] = delta[fail[state] * classes + cls];
+                } else {
+                    delta[state * classes + cls] = next;
+                    fail[next] = delta[fail[state] * classes + cls];
+                    queue.add(next);
+                }
+            }
+        }
+    }
+
+    private static int[] newRow(int classes) {
+        int[] row = new int[classes];
+        Arrays.fill(row, -1);
+        return row;
+    }
+
+    public static Action parseAction(String action) {
+        return "terminate".equalsIgnoreCase(action) ? Action.TERMINATE : Action.BLOCK_PAGE;
+    }
+
+    @Override
+    public String getAlg() {
+        return "body-filter";
+    }
+
+    public Action getAction() {
+        return action;
+    }
+
+    /**
+     * Only uncompressed textual bodies are inspected; images, archives and anything
+     * still carrying a content coding are relayed untouched.
+     */
+    public boolean isScannable(String contentType, String contentEncoding) {
+        if (contentEncoding != null && !contentEncoding.isEmpty() && !"identity".equalsIgnoreCase(contentEncoding.trim())) {
+            return false;
+        }
+        if (contentType == null) {
+            return false;
+        }
+        String type = contentType.toLowerCase(Locale.ROOT);
+        return type.startsWith("text/")
+            || type.startsWith("application/xhtml+xml")
+            || type.startsWith("application/xml")
+            || type.startsWith("application/json");
+    }
+
+    public Scanner newScanner() {
+        return new Scanner();
+    }
+
+    /**
+     * Per-response automaton cursor. Not thread safe; owned by one backend channel.
+     */
+    public final class Scanner implements ByteProcessor {
+
+        private int state;
+        private int matched = -1;
+
+        /**
+         * Feeds one chunk through the automaton.
+         *
+         * @return the matched category, or null when the chunk is clean so far
+         */
+        public String scan(ByteBuf chunk) {
+            if (matched < 0 && chunk.isReadable()) {
+                chunk.forEachByte(this);
+            }
+            return matched >= 0 ? categories[matched] : null;
+        }
+
+        @Override
+        public boolean process(byte value) {
+            state = delta[state * classCount + byteClass[value & 0xff]];
+            if (output[state] >= 0) {
+                matched = output[state];
+                return false;
+            }
+            return true;
+        }
+    }
+}
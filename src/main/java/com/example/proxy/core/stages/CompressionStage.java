@@ -1,17 +1,464 @@
 package com.example.proxy.core.stages;
-/* 
- *  Overview: Data container for compression with HTTP/1.x, HTTP/2. and WebSocket
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.aayushatharva.brotli4j.encoder.Encoder;
+import com.example.proxy.core.metrics.ProxyMetrics;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.EncoderException;
+import io.netty.handler.codec.compression.Brotli;
+import io.netty.handler.codec.compression.Zstd;
+import io.netty.handler.codec.compression.ZstdEncoder;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.util.concurrent.FastThreadLocal;
+
+/*
+ *  Overview: Compression for HTTP/1.x, HTTP/2. and WebSocket. Per request it carries the
+ *            algorithm negotiated with the backend; built from ProxyConfig it compresses
+ *            identity responses for clients that accept an encoding the proxy can produce.
+ *
+ *            gzip and deflate use java.util.zip Deflaters kept one per event loop thread
+ *            and reset between responses. br and zstd are offered only when their native
+ *            codecs (brotli4j, zstd-jni) load: zstd runs through a Netty encoder in an
+ *            EmbeddedChannel that is likewise kept per thread, br through brotli4j's
+ *            one-shot encoder, as a Brotli stream cannot be reset for the next body.
  */
 
 public class CompressionStage implements StagesManager {
 
+    private static final Logger logger = LoggerFactory.getLogger(CompressionStage.class);
+
+    public static final List<String> DEFAULT_CONTENT_TYPES = Arrays.asList(
+        "!text/event-stream", "text/*", "application/json", "application/*+json", "application/javascript",
+        "application/xml", "application/*+xml", "image/svg+xml", "application/wasm");
+
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    // Netty's default for br: quality 4, text mode
+    private static final int BROTLI_QUALITY = 4;
+
+    private static final LongAdder compressed = ProxyMetrics.counter("compression.responses");
+    private static final LongAdder bytesIn = ProxyMetrics.counter("compression.bytes_in");
+    private static final LongAdder bytesOut = ProxyMetrics.counter("compression.bytes_out");
+
     final String type;
 
+    private final List<String> encodings;
+    private final List<String> contentTypes;
+    private final int minBytes;
+
+    private final FastThreadLocal<Deflater> gzipDeflaters;
+    private final FastThreadLocal<Deflater> zlibDeflaters;
+    private final FastThreadLocal<EmbeddedChannel> zstdChannels;
+    private final Encoder.Parameters brotliParameters;
+
+    /**
+     * Per-request data container; compresses nothing itself.
+     */
     public CompressionStage(String type) {
         this.type = type;
+        this.encodings = Collections.emptyList();
+        this.contentTypes = Collections.emptyList();
+        this.minBytes = Integer.MAX_VALUE;
+        this.gzipDeflaters = null;
+        this.zlibDeflaters = null;
+        this.zstdChannels = null;
+        this.brotliParameters = null;
     }
 
+    /**
+     * @param encodings    content codings the proxy may produce, most preferred first
+     * @param contentTypes media type rules checked in order, first match wins: "text/*" and
+     *                     "application/*+json" style wildcards, a leading '!' excludes
+     * @param minBytes     smallest body worth compressing
+     * @param level        Deflater level for gzip and deflate
+     */
+    public CompressionStage(List<String> encodings, List<String> contentTypes, int minBytes, int level) {
+        this.encodings = new ArrayList<>();
+        for (String encoding : encodings) {
+            String name = encoding.trim().toLowerCase(Locale.ROOT);
+            if (isAvailable(name)) {
+                this.encodings.add(name);
+            } else {
+                logger.info("Response compression with {} unavailable, codec not on the classpath", name);
+            }
+        }
+        this.type = this.encodings.isEmpty() ? "none" : this.encodings.get(0);
+        this.contentTypes = new ArrayList<>(contentTypes);
+        this.minBytes = minBytes;
+        this.gzipDeflaters = deflaters(level, true);
+        this.zlibDeflaters = deflaters(level, false);
+        this.zstdChannels = zstdChannels();
+        this.brotliParameters = this.encodings.contains("br")
+            ? new Encoder.Parameters().setQuality(BROTLI_QUALITY).setMode(Encoder.Mode.TEXT)
+            : null;
+    }
+
+    private static boolean isAvailable(String encoding) {
+        switch (encoding) {
+            case "gzip":
+            case "deflate":
+                return true;
+            case "br":
+                return Brotli.isAvailable();
+            case "zstd":
+                return Zstd.isAvailable();
+            default:
+                return false;
+        }
+    }
+
+    private static FastThreadLocal<Deflater> deflaters(int level, boolean nowrap) {
+        return new FastThreadLocal<Deflater>() {
+            @Override
+            protected Deflater initialValue() {
+                return new Deflater(level, nowrap);
+            }
+
+            @Override
+            protected void onRemoval(Deflater deflater) {
+                deflater.end();
+            }
+        };
+    }
+
+    private static FastThreadLocal<EmbeddedChannel> zstdChannels() {
+        return new FastThreadLocal<EmbeddedChannel>() {
+            @Override
+            protected EmbeddedChannel initialValue() {
+                return new EmbeddedChannel(new ZstdEncoder());
+            }
+
+            @Override
+            protected void onRemoval(EmbeddedChannel channel) {
+                channel.finishAndReleaseAll();
+            }
+        };
+    }
+
+    @Override
     public String getAlg() {
         return type;
     }
-}
\ No newline at end of file
+
+    /**
+     * @return the codings this stage produces, most preferred first
+     */
+    public List<String> getEncodings() {
+        return Collections.unmodifiableList(encodings);
+    }
+
+    /**
+     * Picks the coding to compress {@code response} with for a client sending
+     * {@code acceptEncoding}.
+     *
+     * @return the coding, or null when the response should be sent as is
+     */
+    public String selectEncoding(String acceptEncoding, FullHttpResponse response) {
+        return selectEncoding(acceptEncoding, response.status(), response.headers(), response.content().readableBytes());
+    }
+
+    public String selectEncoding(String acceptEncoding, HttpResponseStatus status, HttpHeaders headers, int length) {
+        if (acceptEncoding == null || encodings.isEmpty() || !HttpResponseStatus.OK.equals(status) || length < minBytes) {
+            return null;
+        }
+        String existing = headers.get(HttpHeaderNames.CONTENT_ENCODING);
+        if (existing != null && !HttpHeaderValues.IDENTITY.contentEqualsIgnoreCase(existing)) {
+            return null;
+        }
+        String cacheControl = headers.get(HttpHeaderNames.CACHE_CONTROL);
+        if (cacheControl != null && cacheControl.toLowerCase(Locale.ROOT).contains("no-transform")) {
+            return null;
+        }
+        if (!compressibleType(headers.get(HttpHeaderNames.CONTENT_TYPE))) {
+            return null;
+        }
+        return negotiate(acceptEncoding);
+    }
+
+    boolean compressibleType(String contentType) {
+        if (contentType == null) {
+            return false;
+        }
+        int semicolon = contentType.indexOf(';');
+        String mediaType = (semicolon >= 0 ? contentType.substring(0, semicolon) : contentType)
+            .trim().toLowerCase(Locale.ROOT);
+        for (String rule : contentTypes) {
+            boolean exclude = rule.startsWith("!");
+            if (matches(exclude ? rule.substring(1) : rule, mediaType)) {
+                return !exclude;
+            }
+        }
+        return false;
+    }
+
+    private static boolean matches(String pattern, String mediaType) {
+        int star = pattern.indexOf('*');
+        if (star < 0) {
+            return pattern.equals(mediaType);
+        }
+        String prefix = pattern.substring(0, star);
+        String suffix = pattern.substring(star + 1);
+        return mediaType.length() >= prefix.length() + suffix.length()
+            && mediaType.startsWith(prefix) && mediaType.endsWith(suffix);
+    }
+
+    /**
+     * Whether a client sending {@code acceptEncoding} may be given a body in
+     * {@code coding}. Identity is always acceptable unless refused explicitly.
+     */
+    public static boolean accepts(String acceptEncoding, String coding) {
+        String wanted = coding.trim().toLowerCase(Locale.ROOT);
+        if (wanted.startsWith("x-")) {
+            wanted = wanted.substring(2);
+        }
+        boolean identity = wanted.isEmpty() || "identity".equals(wanted);
+        if (acceptEncoding == null) {
+            return identity;
+        }
+        Float named = null;
+        float wildcard = identity ? 1 : 0;
+        for (String token : acceptEncoding.split(",")) {
+            String[] parts = token.trim().split(";");
+            String name = parts[0].trim().toLowerCase(Locale.ROOT);
+            if (name.startsWith("x-")) {
+                name = name.substring(2);
+            }
+            float q = quality(parts);
+            if (name.equals(wanted)) {
+                named = q;
+            } else if ("*".equals(name)) {
+                wildcard = q;
+            }
+        }
+        return (named != null ? named : wildcard) > 0;
+    }
+
+    private static float quality(String[] parts) {
+        for (int i = 1; i < parts.length; i++) {
+            String param = parts[i].trim();
+            if (param.startsWith("q=")) {
+                try {
+                    return Float.parseFloat(param.substring(2));
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * Highest q-value wins; ties go to the proxy's preference order. "*" stands for every
+     * coding the client did not name.
+     */
+    String negotiate(String acceptEncoding) {
+        float[] quality = new float[encodings.size()];
+        boolean[] named = new boolean[encodings.size()];
+        float wildcard = 0;
+        for (String token : acceptEncoding.split(",")) {
+            String[] parts = token.trim().split(";");
+            String coding = parts[0].trim().toLowerCase(Locale.ROOT);
+            float q = quality(parts);
+            if ("*".equals(coding)) {
+                wildcard = q;
+                continue;
+            }
+            int index = encodings.indexOf(coding);
+            if (index >= 0) {
+                quality[index] = q;
+                named[index] = true;
+            }
+        }
+        String best = null;
+        float bestQ = 0;
+        for (int i = 0; i < encodings.size(); i++) {
+            float q = named[i] ? quality[i] : wildcard;
+            if (q > bestQ) {
+                best = encodings.get(i);
+                bestQ = q;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Compresses the body of {@code response} and returns the encoded response, taking
+     * ownership of {@code response}. If the encoded body is not smaller, the original is
+     * returned unchanged.
+     */
+    public FullHttpResponse compress(FullHttpResponse response, String encoding, ByteBufAllocator alloc) {
+        ByteBuf content = response.content();
+        ByteBuf encoded = encode(content, encoding, alloc);
+        if (encoded == null) {
+            return response;
+        }
+        int originalLength = content.readableBytes();
+        if (encoded.readableBytes() >= originalLength) {
+            encoded.release();
+            return response;
+        }
+
+        FullHttpResponse result = response.replace(encoded);
+        response.release();
+        markEncoded(result.headers(), encoding, encoded.readableBytes());
+
+        compressed.increment();
+        bytesIn.add(originalLength);
+        bytesOut.add(encoded.readableBytes());
+        return result;
+    }
+
+    /**
+     * Encodes the readable bytes of {@code content} without consuming them.
+     *
+     * @return a new buffer owned by the caller, or null for a coding this stage cannot produce
+     */
+    public ByteBuf encode(ByteBuf content, String encoding, ByteBufAllocator alloc) {
+        switch (encoding) {
+            case "gzip":
+                return gzip(content, alloc);
+            case "deflate":
+                return deflate(zlibDeflaters.get(), content, alloc, 0);
+            case "br":
+                return brotli(content);
+            case "zstd":
+                return zstd(content, alloc);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Rewrites the headers of a response whose body is now {@code length} bytes in
+     * {@code encoding}.
+     */
+    public static void markEncoded(HttpHeaders headers, String encoding, int length) {
+        headers.set(HttpHeaderNames.CONTENT_ENCODING, encoding);
+        headers.set(HttpHeaderNames.CONTENT_LENGTH, length);
+        headers.remove(HttpHeaderNames.CONTENT_MD5);
+        if (!headers.containsValue(HttpHeaderNames.VARY, HttpHeaderNames.ACCEPT_ENCODING, true)) {
+            headers.add(HttpHeaderNames.VARY, HttpHeaderNames.ACCEPT_ENCODING);
+        }
+        // the encoded bytes differ from the origin's, so a strong validator no longer holds
+        String etag = headers.get(HttpHeaderNames.ETAG);
+        if (etag != null && !etag.startsWith("W/")) {
+            headers.set(HttpHeaderNames.ETAG, "W/" + etag);
+        }
+    }
+
+    private ByteBuf gzip(ByteBuf content, ByteBufAllocator alloc) {
+        ByteBuf out = deflate(gzipDeflaters.get(), content, alloc, GZIP_HEADER.length);
+        out.setBytes(0, GZIP_HEADER);
+        CRC32 crc = new CRC32();
+        for (ByteBuffer chunk : content.nioBuffers()) {
+            crc.update(chunk);
+        }
+        out.writeIntLE((int) crc.getValue());
+        out.writeIntLE(content.readableBytes());
+        return out;
+    }
+
+    /**
+     * Runs the whole body through the thread's Deflater, leaving {@code headroom} bytes at
+     * the front of the returned buffer for a caller-written header.
+     */
+    private static ByteBuf deflate(Deflater deflater, ByteBuf content, ByteBufAllocator alloc, int headroom) {
+        int length = content.readableBytes();
+        ByteBuf out = alloc.buffer(headroom + length / 2 + 64);
+        out.writerIndex(headroom);
+        try {
+            for (ByteBuffer chunk : content.nioBuffers()) {
+                deflater.setInput(chunk);
+                while (!deflater.needsInput()) {
+                    drain(deflater, out, Deflater.NO_FLUSH);
+                }
+            }
+            deflater.finish();
+            while (!deflater.finished()) {
+                drain(deflater, out, Deflater.NO_FLUSH);
+            }
+            return out;
+        } catch (RuntimeException e) {
+            out.release();
+            throw e;
+        } finally {
+            deflater.reset();
+        }
+    }
+
+    private static void drain(Deflater deflater, ByteBuf out, int flush) {
+        out.ensureWritable(4096);
+        ByteBuffer target = out.nioBuffer(out.writerIndex(), out.writableBytes());
+        int written = deflater.deflate(target, flush);
+        out.writerIndex(out.writerIndex() + written);
+    }
+
+    /**
+     * Encodes through the thread's zstd channel. The encoder ends a frame on every flush,
+     * so each body comes out as complete frames and the channel is ready for the next.
+     * A channel that failed is dropped, as its encoder may hold part of a body.
+     */
+    private ByteBuf zstd(ByteBuf content, ByteBufAllocator alloc) {
+        EmbeddedChannel channel = zstdChannels.get();
+        try {
+            channel.writeOutbound(content.retainedDuplicate());
+            return readEncoded(channel, alloc);
+        } catch (RuntimeException e) {
+            zstdChannels.remove();
+            throw e;
+        }
+    }
+
+    /**
+     * Encodes in one native call. Brotli has no reset, so each body needs fresh encoder
+     * state either way; the one-shot call keeps that inside the native code instead of a
+     * streaming encoder and its buffers.
+     */
+    private ByteBuf brotli(ByteBuf content) {
+        try {
+            byte[] encoded;
+            if (content.hasArray()) {
+                encoded = Encoder.compress(content.array(), content.arrayOffset() + content.readerIndex(),
+                                           content.readableBytes(), brotliParameters);
+            } else {
+                encoded = Encoder.compress(ByteBufUtil.getBytes(content), brotliParameters);
+            }
+            return Unpooled.wrappedBuffer(encoded);
+        } catch (IOException e) {
+            throw new EncoderException(e);
+        }
+    }
+
+    private static ByteBuf readEncoded(EmbeddedChannel channel, ByteBufAllocator alloc) {
+        channel.checkException();
+        CompositeByteBuf out = alloc.compositeBuffer();
+        ByteBuf part;
+        while ((part = channel.readOutbound()) != null) {
+            out.addComponent(true, part);
+        }
+        return out;
+    }
+}
@@ -0,0 +1,285 @@
+package com.example.proxy.core.stages;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.example.proxy.core.metrics.ProxyMetrics;
+import com.example.proxy.core.server.ForwardHttp1;
+import com.example.proxy.utils.HttpUtil;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.EmptyHttpHeaders;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.ReadOnlyHttpHeaders;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+/**
+ * Per-key request rate limiting, keyed by client IP, authenticated user or route (Host).
+ *
+ * Every key has a token bucket of {@code burst} tokens refilled at {@code ratePerSecond}.
+ * A bucket is kept in its virtual-scheduling form (GCRA): the single long "theoretical
+ * arrival time" of the next request, which is exactly as expressive as a token count plus
+ * a refill timestamp but can be updated with one CAS. A request is admitted when taking
+ * a token would not push that time more than {@code burst} emission intervals ahead of now.
+ *
+ * Buckets live in one preallocated open-addressed table of packed longs, a 64-bit key
+ * fingerprint followed by the bucket's arrival time, so lookups allocate nothing and
+ * take no locks. A key may sit in any slot of an 8-slot window from its hash and lookups
+ * scan the whole window, which is what lets the sweeper free a slot by zeroing its key
+ * without breaking other keys' probe chains. A bucket whose arrival time has passed is
+ * full again, exactly like a new one, so the sweeper frees those without losing anything.
+ * When a window is full of live keys the idlest of them is evicted.
+ *
+ * The table takes 32 bytes per tracked key (two slots of two longs).
+ */
+public class RateLimitStage implements StagesManager, AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(RateLimitStage.class);
+
+    private static final int WINDOW = 8;
+    private static final long SWEEP_INTERVAL_SECONDS = 10;
+
+    public enum KeyType {
+        IP,
+        USER,
+        ROUTE;
+
+        public static KeyType parse(String name) {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+
+    private final KeyType keyType;
+    private final long emissionNanos;
+    private final long burstNanos;
+    // slot i: key fingerprint at 2 * i, theoretical arrival time at 2 * i + 1
+    private final AtomicLongArray table;
+    private final int mask;
+    private final long origin = System.nanoTime();
+    private final ScheduledExecutorService sweeper;
+    private volatile int trackedKeys;
+
+    private final ByteBuf rejectionBody;
+    private final HttpHeaders rejectionHeaders;
+
+    private final LongAdder allowed = ProxyMetrics.counter("ratelimit.allowed");
+    private final LongAdder rejected = ProxyMetrics.counter("ratelimit.rejected");
+    private final LongAdder evictions = ProxyMetrics.counter("ratelimit.evictions");
+    private final LongAdder swept = ProxyMetrics.counter("ratelimit.swept");
+
+    public RateLimitStage(KeyType keyType, double ratePerSecond, int burst, int maxKeys) {
+        this.keyType = keyType;
+        this.emissionNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / ratePerSecond));
+        this.burstNanos = emissionNanos * Math.max(1, burst);
+        int slots = Integer.highestOneBit(Math.max(WINDOW, maxKeys) * 2 - 1) << 1;
+        this.table = new AtomicLongArray(slots * 2);
+        this.mask = slots - 1;
+
+        byte[] body = "Too many requests\n".getBytes(StandardCharsets.US_ASCII);
+        this.rejectionBody = Unpooled.unreleasableBuffer(
+            Unpooled.directBuffer(body.length).writeBytes(body).asReadOnly());
+        long retryAfter = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(emissionNanos + TimeUnit.SECONDS.toNanos(1) - 1));
+        this.rejectionHeaders = new ReadOnlyHttpHeaders(false,
+            HttpHeaderNames.CONTENT_TYPE, "text/plain; charset=US-ASCII",
+            HttpHeaderNames.CONTENT_LENGTH, String.valueOf(body.length),
+            HttpHeaderNames.RETRY_AFTER, String.valueOf(retryAfter),
+            "X-Proxy-Server", "ahc-proxy");
+
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("ratelimit-sweeper", true));
+        sweeper.scheduleWithFixedDelay(this::sweep, SWEEP_INTERVAL_SECONDS, SWEEP_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        ProxyMetrics.gauge("ratelimit.tracked_keys", () -> trackedKeys);
+        logger.info("Rate limiting by {}: {}/s, burst {}, {} slots", keyType, ratePerSecond, burst, slots);
+    }
+
+    @Override
+    public String getAlg() {
+        return keyType.name().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Takes a token for the request's key. Requests keyed by user fall back to the client
+     * IP when no user is authenticated.
+     *
+     * @return false if the key is over its rate and the request must be rejected
+     */
+    public boolean tryAcquire(ForwardHttp1 request, SocketAddress remote) {
+        long key;
+        if (keyType == KeyType.USER && request.getUser() != null) {
+            key = hash(request.getUser().getName());
+        } else if (keyType == KeyType.ROUTE) {
+            String host = request.getHeaders().get("host");
+            key = hash(host != null ? host : String.valueOf(HttpUtil.getHostFromURI(request.getURI())));
+        } else {
+            key = hash(remote);
+        }
+        return tryAcquire(key);
+    }
+
+    /**
+     * @param key a fingerprint from one of the {@code hash} methods
+     */
+    public boolean tryAcquire(long key) {
+        long now = System.nanoTime() - origin;
+        int start = (int) key & mask;
+        while (true) {
+            int slot = find(key, start);
+            if (slot < 0) {
+                slot = claim(key, start);
+            }
+            int at = slot * 2 + 1;
+            long tat = table.get(at);
+            if (table.get(slot * 2) != key) {
+                // swept or evicted under us, look again
+                continue;
+            }
+            long next = Math.max(tat, now) + emissionNanos;
+            if (next - now > burstNanos) {
+                rejected.increment();
+                return false;
+            }
+            if (table.compareAndSet(at, tat, next)) {
+                allowed.increment();
+                return true;
+            }
+        }
+    }
+
+    private int find(long key, int start) {
+        for (int i = 0; i < WINDOW; i++) {
+            int slot = (start + i) & mask;
+            if (table.get(slot * 2) == key) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Puts {@code key} into a free slot of its window, or evicts the idlest key there.
+     * A freed slot's arrival time is already in the past, so it reads as a full bucket.
+     */
+    private int claim(long key, int start) {
+        while (true) {
+            int idlest = -1;
+            long idlestTat = Long.MAX_VALUE;
+            for (int i = 0; i < WINDOW; i++) {
+                int slot = (start + i) & mask;
+                long current = table.get(slot * 2);
+                if (current == key) {
+                    return slot;
+                }
+                if (current == 0) {
+                    if (table.compareAndSet(slot * 2, 0, key)) {
+                        return slot;
+                    }
+                    continue;
+                }
+                long tat = table.get(slot * 2 + 1);
+                if (tat < idlestTat) {
+                    idlest = slot;
+                    idlestTat = tat;
+                }
+            }
+            if (idlest < 0) {
+                continue;
+            }
+            long victim = table.get(idlest * 2);
+            if (victim != 0 && victim != key && table.compareAndSet(idlest * 2, victim, key)) {
+                // the victim's bucket may still be draining; start the new key full
+                table.set(idlest * 2 + 1, 0);
+                evictions.increment();
+                return idlest;
+            }
+        }
+    }
+
+    /**
+     * Frees every slot whose bucket has refilled. A request that raced the sweep may have
+     * just taken a token from the freed bucket; the key then starts over with a full one,
+     * which forgives at most that single token.
+     */
+    private void sweep() {
+        long now = System.nanoTime() - origin;
+        int live = 0;
+        for (int slot = 0; slot <= mask; slot++) {
+            long key = table.get(slot * 2);
+            if (key == 0) {
+                continue;
+            }
+            if (table.get(slot * 2 + 1) <= now && table.compareAndSet(slot * 2, key, 0)) {
+                swept.increment();
+            } else {
+                live++;
+            }
+        }
+        trackedKeys = live;
+    }
+
+    /**
+     * A fresh 429 sharing one pre-built body and header set; nothing is allocated for it
+     * beyond the response object.
+     */
+    public FullHttpResponse rejection() {
+        return new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.TOO_MANY_REQUESTS,
+                                           rejectionBody.duplicate(), rejectionHeaders, EmptyHttpHeaders.INSTANCE);
+    }
+
+    public static long hash(CharSequence value) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            h = (h ^ value.charAt(i)) * 0x100000001b3L;
+        }
+        return fingerprint(h);
+    }
+
+    public static long hash(SocketAddress remote) {
+        if (!(remote instanceof InetSocketAddress) || ((InetSocketAddress) remote).getAddress() == null) {
+            return hash(String.valueOf(remote));
+        }
+        InetAddress address = ((InetSocketAddress) remote).getAddress();
+        if (address instanceof Inet4Address) {
+            // an IPv4 address's hashCode is the address itself
+            return fingerprint(address.hashCode() & 0xffffffffL);
+        }
+        long h = 0xcbf29ce484222325L;
+        for (byte b : address.getAddress()) {
+            h = (h ^ (b & 0xff)) * 0x100000001b3L;
+        }
+        return fingerprint(h);
+    }
+
+    /**
+     * MurmurHash3's 64-bit finaliser; 0 marks a free slot, so it is never returned.
+     */
+    private static long fingerprint(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h != 0 ? h : 1;
+    }
+
+    @Override
+    public void close() {
+        sweeper.shutdownNow();
+    }
+}
@@ -0,0 +1,231 @@
+package com.example.proxy.core.upstream;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One server of an upstream pool and the load statistics its balancer chooses by.
+ *
+ * The statistics are updated from every worker event loop at once, so they are kept in
+ * atomics rather than behind a lock: the number of outstanding requests, and a peak
+ * EWMA of response times. The EWMA jumps straight to any slower sample and decays
+ * towards faster ones with a time constant of {@link #DECAY_NANOS}, so an endpoint that
+ * turns slow is avoided at once and trusted again gradually. Failures count as a sample
+ * of {@link #FAILURE_PENALTY_NANOS}, so an endpoint refusing connections quickly does
+ * not look fast.
+ *
+ * Whether the endpoint may be picked at all is decided by its pool: it is left out
+ * while an active health check finds it down or while the outlier detector has ejected
+ * it.
+ */
+public final class Endpoint {
+
+    private static final long DECAY_NANOS = TimeUnit.SECONDS.toNanos(10);
+    private static final long FAILURE_PENALTY_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final String host;
+    private final int port;
+    private final AtomicInteger outstanding = new AtomicInteger();
+    // Double bits of the EWMA in nanoseconds
+    private final AtomicLong ewmaBits = new AtomicLong(Double.doubleToRawLongBits(0));
+    private volatile long lastSampleNanos = System.nanoTime();
+
+    // outlier detection inputs, fed from every event loop
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private final AtomicInteger consecutiveErrors = new AtomicInteger();
+    private final AtomicLong windowRequests = new AtomicLong();
+    private final AtomicLong windowSuccesses = new AtomicLong();
+
+    // health, changed rarely and under the pool's monitor
+    private volatile boolean healthy = true;
+    private volatile long ejectedUntilNanos;
+    private int ejections;
+    private UpstreamPool pool;
+
+    public Endpoint(String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
+
+    /**
+     * @param address "host:port"; the port defaults to 80
+     */
+    public static Endpoint parse(String address) {
+        String trimmed = address.trim();
+        int colon = trimmed.lastIndexOf(':');
+        if (colon < 0 || trimmed.endsWith("]")) {
+            return new Endpoint(trimmed, 80);
+        }
+        try {
+            return new Endpoint(trimmed.substring(0, colon), Integer.parseInt(trimmed.substring(colon + 1)));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid upstream endpoint: " + address, e);
+        }
+    }
+
+    /**
+     * Marks a request as sent to this endpoint.
+     *
+     * @return the start time to hand back to {@link #complete}
+     */
+    public long begin() {
+        outstanding.incrementAndGet();
+        return System.nanoTime();
+    }
+
+    /**
+     * Records the end of a request started with {@link #begin}; call exactly once.
+     *
+     * @param status the response status, or 0 if the request failed without one
+     *               (connect error, reset, closed)
+     */
+    public void complete(long startNanos, int status) {
+        outstanding.decrementAndGet();
+        long now = System.nanoTime();
+        boolean failed = status <= 0;
+        observe(failed ? Math.max(now - startNanos, FAILURE_PENALTY_NANOS) : now - startNanos, now);
+
+        boolean error = failed || status >= 500;
+        windowRequests.incrementAndGet();
+        if (!error) {
+            windowSuccesses.incrementAndGet();
+            if (pool != null) {
+                pool.recordLatency(now - startNanos);
+            }
+            consecutiveFailures.set(0);
+            consecutiveErrors.set(0);
+        } else {
+            int failures = failed ? consecutiveFailures.incrementAndGet() : consecutiveFailures.get();
+            int errors = consecutiveErrors.incrementAndGet();
+            if (pool != null) {
+                pool.onError(this, failures, errors);
+            }
+        }
+    }
+
+    /**
+     * Ends a request started with {@link #begin} that was cancelled, without a sample.
+     */
+    public void abandon() {
+        outstanding.decrementAndGet();
+    }
+
+    private void observe(long rttNanos, long now) {
+        long elapsed = Math.max(0, now - lastSampleNanos);
+        lastSampleNanos = now;
+        double weight = Math.exp(-(double) elapsed / DECAY_NANOS);
+        while (true) {
+            long bits = ewmaBits.get();
+            double ewma = Double.longBitsToDouble(bits);
+            double next = rttNanos > ewma ? rttNanos : ewma * weight + rttNanos * (1 - weight);
+            if (ewmaBits.compareAndSet(bits, Double.doubleToRawLongBits(next))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Expected wait for a new request: the latency EWMA scaled by the requests already
+     * queued here. Lower is better. The EWMA decays with the time since its last sample
+     * as well, so an endpoint that stopped being picked after a bad spell (a failure
+     * penalty, a slow burst) gets tried again instead of starving.
+     */
+    public double cost() {
+        long idle = Math.max(0, System.nanoTime() - lastSampleNanos);
+        return getEwmaNanos() * Math.exp(-(double) idle / DECAY_NANOS) * (outstanding.get() + 1);
+    }
+
+    /**
+     * @return the pool this endpoint belongs to, or null if it is not in one
+     */
+    public UpstreamPool getPool() {
+        return pool;
+    }
+
+    void attach(UpstreamPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Returns and resets the request and success counts since the last call.
+     */
+    long[] drainWindow() {
+        return new long[] { windowRequests.getAndSet(0), windowSuccesses.getAndSet(0) };
+    }
+
+    void resetErrors() {
+        consecutiveFailures.set(0);
+        consecutiveErrors.set(0);
+    }
+
+    boolean isHealthy() {
+        return healthy;
+    }
+
+    void setHealthy(boolean healthy) {
+        this.healthy = healthy;
+    }
+
+    boolean isEjected() {
+        return ejectedUntilNanos != 0;
+    }
+
+    long getEjectedUntilNanos() {
+        return ejectedUntilNanos;
+    }
+
+    /**
+     * @return how many times the endpoint has been ejected recently, this one included,
+     *         which sets how long the ejection lasts
+     */
+    int countEjection() {
+        return ++ejections;
+    }
+
+    void ejectUntil(long untilNanos) {
+        this.ejectedUntilNanos = untilNanos;
+    }
+
+    void readmit() {
+        this.ejectedUntilNanos = 0;
+        resetErrors();
+    }
+
+    /**
+     * Lets the ejection back-off shrink again after a quiet period.
+     */
+    void forgiveEjection() {
+        if (ejections > 0 && ejectedUntilNanos == 0) {
+            ejections--;
+        }
+    }
+
+    /**
+     * @return true if the endpoint may be picked: healthy and not ejected
+     */
+    public boolean isAvailable() {
+        return healthy && ejectedUntilNanos == 0;
+    }
+
+    public double getEwmaNanos() {
+        return Double.longBitsToDouble(ewmaBits.get());
+    }
+
+    public int getOutstanding() {
+        return outstanding.get();
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    @Override
+    public String toString() {
+        return host + ":" + port;
+    }
+}
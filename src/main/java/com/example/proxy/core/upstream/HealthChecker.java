@@ -0,0 +1,206 @@
+package com.example.proxy.core.upstream;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.example.proxy.core.backend.dns.BackendResolver;
+import com.example.proxy.core.metrics.ProxyMetrics;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoop;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.util.concurrent.ScheduledFuture;
+
+/**
+ * Active HTTP health checks of every upstream endpoint, run on the worker event loops'
+ * timers; no thread of its own.
+ *
+ * Each endpoint is pinned to one event loop, which sends it {@code GET <path>} every
+ * interval, the next one only after the last has finished. A 2xx within the timeout is a
+ * pass, anything else a failure; the endpoint changes state after a run of
+ * {@code unhealthyThreshold} failures or {@code healthyThreshold} passes. The same
+ * loops also run each pool's outlier {@link UpstreamPool#sweep() sweep} once a second.
+ * Endpoint names are resolved through the backend resolver, like requests, so no check
+ * blocks its loop on a lookup.
+ */
+public class HealthChecker implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(HealthChecker.class);
+
+    private static final LongAdder probeFailures = ProxyMetrics.counter("upstream.health_check_failures");
+
+    private final String path;
+    private final long intervalMillis;
+    private final int timeoutMillis;
+    private final int healthyThreshold;
+    private final int unhealthyThreshold;
+    private final List<ScheduledFuture<?>> sweeps = new ArrayList<>();
+    private BackendResolver resolver;
+    private volatile boolean closed;
+
+    /**
+     * @param path null to only run the outlier sweeps, without active checks
+     */
+    public HealthChecker(String path, long intervalMillis, int timeoutMillis, int healthyThreshold, int unhealthyThreshold) {
+        this.path = path;
+        this.intervalMillis = intervalMillis;
+        this.timeoutMillis = timeoutMillis;
+        this.healthyThreshold = healthyThreshold;
+        this.unhealthyThreshold = unhealthyThreshold;
+    }
+
+    /**
+     * @param resolver resolves endpoint names; null to let Netty's default resolver do it
+     */
+    public void start(EventLoopGroup group, Iterable<UpstreamPool> pools, BackendResolver resolver) {
+        this.resolver = resolver;
+        for (UpstreamPool pool : pools) {
+            sweeps.add(group.next().scheduleWithFixedDelay(pool::sweep, 1, 1, TimeUnit.SECONDS));
+            if (path == null) {
+                continue;
+            }
+            for (Endpoint endpoint : pool.getEndpoints()) {
+                Probe probe = new Probe(pool, endpoint, group.next());
+                probe.loop.schedule(probe::run, intervalMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * State of one endpoint's checks, confined to its event loop.
+     */
+    private final class Probe {
+        final UpstreamPool pool;
+        final Endpoint endpoint;
+        final EventLoop loop;
+        int passes;
+        int failures;
+        // callbacks of an earlier attempt (late timeout, close) are ignored
+        int attempt;
+        boolean done;
+
+        Probe(UpstreamPool pool, Endpoint endpoint, EventLoop loop) {
+            this.pool = pool;
+            this.endpoint = endpoint;
+            this.loop = loop;
+        }
+
+        void run() {
+            if (closed) {
+                return;
+            }
+            int current = ++attempt;
+            done = false;
+            Bootstrap bootstrap = new Bootstrap()
+                .group(loop)
+                .channel(NioSocketChannel.class)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, timeoutMillis)
+                .handler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ch.pipeline().addLast(new HttpClientCodec());
+                        ch.pipeline().addLast(new HttpObjectAggregator(8192));
+                        ch.pipeline().addLast(new SimpleChannelInboundHandler<FullHttpResponse>() {
+                            @Override
+                            protected void channelRead0(ChannelHandlerContext ctx, FullHttpResponse response) {
+                                int status = response.status().code();
+                                finish(current, ctx.channel(), status >= 200 && status < 300, "status " + status);
+                            }
+
+                            @Override
+                            public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+                                finish(current, ctx.channel(), false, cause.getMessage());
+                            }
+
+                            @Override
+                            public void channelInactive(ChannelHandlerContext ctx) {
+                                finish(current, ctx.channel(), false, "connection closed");
+                            }
+                        });
+                    }
+                });
+            ChannelFutureListener onConnected = connected -> {
+                if (!connected.isSuccess()) {
+                    finish(current, null, false, String.valueOf(connected.cause().getMessage()));
+                    return;
+                }
+                Channel channel = connected.channel();
+                FullHttpRequest request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, path);
+                request.headers()
+                       .set(HttpHeaderNames.HOST, endpoint.toString())
+                       .set(HttpHeaderNames.CONNECTION, HttpHeaderValues.CLOSE)
+                       .set(HttpHeaderNames.USER_AGENT, "ahc-proxy-health-check");
+                channel.writeAndFlush(request);
+                loop.schedule(() -> finish(current, channel, false, "timed out"), timeoutMillis, TimeUnit.MILLISECONDS);
+            };
+            if (resolver == null) {
+                bootstrap.connect(endpoint.getHost(), endpoint.getPort()).addListener(onConnected);
+                return;
+            }
+            resolver.resolveAll(loop, endpoint.getHost(), endpoint.getPort()).addListener(resolved -> {
+                if (!resolved.isSuccess()) {
+                    finish(current, null, false, "resolution failed: " + resolved.cause().getMessage());
+                    return;
+                }
+                @SuppressWarnings("unchecked")
+                List<InetSocketAddress> addresses = (List<InetSocketAddress>) resolved.getNow();
+                bootstrap.connect(addresses.get(0)).addListener(onConnected);
+            });
+        }
+
+        private void finish(int of, Channel channel, boolean passed, String reason) {
+            if (of != attempt || done) {
+                return;
+            }
+            done = true;
+            if (channel != null) {
+                channel.close();
+            }
+            if (passed) {
+                failures = 0;
+                if (++passes >= healthyThreshold) {
+                    pool.setHealthy(endpoint, true);
+                }
+            } else {
+                probeFailures.increment();
+                passes = 0;
+                if (++failures >= unhealthyThreshold) {
+                    pool.setHealthy(endpoint, false);
+                }
+                logger.debug("Health check of {} failed: {}", endpoint, reason);
+            }
+            if (!closed) {
+                loop.schedule(this::run, intervalMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        sweeps.forEach(sweep -> sweep.cancel(false));
+    }
+}
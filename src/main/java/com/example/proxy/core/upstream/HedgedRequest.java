@@ -0,0 +1,251 @@
+package com.example.proxy.core.upstream;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.example.proxy.core.backend.BackendResponseCallback;
+import com.example.proxy.core.backend.HttpBackendClient;
+import com.example.proxy.core.metrics.ProxyMetrics;
+import com.example.proxy.core.server.ForwardHttp1;
+
+import io.netty.util.ReferenceCountUtil;
+
+/**
+ * Sends an idempotent request to an upstream pool with up to one extra attempt on
+ * another endpoint:
+ *
+ * <ul>
+ *   <li>a retry, when the first attempt fails without a response (connect error, reset,
+ *       open circuit);</li>
+ *   <li>a hedge, when the first attempt has not answered within the pool's hedging
+ *       delay, a high percentile of its response times. The first response wins and the
+ *       other attempt is cancelled.</li>
+ * </ul>
+ *
+ * Both draw on the pool's {@link RetryBudget}, which every request pays into, so when a
+ * whole pool is failing or slow the extra attempts stay a small share of the traffic
+ * instead of doubling it. Only GET and HEAD may be sent this way.
+ *
+ * Counted in {@code upstream.retries}, {@code upstream.hedges}, {@code upstream.hedge_wins}
+ * and {@code upstream.retry_budget_exhausted}.
+ */
+public class HedgedRequest {
+
+    private static final int MAX_ATTEMPTS = 2;
+
+    private static final LongAdder retries = ProxyMetrics.counter("upstream.retries");
+    private static final LongAdder hedges = ProxyMetrics.counter("upstream.hedges");
+    private static final LongAdder hedgeWins = ProxyMetrics.counter("upstream.hedge_wins");
+    private static final LongAdder budgetExhausted = ProxyMetrics.counter("upstream.retry_budget_exhausted");
+
+    /**
+     * Sends the request to one endpoint, reporting its outcome, including a failure to
+     * send it at all, to {@code callback}.
+     */
+    public interface Launcher {
+        HttpBackendClient launch(Endpoint endpoint, BackendResponseCallback callback);
+    }
+
+    private final UpstreamPool pool;
+    private final ForwardHttp1 request;
+    private final ScheduledExecutorService executor;
+    private final Launcher launcher;
+    private final BackendResponseCallback callback;
+
+    // guarded by this
+    private final HttpBackendClient[] clients = new HttpBackendClient[MAX_ATTEMPTS];
+    private final Endpoint[] endpoints = new Endpoint[MAX_ATTEMPTS];
+    private int started;
+    private int failed;
+    private int winner = -1;
+    private boolean done;
+    private boolean hedged;
+    private ScheduledFuture<?> hedgeTimer;
+
+    /**
+     * @param executor the event loop of the client connection, for the hedging timer
+     * @param callback receives the outcome of the winning attempt, or the last failure
+     */
+    public HedgedRequest(UpstreamPool pool, ForwardHttp1 request, ScheduledExecutorService executor,
+                         Launcher launcher, BackendResponseCallback callback) {
+        this.pool = pool;
+        this.request = request;
+        this.executor = executor;
+        this.launcher = launcher;
+        this.callback = callback;
+    }
+
+    public static boolean isHedgeable(String method) {
+        return "GET".equals(method) || "HEAD".equals(method);
+    }
+
+    /**
+     * @param first the endpoint the pool's balancer already picked
+     */
+    public void start(Endpoint first) {
+        RetryBudget budget = pool.getRetryBudget();
+        if (budget != null) {
+            budget.deposit();
+        }
+        int index;
+        synchronized (this) {
+            index = started++;
+            endpoints[index] = first;
+            long delay = pool.getHedgeDelayNanos();
+            if (budget != null && delay > 0) {
+                hedgeTimer = executor.schedule(this::hedge, delay, TimeUnit.NANOSECONDS);
+            }
+        }
+        launch(index, first);
+    }
+
+    private void hedge() {
+        Endpoint endpoint;
+        int index;
+        synchronized (this) {
+            if (done || started >= MAX_ATTEMPTS) {
+                return;
+            }
+            endpoint = pool.selectExcluding(request, endpoints[0]);
+            if (endpoint == null) {
+                return;
+            }
+            if (!pool.getRetryBudget().tryWithdraw()) {
+                budgetExhausted.increment();
+                return;
+            }
+            index = started++;
+            endpoints[index] = endpoint;
+            hedged = true;
+        }
+        hedges.increment();
+        launch(index, endpoint);
+    }
+
+    private void launch(int index, Endpoint endpoint) {
+        HttpBackendClient client = launcher.launch(endpoint, new Attempt(index));
+        boolean lost;
+        synchronized (this) {
+            clients[index] = client;
+            lost = done && winner != index;
+        }
+        if (lost && client != null) {
+            client.cancel();
+        }
+    }
+
+    /**
+     * The first response or block decides the request; the other attempt is cancelled.
+     *
+     * @return false if another attempt already decided it
+     */
+    private boolean decide(int index) {
+        HttpBackendClient loser = null;
+        synchronized (this) {
+            if (done) {
+                return false;
+            }
+            done = true;
+            winner = index;
+            cancelTimer();
+            for (int i = 0; i < started; i++) {
+                if (i != index && clients[i] != null) {
+                    loser = clients[i];
+                }
+            }
+            if (hedged && index > 0) {
+                hedgeWins.increment();
+            }
+        }
+        if (loser != null) {
+            loser.cancel();
+        }
+        return true;
+    }
+
+    private void fail(int index, Throwable cause) {
+        Endpoint retryTo = null;
+        int retryIndex = -1;
+        synchronized (this) {
+            if (done) {
+                return;
+            }
+            failed++;
+            if (started < MAX_ATTEMPTS) {
+                Endpoint endpoint = pool.selectExcluding(request, endpoints[index]);
+                RetryBudget budget = pool.getRetryBudget();
+                if (endpoint != null && budget != null) {
+                    if (budget.tryWithdraw()) {
+                        cancelTimer();
+                        retryIndex = started++;
+                        endpoints[retryIndex] = endpoint;
+                        retryTo = endpoint;
+                    } else {
+                        budgetExhausted.increment();
+                    }
+                }
+            }
+            if (retryTo == null) {
+                if (failed < started) {
+                    // the other attempt may still answer
+                    return;
+                }
+                done = true;
+                cancelTimer();
+            }
+        }
+        if (retryTo != null) {
+            retries.increment();
+            launch(retryIndex, retryTo);
+        } else {
+            callback.onError(cause);
+        }
+    }
+
+    private void cancelTimer() {
+        if (hedgeTimer != null) {
+            hedgeTimer.cancel(false);
+            hedgeTimer = null;
+        }
+    }
+
+    /**
+     * One attempt's view of the backend; a send failure may be reported twice, by the
+     * client's callback and by its forward future, and is only counted once.
+     */
+    private final class Attempt implements BackendResponseCallback {
+
+        private final int index;
+        private final AtomicBoolean ended = new AtomicBoolean();
+
+        Attempt(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public void onResponse(Object response) {
+            if (!ended.compareAndSet(false, true) || !decide(index)) {
+                ReferenceCountUtil.release(response);
+                return;
+            }
+            callback.onResponse(response);
+        }
+
+        @Override
+        public void onError(Throwable cause) {
+            if (ended.compareAndSet(false, true)) {
+                fail(index, cause);
+            }
+        }
+
+        @Override
+        public void onBlocked(String reason) {
+            if (ended.compareAndSet(false, true) && decide(index)) {
+                callback.onBlocked(reason);
+            }
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.proxy.core.upstream;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Response times of a pool in logarithmic buckets, four per doubling from one
+ * microsecond up (about 19% wide), so a percentile costs a walk over a few dozen counters.
+ * Recording is a single atomic increment from any event loop. {@link #decay} halves every
+ * count, which lets the distribution follow the backend as it changes.
+ */
+final class LatencyHistogram {
+
+    private static final int BUCKETS = 4 * 40;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    void record(long nanos) {
+        counts.incrementAndGet(bucket(nanos));
+    }
+
+    static int bucket(long nanos) {
+        long micros = Math.max(1, nanos / 1000);
+        int octave = 63 - Long.numberOfLeadingZeros(micros);
+        // the two bits after the leading one pick the quarter within the doubling
+        int quarter = octave >= 2 ? (int) (micros >>> (octave - 2)) & 3 : (int) (micros << (2 - octave)) & 3;
+        return Math.min(BUCKETS - 1, octave * 4 + quarter);
+    }
+
+    /**
+     * @return the upper bound of the bucket holding the given percentile, or -1 with fewer
+     *         than {@code minSamples} recorded
+     */
+    long percentileNanos(double percentile, long minSamples) {
+        long total = 0;
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total < minSamples) {
+            return -1;
+        }
+        long rank = (long) Math.ceil(total * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return upperBoundNanos(i);
+            }
+        }
+        return upperBoundNanos(BUCKETS - 1);
+    }
+
+    private static long upperBoundNanos(int bucket) {
+        int octave = bucket / 4;
+        int quarter = bucket % 4;
+        return (long) ((1L << octave) * (1 + (quarter + 1) / 4.0) * 1000);
+    }
+
+    void decay() {
+        for (int i = 0; i < BUCKETS; i++) {
+            long count;
+            do {
+                count = counts.get(i);
+            } while (count != 0 && !counts.compareAndSet(i, count, count / 2));
+        }
+    }
+}
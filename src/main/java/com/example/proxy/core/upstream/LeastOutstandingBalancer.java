@@ -0,0 +1,28 @@
+package com.example.proxy.core.upstream;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.example.proxy.core.server.ForwardHttp1;
+
+/**
+ * The endpoint with the fewest requests in flight. The scan starts at a random endpoint
+ * so ties are spread out instead of all going to the first.
+ */
+final class LeastOutstandingBalancer implements LoadBalancer {
+
+    @Override
+    public Endpoint pick(Endpoint[] endpoints, ForwardHttp1 request) {
+        int start = ThreadLocalRandom.current().nextInt(endpoints.length);
+        Endpoint best = null;
+        int fewest = Integer.MAX_VALUE;
+        for (int i = 0; i < endpoints.length; i++) {
+            Endpoint candidate = endpoints[(start + i) % endpoints.length];
+            int outstanding = candidate.getOutstanding();
+            if (outstanding < fewest) {
+                best = candidate;
+                fewest = outstanding;
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,46 @@
+package com.example.proxy.core.upstream;
+
+import java.util.Locale;
+
+import com.example.proxy.core.server.ForwardHttp1;
+
+/**
+ * Picks the endpoint of a pool that serves a request. Called concurrently from every
+ * worker event loop, so implementations must not block.
+ */
+public interface LoadBalancer {
+
+    /**
+     * @param endpoints the endpoints currently eligible, never empty
+     */
+    Endpoint pick(Endpoint[] endpoints, ForwardHttp1 request);
+
+    /**
+     * Told of the eligible endpoints whenever they change, under the pool's monitor and
+     * before {@link #pick} is handed them, for balancers that precompute per set. A
+     * pick may still be handed an older set, or a subset when retrying elsewhere.
+     */
+    default void update(Endpoint[] endpoints) {
+    }
+
+    /**
+     * @param name "round-robin", "least-outstanding", "p2c-ewma", or "maglev" keyed by
+     *             URL, optionally followed by ":url", ":ip" or ":header:&lt;name&gt;"
+     */
+    static LoadBalancer forName(String name) {
+        String lower = name.toLowerCase(Locale.ROOT);
+        if (lower.equals("maglev") || lower.startsWith("maglev:")) {
+            return MaglevBalancer.forKey(lower.length() > "maglev".length() ? lower.substring("maglev:".length()) : null);
+        }
+        switch (lower) {
+            case "round-robin":
+                return new RoundRobinBalancer();
+            case "least-outstanding":
+                return new LeastOutstandingBalancer();
+            case "p2c-ewma":
+                return new PeakEwmaBalancer();
+            default:
+                throw new IllegalArgumentException("Unknown load balancer: " + name);
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package com.example.proxy.core.upstream;
+
+import java.util.Locale;
+
+import com.example.proxy.core.server.ForwardHttp1;
+import com.example.proxy.core.stages.RateLimitStage;
+
+/**
+ * Maglev consistent hashing: the same key goes to the same endpoint, for cache locality
+ * across proxy tiers, and when an endpoint leaves or joins only about its share of the
+ * keys moves.
+ *
+ * Each endpoint walks its own permutation of a prime-sized lookup table, derived from a
+ * hash of its address, and the endpoints take turns claiming the next free slot of
+ * theirs until the table is full. Every endpoint ends up with an equal share of slots,
+ * and a key is looked up in O(1) by its hash. The table depends only on the addresses,
+ * so proxies configured alike route alike. Its size, a prime of at least a thousand
+ * slots per configured endpoint, is fixed when the pool is built and only the slots are
+ * refilled afterwards; the larger the table, the fewer keys a change moves besides
+ * those of the endpoint that came or went (about half a percent of them for ten
+ * endpoints).
+ *
+ * The table is rebuilt when the pool's eligible endpoints change, under the pool's
+ * monitor, and swapped in whole; picks never wait for it. A pick from a subset of the
+ * table's endpoints, such as a retry excluding the endpoint tried, walks on from the
+ * key's slot to the first endpoint in the subset, which is the key's next choice.
+ *
+ * The key is the request's URL (Host and request target), a header, or the client's
+ * IP address; a request without the header falls back to its URL.
+ */
+final class MaglevBalancer implements LoadBalancer {
+
+    private static final int[] TABLE_SIZES = {1021, 2039, 4093, 8191, 16381, 32749, 65537};
+    private static final int SLOTS_PER_ENDPOINT = 1000;
+
+    enum KeyType {
+        URL,
+        IP,
+        HEADER
+    }
+
+    private static final class Table {
+        final Endpoint[] members;
+        final Endpoint[] slots;
+
+        Table(Endpoint[] members, Endpoint[] slots) {
+            this.members = members;
+            this.slots = slots;
+        }
+    }
+
+    private final KeyType keyType;
+    private final String header;
+    private volatile Table table = new Table(new Endpoint[0], new Endpoint[0]);
+    // set by the first update, with every endpoint of the pool
+    private int tableSize;
+
+    MaglevBalancer(KeyType keyType, String header) {
+        this.keyType = keyType;
+        this.header = header;
+    }
+
+    /**
+     * @param spec "url", "ip" or "header:&lt;name&gt;"; null for the URL
+     */
+    static MaglevBalancer forKey(String spec) {
+        if (spec == null || spec.isEmpty() || "url".equals(spec)) {
+            return new MaglevBalancer(KeyType.URL, null);
+        }
+        if ("ip".equals(spec)) {
+            return new MaglevBalancer(KeyType.IP, null);
+        }
+        if (spec.startsWith("header:") && spec.length() > "header:".length()) {
+            return new MaglevBalancer(KeyType.HEADER, spec.substring("header:".length()).toLowerCase(Locale.ROOT));
+        }
+        throw new IllegalArgumentException("Unknown maglev key: " + spec);
+    }
+
+    @Override
+    public void update(Endpoint[] endpoints) {
+        if (tableSize == 0) {
+            tableSize = tableSize(endpoints.length);
+        }
+        table = new Table(endpoints, populate(endpoints, tableSize));
+    }
+
+    static int tableSize(int endpoints) {
+        for (int size : TABLE_SIZES) {
+            if (size >= (long) endpoints * SLOTS_PER_ENDPOINT) {
+                return size;
+            }
+        }
+        return TABLE_SIZES[TABLE_SIZES.length - 1];
+    }
+
+    @Override
+    public Endpoint pick(Endpoint[] endpoints, ForwardHttp1 request) {
+        Table current = table;
+        int size = current.slots.length;
+        if (size == 0) {
+            return endpoints[0];
+        }
+        int slot = (int) Long.remainderUnsigned(key(request), size);
+        Endpoint chosen = current.slots[slot];
+        if (endpoints == current.members) {
+            return chosen;
+        }
+        // a subset, or a set that changed under us: the key's next choice that is in it
+        for (int probe = 0; probe < size; probe++) {
+            Endpoint candidate = current.slots[(slot + probe) % size];
+            for (Endpoint endpoint : endpoints) {
+                if (endpoint == candidate) {
+                    return endpoint;
+                }
+            }
+        }
+        return endpoints[0];
+    }
+
+    private long key(ForwardHttp1 request) {
+        if (keyType == KeyType.HEADER) {
+            String value = request.getHeaders().get(header);
+            if (value != null) {
+                return RateLimitStage.hash(value);
+            }
+        } else if (keyType == KeyType.IP && request.getClientAddress() != null) {
+            return RateLimitStage.hash(stripPort(request.getClientAddress()));
+        }
+        String uri = request.getURI();
+        String host = request.getHeaders().get("host");
+        // an absolute URI names its host already
+        return host == null || !uri.startsWith("/")
+            ? RateLimitStage.hash(uri)
+            : RateLimitStage.hash(uri) * 31 + RateLimitStage.hash(host);
+    }
+
+    /**
+     * "/10.0.0.1:53412" or "/[::1]:53412" to the address alone.
+     */
+    private static String stripPort(String address) {
+        int start = address.startsWith("/") ? 1 : 0;
+        int colon = address.lastIndexOf(':');
+        return colon > start ? address.substring(start, colon) : address.substring(start);
+    }
+
+    static Endpoint[] populate(Endpoint[] endpoints, int size) {
+        int n = endpoints.length;
+        if (n == 0) {
+            return new Endpoint[0];
+        }
+        int[] position = new int[n];
+        int[] skip = new int[n];
+        for (int i = 0; i < n; i++) {
+            long h = RateLimitStage.hash(endpoints[i].toString());
+            position[i] = (int) Long.remainderUnsigned(h & 0xffffffffL, size);
+            skip[i] = (int) Long.remainderUnsigned(h >>> 32, size - 1) + 1;
+        }
+        Endpoint[] slots = new Endpoint[size];
+        int filled = 0;
+        while (true) {
+            for (int i = 0; i < n; i++) {
+                int slot = position[i];
+                while (slots[slot] != null) {
+                    slot = advance(slot, skip[i], size);
+                }
+                slots[slot] = endpoints[i];
+                position[i] = advance(slot, skip[i], size);
+                if (++filled == size) {
+                    return slots;
+                }
+            }
+        }
+    }
+
+    private static int advance(int slot, int skip, int size) {
+        int next = slot + skip;
+        return next >= size ? next - size : next;
+    }
+}
@@ -0,0 +1,90 @@
+package com.example.proxy.core.upstream;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * When to eject an endpoint from its pool on the evidence of live traffic.
+ *
+ * <ul>
+ *   <li>Consecutive failures without a response (connect refused, reset): a dead server
+ *       is taken out after {@code failureThreshold} of them, which defaults to the
+ *       first, so it costs one failed request rather than one per event loop.</li>
+ *   <li>Consecutive 5xx responses, failures included, reaching {@code errorThreshold}.</li>
+ *   <li>Success rate: every {@link #WINDOW_NANOS}, endpoints with at least
+ *       {@link #SUCCESS_RATE_MIN_REQUESTS} requests whose success rate lies more than
+ *       {@link #SUCCESS_RATE_STDEV_FACTOR} standard deviations below the pool's mean.</li>
+ * </ul>
+ *
+ * An ejection lasts the base time doubled for every recent ejection of the same
+ * endpoint, up to the maximum; a window without ejection halves it again. At most
+ * {@code maxEjectedPercent} of a pool is ejected at once, so a pool-wide problem does
+ * not empty it.
+ */
+public class OutlierDetector {
+
+    static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(10);
+    static final int SUCCESS_RATE_MIN_REQUESTS = 20;
+    static final double SUCCESS_RATE_STDEV_FACTOR = 1.9;
+
+    private final int failureThreshold;
+    private final int errorThreshold;
+    private final long baseEjectionNanos;
+    private final long maxEjectionNanos;
+    private final int maxEjectedPercent;
+
+    public OutlierDetector(int failureThreshold, int errorThreshold, long baseEjectionMillis,
+                           long maxEjectionMillis, int maxEjectedPercent) {
+        this.failureThreshold = failureThreshold;
+        this.errorThreshold = errorThreshold;
+        this.baseEjectionNanos = TimeUnit.MILLISECONDS.toNanos(baseEjectionMillis);
+        this.maxEjectionNanos = TimeUnit.MILLISECONDS.toNanos(maxEjectionMillis);
+        this.maxEjectedPercent = maxEjectedPercent;
+    }
+
+    boolean shouldEject(int consecutiveFailures, int consecutiveErrors) {
+        return consecutiveFailures >= failureThreshold || consecutiveErrors >= errorThreshold;
+    }
+
+    /**
+     * @param ejections how often the endpoint has been ejected recently, this time included
+     */
+    long ejectionNanos(int ejections) {
+        int doublings = Math.min(Math.max(ejections - 1, 0), 30);
+        return Math.min(baseEjectionNanos << doublings, maxEjectionNanos);
+    }
+
+    boolean mayEject(int ejected, int total) {
+        return (ejected + 1) * 100 <= maxEjectedPercent * total;
+    }
+
+    /**
+     * @param requests  per endpoint in the last window
+     * @param successes per endpoint in the last window
+     * @return which endpoints fall below the pool's success rate band
+     */
+    boolean[] successRateOutliers(long[] requests, long[] successes) {
+        boolean[] outliers = new boolean[requests.length];
+        double sum = 0;
+        double sumSquares = 0;
+        int counted = 0;
+        for (int i = 0; i < requests.length; i++) {
+            if (requests[i] >= SUCCESS_RATE_MIN_REQUESTS) {
+                double rate = (double) successes[i] / requests[i];
+                sum += rate;
+                sumSquares += rate * rate;
+                counted++;
+            }
+        }
+        // a deviation among fewer endpoints says little
+        if (counted < 3) {
+            return outliers;
+        }
+        double mean = sum / counted;
+        double stdev = Math.sqrt(Math.max(0, sumSquares / counted - mean * mean));
+        double floor = mean - SUCCESS_RATE_STDEV_FACTOR * stdev;
+        for (int i = 0; i < requests.length; i++) {
+            outliers[i] = requests[i] >= SUCCESS_RATE_MIN_REQUESTS && (double) successes[i] / requests[i] < floor;
+        }
+        return outliers;
+    }
+}
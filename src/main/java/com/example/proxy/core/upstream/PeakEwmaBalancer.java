@@ -0,0 +1,29 @@
+package com.example.proxy.core.upstream;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.example.proxy.core.server.ForwardHttp1;
+
+/**
+ * Power of two choices: of two endpoints drawn at random, the one with the lower
+ * {@link Endpoint#cost()}. Comparing two instead of scanning all keeps the pick O(1),
+ * and avoids every event loop piling onto the same "best" endpoint between updates.
+ */
+final class PeakEwmaBalancer implements LoadBalancer {
+
+    @Override
+    public Endpoint pick(Endpoint[] endpoints, ForwardHttp1 request) {
+        if (endpoints.length == 1) {
+            return endpoints[0];
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(endpoints.length);
+        int second = random.nextInt(endpoints.length - 1);
+        if (second >= first) {
+            second++;
+        }
+        Endpoint a = endpoints[first];
+        Endpoint b = endpoints[second];
+        return a.cost() <= b.cost() ? a : b;
+    }
+}
@@ -0,0 +1,60 @@
+package com.example.proxy.core.upstream;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket bounding retries and hedges to a share of the requests: every request
+ * deposits {@code ratio} of a token, every extra attempt takes a whole one. A small
+ * allowance of {@code minPerSecond} extra attempts is granted regardless, so a quiet pool
+ * can still retry. The balance is capped at ten seconds' worth of that allowance plus
+ * what deposits bring, so a long calm spell does not bank an unbounded burst of retries
+ * for the next outage.
+ *
+ * Lock-free; tokens are counted in thousandths.
+ */
+public class RetryBudget {
+
+    private static final long TOKEN = 1000;
+    private static final long SECOND_NANOS = 1_000_000_000L;
+
+    private final long deposit;
+    private final long minPerSecond;
+    private final long maxBalance;
+    private final AtomicLong balance = new AtomicLong();
+    private final AtomicLong allowanceSecond = new AtomicLong();
+    private final AtomicLong allowanceUsed = new AtomicLong();
+
+    public RetryBudget(double ratio, int minPerSecond) {
+        this.deposit = Math.round(ratio * TOKEN);
+        this.minPerSecond = minPerSecond;
+        this.maxBalance = Math.max(10L * minPerSecond, 100) * TOKEN;
+    }
+
+    public void deposit() {
+        long current;
+        do {
+            current = balance.get();
+            if (current >= maxBalance) {
+                return;
+            }
+        } while (!balance.compareAndSet(current, Math.min(maxBalance, current + deposit)));
+    }
+
+    /**
+     * @return true if an extra attempt may be made, taking a token for it
+     */
+    public boolean tryWithdraw() {
+        long current;
+        while ((current = balance.get()) >= TOKEN) {
+            if (balance.compareAndSet(current, current - TOKEN)) {
+                return true;
+            }
+        }
+        long second = System.nanoTime() / SECOND_NANOS;
+        long seen = allowanceSecond.get();
+        if (seen != second && allowanceSecond.compareAndSet(seen, second)) {
+            allowanceUsed.set(0);
+        }
+        return allowanceUsed.incrementAndGet() <= minPerSecond;
+    }
+}
@@ -0,0 +1,18 @@
+package com.example.proxy.core.upstream;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.example.proxy.core.server.ForwardHttp1;
+
+/**
+ * Each endpoint in turn, regardless of load.
+ */
+final class RoundRobinBalancer implements LoadBalancer {
+
+    private final AtomicInteger next = new AtomicInteger();
+
+    @Override
+    public Endpoint pick(Endpoint[] endpoints, ForwardHttp1 request) {
+        return endpoints[Math.floorMod(next.getAndIncrement(), endpoints.length)];
+    }
+}
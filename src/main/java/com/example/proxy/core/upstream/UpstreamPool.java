@@ -0,0 +1,245 @@
+package com.example.proxy.core.upstream;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.example.proxy.core.metrics.ProxyMetrics;
+import com.example.proxy.core.server.ForwardHttp1;
+
+/**
+ * A named group of interchangeable endpoints behind one load balancer. Each endpoint's
+ * outstanding requests, latency EWMA and availability are published as the gauges
+ * {@code upstream.<pool>.<host:port>.outstanding}, {@code .ewma_ms} and {@code .available}.
+ *
+ * Requests only go to available endpoints: healthy by the active checks and not ejected
+ * by the outlier detector. That set is recomputed on the rare health changes, under the
+ * pool's monitor, and read without locking by {@link #select}. Should it ever be empty
+ * every endpoint is used again, on the grounds that guessing beats refusing everything.
+ *
+ * The pool also keeps a histogram of its response times, from which the hedging delay
+ * is taken, and the {@link RetryBudget} its retries and hedges draw on.
+ */
+public class UpstreamPool {
+
+    private static final Logger logger = LoggerFactory.getLogger(UpstreamPool.class);
+
+    private static final LongAdder ejectionCount = ProxyMetrics.counter("upstream.ejections");
+
+    // responses needed before the hedging percentile means anything
+    private static final long HEDGE_MIN_SAMPLES = 50;
+
+    private final String name;
+    private final Endpoint[] endpoints;
+    private final LoadBalancer balancer;
+    private final OutlierDetector outlierDetector;
+    private volatile Endpoint[] available;
+    private long nextWindowNanos = System.nanoTime() + OutlierDetector.WINDOW_NANOS;
+
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private RetryBudget retryBudget;
+    private double hedgePercentile;
+    private volatile long hedgeDelayNanos = -1;
+
+    /**
+     * @param outlierDetector null to never eject on live traffic
+     */
+    public UpstreamPool(String name, List<Endpoint> endpoints, LoadBalancer balancer, OutlierDetector outlierDetector) {
+        if (endpoints.isEmpty()) {
+            throw new IllegalArgumentException("Upstream " + name + " has no endpoints");
+        }
+        this.name = name;
+        this.endpoints = endpoints.toArray(new Endpoint[0]);
+        this.balancer = balancer;
+        this.outlierDetector = outlierDetector;
+        this.available = this.endpoints;
+        balancer.update(this.endpoints);
+        for (Endpoint endpoint : this.endpoints) {
+            endpoint.attach(this);
+            String prefix = "upstream." + name + "." + endpoint;
+            ProxyMetrics.gauge(prefix + ".outstanding", endpoint::getOutstanding);
+            ProxyMetrics.gauge(prefix + ".ewma_ms", () -> endpoint.getEwmaNanos() / 1_000_000.0);
+            ProxyMetrics.gauge(prefix + ".available", () -> endpoint.isAvailable() ? 1 : 0);
+        }
+    }
+
+    /**
+     * @return the endpoint to send {@code request} to
+     */
+    public Endpoint select(ForwardHttp1 request) {
+        return balancer.pick(available, request);
+    }
+
+    /**
+     * @return an available endpoint other than {@code tried} for a retry or hedge, or null
+     *         if there is none
+     */
+    public Endpoint selectExcluding(ForwardHttp1 request, Endpoint tried) {
+        Endpoint[] candidates = available;
+        int index = -1;
+        for (int i = 0; i < candidates.length; i++) {
+            if (candidates[i] == tried) {
+                index = i;
+                break;
+            }
+        }
+        if (index < 0) {
+            return candidates.length == 0 ? null : balancer.pick(candidates, request);
+        }
+        if (candidates.length < 2) {
+            return null;
+        }
+        Endpoint[] others = new Endpoint[candidates.length - 1];
+        System.arraycopy(candidates, 0, others, 0, index);
+        System.arraycopy(candidates, index + 1, others, index, others.length - index);
+        return balancer.pick(others, request);
+    }
+
+    /**
+     * Sends a second copy of slow idempotent requests once they have taken longer than the
+     * given percentile of this pool's response times.
+     */
+    public UpstreamPool withHedging(double percentile) {
+        this.hedgePercentile = percentile;
+        return this;
+    }
+
+    public UpstreamPool withRetryBudget(RetryBudget retryBudget) {
+        this.retryBudget = retryBudget;
+        return this;
+    }
+
+    /**
+     * @return null if requests to this pool are never retried or hedged
+     */
+    public RetryBudget getRetryBudget() {
+        return retryBudget;
+    }
+
+    /**
+     * @return how long to wait before hedging a request, or -1 not to hedge (hedging off,
+     *         or too few responses seen yet to know what slow is)
+     */
+    public long getHedgeDelayNanos() {
+        return hedgeDelayNanos;
+    }
+
+    void recordLatency(long nanos) {
+        latencies.record(nanos);
+    }
+
+    /**
+     * Called by the endpoint, on whichever event loop saw the error.
+     */
+    void onError(Endpoint endpoint, int consecutiveFailures, int consecutiveErrors) {
+        if (outlierDetector != null && !endpoint.isEjected()
+            && outlierDetector.shouldEject(consecutiveFailures, consecutiveErrors)) {
+            eject(endpoint, consecutiveFailures >= consecutiveErrors ? "connection failures" : "consecutive errors");
+        }
+    }
+
+    private synchronized void eject(Endpoint endpoint, String reason) {
+        if (endpoint.isEjected()) {
+            return;
+        }
+        int ejected = 0;
+        for (Endpoint candidate : endpoints) {
+            if (candidate.isEjected()) {
+                ejected++;
+            }
+        }
+        if (!outlierDetector.mayEject(ejected, endpoints.length)) {
+            return;
+        }
+        long duration = outlierDetector.ejectionNanos(endpoint.countEjection());
+        endpoint.ejectUntil(System.nanoTime() + duration);
+        ejectionCount.increment();
+        logger.warn("Ejected {} from upstream {} for {} ms after {}", endpoint, name, duration / 1_000_000, reason);
+        refresh();
+    }
+
+    synchronized void setHealthy(Endpoint endpoint, boolean healthy) {
+        if (endpoint.isHealthy() == healthy) {
+            return;
+        }
+        endpoint.setHealthy(healthy);
+        if (healthy) {
+            endpoint.resetErrors();
+        }
+        logger.warn("Upstream {} endpoint {} is {}", name, endpoint, healthy ? "healthy again" : "failing health checks");
+        refresh();
+    }
+
+    /**
+     * Readmits endpoints whose ejection is over and, once per window, ejects success
+     * rate outliers. Run periodically on one event loop.
+     */
+    synchronized void sweep() {
+        long now = System.nanoTime();
+        boolean changed = false;
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint.isEjected() && endpoint.getEjectedUntilNanos() - now <= 0) {
+                endpoint.readmit();
+                logger.info("Readmitted {} to upstream {}", endpoint, name);
+                changed = true;
+            }
+        }
+        if (changed) {
+            refresh();
+        }
+        if (hedgePercentile > 0) {
+            hedgeDelayNanos = latencies.percentileNanos(hedgePercentile, HEDGE_MIN_SAMPLES);
+        }
+        if (now - nextWindowNanos < 0) {
+            return;
+        }
+        nextWindowNanos = now + OutlierDetector.WINDOW_NANOS;
+        latencies.decay();
+        long[] requests = new long[endpoints.length];
+        long[] successes = new long[endpoints.length];
+        for (int i = 0; i < endpoints.length; i++) {
+            long[] window = endpoints[i].drainWindow();
+            requests[i] = window[0];
+            successes[i] = window[1];
+            endpoints[i].forgiveEjection();
+        }
+        if (outlierDetector == null) {
+            return;
+        }
+        boolean[] outliers = outlierDetector.successRateOutliers(requests, successes);
+        for (int i = 0; i < endpoints.length; i++) {
+            if (outliers[i]) {
+                eject(endpoints[i], "a low success rate");
+            }
+        }
+    }
+
+    private void refresh() {
+        List<Endpoint> eligible = new ArrayList<>(endpoints.length);
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint.isAvailable()) {
+                eligible.add(endpoint);
+            }
+        }
+        Endpoint[] next;
+        if (eligible.isEmpty()) {
+            logger.error("No available endpoints in upstream {}, using all of them", name);
+            next = endpoints;
+        } else {
+            next = eligible.toArray(new Endpoint[0]);
+        }
+        balancer.update(next);
+        available = next;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Endpoint[] getEndpoints() {
+        return endpoints.clone();
+    }
+}
@@ -0,0 +1,109 @@
+package com.example.proxy.core.upstream;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.example.proxy.config.ProxyConfig;
+import com.example.proxy.core.backend.dns.BackendResolver;
+import com.example.proxy.core.backend.timeout.BackendTimeouts;
+import com.example.proxy.core.metrics.ProxyMetrics;
+import com.example.proxy.core.routing.Route;
+import com.example.proxy.core.routing.RouteTable;
+
+import io.netty.channel.EventLoopGroup;
+
+/**
+ * The upstream pools of reverse-proxy mode and the routes leading to them, built from
+ * the configuration. The routes may be reloaded later; the pools are fixed. Health
+ * checking starts with {@link #start}, once the worker event loops exist.
+ */
+public class Upstreams implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(Upstreams.class);
+    private static final LongAdder routeReloads = ProxyMetrics.counter("upstream.route_reloads");
+
+    private final Map<String, UpstreamPool> pools = new LinkedHashMap<>();
+    private final BackendTimeouts timeouts;
+    private final HealthChecker healthChecker;
+    private volatile RouteTable routes;
+
+    /**
+     * @param timeouts the proxy-wide backend deadlines, which routes may override
+     * @throws IllegalArgumentException for an unknown balancer, a malformed endpoint or a
+     *                                  route that does not compile
+     */
+    public Upstreams(ProxyConfig config, BackendTimeouts timeouts) {
+        this.timeouts = timeouts;
+        OutlierDetector outlierDetector = config.isUpstreamOutlierDetectionEnabled()
+            ? new OutlierDetector(config.getUpstreamOutlierConsecutiveFailures(), config.getUpstreamOutlierConsecutiveErrors(),
+                                  config.getUpstreamEjectionBaseMillis(), config.getUpstreamEjectionMaxMillis(),
+                                  config.getUpstreamMaxEjectedPercent())
+            : null;
+        this.healthChecker = new HealthChecker(config.getUpstreamHealthCheckPath(), config.getUpstreamHealthCheckIntervalMillis(),
+                                               config.getUpstreamHealthCheckTimeoutMillis(), config.getUpstreamHealthyThreshold(),
+                                               config.getUpstreamUnhealthyThreshold());
+        config.getUpstreamEndpoints().forEach((name, addresses) -> {
+            List<Endpoint> endpoints = new ArrayList<>();
+            for (String address : addresses) {
+                endpoints.add(Endpoint.parse(address));
+            }
+            String balancer = config.getUpstreamBalancers().getOrDefault(name, "p2c-ewma");
+            UpstreamPool pool = new UpstreamPool(name, endpoints, LoadBalancer.forName(balancer), outlierDetector);
+            if (config.isUpstreamRetriesEnabled()) {
+                pool.withRetryBudget(new RetryBudget(config.getUpstreamRetryBudgetRatio(), config.getUpstreamRetryMinPerSecond()));
+                if (config.isUpstreamHedgingEnabled()) {
+                    pool.withHedging(config.getUpstreamHedgePercentile());
+                }
+            }
+            pools.put(name, pool);
+        });
+        this.routes = RouteTable.compile(config.getRoutes(), pools, timeouts);
+    }
+
+    /**
+     * @param host the Host header, with or without a port; may be null
+     * @param path the request path
+     * @return the most specific matching route, or null if none matches
+     */
+    public Route route(String host, String path) {
+        return routes.match(host, path);
+    }
+
+    /**
+     * Compiles {@code routes} against the existing pools and swaps the new table in at
+     * once; requests already routed keep their route. A table that does not compile
+     * leaves the current one in place.
+     *
+     * @throws IllegalArgumentException as for the routes given to the constructor
+     */
+    public void reloadRoutes(List<ProxyConfig.Route> routes) {
+        RouteTable table = RouteTable.compile(routes, pools, timeouts);
+        this.routes = table;
+        routeReloads.increment();
+        logger.info("Reloaded {} routes", table.size());
+    }
+
+    /**
+     * @param resolver resolves endpoint names for health checks; null to let Netty's
+     *                 default resolver do it
+     */
+    public void start(EventLoopGroup workers, BackendResolver resolver) {
+        healthChecker.start(workers, pools.values(), resolver);
+    }
+
+    public Map<String, UpstreamPool> getPools() {
+        return Collections.unmodifiableMap(pools);
+    }
+
+    @Override
+    public void close() {
+        healthChecker.close();
+    }
+}
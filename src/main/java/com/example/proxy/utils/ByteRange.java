@@ -0,0 +1,76 @@
+package com.example.proxy.utils;
+
+/*
+ *  Overview: A single satisfiable byte range of a representation (RFC 9110 section 14).
+ *            Multi-range requests are not supported and are answered with the full body.
+ */
+
+public final class ByteRange {
+
+    /** Marker for a syntactically valid range that lies entirely outside the body. */
+    public static final ByteRange UNSATISFIABLE = new ByteRange(0, -1);
+
+    private final long start;
+    private final long end;
+
+    private ByteRange(long start, long end) {
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * Parses a Range header against a body of {@code length} bytes.
+     *
+     * @return the range, {@link #UNSATISFIABLE}, or null when the header is absent,
+     *         malformed or asks for several ranges (the full body should be sent)
+     */
+    public static ByteRange parse(String header, long length) {
+        if (header == null || !header.regionMatches(true, 0, "bytes=", 0, 6)) {
+            return null;
+        }
+        String spec = header.substring(6).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0 || spec.indexOf(',') >= 0) {
+            return null;
+        }
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            if (first.isEmpty()) {
+                // suffix range: the final N bytes
+                long suffix = Long.parseLong(last);
+                if (suffix <= 0 || length == 0) {
+                    return UNSATISFIABLE;
+                }
+                return new ByteRange(Math.max(0, length - suffix), length - 1);
+            }
+            long start = Long.parseLong(first);
+            long end = last.isEmpty() ? Long.MAX_VALUE : Long.parseLong(last);
+            if (end < start) {
+                return null;
+            }
+            if (start >= length) {
+                return UNSATISFIABLE;
+            }
+            return new ByteRange(start, Math.min(end, length - 1));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public long getEnd() {
+        return end;
+    }
+
+    public long length() {
+        return end - start + 1;
+    }
+
+    public String contentRange(long total) {
+        return this == UNSATISFIABLE ? "bytes */" + total : "bytes " + start + "-" + end + "/" + total;
+    }
+}
@@ -2,6 +2,8 @@ package com.example.proxy.utils;
 
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.ArrayDeque;
+import java.util.Deque;
 
 /* 
  *  Overview: Utility class for HTTP processing
@@ -58,6 +60,97 @@ public final class HttpUtil {
         }
     }
 
+    /**
+     * The host of an authority such as a CONNECT target: "host", "host:port" or
+     * "[v6]:port", without brackets.
+     */
+    public static String getHostFromAuthority(String authority) {
+        if (authority.startsWith("[")) {
+            int close = authority.indexOf(']');
+            return close > 0 ? authority.substring(1, close) : authority.substring(1);
+        }
+        int colon = authority.lastIndexOf(':');
+        return colon >= 0 ? authority.substring(0, colon) : authority;
+    }
+
+    /**
+     * @return the port of the authority, or {@code defaultPort} if it names none
+     * @throws NumberFormatException for a port that is not a number
+     */
+    public static int getPortFromAuthority(String authority, int defaultPort) {
+        int colon = authority.lastIndexOf(':');
+        if (colon < 0 || colon < authority.lastIndexOf(']')) {
+            return defaultPort;
+        }
+        return Integer.parseInt(authority.substring(colon + 1));
+    }
+
+    /**
+     * The origin-form target of an absolute URI: its raw path, "/" if it has none, and
+     * query, still percent-encoded.
+     */
+    public static String getOriginFormFromURI(String uri) {
+        int scheme = uri.indexOf("://");
+        int authority = scheme >= 0 ? scheme + 3 : 0;
+        int slash = uri.indexOf('/', authority);
+        int query = uri.indexOf('?', authority);
+        if (slash < 0 || (query >= 0 && query < slash)) {
+            return query >= 0 ? "/" + uri.substring(query) : "/";
+        }
+        return uri.substring(slash);
+    }
+
+    /**
+     * An origin-form request target with the dot segments of its path removed (RFC 3986
+     * section 5.2.4), the query kept as is and any fragment dropped.
+     *
+     * @return the normalized target, or null if it is not in origin form or its path holds
+     *         a backslash or an encoded '/', '.' or '\', which an origin may decode into
+     *         segments other than the ones the request was routed by
+     */
+    public static String normalizePath(String target) {
+        int fragment = target.indexOf('#');
+        if (fragment >= 0) {
+            target = target.substring(0, fragment);
+        }
+        int query = target.indexOf('?');
+        String path = query >= 0 ? target.substring(0, query) : target;
+        if (!path.startsWith("/") || path.indexOf('\\') >= 0) {
+            return null;
+        }
+        for (int percent = path.indexOf('%'); percent >= 0; percent = path.indexOf('%', percent + 1)) {
+            if (percent + 2 >= path.length()) {
+                return null;
+            }
+            String encoded = path.substring(percent + 1, percent + 3);
+            if ("2f".equalsIgnoreCase(encoded) || "2e".equalsIgnoreCase(encoded) || "5c".equalsIgnoreCase(encoded)) {
+                return null;
+            }
+        }
+        if (!path.contains("/.")) {
+            return target;
+        }
+
+        String[] segments = path.substring(1).split("/", -1);
+        Deque<String> kept = new ArrayDeque<>();
+        for (int i = 0; i < segments.length; i++) {
+            boolean last = i == segments.length - 1;
+            if (".".equals(segments[i]) || "..".equals(segments[i])) {
+                if ("..".equals(segments[i]) && !kept.isEmpty()) {
+                    kept.removeLast();
+                }
+                // a trailing dot segment still names a directory
+                if (last) {
+                    kept.addLast("");
+                }
+            } else {
+                kept.addLast(segments[i]);
+            }
+        }
+        String normalized = "/" + String.join("/", kept);
+        return query >= 0 ? normalized + target.substring(query) : normalized;
+    }
+
     public static String constructURI(String authority, String path) {
         if (authority == null) {
             return path != null ? path : "/";
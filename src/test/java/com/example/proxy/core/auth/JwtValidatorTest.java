@@ -0,0 +1,83 @@
+package com.example.proxy.core.auth;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Base64;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class JwtValidatorTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void keysReloadInTheBackground() throws Exception {
+        KeyPair first = rsaKeyPair();
+        KeyPair second = rsaKeyPair();
+        Path jwks = dir.resolve("jwks.json");
+        writeJwks(jwks, first, 1_000_000);
+
+        try (JwtValidator validator = new JwtValidator(jwks, null, null, 0, 100)) {
+            assertNotNull(validator.validate(token(first)));
+            assertNull(validator.validate(token(second)));
+            long generation = validator.keyGeneration();
+
+            writeJwks(jwks, second, 2_000_000);
+            // nothing but the reloader looks at the file
+            long deadline = System.currentTimeMillis() + 5000;
+            while (validator.keyGeneration() == generation && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
+            }
+            assertEquals(generation + 1, validator.keyGeneration());
+            assertNull(validator.validate(token(first)));
+            assertNotNull(validator.validate(token(second)));
+        }
+    }
+
+    private static KeyPair rsaKeyPair() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        return generator.generateKeyPair();
+    }
+
+    private static void writeJwks(Path file, KeyPair pair, long modifiedMillis) throws Exception {
+        RSAPublicKey key = (RSAPublicKey) pair.getPublic();
+        String jwks = "{\"keys\":[{\"kty\":\"RSA\",\"use\":\"sig\",\"n\":\"" + base64url(key.getModulus())
+            + "\",\"e\":\"" + base64url(key.getPublicExponent()) + "\"}]}";
+        Files.write(file, jwks.getBytes(StandardCharsets.UTF_8));
+        // a distinct mtime whatever the file system's timestamp resolution
+        Files.setLastModifiedTime(file, FileTime.fromMillis(modifiedMillis));
+    }
+
+    private static String base64url(BigInteger value) {
+        byte[] bytes = value.toByteArray();
+        int start = bytes[0] == 0 ? 1 : 0;
+        byte[] unsigned = new byte[bytes.length - start];
+        System.arraycopy(bytes, start, unsigned, 0, unsigned.length);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(unsigned);
+    }
+
+    private static String token(KeyPair pair) throws Exception {
+        Base64.Encoder base64 = Base64.getUrlEncoder().withoutPadding();
+        long exp = System.currentTimeMillis() / 1000 + 3600;
+        String signed = base64.encodeToString("{\"alg\":\"RS256\"}".getBytes(StandardCharsets.UTF_8)) + "."
+            + base64.encodeToString(("{\"sub\":\"alice\",\"exp\":" + exp + "}").getBytes(StandardCharsets.UTF_8));
+        Signature signer = Signature.getInstance("SHA256withRSA");
+        signer.initSign(pair.getPrivate());
+        signer.update(signed.getBytes(StandardCharsets.US_ASCII));
+        return signed + "." + base64.encodeToString(signer.sign());
+    }
+}
@@ -0,0 +1,52 @@
+package com.example.proxy.core.auth;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ProxyAuthenticatorTest {
+
+    @Test
+    void pendingChecksAreCappedPerClient(@TempDir Path dir) throws Exception {
+        Path users = dir.resolve("users");
+        Files.write(users, Collections.singletonList("alice:" + ProxyAuthenticator.hashPassword("secret".toCharArray())));
+        try (ProxyAuthenticator authenticator = new ProxyAuthenticator("test", users, Collections.emptyMap(), null, 60)) {
+            List<CompletableFuture<AuthenticatedUser>> flood = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                flood.add(authenticator.verify(basic("alice:guess" + i), "192.0.2.1"));
+            }
+            // a PBKDF2 check takes far longer than queueing five
+            ExecutionException refused = assertThrows(ExecutionException.class, () -> flood.get(4).get(5, TimeUnit.SECONDS));
+            assertInstanceOf(RejectedExecutionException.class, refused.getCause());
+
+            AuthenticatedUser alice = authenticator.verify(basic("alice:secret"), "192.0.2.2").get(5, TimeUnit.SECONDS);
+            assertEquals("alice", alice.getName());
+            for (int i = 0; i < 4; i++) {
+                assertNull(flood.get(i).get(5, TimeUnit.SECONDS));
+            }
+
+            // the flooding client's checks are done, so it may try again
+            assertNull(authenticator.verify(basic("alice:guess"), "192.0.2.1").get(5, TimeUnit.SECONDS));
+        }
+    }
+
+    private static String basic(String userPass) {
+        return "Basic " + Base64.getEncoder().encodeToString(userPass.getBytes(StandardCharsets.UTF_8));
+    }
+}
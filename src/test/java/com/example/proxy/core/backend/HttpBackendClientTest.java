@@ -0,0 +1,188 @@
+package com.example.proxy.core.backend;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.example.proxy.core.backend.breaker.CircuitBreaker;
+import com.example.proxy.core.backend.dns.BackendResolver;
+import com.example.proxy.core.backend.timeout.BackendTimeoutException;
+import com.example.proxy.core.backend.timeout.BackendTimeouts;
+import com.example.proxy.core.server.ForwardHttp1;
+import com.sun.net.httpserver.HttpServer;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.EventLoop;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.concurrent.Future;
+
+class HttpBackendClientTest {
+
+    private static final byte[] BODY = "hello".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * Resolves every name to the given addresses, in order.
+     */
+    private static final class FixedResolver extends BackendResolver {
+        private final List<InetSocketAddress> addresses;
+
+        FixedResolver(InetSocketAddress... addresses) {
+            super(null, 0, 0, 0, 0);
+            this.addresses = Arrays.asList(addresses);
+        }
+
+        @Override
+        public Future<List<InetSocketAddress>> resolveAll(EventLoop loop, String host, int port) {
+            return loop.newSucceededFuture(addresses);
+        }
+    }
+
+    /**
+     * Keeps the last outcome of a request.
+     */
+    private static final class Outcome implements BackendResponseCallback {
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile Object response;
+        volatile Throwable error;
+
+        @Override
+        public void onResponse(Object response) {
+            this.response = response;
+            if (response instanceof FullHttpResponse) {
+                this.response = ((FullHttpResponse) response).content().toString(StandardCharsets.US_ASCII);
+                ((FullHttpResponse) response).release();
+            }
+            done.countDown();
+        }
+
+        @Override
+        public void onError(Throwable cause) {
+            error = cause;
+            done.countDown();
+        }
+    }
+
+    private final NioEventLoopGroup group = new NioEventLoopGroup(1);
+    private final HashedWheelTimer timer = new HashedWheelTimer(10, TimeUnit.MILLISECONDS);
+    private HttpServer origin;
+    private FixedResolver resolver;
+    // set before a request to hold the response back
+    private volatile long originDelayMillis;
+
+    @BeforeEach
+    void startOrigin() throws IOException {
+        origin = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        origin.createContext("/", exchange -> {
+            try {
+                Thread.sleep(originDelayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.sendResponseHeaders(200, BODY.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(BODY);
+            }
+        });
+        origin.start();
+        // nothing listens on the first address, so the race falls back to the origin
+        resolver = new FixedResolver(new InetSocketAddress(InetAddress.getLoopbackAddress(), closedPort()),
+                                     origin.getAddress());
+    }
+
+    @AfterEach
+    void stop() {
+        origin.stop(0);
+        resolver.close();
+        timer.stop();
+        group.shutdownGracefully(0, 0, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void fallbackConnectionCarriesTheRequest() throws Exception {
+        originDelayMillis = 200;
+        Outcome outcome = send(new BackendTimeouts(timer, 2000, 2000, 2000, 5000));
+
+        assertTrue(outcome.done.await(5, TimeUnit.SECONDS));
+        assertEquals(null, outcome.error);
+        assertEquals("hello", outcome.response);
+    }
+
+    @Test
+    void fallbackConnectionKeepsItsDeadline() throws Exception {
+        originDelayMillis = 1000;
+        Outcome outcome = send(new BackendTimeouts(timer, 2000, 200, 2000, 5000));
+
+        assertTrue(outcome.done.await(5, TimeUnit.SECONDS));
+        assertInstanceOf(BackendTimeoutException.class, outcome.error);
+        assertEquals(BackendTimeouts.Phase.FIRST_BYTE, ((BackendTimeoutException) outcome.error).getPhase());
+    }
+
+    @Test
+    void closeDelimitedResponseIsNotADrop() throws Exception {
+        try (ServerSocket http10 = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            Thread server = new Thread(() -> {
+                try (Socket socket = http10.accept()) {
+                    socket.getInputStream().read(new byte[4096]);
+                    // no Content-Length: the body ends with the connection
+                    socket.getOutputStream().write("HTTP/1.0 200 OK\r\n\r\nhello".getBytes(StandardCharsets.US_ASCII));
+                } catch (IOException ignored) {
+                }
+            });
+            server.start();
+            // any failure at all would open it
+            CircuitBreaker breaker = new CircuitBreaker("http10", 10, 1, 0.01, 60_000, 1);
+            HttpBackendClient client = new HttpBackendClient(group, "none", "none").withCircuitBreaker(breaker);
+            Outcome outcome = new Outcome();
+            ForwardHttp1 request = new ForwardHttp1(Unpooled.EMPTY_BUFFER, "GET", "http://origin/", new HashMap<>(),
+                                                    "127.0.0.1");
+            client.forwardRequestHTTP(request, new BackendTarget("127.0.0.1", http10.getLocalPort(), "/", new HashMap<>()),
+                                      outcome);
+
+            assertTrue(outcome.done.await(5, TimeUnit.SECONDS));
+            assertEquals("hello", outcome.response);
+            server.join(5000);
+            Thread.sleep(100);
+            assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        }
+    }
+
+    private Outcome send(BackendTimeouts timeouts) throws Exception {
+        HttpBackendClient client = new HttpBackendClient(group, "none", "none")
+            .withResolver(resolver)
+            .withConnector(new HappyEyeballsConnector(250))
+            .withTimeouts(timeouts);
+        Outcome outcome = new Outcome();
+        ForwardHttp1 request = new ForwardHttp1(Unpooled.EMPTY_BUFFER, "GET", "http://origin/", new HashMap<>(),
+                                                "127.0.0.1");
+        CompletableFuture<Boolean> sent = client.forwardRequestHTTP(
+            request, new BackendTarget("origin", origin.getAddress().getPort(), "/", new HashMap<>()), outcome);
+        assertTrue(sent.get(5, TimeUnit.SECONDS));
+        return outcome;
+    }
+
+    private static int closedPort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            return socket.getLocalPort();
+        }
+    }
+}
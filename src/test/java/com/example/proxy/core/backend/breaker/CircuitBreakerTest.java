@@ -0,0 +1,112 @@
+package com.example.proxy.core.backend.breaker;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import org.junit.jupiter.api.Test;
+
+import com.example.proxy.core.backend.breaker.CircuitBreaker.State;
+
+class CircuitBreakerTest {
+
+    private static final long OPEN_MILLIS = 50;
+
+    @Test
+    void opensOnceMinRequestsAndFailureRatioAreReached() {
+        CircuitBreaker breaker = new CircuitBreaker("ratio", 10, 4, 0.5, 60_000, 1);
+        // the backend answering, even with an error, is not a failure
+        for (int i = 0; i < 10; i++) {
+            breaker.record(breaker.tryAcquire(), 500);
+        }
+        assertEquals(State.CLOSED, breaker.getState());
+
+        breaker = new CircuitBreaker("ratio", 10, 4, 0.5, 60_000, 1);
+        breaker.record(breaker.tryAcquire(), 503);
+        breaker.record(breaker.tryAcquire(), 502);
+        breaker.record(breaker.tryAcquire(), 0);
+        assertEquals(State.CLOSED, breaker.getState(), "below minRequests");
+
+        breaker = new CircuitBreaker("ratio", 10, 4, 0.5, 60_000, 1);
+        for (int i = 0; i < 3; i++) {
+            breaker.record(breaker.tryAcquire(), 200);
+        }
+        breaker.record(breaker.tryAcquire(), 504);
+        breaker.record(breaker.tryAcquire(), 504);
+        assertEquals(State.CLOSED, breaker.getState(), "2 of 5 failed");
+        breaker.record(breaker.tryAcquire(), 0);
+        assertEquals(State.OPEN, breaker.getState(), "3 of 6 failed");
+        assertEquals(CircuitBreaker.REJECTED, breaker.tryAcquire());
+    }
+
+    @Test
+    void halfOpensAfterOpenMillisWithLimitedProbes() throws InterruptedException {
+        CircuitBreaker breaker = opened(2);
+        assertEquals(CircuitBreaker.REJECTED, breaker.tryAcquire());
+
+        Thread.sleep(OPEN_MILLIS * 2);
+        long first = breaker.tryAcquire();
+        assertNotEquals(CircuitBreaker.REJECTED, first);
+        assertEquals(State.HALF_OPEN, breaker.getState());
+        long second = breaker.tryAcquire();
+        assertNotEquals(CircuitBreaker.REJECTED, second);
+        assertEquals(CircuitBreaker.REJECTED, breaker.tryAcquire(), "probe limit");
+
+        breaker.record(first, 200);
+        assertEquals(State.HALF_OPEN, breaker.getState());
+        breaker.record(second, 200);
+        assertEquals(State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    void failedProbeOpensAgain() throws InterruptedException {
+        CircuitBreaker breaker = opened(1);
+        Thread.sleep(OPEN_MILLIS * 2);
+        breaker.record(breaker.tryAcquire(), 503);
+        assertEquals(State.OPEN, breaker.getState());
+        assertEquals(CircuitBreaker.REJECTED, breaker.tryAcquire());
+    }
+
+    @Test
+    void staleTicketsAreIgnored() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker("stale", 10, 1, 0.5, OPEN_MILLIS, 2);
+        long inFlight = breaker.tryAcquire();
+        breaker.record(breaker.tryAcquire(), 0);
+        assertEquals(State.OPEN, breaker.getState());
+
+        Thread.sleep(OPEN_MILLIS * 2);
+        long probe = breaker.tryAcquire();
+        assertEquals(State.HALF_OPEN, breaker.getState());
+        // neither fails a probe nor counts as one
+        breaker.record(inFlight, 0);
+        assertEquals(State.HALF_OPEN, breaker.getState());
+        breaker.record(inFlight, 200);
+        breaker.record(probe, 200);
+        assertEquals(State.HALF_OPEN, breaker.getState());
+    }
+
+    @Test
+    void cancelReturnsTheProbeSlot() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker("cancel", 10, 1, 0.5, OPEN_MILLIS, 1);
+        long stale = breaker.tryAcquire();
+        breaker.record(breaker.tryAcquire(), 0);
+        Thread.sleep(OPEN_MILLIS * 2);
+        long probe = breaker.tryAcquire();
+        assertNotEquals(CircuitBreaker.REJECTED, probe);
+        assertEquals(CircuitBreaker.REJECTED, breaker.tryAcquire());
+
+        breaker.cancel(stale);
+        assertEquals(CircuitBreaker.REJECTED, breaker.tryAcquire(), "a stale ticket frees nothing");
+        breaker.cancel(probe);
+        long again = breaker.tryAcquire();
+        assertNotEquals(CircuitBreaker.REJECTED, again);
+        breaker.record(again, 200);
+        assertEquals(State.CLOSED, breaker.getState());
+    }
+
+    private static CircuitBreaker opened(int probes) {
+        CircuitBreaker breaker = new CircuitBreaker("test", 10, 1, 0.5, OPEN_MILLIS, probes);
+        breaker.record(breaker.tryAcquire(), 0);
+        assertEquals(State.OPEN, breaker.getState());
+        return breaker;
+    }
+}
@@ -0,0 +1,55 @@
+package com.example.proxy.core.cache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.HttpResponseStatus;
+
+class CacheEntryTest {
+
+    @Test
+    void releasedEntryHandsOutNothing() {
+        ByteBuf body = pooledBody("first response");
+        CacheEntry entry = new CacheEntry("key", HttpResponseStatus.OK, new DefaultHttpHeaders(), body, 0, 0);
+        entry.addVariant("gzip", pooledBody("gzip bytes"));
+        entry.release();
+        assertEquals(0, body.refCnt());
+
+        // the pool may hand the same buffer object out again, alive
+        ByteBuf reused = PooledByteBufAllocator.DEFAULT.directBuffer(16);
+        try {
+            assertNull(entry.retainedBody());
+            assertNull(entry.toEncodedResponse(0, true, "gzip"));
+            assertNull(entry.toResponse(0, true, null));
+        } finally {
+            reused.release();
+        }
+    }
+
+    @Test
+    void readerDuplicateOutlivesEviction() {
+        ByteBuf body = pooledBody("stored");
+        CacheEntry entry = new CacheEntry("key", HttpResponseStatus.OK, new DefaultHttpHeaders(), body, 0, 0);
+        ByteBuf read = entry.retainedBody();
+        assertNotNull(read);
+
+        entry.release();
+        assertEquals("stored", read.toString(StandardCharsets.US_ASCII));
+        read.release();
+        assertEquals(0, body.refCnt());
+    }
+
+    private static ByteBuf pooledBody(String text) {
+        ByteBuf buf = PooledByteBufAllocator.DEFAULT.directBuffer();
+        buf.writeCharSequence(text, StandardCharsets.US_ASCII);
+        return buf;
+    }
+}
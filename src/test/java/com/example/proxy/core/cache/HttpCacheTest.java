@@ -0,0 +1,122 @@
+package com.example.proxy.core.cache;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.example.proxy.core.server.ForwardHttp1;
+import com.example.proxy.core.stages.CompressionStage;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+
+class HttpCacheTest {
+
+    private static final String BODY = String.join("", Collections.nCopies(200, "compressible text "));
+
+    /**
+     * A gzip-only stage whose first encode waits for {@link #unblock}, holding the variant
+     * worker so its backlog can be filled.
+     */
+    private static final class BlockingEncoder extends CompressionStage {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch unblock = new CountDownLatch(1);
+        final AtomicInteger encoded = new AtomicInteger();
+
+        BlockingEncoder() {
+            super(Collections.singletonList("gzip"), DEFAULT_CONTENT_TYPES, 0, 6);
+        }
+
+        @Override
+        public ByteBuf encode(ByteBuf content, String encoding, ByteBufAllocator alloc) {
+            started.countDown();
+            try {
+                unblock.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            encoded.incrementAndGet();
+            return super.encode(content, encoding, alloc);
+        }
+    }
+
+    private HttpCache cache;
+
+    @AfterEach
+    void clear() {
+        if (cache != null) {
+            cache.clear();
+        }
+    }
+
+    @Test
+    void hitAfterFullVariantBacklogIsEncoded() throws Exception {
+        BlockingEncoder encoder = new BlockingEncoder();
+        cache = new HttpCache(1 << 20, 1 << 16).withVariants(encoder, 1);
+
+        ForwardHttp1 request = request("http://origin/page");
+        assertTrue(cache.store(request, response(), System.currentTimeMillis(), System.currentTimeMillis()));
+        // the stored entry is swapped for its deduplicated copy in the background
+        await(() -> cache.lookup(request) != null && cache.lookup(request).getDigest() != null);
+        CacheEntry entry = cache.lookup(request);
+
+        // one build holds the worker, 256 more fill its backlog
+        cache.offerVariants(filler(0));
+        assertTrue(encoder.started.await(5, TimeUnit.SECONDS));
+        for (int i = 1; i <= 256; i++) {
+            cache.offerVariants(filler(i));
+        }
+
+        cache.offerVariants(entry);
+        encoder.unblock.countDown();
+        await(() -> encoder.encoded.get() == 257);
+        assertFalse(entry.hasVariant("gzip"));
+
+        cache.offerVariants(entry);
+        await(() -> entry.hasVariant("gzip"));
+        assertNotNull(entry.toEncodedResponse(System.currentTimeMillis(), false, "gzip"));
+    }
+
+    private static ForwardHttp1 request(String uri) {
+        return new ForwardHttp1(Unpooled.EMPTY_BUFFER, "GET", uri, new HashMap<>(), "127.0.0.1");
+    }
+
+    private static FullHttpResponse response() {
+        FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK,
+                                                                Unpooled.copiedBuffer(BODY, StandardCharsets.UTF_8));
+        response.headers().set(HttpHeaderNames.CACHE_CONTROL, "max-age=60");
+        response.headers().set(HttpHeaderNames.CONTENT_TYPE, "text/plain");
+        return response;
+    }
+
+    private static CacheEntry filler(int i) {
+        return new CacheEntry("filler-" + i, HttpResponseStatus.OK, new DefaultHttpHeaders(),
+                              Unpooled.copiedBuffer(BODY, StandardCharsets.UTF_8), 0, 0);
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "timed out");
+            Thread.sleep(10);
+        }
+    }
+}
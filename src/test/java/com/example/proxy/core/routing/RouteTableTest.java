@@ -0,0 +1,153 @@
+package com.example.proxy.core.routing;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import com.example.proxy.config.ProxyConfig;
+import com.example.proxy.core.upstream.UpstreamPool;
+import com.example.proxy.core.upstream.Upstreams;
+import com.example.proxy.utils.HttpUtil;
+
+class RouteTableTest {
+
+    private static final Map<String, UpstreamPool> POOLS = pools("any", "site", "wild", "deep", "api", "v1", "v2",
+                                                                 "app", "a", "public", "first", "second");
+
+    @Test
+    void exactHostBeatsWildcardBeatsAnyHost() {
+        RouteTable table = compile(route("*", "/", "any"),
+                                   route("*.example.com", "/", "wild"),
+                                   route("*.deep.example.com", "/", "deep"),
+                                   route("www.example.com", "/", "site"));
+
+        assertEquals("site", upstream(table, "www.example.com", "/"));
+        assertEquals("wild", upstream(table, "img.example.com", "/"));
+        assertEquals("deep", upstream(table, "a.deep.example.com", "/"));
+        // a wildcard covers subdomains only
+        assertEquals("wild", upstream(table, "deep.example.com", "/"));
+        assertEquals("any", upstream(table, "example.com", "/"));
+        assertEquals("any", upstream(table, null, "/"));
+    }
+
+    @Test
+    void hostIsMatchedWithoutPortCaseOrTrailingDot() {
+        RouteTable table = compile(route("*", "/", "any"), route("www.example.com", "/", "site"));
+
+        assertEquals("site", upstream(table, "WWW.Example.COM:8080", "/"));
+        assertEquals("site", upstream(table, "www.example.com.", "/"));
+        assertEquals("site", upstream(table, "www.example.com.:443", "/"));
+        assertEquals("any", upstream(table, "[::1]:8080", "/"));
+    }
+
+    @Test
+    void longestPrefixWinsAndHostsFallBack() {
+        RouteTable table = compile(route("*", "/api", "any"),
+                                   route("www.example.com", "/app", "app"),
+                                   route("www.example.com", "/api/v1", "v1"));
+
+        assertEquals("v1", upstream(table, "www.example.com", "/api/v1/users"));
+        // the exact host has no route for this path, so any host's applies
+        assertEquals("any", upstream(table, "www.example.com", "/api/v2"));
+        assertNull(table.match("www.example.com", "/other"));
+    }
+
+    @Test
+    void edgesSplitWhereNewPrefixesLeaveThem() {
+        RouteTable table = compile(route(null, "/api/v1", "v1"),
+                                   route(null, "/api/v2", "v2"),
+                                   route(null, "/app", "app"),
+                                   route(null, "/a", "a"),
+                                   route(null, "/api", "api"));
+
+        assertEquals("v1", upstream(table, null, "/api/v1/x"));
+        assertEquals("v2", upstream(table, null, "/api/v2"));
+        assertEquals("api", upstream(table, null, "/api/v3"));
+        assertEquals("app", upstream(table, null, "/apple"));
+        assertEquals("a", upstream(table, null, "/ap"));
+        assertNull(table.match(null, "/b"));
+        assertEquals(5, table.size());
+    }
+
+    @Test
+    void firstOfTwoEqualRoutesWins() {
+        RouteTable table = compile(route("www.example.com", "/x", "first"), route("www.example.com", "/x", "second"));
+
+        assertEquals("first", upstream(table, "www.example.com", "/x"));
+    }
+
+    @Test
+    void routeSkippingAGuardMatchesWholeSegmentsOnly() {
+        RouteTable table = compile(route(null, "/", "any"), route(null, "/public", "public").bypassing("auth"));
+
+        assertEquals("public", upstream(table, null, "/public"));
+        assertEquals("public", upstream(table, null, "/public/page"));
+        assertEquals("public", upstream(table, null, "/public?q=1"));
+        assertEquals("any", upstream(table, null, "/publicity"));
+        assertEquals("any", upstream(table, null, "/public-admin"));
+    }
+
+    @Test
+    void normalizedPathsCannotClimbOutOfARoute() {
+        RouteTable table = compile(route(null, "/admin", "any"), route(null, "/public/", "public").bypassing("auth"));
+
+        assertEquals("/admin", HttpUtil.normalizePath("/public/../admin"));
+        assertEquals("any", upstream(table, null, HttpUtil.normalizePath("/public/../admin")));
+        assertEquals("any", upstream(table, null, HttpUtil.normalizePath("/public/./../admin/")));
+        assertEquals("public", upstream(table, null, HttpUtil.normalizePath("/public/a/../b")));
+
+        assertNull(HttpUtil.normalizePath("/public%2F..%2Fadmin"));
+        assertNull(HttpUtil.normalizePath("/public/%2e%2e/admin"));
+        assertNull(HttpUtil.normalizePath("/public/..%5cadmin"));
+        assertNull(HttpUtil.normalizePath("/public\\..\\admin"));
+        assertNull(HttpUtil.normalizePath("/public/%2"));
+        assertNull(HttpUtil.normalizePath("public/page"));
+    }
+
+    @Test
+    void normalizationKeepsQueryAndDirectories() {
+        assertEquals("/a/b?x=/../y", HttpUtil.normalizePath("/a/./b?x=/../y"));
+        assertEquals("/a/", HttpUtil.normalizePath("/a/b/.."));
+        assertEquals("/a/", HttpUtil.normalizePath("/a/."));
+        assertEquals("/x", HttpUtil.normalizePath("/../../x"));
+        assertEquals("/a//b", HttpUtil.normalizePath("/a//b"));
+        assertEquals("/a/.b/c..", HttpUtil.normalizePath("/a/.b/c.."));
+        assertEquals("/p%20q", HttpUtil.normalizePath("/p%20q#frag"));
+    }
+
+    @Test
+    void undefinedUpstreamAndUnsupportedHostsAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> compile(route(null, "/", "missing")));
+        assertThrows(IllegalArgumentException.class, () -> compile(route("a.*.com", "/", "any")));
+        assertThrows(IllegalArgumentException.class, () -> compile(route(null, "/", "any").bypassing("nope")));
+    }
+
+    private static ProxyConfig.Route route(String host, String prefix, String upstream) {
+        return new ProxyConfig.Route(host, prefix, upstream);
+    }
+
+    private static RouteTable compile(ProxyConfig.Route... routes) {
+        return RouteTable.compile(Arrays.asList(routes), POOLS, null);
+    }
+
+    private static String upstream(RouteTable table, String host, String path) {
+        Route route = table.match(host, path);
+        return route != null ? route.getPool().getName() : null;
+    }
+
+    private static Map<String, UpstreamPool> pools(String... names) {
+        ProxyConfig config = new ProxyConfig("HTTP/1.1");
+        List<String> endpoints = Collections.singletonList("127.0.0.1:8080");
+        for (String name : names) {
+            config.addUpstream(name, "round-robin", endpoints);
+        }
+        return new Upstreams(config, null).getPools();
+    }
+}
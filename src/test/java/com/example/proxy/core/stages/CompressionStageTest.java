@@ -0,0 +1,81 @@
+package com.example.proxy.core.stages;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.jupiter.api.Test;
+
+import com.aayushatharva.brotli4j.decoder.Decoder;
+import com.aayushatharva.brotli4j.decoder.DecoderJNI;
+import com.aayushatharva.brotli4j.decoder.DirectDecompress;
+import com.github.luben.zstd.Zstd;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpResponseStatus;
+
+class CompressionStageTest {
+
+    private static final byte[] BODY = String.join("", Collections.nCopies(200, "compressible text "))
+        .getBytes(StandardCharsets.US_ASCII);
+
+    private final CompressionStage stage = new CompressionStage(
+        Arrays.asList("zstd", "br", "gzip", "deflate"), CompressionStage.DEFAULT_CONTENT_TYPES, 0, 6);
+
+    @Test
+    void nativeCodingsAreOffered() {
+        assertEquals(Arrays.asList("zstd", "br", "gzip", "deflate"), stage.getEncodings());
+    }
+
+    @Test
+    void negotiatesByQualityThenPreference() {
+        HttpHeaders headers = new DefaultHttpHeaders().set(HttpHeaderNames.CONTENT_TYPE, "text/html");
+        assertEquals("zstd", stage.selectEncoding("gzip, br, zstd", HttpResponseStatus.OK, headers, BODY.length));
+        assertEquals("br", stage.selectEncoding("gzip;q=0.5, br", HttpResponseStatus.OK, headers, BODY.length));
+        assertEquals("br", stage.selectEncoding("zstd;q=0, *", HttpResponseStatus.OK, headers, BODY.length));
+        assertNull(stage.selectEncoding("compress", HttpResponseStatus.OK, headers, BODY.length));
+    }
+
+    @Test
+    void brotliRoundTrips() throws Exception {
+        // a second body on the same thread must not depend on the first
+        for (int i = 0; i < 2; i++) {
+            byte[] encoded = encode("br");
+            DirectDecompress decoded = Decoder.decompress(encoded);
+            assertEquals(DecoderJNI.Status.DONE, decoded.getResultStatus());
+            assertArrayEquals(BODY, decoded.getDecompressedData());
+        }
+    }
+
+    @Test
+    void zstdRoundTrips() {
+        for (int i = 0; i < 2; i++) {
+            byte[] encoded = encode("zstd");
+            assertArrayEquals(BODY, Zstd.decompress(encoded, BODY.length));
+        }
+    }
+
+    private byte[] encode(String encoding) {
+        ByteBuf content = Unpooled.directBuffer().writeBytes(BODY);
+        ByteBuf encoded = stage.encode(content, encoding, ByteBufAllocator.DEFAULT);
+        try {
+            assertEquals(BODY.length, content.readableBytes());
+            assertTrue(encoded.readableBytes() < BODY.length);
+            return ByteBufUtil.getBytes(encoded);
+        } finally {
+            encoded.release();
+            content.release();
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.example.proxy.core.upstream;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import com.example.proxy.core.backend.dns.BackendResolver;
+import com.sun.net.httpserver.HttpServer;
+
+import io.netty.channel.EventLoop;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.util.concurrent.Future;
+
+class HealthCheckerTest {
+
+    @Test
+    void endpointNamesGoThroughTheBackendResolver() throws Exception {
+        CountDownLatch checked = new CountDownLatch(1);
+        HttpServer origin = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        origin.createContext("/healthz", exchange -> {
+            exchange.sendResponseHeaders(204, -1);
+            exchange.close();
+            checked.countDown();
+        });
+        origin.start();
+        CountDownLatch resolved = new CountDownLatch(1);
+        // a reserved name the system resolver cannot answer
+        BackendResolver resolver = new BackendResolver(null, 0, 0, 0, 0) {
+            @Override
+            public Future<List<InetSocketAddress>> resolveAll(EventLoop loop, String host, int port) {
+                resolved.countDown();
+                return loop.newSucceededFuture(Collections.singletonList(
+                    new InetSocketAddress(InetAddress.getLoopbackAddress(), port)));
+            }
+        };
+        NioEventLoopGroup group = new NioEventLoopGroup(1);
+        HealthChecker checker = new HealthChecker("/healthz", 10, 1000, 1, 1);
+        try {
+            Endpoint endpoint = Endpoint.parse("backend.invalid:" + origin.getAddress().getPort());
+            UpstreamPool pool = new UpstreamPool("pool", Collections.singletonList(endpoint),
+                                                 LoadBalancer.forName("round-robin"), null);
+            checker.start(group, Collections.singletonList(pool), resolver);
+
+            assertTrue(resolved.await(5, TimeUnit.SECONDS));
+            assertTrue(checked.await(5, TimeUnit.SECONDS));
+        } finally {
+            checker.close();
+            group.shutdownGracefully(0, 0, TimeUnit.SECONDS);
+            resolver.close();
+            origin.stop(0);
+        }
+    }
+}
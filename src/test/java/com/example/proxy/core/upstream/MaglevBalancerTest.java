@@ -0,0 +1,107 @@
+package com.example.proxy.core.upstream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import com.example.proxy.core.server.ForwardHttp1;
+
+import io.netty.buffer.Unpooled;
+
+class MaglevBalancerTest {
+
+    private static final int ENDPOINTS = 10;
+
+    @Test
+    void everyEndpointGetsAnEqualShare() {
+        Endpoint[] endpoints = endpoints(ENDPOINTS);
+        int size = MaglevBalancer.tableSize(ENDPOINTS);
+        Map<Endpoint, Integer> shares = shares(MaglevBalancer.populate(endpoints, size));
+
+        assertEquals(ENDPOINTS, shares.size());
+        int min = shares.values().stream().min(Integer::compare).get();
+        int max = shares.values().stream().max(Integer::compare).get();
+        assertTrue(max - min <= 1, "shares " + shares.values());
+    }
+
+    @Test
+    void removingAnEndpointMovesLittleBesidesItsShare() {
+        Endpoint[] endpoints = endpoints(ENDPOINTS);
+        int size = MaglevBalancer.tableSize(ENDPOINTS);
+        Endpoint[] before = MaglevBalancer.populate(endpoints, size);
+
+        for (int removed = 0; removed < ENDPOINTS; removed++) {
+            Endpoint gone = endpoints[removed];
+            Endpoint[] after = MaglevBalancer.populate(without(endpoints, gone), size);
+
+            int moved = 0;
+            for (int slot = 0; slot < size; slot++) {
+                assertNotSame(gone, after[slot]);
+                if (before[slot] != gone && before[slot] != after[slot]) {
+                    moved++;
+                }
+            }
+            assertTrue(moved < size / 100, "removing " + gone + " moved " + moved + " of " + size + " slots");
+
+            Map<Endpoint, Integer> shares = shares(after);
+            int min = shares.values().stream().min(Integer::compare).get();
+            int max = shares.values().stream().max(Integer::compare).get();
+            assertTrue(max - min <= 1, "shares " + shares.values());
+        }
+    }
+
+    @Test
+    void retryFromASubsetTakesTheKeysNextChoice() {
+        Endpoint[] endpoints = endpoints(ENDPOINTS);
+        MaglevBalancer balancer = MaglevBalancer.forKey("url");
+        balancer.update(endpoints);
+
+        for (int i = 0; i < 100; i++) {
+            ForwardHttp1 request = new ForwardHttp1(Unpooled.EMPTY_BUFFER, "GET", "http://origin/item/" + i,
+                                                    new HashMap<>(), "127.0.0.1");
+            Endpoint first = balancer.pick(endpoints, request);
+            assertSame(first, balancer.pick(endpoints, request));
+
+            Endpoint[] remaining = without(endpoints, first);
+            Endpoint second = balancer.pick(remaining, request);
+            assertNotSame(first, second);
+            // the key's choices form one order: leaving out a later one changes nothing
+            for (Endpoint other : remaining) {
+                if (other != second) {
+                    assertSame(second, balancer.pick(without(remaining, other), request));
+                }
+            }
+            Endpoint third = balancer.pick(without(remaining, second), request);
+            assertNotSame(first, third);
+            assertNotSame(second, third);
+        }
+    }
+
+    private static Endpoint[] endpoints(int n) {
+        Endpoint[] endpoints = new Endpoint[n];
+        for (int i = 0; i < n; i++) {
+            endpoints[i] = Endpoint.parse("10.0.0." + (i + 1) + ":8080");
+        }
+        return endpoints;
+    }
+
+    private static Endpoint[] without(Endpoint[] endpoints, Endpoint removed) {
+        return Arrays.stream(endpoints).filter(endpoint -> endpoint != removed).toArray(Endpoint[]::new);
+    }
+
+    private static Map<Endpoint, Integer> shares(Endpoint[] slots) {
+        Map<Endpoint, Integer> shares = new IdentityHashMap<>();
+        for (Endpoint endpoint : slots) {
+            shares.merge(endpoint, 1, Integer::sum);
+        }
+        return shares;
+    }
+}
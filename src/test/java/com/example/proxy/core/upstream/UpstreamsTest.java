@@ -0,0 +1,39 @@
+package com.example.proxy.core.upstream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.jupiter.api.Test;
+
+import com.example.proxy.config.ProxyConfig;
+import com.example.proxy.core.routing.Route;
+
+class UpstreamsTest {
+
+    @Test
+    void reloadSwapsTheWholeTableAndKeepsItOnError() {
+        ProxyConfig config = new ProxyConfig("HTTP/1.1")
+            .addUpstream("old", "round-robin", Collections.singletonList("127.0.0.1:8081"))
+            .addUpstream("new", "round-robin", Collections.singletonList("127.0.0.1:8082"))
+            .addRoute("www.example.com", "/", "old")
+            .addRoute(null, "/static", "old");
+        Upstreams upstreams = new Upstreams(config, null);
+        Route before = upstreams.route("www.example.com", "/page");
+        assertEquals("old", before.getPool().getName());
+
+        upstreams.reloadRoutes(Collections.singletonList(new ProxyConfig.Route("www.example.com", "/", "new")));
+        assertEquals("new", upstreams.route("www.example.com", "/page").getPool().getName());
+        // routes not in the reloaded set are gone, and the pools are the same objects
+        assertNull(upstreams.route("other.example.com", "/static"));
+        assertSame(before.getPool(), upstreams.getPools().get("old"));
+
+        assertThrows(IllegalArgumentException.class, () -> upstreams.reloadRoutes(Arrays.asList(
+            new ProxyConfig.Route("www.example.com", "/", "old"), new ProxyConfig.Route(null, "/", "missing"))));
+        assertEquals("new", upstreams.route("www.example.com", "/page").getPool().getName());
+    }
+}